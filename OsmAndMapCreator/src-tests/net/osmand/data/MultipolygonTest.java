@@ -2,6 +2,10 @@ package net.osmand.data;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 
 import net.osmand.osm.edit.Node;
 import net.osmand.osm.edit.Way;
@@ -235,5 +239,27 @@ public class MultipolygonTest {
 		assertTrue(testee.hasOpenedPolygons());
 	}
 
-
+	@Test
+	public void test_manyShuffledWaysToOneRing()
+	{
+		// ring of 5000 ways with 3 nodes, ways come in random order and every third is reversed
+		int ways = 5000;
+		List<Way> parts = new ArrayList<Way>();
+		for (int i = 0; i < ways; i++) {
+			long first = 2 * i;
+			long last = 2 * ((i + 1) % ways);
+			Way w = i % 3 == 0 ? polygon(new Node(i, 1, last), new Node(i, 0.5, first + 1), new Node(i, 0, first))
+					: polygon(new Node(i, 0, first), new Node(i, 0.5, first + 1), new Node(i, 1, last));
+			parts.add(w);
+		}
+		Collections.shuffle(parts, new Random(7));
+		MultipolygonBuilder bld = new MultipolygonBuilder();
+		for (Way w : parts) {
+			bld.addOuterWay(w);
+		}
+		List<Ring> rings = bld.combineToRings(bld.getOuterWays());
+		assertEquals(1, rings.size());
+		assertTrue(rings.get(0).isClosed());
+		assertEquals(2 * ways + 1, rings.get(0).getBorder().size());
+	}
 }
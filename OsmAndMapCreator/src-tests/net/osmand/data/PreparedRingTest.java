@@ -0,0 +1,75 @@
+package net.osmand.data;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.osmand.osm.edit.Node;
+import net.osmand.osm.edit.OsmMapUtils;
+
+import org.junit.Test;
+
+public class PreparedRingTest {
+
+	private List<Node> star(Random rnd, int points, boolean closed) {
+		List<Node> nodes = new ArrayList<Node>();
+		for (int i = 0; i < points; i++) {
+			double angle = 2 * Math.PI * i / points;
+			double r = 0.2 + rnd.nextDouble();
+			nodes.add(new Node(50 + r * Math.sin(angle), 10 + r * Math.cos(angle), i + 1));
+		}
+		if (closed) {
+			nodes.add(nodes.get(0));
+		}
+		return nodes;
+	}
+
+	private int countIntersections(List<Node> polyNodes, double latitude, double longitude) {
+		int intersections = 0;
+		for (int i = 0; i < polyNodes.size() - 1; i++) {
+			if (OsmMapUtils.ray_intersect_lon(polyNodes.get(i), polyNodes.get(i + 1), latitude, longitude) != -360.0d) {
+				intersections++;
+			}
+		}
+		if (OsmMapUtils.ray_intersect_lon(polyNodes.get(0), polyNodes.get(polyNodes.size() - 1), latitude, longitude) != -360.0d) {
+			intersections++;
+		}
+		return intersections;
+	}
+
+	private void checkSameAsNodeScan(List<Node> nodes, Random rnd) {
+		PreparedRing ring = new PreparedRing(nodes);
+		for (int i = 0; i < 5000; i++) {
+			double lat = 48.5 + 3 * rnd.nextDouble();
+			double lon = 8.5 + 3 * rnd.nextDouble();
+			assertEquals(countIntersections(nodes, lat, lon) % 2 == 1, ring.containsPoint(lat, lon));
+		}
+		// points exactly on the vertices
+		for (Node n : nodes) {
+			assertEquals(countIntersections(nodes, n.getLatitude(), n.getLongitude()) % 2 == 1,
+					ring.containsPoint(n.getLatitude(), n.getLongitude()));
+		}
+	}
+
+	@Test
+	public void test_closedRing() {
+		Random rnd = new Random(7);
+		checkSameAsNodeScan(star(rnd, 1000, true), rnd);
+	}
+
+	@Test
+	public void test_notClosedRing() {
+		Random rnd = new Random(11);
+		checkSameAsNodeScan(star(rnd, 300, false), rnd);
+	}
+
+	@Test
+	public void test_smallRings() {
+		Random rnd = new Random(13);
+		for (int points = 3; points < 10; points++) {
+			checkSameAsNodeScan(star(rnd, points, true), rnd);
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package net.osmand.data.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import net.osmand.binary.OsmandOdb.OsmAndStructure;
+
+import org.junit.Test;
+
+import com.google.protobuf.WireFormat;
+
+public class BinaryIndexSummaryTest {
+
+	private static void writeVarint(ByteArrayOutputStream out, long v) {
+		while ((v & ~0x7fl) != 0) {
+			out.write((int) ((v & 0x7f) | 0x80));
+			v >>>= 7;
+		}
+		out.write((int) v);
+	}
+
+	private static void writeValue(ByteArrayOutputStream out, int field, long v) {
+		writeVarint(out, (field << 3) | WireFormat.WIRETYPE_VARINT);
+		writeVarint(out, v);
+	}
+
+	private static void writeSection(ByteArrayOutputStream out, int field, int length) {
+		writeVarint(out, (field << 3) | WireFormat.WIRETYPE_FIXED32_LENGTH_DELIMITED);
+		out.write(length >>> 24);
+		out.write(length >>> 16);
+		out.write(length >>> 8);
+		out.write(length);
+		for (int i = 0; i < length; i++) {
+			// content looks like tags, it should be skipped
+			out.write((OsmAndStructure.VERSIONCONFIRM_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_VARINT);
+		}
+	}
+
+	private static byte[] createIndex(boolean complete) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeValue(out, OsmAndStructure.VERSION_FIELD_NUMBER, 2);
+		writeValue(out, OsmAndStructure.DATECREATED_FIELD_NUMBER, 1388534400000l);
+		writeSection(out, OsmAndStructure.ROUTINGINDEX_FIELD_NUMBER, 100000);
+		writeSection(out, OsmAndStructure.POIINDEX_FIELD_NUMBER, 0);
+		writeSection(out, OsmAndStructure.ADDRESSINDEX_FIELD_NUMBER, 300);
+		if (complete) {
+			writeValue(out, OsmAndStructure.VERSIONCONFIRM_FIELD_NUMBER, 2);
+		}
+		return out.toByteArray();
+	}
+
+	private static void checkSummary(BinaryIndexSummary s) {
+		assertEquals(2, s.getVersion());
+		assertEquals(1388534400000l, s.getDateCreated());
+		assertTrue(s.isHeaderRead());
+		assertTrue(s.containsRouteData());
+		assertTrue(s.containsPoiData());
+		assertTrue(s.containsAddressData());
+		assertFalse(s.containsMapData());
+		assertFalse(s.hasTransportData());
+	}
+
+	@Test
+	public void test_updateByPieces() {
+		byte[] index = createIndex(true);
+		// every split point between buffers
+		for (int piece = 1; piece < 20; piece++) {
+			BinaryIndexSummary s = new BinaryIndexSummary();
+			for (int i = 0; i < index.length; i += piece) {
+				s.update(index, i, Math.min(piece, index.length - i));
+			}
+			checkSummary(s);
+			assertTrue(s.isComplete());
+		}
+	}
+
+	@Test
+	public void test_scan() throws IOException {
+		BinaryIndexSummary s = new BinaryIndexSummary();
+		s.scan(new ByteArrayInputStream(createIndex(true)));
+		checkSummary(s);
+		assertTrue(s.isComplete());
+	}
+
+	@Test
+	public void test_truncatedIndexIsNotComplete() throws IOException {
+		BinaryIndexSummary s = new BinaryIndexSummary();
+		s.scan(new ByteArrayInputStream(createIndex(false)));
+		checkSummary(s);
+		assertFalse(s.isComplete());
+		byte[] index = createIndex(true);
+		s = new BinaryIndexSummary();
+		s.update(index, 0, index.length - 200);
+		assertFalse(s.isComplete());
+	}
+}
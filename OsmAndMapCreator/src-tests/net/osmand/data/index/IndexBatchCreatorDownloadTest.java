@@ -0,0 +1,243 @@
+package net.osmand.data.index;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.osmand.util.Algorithms;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class IndexBatchCreatorDownloadTest {
+
+	private HttpServer server;
+	private File dir;
+	private byte[] content;
+	private boolean supportRanges = true;
+	private String etag = "\"v1\"";
+	private List<String> requestedRanges = new ArrayList<String>();
+
+	@Before
+	public void setUp() throws IOException {
+		content = new byte[100000];
+		new Random(7).nextBytes(content);
+		dir = File.createTempFile("download", "test");
+		dir.delete();
+		dir.mkdirs();
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String range = exchange.getRequestHeaders().getFirst("Range");
+				String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+				requestedRanges.add(range);
+				exchange.getResponseHeaders().add("ETag", etag);
+				int start = 0;
+				if (range != null && supportRanges && (ifRange == null || ifRange.equals(etag))) {
+					start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+					if (start >= content.length) {
+						exchange.getResponseHeaders().add("Content-Range", "bytes */" + content.length);
+						exchange.sendResponseHeaders(416, -1);
+						exchange.close();
+						return;
+					}
+					exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + (content.length - 1) + "/"
+							+ content.length);
+					exchange.sendResponseHeaders(206, content.length - start);
+				} else {
+					exchange.sendResponseHeaders(200, content.length);
+				}
+				OutputStream os = exchange.getResponseBody();
+				os.write(content, start, content.length - start);
+				os.close();
+			}
+		});
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	private String getUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/test.osm.bz2";
+	}
+
+	private IndexBatchCreator createCreator() throws IOException {
+		IndexBatchCreator creator = new IndexBatchCreator();
+		creator.osmDirFiles = dir;
+		creator.downloadManifest = new IndexBatchCreator.DownloadManifest(dir);
+		return creator;
+	}
+
+	private byte[] read(File f) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		FileInputStream fis = new FileInputStream(f);
+		try {
+			Algorithms.streamCopy(fis, out);
+		} finally {
+			fis.close();
+		}
+		return out.toByteArray();
+	}
+
+	private void writePart(int length) throws IOException {
+		FileOutputStream fous = new FileOutputStream(new File(dir, "Test.osm.bz2.part"));
+		fous.write(content, 0, length);
+		fous.close();
+	}
+
+	@Test
+	public void test_download() throws IOException {
+		File f = createCreator().downloadFile(getUrl(), "Test");
+		assertArrayEquals(content, read(f));
+		assertFalse(new File(dir, "Test.osm.bz2.part").exists());
+		assertTrue(new IndexBatchCreator.DownloadManifest(dir).isFinished("Test.osm.bz2", getUrl()));
+	}
+
+	@Test
+	public void test_resumeInterruptedDownload() throws IOException {
+		createCreator().downloadManifest.started("Test.osm.bz2", getUrl(), etag);
+		writePart(30000);
+		File f = createCreator().downloadFile(getUrl(), "Test");
+		assertEquals("bytes=30000-", requestedRanges.get(0));
+		assertArrayEquals(content, read(f));
+	}
+
+	@Test
+	public void test_serverIgnoresRange() throws IOException {
+		supportRanges = false;
+		createCreator().downloadManifest.started("Test.osm.bz2", getUrl(), etag);
+		writePart(30000);
+		File f = createCreator().downloadFile(getUrl(), "Test");
+		assertArrayEquals(content, read(f));
+	}
+
+	@Test
+	public void test_partOfOtherUrlIsNotResumed() throws IOException {
+		createCreator().downloadManifest.started("Test.osm.bz2", getUrl() + "?old", etag);
+		writePart(30000);
+		File f = createCreator().downloadFile(getUrl(), "Test");
+		assertEquals(null, requestedRanges.get(0));
+		assertArrayEquals(content, read(f));
+	}
+
+	@Test
+	public void test_changedContentIsDownloadedAgain() throws IOException {
+		createCreator().downloadManifest.started("Test.osm.bz2", getUrl(), etag);
+		writePart(30000);
+		new Random(8).nextBytes(content);
+		etag = "\"v2\"";
+		File f = createCreator().downloadFile(getUrl(), "Test");
+		assertEquals("bytes=30000-", requestedRanges.get(0));
+		assertArrayEquals(content, read(f));
+		assertEquals(etag, new IndexBatchCreator.DownloadManifest(dir).getValidator("Test.osm.bz2"));
+	}
+
+	@Test
+	public void test_partWithoutValidatorIsNotResumed() throws IOException {
+		createCreator().downloadManifest.started("Test.osm.bz2", getUrl(), null);
+		writePart(30000);
+		File f = createCreator().downloadFile(getUrl(), "Test");
+		assertEquals(null, requestedRanges.get(0));
+		assertArrayEquals(content, read(f));
+	}
+
+	@Test
+	public void test_completePartIsFinished() throws IOException {
+		createCreator().downloadManifest.started("Test.osm.bz2", getUrl(), etag);
+		writePart(content.length);
+		File f = createCreator().downloadFile(getUrl(), "Test");
+		assertEquals(1, requestedRanges.size());
+		assertArrayEquals(content, read(f));
+		assertTrue(new IndexBatchCreator.DownloadManifest(dir).isFinished("Test.osm.bz2", getUrl()));
+	}
+
+	@Test
+	public void test_tooLongPartIsDownloadedAgain() throws IOException {
+		createCreator().downloadManifest.started("Test.osm.bz2", getUrl(), etag);
+		FileOutputStream fous = new FileOutputStream(new File(dir, "Test.osm.bz2.part"));
+		fous.write(content);
+		fous.write(content, 0, 10);
+		fous.close();
+		File f = createCreator().downloadFile(getUrl(), "Test");
+		assertEquals(2, requestedRanges.size());
+		assertEquals(null, requestedRanges.get(1));
+		assertArrayEquals(content, read(f));
+	}
+
+	@Test
+	public void test_downloadWaitsForReservedBytes() throws InterruptedException {
+		final IndexBatchCreator.DownloadLimit limit = new IndexBatchCreator.DownloadLimit(100);
+		limit.reserve(60);
+		// doesn't fit while 60 bytes are reserved
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				try {
+					limit.reserve(50);
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		};
+		t.start();
+		t.join(200);
+		assertTrue(t.isAlive());
+		assertEquals(60, limit.getReserved());
+		limit.update(60, 40);
+		t.join(5000);
+		assertFalse(t.isAlive());
+		assertEquals(90, limit.getReserved());
+	}
+
+	@Test
+	public void test_finishedDownloadIsReused() throws IOException {
+		IndexBatchCreator creator = createCreator();
+		creator.downloadFile(getUrl(), "Test");
+		File f = createCreator().downloadFile(getUrl(), "Test");
+		assertEquals(1, requestedRanges.size());
+		assertArrayEquals(content, read(f));
+	}
+
+	@Test
+	public void test_partialDownloadIsKeptAfterBatch() throws IOException {
+		IndexBatchCreator.DownloadManifest manifest = new IndexBatchCreator.DownloadManifest(dir);
+		manifest.started("Test.osm.bz2", getUrl(), etag);
+		manifest.started("Done.osm.bz2", getUrl(), etag);
+		manifest.finished("Done.osm.bz2");
+		manifest.removeFinished();
+		manifest = new IndexBatchCreator.DownloadManifest(dir);
+		assertTrue(manifest.canResume("Test.osm.bz2", getUrl()));
+		assertEquals(etag, manifest.getValidator("Test.osm.bz2"));
+		assertFalse(manifest.isFinished("Done.osm.bz2", getUrl()));
+		assertFalse(manifest.canResume("Done.osm.bz2", getUrl()));
+
+		manifest.finished("Test.osm.bz2");
+		manifest.removeFinished();
+		assertFalse(new File(dir, IndexBatchCreator.DownloadManifest.FILE_NAME).exists());
+	}
+}
@@ -0,0 +1,200 @@
+package net.osmand.data.index;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelZipOutputStreamTest {
+
+	private File dir;
+	private List<String> names = new ArrayList<String>();
+	private List<byte[]> contents = new ArrayList<byte[]>();
+
+	@Before
+	public void setUp() throws IOException {
+		dir = File.createTempFile("zip", "test");
+		dir.delete();
+		dir.mkdirs();
+		Random r = new Random(11);
+		names.add("empty.txt");
+		contents.add(new byte[0]);
+		byte[] small = new byte[1000];
+		r.nextBytes(small);
+		names.add("small.bin");
+		contents.add(small);
+		// several chunks of compressible data (references across chunk borders) with random bytes
+		byte[] large = new byte[(3 << 20) + 12345];
+		for (int i = 0; i < large.length; i++) {
+			large[i] = (byte) (i % 4096 < 100 ? r.nextInt() : (i / 7) % 31);
+		}
+		names.add("Large_2.obf");
+		contents.add(large);
+		// exactly one chunk
+		byte[] chunk = new byte[1 << 20];
+		r.nextBytes(chunk);
+		names.add("chunk.bin");
+		contents.add(chunk);
+	}
+
+	@After
+	public void tearDown() {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	private File writeZip(ExecutorService executor) throws IOException {
+		File f = new File(dir, "test.zip");
+		ParallelZipOutputStream zout = new ParallelZipOutputStream(new FileOutputStream(f), executor, 4);
+		for (int i = 0; i < names.size(); i++) {
+			ZipEntry e = new ZipEntry(names.get(i));
+			e.setComment("comment " + i);
+			zout.putNextEntry(e);
+			byte[] b = contents.get(i);
+			// uneven writes
+			int off = 0;
+			while (off < b.length) {
+				int l = Math.min(b.length - off, 70000);
+				zout.write(b, off, l);
+				off += l;
+			}
+		}
+		zout.close();
+		return f;
+	}
+
+	private static byte[] read(InputStream is) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[1 << 14];
+		int r;
+		while ((r = is.read(buf)) != -1) {
+			out.write(buf, 0, r);
+		}
+		return out.toByteArray();
+	}
+
+	private static long crc(byte[] b) {
+		CRC32 crc = new CRC32();
+		crc.update(b);
+		return crc.getValue();
+	}
+
+	private void checkZipFile(File f) throws IOException {
+		ZipFile zf = new ZipFile(f);
+		try {
+			assertEquals(names.size(), zf.size());
+			for (int i = 0; i < names.size(); i++) {
+				ZipEntry e = zf.getEntry(names.get(i));
+				byte[] b = contents.get(i);
+				assertEquals(b.length, e.getSize());
+				assertEquals(crc(b), e.getCrc());
+				assertEquals("comment " + i, e.getComment());
+				InputStream is = zf.getInputStream(e);
+				assertArrayEquals(b, read(is));
+				is.close();
+			}
+		} finally {
+			zf.close();
+		}
+	}
+
+	private void checkZipStream(File f) throws IOException {
+		ZipInputStream zis = new ZipInputStream(new FileInputStream(f));
+		try {
+			for (int i = 0; i < names.size(); i++) {
+				ZipEntry e = zis.getNextEntry();
+				assertEquals(names.get(i), e.getName());
+				byte[] b = read(zis);
+				assertArrayEquals(b, contents.get(i));
+				// sizes of the data descriptor are known after the entry is read
+				assertEquals(b.length, e.getSize());
+				assertEquals(crc(b), e.getCrc());
+			}
+			assertNull(zis.getNextEntry());
+		} finally {
+			zis.close();
+		}
+	}
+
+	@Test
+	public void test_sequentialCompression() throws IOException {
+		File f = writeZip(null);
+		checkZipFile(f);
+		checkZipStream(f);
+	}
+
+	@Test
+	public void test_parallelCompression() throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			File f = writeZip(executor);
+			checkZipFile(f);
+			checkZipStream(f);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void test_splitPartsJoinToArchive() throws IOException {
+		File f = new File(dir, "test.zip");
+		File tmp = new File(dir, "test.zip.tmp");
+		long partSize = 300000;
+		IndexUploader.SplitOutputStream split = new IndexUploader.SplitOutputStream(new FileOutputStream(tmp), f, partSize);
+		ParallelZipOutputStream zout = new ParallelZipOutputStream(split, null, 1);
+		for (int i = 0; i < names.size(); i++) {
+			zout.putNextEntry(new ZipEntry(names.get(i)));
+			zout.write(contents.get(i));
+		}
+		zout.close();
+		byte[] archive = read(new FileInputStream(tmp));
+		List<File> parts = split.getParts();
+		assertEquals((archive.length + partSize - 1) / partSize, parts.size());
+		ByteArrayOutputStream joined = new ByteArrayOutputStream();
+		for (int i = 0; i < parts.size(); i++) {
+			assertEquals(f.getName() + "-" + (i + 1), parts.get(i).getName());
+			FileInputStream fis = new FileInputStream(parts.get(i));
+			byte[] part = read(fis);
+			fis.close();
+			if (i < parts.size() - 1) {
+				assertEquals(partSize, part.length);
+			}
+			joined.write(part);
+		}
+		assertArrayEquals(archive, joined.toByteArray());
+	}
+
+	@Test
+	public void test_smallArchiveIsNotSplit() throws IOException {
+		File f = new File(dir, "test.zip");
+		IndexUploader.SplitOutputStream split = new IndexUploader.SplitOutputStream(new FileOutputStream(new File(dir,
+				"test.zip.tmp")), f, 1 << 30);
+		ParallelZipOutputStream zout = new ParallelZipOutputStream(split, null, 1);
+		zout.putNextEntry(new ZipEntry(names.get(1)));
+		zout.write(contents.get(1));
+		zout.close();
+		assertEquals(1, split.getParts().size());
+		assertEquals(f, split.getParts().get(0));
+	}
+}
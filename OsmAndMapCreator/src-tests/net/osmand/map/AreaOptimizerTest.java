@@ -0,0 +1,177 @@
+package net.osmand.map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Stack;
+
+import net.osmand.map.RegionsRegistryConverter.AreaOptimizer;
+
+import org.junit.Test;
+
+/**
+ * Boxes cut from one matrix must be the same as boxes of the previous optimizer,
+ * which built the matrix of the remaining tiles again for every cut.
+ */
+public class AreaOptimizerTest {
+
+	@Test
+	public void testIrregularShapes() {
+		// L shape, ring with a hole, diagonal band
+		assertSameBoxes(shape(new String[] {
+				"11....",
+				"11....",
+				"111111",
+				"111111" }));
+		assertSameBoxes(shape(new String[] {
+				"11111",
+				"1...1",
+				"1.1.1",
+				"1...1",
+				"11111" }));
+		assertSameBoxes(shape(new String[] {
+				"111....",
+				".111...",
+				"..111..",
+				"...111.",
+				"....111" }));
+	}
+
+	@Test
+	public void testRandomTiles() {
+		Random rnd = new Random(1);
+		int boxes = 0;
+		for (int it = 0; it < 500; it++) {
+			RegionCountry r = new RegionCountry();
+			int w = 1 + rnd.nextInt(30);
+			int h = 1 + rnd.nextInt(30);
+			double fill = rnd.nextDouble();
+			int ox = rnd.nextInt(360) - 180;
+			int oy = rnd.nextInt(180) - 90;
+			for (int x = 0; x < w; x++) {
+				for (int y = 0; y < h; y++) {
+					if (rnd.nextDouble() < fill) {
+						r.add(x + ox, y + oy);
+					}
+				}
+			}
+			boxes += assertSameBoxes(r);
+		}
+		assertTrue(boxes > 0);
+	}
+
+	private RegionCountry shape(String[] rows) {
+		RegionCountry r = new RegionCountry();
+		for (int i = 0; i < rows.length; i++) {
+			for (int x = 0; x < rows[i].length(); x++) {
+				if (rows[i].charAt(x) == '1') {
+					r.add(x, rows.length - i);
+				}
+			}
+		}
+		return r;
+	}
+
+	private int assertSameBoxes(RegionCountry r) {
+		RegionCountry expected = copy(r);
+		while (tryToCutBigSquareArea(expected)) {
+		}
+		int cut = new AreaOptimizer().cutBigSquareAreas(r, false);
+		assertEquals(expected.getBoxTiles(), r.getBoxTiles());
+		assertEquals(expected.getSingleTiles(), r.getSingleTiles());
+		assertEquals(expected.getBoxTiles().size() / 4, cut);
+		return cut;
+	}
+
+	private RegionCountry copy(RegionCountry r) {
+		RegionCountry c = new RegionCountry();
+		TIntArrayList ts = r.getSingleTiles();
+		for (int i = 0; i < ts.size(); i += 2) {
+			c.add(ts.get(i), ts.get(i + 1));
+		}
+		return c;
+	}
+
+	// previous optimizer : one cut per call on the matrix of the remaining tiles
+
+	private int findExtremumCoordinate(RegionCountry r, boolean min, boolean odd) {
+		int i = odd ? 1 : 0;
+		TIntArrayList ts = r.getSingleTiles();
+		int init = ts.get(i);
+		for (; i < ts.size(); i += 2) {
+			init = min ? Math.min(ts.get(i), init) : Math.max(ts.get(i), init);
+		}
+		return init;
+	}
+
+	private int findBiggestOneSubmatrix(int[][] a, int left, int right, int top, int bottom, int[] answer) {
+		int ans = 0;
+		int[] d = new int[right - left];
+		Arrays.fill(d, -1);
+		int[] d1 = new int[right - left], d2 = new int[right - left];
+		Stack<Integer> st = new Stack<Integer>();
+		for (int i = top; i < bottom; ++i) {
+			for (int j = left; j < right; ++j)
+				if (a[i][j] == 0)
+					d[j] = i;
+			st.clear();
+			for (int j = left; j < right; ++j) {
+				while (!st.empty() && d[st.peek()] <= d[j])
+					st.pop();
+				d1[j] = st.empty() ? -1 : st.peek();
+				st.push(j);
+			}
+			st.clear();
+			for (int j = right - 1; j >= left; --j) {
+				while (!st.empty() && d[st.peek()] <= d[j])
+					st.pop();
+				d2[j] = st.empty() ? right : st.peek();
+				st.push(j);
+			}
+			for (int j = left; j < right; ++j) {
+				int nans = Math.max(ans, (i - d[j]) * (d2[j] - d1[j] - 1));
+				if (nans > ans) {
+					ans = nans;
+					answer[0] = d[j] + 1;
+					answer[1] = d1[j] + 1;
+					answer[2] = i;
+					answer[3] = d2[j] - 1;
+				}
+			}
+		}
+		return ans;
+	}
+
+	private boolean tryToCutBigSquareArea(RegionCountry r) {
+		if (r.getSingleTiles().size() == 0) {
+			return false;
+		}
+		int minX = findExtremumCoordinate(r, true, false);
+		int maxX = findExtremumCoordinate(r, false, false);
+		int minY = findExtremumCoordinate(r, true, true);
+		int maxY = findExtremumCoordinate(r, false, true);
+		int[][] areaMatrix = new int[maxY - minY + 1][maxX - minX + 1];
+		TIntArrayList ts = r.getSingleTiles();
+		for (int j = 0; j < ts.size(); j += 2) {
+			areaMatrix[maxY - ts.get(j + 1)][ts.get(j) - minX] = 1;
+		}
+		int[] sub = new int[4];
+		if (findBiggestOneSubmatrix(areaMatrix, 0, maxX - minX + 1, 0, maxY - minY + 1, sub) < 4) {
+			return false;
+		}
+		int xleft = sub[1] + minX;
+		int ytop = maxY - sub[0];
+		int xright = sub[3] + minX;
+		int ybottom = maxY - sub[2];
+		for (int x = xleft; x <= xright; x++) {
+			for (int y = ytop; y >= ybottom; y--) {
+				r.removeSingle(x, y);
+			}
+		}
+		r.add(xleft, ytop, xright, ybottom);
+		return true;
+	}
+}
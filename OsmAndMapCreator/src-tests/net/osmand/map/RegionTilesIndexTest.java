@@ -0,0 +1,41 @@
+package net.osmand.map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class RegionTilesIndexTest {
+
+	@Test
+	public void testLookupAfterWriteAndRead() throws IOException {
+		RegionTilesIndex.Builder b = new RegionTilesIndex.Builder();
+		b.addRegion("germany", tiles(10, 50, 11, 50, 11, 51, 11, 50));
+		b.addRegion("germany#bayern", tiles(11, 50, 11, 51));
+		b.addRegion("chile", tiles(-70, -33, -71, -33));
+		File f = File.createTempFile("region-tiles", ".bin");
+		try {
+			b.build().writeTo(f);
+			RegionTilesIndex index = RegionTilesIndex.readFrom(f);
+			assertEquals(3, index.getRegionsCount());
+			assertEquals(5, index.getTilesCount());
+			assertEquals(Arrays.asList("germany"), index.getRegions(10, 50));
+			assertEquals(Arrays.asList("germany", "germany#bayern"), index.getRegions(11, 50));
+			assertEquals(Arrays.asList("chile"), index.getRegions(-70, -33));
+			assertTrue(index.getRegions(12, 50).isEmpty());
+		} finally {
+			f.delete();
+		}
+	}
+
+	private static TIntArrayList tiles(int... xy) {
+		TIntArrayList l = new TIntArrayList();
+		l.add(xy);
+		return l;
+	}
+}
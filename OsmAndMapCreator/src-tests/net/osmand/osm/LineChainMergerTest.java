@@ -0,0 +1,152 @@
+package net.osmand.osm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LineChainMergerTest {
+
+	// segments of rings with random direction in random order, ring r has points r * 1000000 + i
+	private List<long[]> ringSegments(Random rnd, int rings, int maxSegments) {
+		List<long[]> segments = new ArrayList<long[]>();
+		for (int r = 0; r < rings; r++) {
+			int cnt = 2 + rnd.nextInt(maxSegments);
+			for (int i = 0; i < cnt; i++) {
+				long a = r * 1000000L + i;
+				long b = r * 1000000L + (i + 1) % cnt;
+				segments.add(rnd.nextBoolean() ? new long[] { a, b } : new long[] { b, a });
+			}
+		}
+		Collections.shuffle(segments, rnd);
+		return segments;
+	}
+
+	private static long first(List<long[]> chain) {
+		return chain.get(0)[0];
+	}
+
+	private static long last(List<long[]> chain) {
+		return chain.get(chain.size() - 1)[1];
+	}
+
+	// chaining by maps as coastline fix did before
+	private List<long[]> referenceAdd(Map<Long, List<long[]>> startWays, Map<Long, List<long[]>> endWays, long[] seg) {
+		List<long[]> list = new ArrayList<long[]>();
+		list.add(seg);
+		long start = seg[0];
+		long end = seg[1];
+		while (startWays.containsKey(start) || endWays.containsKey(end) || startWays.containsKey(end) || endWays.containsKey(start)) {
+			if (startWays.containsKey(start) || endWays.containsKey(end)) {
+				Collections.reverse(list);
+				for (int i = 0; i < list.size(); i++) {
+					list.set(i, new long[] { list.get(i)[1], list.get(i)[0], list.get(i)[2] });
+				}
+				long t = start;
+				start = end;
+				end = t;
+			}
+			if (endWays.containsKey(start)) {
+				List<long[]> tlist = endWays.remove(start);
+				startWays.remove(first(tlist));
+				tlist.addAll(list);
+				list = tlist;
+			} else if (startWays.containsKey(end)) {
+				List<long[]> tlist = startWays.remove(end);
+				endWays.remove(last(tlist));
+				list.addAll(tlist);
+			}
+			start = first(list);
+			end = last(list);
+			if (start == end) {
+				return list;
+			}
+		}
+		startWays.put(start, list);
+		endWays.put(end, list);
+		return null;
+	}
+
+	private long[] toArray(LineChainMerger merger, int chain, List<long[]> segments) {
+		int[] ids = merger.getChainSegments(chain);
+		long[] res = new long[ids.length * 2];
+		for (int i = 0; i < ids.length; i++) {
+			long[] s = segments.get(ids[i]);
+			res[2 * i] = merger.isReversed(ids[i]) ? s[1] : s[0];
+			res[2 * i + 1] = merger.isReversed(ids[i]) ? s[0] : s[1];
+		}
+		return res;
+	}
+
+	private long[] toArray(List<long[]> chain) {
+		long[] res = new long[chain.size() * 2];
+		for (int i = 0; i < chain.size(); i++) {
+			res[2 * i] = chain.get(i)[0];
+			res[2 * i + 1] = chain.get(i)[1];
+		}
+		return res;
+	}
+
+	private void checkSameAsReference(List<long[]> segments) {
+		Map<Long, List<long[]>> startWays = new LinkedHashMap<Long, List<long[]>>();
+		Map<Long, List<long[]>> endWays = new LinkedHashMap<Long, List<long[]>>();
+		LineChainMerger merger = new LineChainMerger(4);
+		for (int i = 0; i < segments.size(); i++) {
+			long[] s = segments.get(i);
+			List<long[]> ring = referenceAdd(startWays, endWays, new long[] { s[0], s[1], i });
+			int chain = merger.addSegment(s[0], s[1]);
+			if (ring == null) {
+				assertEquals(LineChainMerger.NO_RING, chain);
+			} else {
+				assertArrayEquals(toArray(ring), toArray(merger, chain, segments));
+			}
+		}
+		int[] open = merger.getOpenChains();
+		assertEquals(endWays.size(), open.length);
+		int k = 0;
+		for (List<long[]> chain : endWays.values()) {
+			assertArrayEquals(toArray(chain), toArray(merger, open[k++], segments));
+		}
+	}
+
+	@Test
+	public void test_closedRings() {
+		Random rnd = new Random(3);
+		checkSameAsReference(ringSegments(rnd, 200, 50));
+	}
+
+	@Test
+	public void test_openChains() {
+		Random rnd = new Random(5);
+		List<long[]> segments = ringSegments(rnd, 200, 50);
+		// drop some segments so part of rings stay open
+		segments.subList(0, segments.size() / 10).clear();
+		checkSameAsReference(segments);
+	}
+
+	@Test
+	public void test_manySegments() {
+		Random rnd = new Random(17);
+		List<long[]> segments = ringSegments(rnd, 2000, 1000);
+		LineChainMerger merger = new LineChainMerger();
+		int rings = 0;
+		int ringSegments = 0;
+		for (long[] s : segments) {
+			int chain = merger.addSegment(s[0], s[1]);
+			if (chain != LineChainMerger.NO_RING) {
+				rings++;
+				ringSegments += merger.getChainSegments(chain).length;
+			}
+		}
+		assertEquals(2000, rings);
+		assertEquals(segments.size(), ringSegments);
+		assertEquals(0, merger.getOpenChains().length);
+	}
+}
@@ -0,0 +1,43 @@
+package net.osmand.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class TagValueRulesTest {
+
+	@Test
+	public void testTagRuleWinsOverValueRule() {
+		TagValueRules<String> rules = new TagValueRules<String>();
+		rules.put("highway", "primary", "primary");
+		rules.put("oneway", null, "oneway");
+		rules.put("oneway", "yes", "oneway_yes");
+		assertEquals("primary", rules.get("highway", "primary"));
+		assertNull(rules.get("highway", "primary_link"));
+		assertEquals("oneway", rules.get("oneway", "yes"));
+		assertEquals("oneway", rules.get("oneway", "-1"));
+		assertTrue(rules.containsTag("oneway"));
+		assertFalse(rules.containsTag("highway"));
+		assertFalse(rules.contains("name", "primary"));
+	}
+
+	@Test
+	public void testPrefixMatcher() {
+		TagValueRules.PrefixMatcher m = new TagValueRules.PrefixMatcher(Arrays.asList("trunk", "motorway", "tr", "ferry"));
+		assertTrue(m.matchesPrefixOf("trunk_link"));
+		assertTrue(m.matchesPrefixOf("track"));
+		assertTrue(m.matchesPrefixOf("motorway"));
+		assertFalse(m.matchesPrefixOf("motor"));
+		assertFalse(m.matchesPrefixOf("t"));
+		assertFalse(m.matchesPrefixOf("primary"));
+		assertFalse(m.matchesPrefixOf(""));
+		assertFalse(new TagValueRules.PrefixMatcher(Collections.<String>emptyList()).matchesPrefixOf("trunk"));
+		assertTrue(new TagValueRules.PrefixMatcher(Collections.singletonList("")).matchesPrefixOf("anything"));
+	}
+}
@@ -0,0 +1,143 @@
+package net.osmand.osm.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Random;
+
+import net.osmand.osm.edit.Entity;
+import net.osmand.osm.edit.Entity.EntityId;
+import net.osmand.osm.edit.Entity.EntityType;
+import net.osmand.osm.edit.EntityInfo;
+import net.osmand.osm.edit.Node;
+import net.osmand.osm.edit.Relation;
+import net.osmand.osm.edit.Way;
+
+import org.junit.Test;
+
+public class OsmStoragePbfWriterTest {
+
+	private static final double COORDINATES_PRECISION = 1e-7;
+
+	private EntityInfo createInfo(Random rnd, int i) {
+		EntityInfo info = new EntityInfo();
+		info.setVersion(String.valueOf(1 + rnd.nextInt(20)));
+		info.setChangeset(String.valueOf(1000000 + rnd.nextInt(1000000)));
+		info.setUid(String.valueOf(rnd.nextInt(50)));
+		info.setUser("user" + (i % 7));
+		info.setTimestamp(String.format("2012-%02d-%02dT%02d:%02d:%02dZ", 1 + rnd.nextInt(12), 1 + rnd.nextInt(28),
+				rnd.nextInt(24), rnd.nextInt(60), rnd.nextInt(60)));
+		return info;
+	}
+
+	private void register(OsmBaseStorage storage, Entity e, EntityInfo info) {
+		EntityId id = EntityId.valueOf(e);
+		storage.getRegisteredEntities().put(id, e);
+		if (info != null) {
+			storage.getRegisteredEntityInfo().put(id, info);
+		}
+	}
+
+	// more nodes than fit in one block, so several blocks are compressed in parallel
+	private OsmBaseStorage createStorage() {
+		Random rnd = new Random(17);
+		OsmBaseStorage storage = new OsmBaseStorage();
+		int nodes = 25000;
+		for (int i = 0; i < nodes; i++) {
+			Node n = new Node(rnd.nextDouble() * 170 - 85, rnd.nextDouble() * 360 - 180, 1 + i * 3);
+			if (i % 4 == 0) {
+				n.putTag("name", "Node " + (i % 100));
+			}
+			if (i % 9 == 0) {
+				n.putTag("amenity", "cafe");
+			}
+			register(storage, n, createInfo(rnd, i));
+		}
+		for (int i = 0; i < 500; i++) {
+			Way w = new Way(100 + i);
+			for (int j = 0; j < 2 + rnd.nextInt(10); j++) {
+				w.addNode(1 + rnd.nextInt(nodes) * 3);
+			}
+			w.putTag("highway", i % 2 == 0 ? "primary" : "residential");
+			register(storage, w, createInfo(rnd, i));
+		}
+		for (int i = 0; i < 50; i++) {
+			Relation r = new Relation(-10 - i);
+			r.addMember(100 + rnd.nextInt(500), EntityType.WAY, "outer");
+			r.addMember(1 + rnd.nextInt(nodes) * 3, EntityType.NODE, "label");
+			r.addMember(-10 - (i + 1) % 50, EntityType.RELATION, "subarea");
+			r.putTag("type", "multipolygon");
+			register(storage, r, createInfo(rnd, i));
+		}
+		return storage;
+	}
+
+	private OsmBaseStoragePbf writeAndRead(OsmBaseStorage storage, int threads) throws IOException {
+		ByteArrayOutputStream bous = new ByteArrayOutputStream();
+		new OsmStoragePbfWriter(bous, true, threads).saveStorage(storage, null, false);
+		OsmBaseStoragePbf read = new OsmBaseStoragePbf();
+		read.parseOSMPbf(new ByteArrayInputStream(bous.toByteArray()), null, true);
+		return read;
+	}
+
+	private void assertStorageEquals(OsmBaseStorage expected, OsmBaseStorage actual) {
+		Map<EntityId, Entity> entities = actual.getRegisteredEntities();
+		assertEquals(expected.getRegisteredEntities().size(), entities.size());
+		for (Map.Entry<EntityId, Entity> e : expected.getRegisteredEntities().entrySet()) {
+			Entity exp = e.getValue();
+			Entity act = entities.get(e.getKey());
+			assertNotNull("Entity is not read " + e.getKey(), act);
+			assertEquals(exp.getTags(), act.getTags());
+			if (exp instanceof Node) {
+				assertEquals(((Node) exp).getLatitude(), ((Node) act).getLatitude(), COORDINATES_PRECISION);
+				assertEquals(((Node) exp).getLongitude(), ((Node) act).getLongitude(), COORDINATES_PRECISION);
+			} else if (exp instanceof Way) {
+				assertEquals(((Way) exp).getNodeIds(), ((Way) act).getNodeIds());
+			} else if (exp instanceof Relation) {
+				assertEquals(new ArrayList<Map.Entry<EntityId, String>>(((Relation) exp).getMembersMap().entrySet()),
+						new ArrayList<Map.Entry<EntityId, String>>(((Relation) act).getMembersMap().entrySet()));
+			}
+			EntityInfo expInfo = expected.getRegisteredEntityInfo().get(e.getKey());
+			EntityInfo actInfo = actual.getRegisteredEntityInfo().get(e.getKey());
+			assertNotNull(actInfo);
+			assertEquals(expInfo.getVersion(), actInfo.getVersion());
+			assertEquals(expInfo.getChangeset(), actInfo.getChangeset());
+			assertEquals(expInfo.getUid(), actInfo.getUid());
+			assertEquals(expInfo.getUser(), actInfo.getUser());
+			assertEquals(expInfo.getTimestamp(), actInfo.getTimestamp());
+		}
+	}
+
+	@Test
+	public void test_roundTrip() throws IOException {
+		OsmBaseStorage storage = createStorage();
+		assertStorageEquals(storage, writeAndRead(storage, 1));
+	}
+
+	@Test
+	public void test_roundTripParallel() throws IOException {
+		OsmBaseStorage storage = createStorage();
+		assertStorageEquals(storage, writeAndRead(storage, 3));
+	}
+
+	@Test
+	public void test_deletedEntitiesAreSkipped() throws IOException {
+		OsmBaseStorage storage = new OsmBaseStorage();
+		Node kept = new Node(52.1, 4.3, 1);
+		Node deleted = new Node(52.2, 4.4, 2);
+		EntityInfo info = new EntityInfo();
+		info.setAction("delete");
+		register(storage, kept, null);
+		register(storage, deleted, info);
+		OsmBaseStoragePbf read = writeAndRead(storage, 1);
+		assertTrue(read.getRegisteredEntities().containsKey(EntityId.valueOf(kept)));
+		assertNull(read.getRegisteredEntities().get(EntityId.valueOf(deleted)));
+	}
+}
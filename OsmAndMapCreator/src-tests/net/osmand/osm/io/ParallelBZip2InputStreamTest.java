@@ -0,0 +1,174 @@
+package net.osmand.osm.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.tools.bzip2.CBZip2InputStream;
+import org.apache.tools.bzip2.CBZip2OutputStream;
+import org.junit.Test;
+
+public class ParallelBZip2InputStreamTest {
+
+	private byte[] generate(Random rnd, int size) {
+		StringBuilder b = new StringBuilder();
+		while (b.length() < size) {
+			b.append("<node id=\"").append(rnd.nextInt()).append("\" lat=\"").append(rnd.nextDouble())
+					.append("\"><tag k=\"name\" v=\"").append(rnd.nextInt(1000)).append("\"/></node>\n");
+		}
+		return b.toString().getBytes();
+	}
+
+	// stream after 'BZ' characters
+	private byte[] compress(byte[] data, int blockSize) throws IOException {
+		ByteArrayOutputStream bous = new ByteArrayOutputStream();
+		CBZip2OutputStream out = new CBZip2OutputStream(bous, blockSize);
+		out.write(data);
+		out.close();
+		return bous.toByteArray();
+	}
+
+	private byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream bous = new ByteArrayOutputStream();
+		byte[] buf = new byte[1 << 14];
+		int r;
+		while ((r = in.read(buf)) != -1) {
+			bous.write(buf, 0, r);
+		}
+		in.close();
+		return bous.toByteArray();
+	}
+
+	@Test
+	public void test_manyBlocks() throws IOException {
+		byte[] data = generate(new Random(3), 3 << 20);
+		byte[] bzip = compress(data, 1);
+		assertArrayEquals(data, read(new ParallelBZip2InputStream(new ByteArrayInputStream(bzip), 3)));
+	}
+
+	@Test
+	public void test_emptyStream() throws IOException {
+		byte[] bzip = compress(new byte[0], 9);
+		assertArrayEquals(new byte[0], read(new ParallelBZip2InputStream(new ByteArrayInputStream(bzip), 3)));
+	}
+
+	@Test
+	public void test_concatenatedStreams() throws IOException {
+		Random rnd = new Random(5);
+		byte[] first = generate(rnd, 250000);
+		byte[] second = generate(rnd, 1 << 20);
+		ByteArrayOutputStream bzip = new ByteArrayOutputStream();
+		bzip.write(compress(first, 1));
+		bzip.write('B');
+		bzip.write('Z');
+		bzip.write(compress(second, 9));
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		data.write(first);
+		data.write(second);
+		assertArrayEquals(data.toByteArray(), read(new ParallelBZip2InputStream(new ByteArrayInputStream(bzip.toByteArray()), 2)));
+	}
+
+	private static final long BLOCK_MAGIC = 0x314159265359l;
+	private static final long EOS_MAGIC = 0x177245385090l;
+	// block header bits between the block magic and the map of used bytes : crc, randomised, orig ptr, used ranges
+	private static final int USED_BYTES_OFFSET = 48 + 32 + 1 + 24 + 16;
+
+	/**
+	 * Bytes of the data are chosen so the map of used bytes in the block header (16 bits for every used range of 16
+	 * bytes) is the magic split in 3 masks, so every block has the magic inside of its header. Equal neighbour bytes
+	 * are not generated, so no run lengths are added to the used bytes.
+	 */
+	private byte[] generateWithMagicInHeader(Random rnd, int size, long magic) {
+		int[] masks = new int[] { (int) (magic >>> 32) & 0xffff, (int) (magic >>> 16) & 0xffff, (int) magic & 0xffff };
+		List<Integer> alphabet = new ArrayList<Integer>();
+		for (int r = 0; r < masks.length; r++) {
+			for (int j = 0; j < 16; j++) {
+				if ((masks[r] & (0x8000 >>> j)) != 0) {
+					alphabet.add((r + 4) * 16 + j);
+				}
+			}
+		}
+		byte[] data = new byte[size];
+		int prev = -1;
+		for (int i = 0; i < size; i++) {
+			int c;
+			do {
+				c = alphabet.get(rnd.nextInt(alphabet.size()));
+			} while (c == prev);
+			data[i] = (byte) c;
+			prev = c;
+		}
+		return data;
+	}
+
+	private List<Long> findMagics(byte[] bzip, long magic) {
+		List<Long> res = new ArrayList<Long>();
+		long window = 0;
+		for (long p = 0; p < bzip.length * 8l; p++) {
+			window = ((window << 1) | ((bzip[(int) (p >>> 3)] >>> (7 - (p & 7))) & 1)) & ((1l << 48) - 1);
+			if (p >= 47 && window == magic) {
+				res.add(p - 47);
+			}
+		}
+		return res;
+	}
+
+	@Test
+	public void test_blockMagicInsideOfBlock() throws IOException {
+		byte[] data = generateWithMagicInHeader(new Random(7), 350000, BLOCK_MAGIC);
+		byte[] bzip = compress(data, 1);
+		List<Long> magics = findMagics(bzip, BLOCK_MAGIC);
+		// every block is split by the scan in 2 parts, which have to be joined
+		assertTrue(magics.size() >= 6);
+		assertEquals(0, magics.size() % 2);
+		for (int i = 0; i < magics.size(); i += 2) {
+			assertEquals(USED_BYTES_OFFSET, magics.get(i + 1) - magics.get(i));
+		}
+		byte[] expected = read(new CBZip2InputStream(new ByteArrayInputStream(bzip)));
+		assertArrayEquals(data, expected);
+		assertArrayEquals(expected, read(new ParallelBZip2InputStream(new ByteArrayInputStream(bzip), 3)));
+		assertArrayEquals(expected, read(new ParallelBZip2InputStream(new ByteArrayInputStream(bzip), 1)));
+	}
+
+	@Test
+	public void test_endOfStreamMagicInsideOfBlock() throws IOException {
+		byte[] data = generateWithMagicInHeader(new Random(9), 350000, EOS_MAGIC);
+		byte[] bzip = compress(data, 1);
+		List<Long> blocks = findMagics(bzip, BLOCK_MAGIC);
+		List<Long> ends = findMagics(bzip, EOS_MAGIC);
+		// every block has the end of stream magic in its header, the last one is the real end of stream
+		assertTrue(blocks.size() >= 3);
+		assertEquals(blocks.size() + 1, ends.size());
+		for (int i = 0; i < blocks.size(); i++) {
+			assertEquals(USED_BYTES_OFFSET, ends.get(i) - blocks.get(i));
+		}
+		byte[] expected = read(new CBZip2InputStream(new ByteArrayInputStream(bzip)));
+		assertArrayEquals(data, expected);
+		assertArrayEquals(expected, read(new ParallelBZip2InputStream(new ByteArrayInputStream(bzip), 3)));
+		assertArrayEquals(expected, read(new ParallelBZip2InputStream(new ByteArrayInputStream(bzip), 1)));
+	}
+
+	@Test
+	public void test_corruptedBlock() throws IOException {
+		byte[] bzip = compress(generate(new Random(11), 1 << 20), 1);
+		List<Long> magics = findMagics(bzip, BLOCK_MAGIC);
+		// corrupt data of the second block, joining it with the next blocks doesn't help
+		int corrupted = (int) ((magics.get(1) + magics.get(2)) / 16);
+		bzip[corrupted] ^= 0x5a;
+		try {
+			read(new ParallelBZip2InputStream(new ByteArrayInputStream(bzip), 2));
+			fail("Corrupted block is read");
+		} catch (IOException e) {
+			assertEquals("BZip2 block is corrupted", e.getMessage());
+		}
+	}
+}
@@ -143,6 +143,6 @@ public class BinarySerializer {
 
     /** Convert from a degrees represented as a double into the serialized offset. */
     public int mapDegrees(double degrees) {
-        return (int) ((degrees / 0.0000001) / (granularity / 100));
+        return (int) Math.round((degrees / 0.0000001) / (granularity / 100));
     }
 }
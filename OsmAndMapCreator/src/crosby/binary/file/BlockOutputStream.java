@@ -4,7 +4,12 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 
 public class BlockOutputStream {
@@ -18,6 +23,17 @@ public class BlockOutputStream {
         this.compression = CompressFlags.DEFLATE;
     }
 
+    /**
+     * Blocks are compressed by the executor and written in order,
+     * at most maxPending blocks are kept in memory. Positions of the written
+     * blocks are counted from the start of the output.
+     */
+    public BlockOutputStream(OutputStream output, ExecutorService executor, int maxPending) {
+        this(output);
+        this.executor = executor;
+        this.maxPending = maxPending;
+    }
+
     public void setCompress(CompressFlags flag) {
         compression = flag;
     }
@@ -37,22 +53,61 @@ public class BlockOutputStream {
     }
 
     /** Write a specific block with a specific compression flags */
-    public void write(FileBlock block, CompressFlags compression)
+    public void write(final FileBlock block, final CompressFlags compression)
             throws IOException {
-        FileBlockPosition ref = block.writeTo(outwrite, compression);
-        writtenblocks.add(ref);
+        if (executor == null) {
+            FileBlockPosition ref = block.writeTo(outwrite, compression);
+            writtenblocks.add(ref);
+            return;
+        }
+        pending.add(executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                return block.toByteArray(compression);
+            }
+        }));
+        pendingBlocks.add(block);
+        while (pending.size() > maxPending) {
+            writePending();
+        }
+    }
+
+    private void writePending() throws IOException {
+        byte[] bytes;
+        try {
+            bytes = pending.removeFirst().get();
+        } catch (InterruptedException e) {
+            throw new IOException("Block compression was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Block compression failed", e.getCause());
+        }
+        FileBlock block = pendingBlocks.removeFirst();
+        int headerSize = ((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16) | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+        outwrite.write(bytes);
+        // blob follows the size and the header, as it is read by FileBlockHead
+        long blobOffset = written + 4 + headerSize;
+        written += bytes.length;
+        writtenblocks.add(FileBlockPosition.newInstance(block, blobOffset, (int) (written - blobOffset)));
     }
 
     public void flush() throws IOException {
+        while (!pending.isEmpty()) {
+            writePending();
+        }
         outwrite.flush();
     }
 
     public void close() throws IOException {
-        outwrite.flush();
+        flush();
         outwrite.close();
     }
 
     OutputStream outwrite;
     List<FileBlockPosition> writtenblocks = new ArrayList<FileBlockPosition>();
     CompressFlags compression;
+    ExecutorService executor;
+    int maxPending;
+    long written;
+    LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+    LinkedList<FileBlock> pendingBlocks = new LinkedList<FileBlock>();
 }
@@ -1,5 +1,6 @@
 package crosby.binary.file;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -72,14 +73,7 @@ public class FileBlock extends FileBlockBase {
         deflater.end();
     }
 
-    public FileBlockPosition writeTo(OutputStream outwrite, CompressFlags flags)
-            throws IOException {
-        BlockHeader.Builder builder = Fileformat.BlockHeader
-                .newBuilder();
-        if (indexdata != null)
-            builder.setIndexdata(indexdata);
-        builder.setType(type);
-
+    private Fileformat.Blob buildBlob(CompressFlags flags) {
         Fileformat.Blob.Builder blobbuilder = Fileformat.Blob.newBuilder();
         if (flags == CompressFlags.NONE) {
             blobbuilder.setRaw(data);
@@ -90,10 +84,23 @@ public class FileBlock extends FileBlockBase {
             else
                 throw new Error("Compression flag not understood");
         }
-        Fileformat.Blob blob = blobbuilder.build();
+        return blobbuilder.build();
+    }
 
+    private Fileformat.BlockHeader buildHeader(Fileformat.Blob blob) {
+        BlockHeader.Builder builder = Fileformat.BlockHeader
+                .newBuilder();
+        if (indexdata != null)
+            builder.setIndexdata(indexdata);
+        builder.setType(type);
         builder.setDatasize(blob.getSerializedSize());
-        Fileformat.BlockHeader message = builder.build();
+        return builder.build();
+    }
+
+    public FileBlockPosition writeTo(OutputStream outwrite, CompressFlags flags)
+            throws IOException {
+        Fileformat.Blob blob = buildBlob(flags);
+        Fileformat.BlockHeader message = buildHeader(blob);
         int size = message.getSerializedSize();
 
         // System.out.format("Outputed header size %d bytes, header of %d bytes, and blob of %d bytes\n",
@@ -109,6 +116,20 @@ public class FileBlock extends FileBlockBase {
         return FileBlockPosition.newInstance(this, offset, size);
     }
 
+    /**
+     * Serializes (and compresses) the block as it is written by {@link #writeTo(OutputStream, CompressFlags)},
+     * doesn't change the state so blocks could be serialized in parallel.
+     */
+    public byte[] toByteArray(CompressFlags flags) throws IOException {
+        Fileformat.Blob blob = buildBlob(flags);
+        Fileformat.BlockHeader message = buildHeader(blob);
+        ByteArrayOutputStream bous = new ByteArrayOutputStream(4 + message.getSerializedSize() + blob.getSerializedSize());
+        (new DataOutputStream(bous)).writeInt(message.getSerializedSize());
+        message.writeTo(bous);
+        blob.writeTo(bous);
+        return bous.toByteArray();
+    }
+
     /** Reads or skips a fileblock. */
     static void process(InputStream input, BlockReaderAdapter callback)
             throws IOException {
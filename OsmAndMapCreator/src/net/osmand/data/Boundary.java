@@ -29,6 +29,22 @@ public class Boundary {
 		return multipolygon.containsPoint(location);
 	}
 	
+	public double getMinLatitude() {
+		return multipolygon.getMinLatitude();
+	}
+
+	public double getMaxLatitude() {
+		return multipolygon.getMaxLatitude();
+	}
+
+	public double getMinLongitude() {
+		return multipolygon.getMinLongitude();
+	}
+
+	public double getMaxLongitude() {
+		return multipolygon.getMaxLongitude();
+	}
+
 	public long getBoundaryId() {
 		return boundaryId;
 	}
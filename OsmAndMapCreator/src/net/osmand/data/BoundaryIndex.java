@@ -0,0 +1,198 @@
+package net.osmand.data;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Static in-memory R-tree over boundary bounding boxes packed with Sort-Tile-Recursive algorithm.
+ * Index is immutable, so it should be rebuilt when boundaries are merged (bounding box changes).
+ * Results are always returned in the order boundaries were passed to the constructor.
+ */
+public class BoundaryIndex {
+
+	private static final int NODE_CAPACITY = 16;
+	// bounding boxes are calculated in float
+	private static final double BBOX_EPS = 1e-5;
+
+	private final List<Boundary> boundaries;
+	// level 0 are boundaries, last level has only root node
+	private final Level[] levels;
+
+	private static class Level {
+		final int size;
+		final double[] minLat;
+		final double[] maxLat;
+		final double[] minLon;
+		final double[] maxLon;
+		// for level 0 : index of boundary, otherwise [childStart, childEnd) in previous level
+		final int[] childStart;
+		final int[] childEnd;
+
+		Level(int size) {
+			this.size = size;
+			minLat = new double[size];
+			maxLat = new double[size];
+			minLon = new double[size];
+			maxLon = new double[size];
+			childStart = new int[size];
+			childEnd = new int[size];
+		}
+
+		boolean contains(int i, double lat, double lon) {
+			return minLat[i] <= lat && lat <= maxLat[i] && minLon[i] <= lon && lon <= maxLon[i];
+		}
+
+		void copy(int to, Level src, int from) {
+			minLat[to] = src.minLat[from];
+			maxLat[to] = src.maxLat[from];
+			minLon[to] = src.minLon[from];
+			maxLon[to] = src.maxLon[from];
+			childStart[to] = src.childStart[from];
+			childEnd[to] = src.childEnd[from];
+		}
+	}
+
+	public BoundaryIndex(List<Boundary> boundaries) {
+		this.boundaries = new ArrayList<Boundary>(boundaries);
+		List<Level> lvls = new ArrayList<Level>();
+		Level entries = new Level(this.boundaries.size());
+		for (int i = 0; i < entries.size; i++) {
+			Boundary b = this.boundaries.get(i);
+			entries.minLat[i] = b.getMinLatitude() - BBOX_EPS;
+			entries.maxLat[i] = b.getMaxLatitude() + BBOX_EPS;
+			entries.minLon[i] = b.getMinLongitude() - BBOX_EPS;
+			entries.maxLon[i] = b.getMaxLongitude() + BBOX_EPS;
+			entries.childStart[i] = i;
+			entries.childEnd[i] = i + 1;
+		}
+		Level current = entries;
+		while (true) {
+			current = sortTileRecursive(current);
+			lvls.add(current);
+			if (current.size <= 1) {
+				break;
+			}
+			current = groupNodes(current);
+		}
+		levels = lvls.toArray(new Level[lvls.size()]);
+	}
+
+	private static Level sortTileRecursive(final Level l) {
+		Integer[] order = new Integer[l.size];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		// 1. sort by center longitude and cut into vertical slices
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return Double.compare(l.minLon[o1] + l.maxLon[o1], l.minLon[o2] + l.maxLon[o2]);
+			}
+		});
+		int nodes = (l.size + NODE_CAPACITY - 1) / NODE_CAPACITY;
+		int slices = (int) Math.ceil(Math.sqrt(nodes));
+		int sliceSize = slices * NODE_CAPACITY;
+		// 2. sort each slice by center latitude
+		Comparator<Integer> latComparator = new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return Double.compare(l.minLat[o1] + l.maxLat[o1], l.minLat[o2] + l.maxLat[o2]);
+			}
+		};
+		for (int s = 0; s < order.length; s += sliceSize) {
+			Arrays.sort(order, s, Math.min(order.length, s + sliceSize), latComparator);
+		}
+		Level sorted = new Level(l.size);
+		for (int i = 0; i < order.length; i++) {
+			sorted.copy(i, l, order[i]);
+		}
+		return sorted;
+	}
+
+	private static Level groupNodes(Level l) {
+		Level parent = new Level((l.size + NODE_CAPACITY - 1) / NODE_CAPACITY);
+		for (int p = 0; p < parent.size; p++) {
+			int st = p * NODE_CAPACITY;
+			int end = Math.min(l.size, st + NODE_CAPACITY);
+			parent.childStart[p] = st;
+			parent.childEnd[p] = end;
+			parent.minLat[p] = Double.POSITIVE_INFINITY;
+			parent.minLon[p] = Double.POSITIVE_INFINITY;
+			parent.maxLat[p] = Double.NEGATIVE_INFINITY;
+			parent.maxLon[p] = Double.NEGATIVE_INFINITY;
+			for (int i = st; i < end; i++) {
+				parent.minLat[p] = Math.min(parent.minLat[p], l.minLat[i]);
+				parent.maxLat[p] = Math.max(parent.maxLat[p], l.maxLat[i]);
+				parent.minLon[p] = Math.min(parent.minLon[p], l.minLon[i]);
+				parent.maxLon[p] = Math.max(parent.maxLon[p], l.maxLon[i]);
+			}
+		}
+		return parent;
+	}
+
+	public int size() {
+		return boundaries.size();
+	}
+
+	/**
+	 * @return sorted positions (in the original list) of boundaries which bounding box contains the point
+	 */
+	public TIntArrayList queryBoundingBoxes(double latitude, double longitude) {
+		TIntArrayList result = new TIntArrayList();
+		if (boundaries.isEmpty()) {
+			return result;
+		}
+		collect(levels.length - 1, 0, latitude, longitude, result);
+		result.sort();
+		return result;
+	}
+
+	private void collect(int level, int node, double lat, double lon, TIntArrayList result) {
+		Level l = levels[level];
+		if (!l.contains(node, lat, lon)) {
+			return;
+		}
+		if (level == 0) {
+			result.add(l.childStart[node]);
+			return;
+		}
+		for (int i = l.childStart[node]; i < l.childEnd[node]; i++) {
+			collect(level - 1, i, lat, lon, result);
+		}
+	}
+
+	/**
+	 * @return boundaries which bounding box contains the point (precise check is not done)
+	 */
+	public List<Boundary> getCandidates(double latitude, double longitude) {
+		TIntArrayList ind = queryBoundingBoxes(latitude, longitude);
+		List<Boundary> res = new ArrayList<Boundary>(ind.size());
+		for (int i = 0; i < ind.size(); i++) {
+			res.add(boundaries.get(ind.get(i)));
+		}
+		return res;
+	}
+
+	/**
+	 * @return boundaries containing the point
+	 */
+	public List<Boundary> getBoundariesContaining(double latitude, double longitude) {
+		TIntArrayList ind = queryBoundingBoxes(latitude, longitude);
+		List<Boundary> res = new ArrayList<Boundary>(ind.size());
+		for (int i = 0; i < ind.size(); i++) {
+			Boundary b = boundaries.get(ind.get(i));
+			if (b.containsPoint(latitude, longitude)) {
+				res.add(b);
+			}
+		}
+		return res;
+	}
+
+	public Boundary get(int position) {
+		return boundaries.get(position);
+	}
+}
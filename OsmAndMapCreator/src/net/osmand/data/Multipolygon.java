@@ -184,6 +184,22 @@ public class Multipolygon {
 	}
 
 
+	public float getMinLatitude() {
+		return minLat;
+	}
+
+	public float getMaxLatitude() {
+		return maxLat;
+	}
+
+	public float getMinLongitude() {
+		return minLon;
+	}
+
+	public float getMaxLongitude() {
+		return maxLon;
+	}
+
 	public List<Ring> getInnerRings() {
 		return innerRings;
 	}
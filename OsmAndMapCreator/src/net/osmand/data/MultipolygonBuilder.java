@@ -3,10 +3,10 @@ package net.osmand.data;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
+import net.osmand.osm.LineChainMerger;
 import net.osmand.osm.edit.Way;
 
 import org.apache.commons.logging.Log;
@@ -108,95 +108,63 @@ public class MultipolygonBuilder {
 		return new Multipolygon(combineToRings(outerWays), combineToRings(innerWays), id);
 	}
 
+	/**
+	 * Combines ways to rings by their end points. Open ends are kept in the hash of {@link LineChainMerger},
+	 * so every way is merged in constant time and nodes of a ring are copied only once when the ring is complete.
+	 */
 	public ArrayList<Ring> combineToRings(List<Way> ways) {
-		// make a list of multiLines (connecter pieces of way)
-		ArrayList<Way> multiLines = new ArrayList<Way>();
+		List<Way> segments = new ArrayList<Way>(ways.size());
+		LineChainMerger merger = new LineChainMerger(ways.size());
+		ArrayList<Ring> result = new ArrayList<Ring>();
 		for (Way toAdd : ways) {
 			if (toAdd.getNodeIds().size() < 2) {
 				continue;
 			}
-			// iterate over the multiLines, and add the way to the correct one
-			Way changedWay = toAdd;
-			Way newWay;
-			do {
-				newWay = null;
-				if(changedWay != null) {
-					ListIterator<Way> it = multiLines.listIterator();
-					while(it.hasNext()){
-						Way w = it.next();
-						newWay = combineTwoWaysIfHasPoints(changedWay, w);
-						if(newWay != null) {
-							changedWay = newWay;
-							it.remove();
-							break;
-						}
-					}
-				}
-			} while(newWay != null);
-			multiLines.add(changedWay);
-			
+			segments.add(toAdd);
+			int ring = merger.addSegment(toAdd.getFirstNodeId(), toAdd.getLastNodeId());
+			if (ring != LineChainMerger.NO_RING) {
+				result.add(new Ring(combineChain(merger, ring, segments)));
+			}
 		}
-		ArrayList<Ring> result = new ArrayList<Ring>();
-		for (Way multiLine : multiLines) {
-			Ring r = new Ring(multiLine);
-			result.add(r);
+		// not closed multilines
+		for (int chain : merger.getOpenChains()) {
+			result.add(new Ring(combineChain(merger, chain, segments)));
 		}
 		return result;
 	}
 
 	/**
-	 * make a new Way with the nodes from two other ways
-	 * 
-	 * @param w1
-	 *            the first way
-	 * @param w2
-	 *            the second way
-	 * @return null if it is not possible
+	 * make a new Way with the nodes of the chain ways (the way itself if chain consists of one way)
 	 */
-	private Way combineTwoWaysIfHasPoints(Way w1, Way w2) {
-		boolean combine = true;
-		boolean firstReverse = false;
-		boolean secondReverse = false;
-		if (w1.getFirstNodeId() == w2.getFirstNodeId()) {
-			firstReverse = true;
-			secondReverse = false;
-		} else if (w1.getLastNodeId() == w2.getFirstNodeId()) {
-			firstReverse = false;
-			secondReverse = false;
-		} else if (w1.getLastNodeId() == w2.getLastNodeId()) {
-			firstReverse = false;
-			secondReverse = true;
-		} else if (w1.getFirstNodeId() == w2.getLastNodeId()) {
-			firstReverse = true;
-			secondReverse = true;
-		} else {
-			combine = false;
+	private Way combineChain(LineChainMerger merger, int chain, List<Way> segments) {
+		int[] chainSegments = merger.getChainSegments(chain);
+		if (chainSegments.length == 1 && !merger.isReversed(chainSegments[0])) {
+			return segments.get(chainSegments[0]);
 		}
-		if (combine) {
-			Way newWay = new Way(nextRandId());
-			boolean nodePresent = w1.getNodes() != null || w1.getNodes().size() != 0;
-			int w1size = nodePresent ? w1.getNodes().size() : w1.getNodeIds().size();
-			for (int i = 0; i < w1size; i++) {
-				int ind = firstReverse ? (w1size - 1 - i) : i;
-				if (nodePresent) {
-					newWay.addNode(w1.getNodes().get(ind));
-				} else {
-					newWay.addNode(w1.getNodeIds().get(ind));
-				}
+		boolean nodePresent = true;
+		for (int s : chainSegments) {
+			Way w = segments.get(s);
+			if (w.getNodes() == null || w.getNodes().size() != w.getNodeIds().size()) {
+				nodePresent = false;
+				break;
 			}
-			int w2size = nodePresent ? w2.getNodes().size() : w2.getNodeIds().size();
-			for (int i = 1; i < w2size; i++) {
-				int ind = secondReverse ? (w2size - 1 - i) : i;
+		}
+		Way newWay = new Way(nextRandId());
+		for (int k = 0; k < chainSegments.length; k++) {
+			Way w = segments.get(chainSegments[k]);
+			boolean reverse = merger.isReversed(chainSegments[k]);
+			int wsize = w.getNodeIds().size();
+			// shared end point is added once
+			for (int i = k == 0 ? 0 : 1; i < wsize; i++) {
+				int ind = reverse ? (wsize - 1 - i) : i;
 				if (nodePresent) {
-					newWay.addNode(w2.getNodes().get(ind));
+					newWay.addNode(w.getNodes().get(ind));
 				} else {
-					newWay.addNode(w2.getNodeIds().get(ind));
+					newWay.addNode(w.getNodeIds().get(ind));
 				}
 			}
-			return newWay;
 		}
-		return null;
-
+		return newWay;
 	}
 
 	private static long initialValue = -1000;
@@ -0,0 +1,173 @@
+package net.osmand.data;
+
+import java.util.List;
+
+import net.osmand.osm.edit.Node;
+
+/**
+ * Read-only geometry of a ring prepared for many containment tests. <p />
+ *
+ * Coordinates are copied into primitive arrays, edges are put into latitude buckets
+ * so ray casting only touches edges which latitude range could contain the point.
+ * Each edge is tested exactly as {@link net.osmand.osm.edit.OsmMapUtils#ray_intersect_lon} does
+ * (ring is always considered closed : last and first nodes are connected).
+ */
+public class PreparedRing {
+
+	private static final double NO_INTERSECTION = -360.0d;
+	private static final double LAT_SHIFT = 0.00000001d;
+	private static final int EDGES_PER_BUCKET = 4;
+	private static final int MAX_BUCKETS = 4096;
+
+	// edge i is (lat[i], lon[i]) -> (lat[i + 1], lon[i + 1])
+	private final double[] lat;
+	private final double[] lon;
+	private final int edges;
+
+	private double minLat = Double.POSITIVE_INFINITY;
+	private double maxLat = Double.NEGATIVE_INFINITY;
+	private double minLon = Double.POSITIVE_INFINITY;
+	private double maxLon = Double.NEGATIVE_INFINITY;
+
+	private int buckets;
+	private double bucketHeight;
+	// edges of bucket b are bucketEdges[bucketStart[b] .. bucketStart[b + 1])
+	private int[] bucketStart;
+	private int[] bucketEdges;
+
+	public PreparedRing(List<Node> nodes) {
+		int size = 0;
+		for (Node n : nodes) {
+			if (n != null) {
+				size++;
+			}
+		}
+		// closing edge is always added
+		lat = new double[size + 1];
+		lon = new double[size + 1];
+		int i = 0;
+		for (Node n : nodes) {
+			if (n != null) {
+				lat[i] = n.getLatitude();
+				lon[i] = n.getLongitude();
+				minLat = Math.min(minLat, lat[i]);
+				maxLat = Math.max(maxLat, lat[i]);
+				minLon = Math.min(minLon, lon[i]);
+				maxLon = Math.max(maxLon, lon[i]);
+				i++;
+			}
+		}
+		if (size > 0) {
+			lat[size] = lat[0];
+			lon[size] = lon[0];
+		}
+		edges = size;
+		buildBuckets();
+	}
+
+	private void buildBuckets() {
+		buckets = Math.max(1, Math.min(MAX_BUCKETS, edges / EDGES_PER_BUCKET));
+		double height = maxLat - minLat;
+		bucketHeight = height > 0 ? height / buckets : 1;
+		bucketStart = new int[buckets + 1];
+		// 1. count edges per bucket
+		for (int e = 0; e < edges; e++) {
+			int st = bucket(Math.min(lat[e], lat[e + 1]) - LAT_SHIFT);
+			int end = bucket(Math.max(lat[e], lat[e + 1]) + LAT_SHIFT);
+			for (int b = st; b <= end; b++) {
+				bucketStart[b + 1]++;
+			}
+		}
+		for (int b = 0; b < buckets; b++) {
+			bucketStart[b + 1] += bucketStart[b];
+		}
+		// 2. fill edges, inside bucket edges stay sorted by index
+		bucketEdges = new int[bucketStart[buckets]];
+		int[] fill = new int[buckets];
+		for (int e = 0; e < edges; e++) {
+			int st = bucket(Math.min(lat[e], lat[e + 1]) - LAT_SHIFT);
+			int end = bucket(Math.max(lat[e], lat[e + 1]) + LAT_SHIFT);
+			for (int b = st; b <= end; b++) {
+				bucketEdges[bucketStart[b] + fill[b]++] = e;
+			}
+		}
+	}
+
+	private int bucket(double latitude) {
+		int b = (int) ((latitude - minLat) / bucketHeight);
+		if (b < 0) {
+			return 0;
+		}
+		return b >= buckets ? buckets - 1 : b;
+	}
+
+	public boolean isEmpty() {
+		return edges == 0;
+	}
+
+	public double getMinLatitude() {
+		return minLat;
+	}
+
+	public double getMaxLatitude() {
+		return maxLat;
+	}
+
+	public double getMinLongitude() {
+		return minLon;
+	}
+
+	public double getMaxLongitude() {
+		return maxLon;
+	}
+
+	public boolean containsPoint(double latitude, double longitude) {
+		return countIntersections(latitude, longitude) % 2 == 1;
+	}
+
+	/**
+	 * count the intersections when going from lat, lon to outside the ring
+	 */
+	public int countIntersections(double latitude, double longitude) {
+		if (edges == 0 || longitude < minLon || latitude < minLat - LAT_SHIFT || latitude > maxLat + LAT_SHIFT) {
+			return 0;
+		}
+		int b = bucket(latitude);
+		int intersections = 0;
+		for (int i = bucketStart[b]; i < bucketStart[b + 1]; i++) {
+			int e = bucketEdges[i];
+			if (rayIntersectLon(lat[e], lon[e], lat[e + 1], lon[e + 1], latitude, longitude) != NO_INTERSECTION) {
+				intersections++;
+			}
+		}
+		return intersections;
+	}
+
+	private static double rayIntersectLon(double lat1, double lon1, double lat2, double lon2, double latitude, double longitude) {
+		// a node below
+		boolean firstBelow = lat1 < lat2;
+		double aLat = firstBelow ? lat1 : lat2;
+		double aLon = firstBelow ? lon1 : lon2;
+		// b node above
+		double bLat = firstBelow ? lat2 : lat1;
+		double bLon = firstBelow ? lon2 : lon1;
+		if (latitude == aLat || latitude == bLat) {
+			latitude += LAT_SHIFT;
+		}
+		if (latitude < aLat || latitude > bLat) {
+			return NO_INTERSECTION;
+		}
+		if (longitude < Math.min(aLon, bLon)) {
+			return NO_INTERSECTION;
+		}
+		if (aLon == bLon && longitude == aLon) {
+			// the node on the boundary !!!
+			return longitude;
+		}
+		double l = bLon - (bLat - latitude) * (bLon - aLon) / (bLat - aLat);
+		if (l <= longitude) {
+			return l;
+		}
+		return NO_INTERSECTION;
+	}
+}
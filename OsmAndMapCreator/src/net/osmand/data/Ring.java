@@ -32,6 +32,11 @@ public class Ring implements Comparable<Ring> {
 	 */
 	private double area = -1;
 	
+	/**
+	 * primitive copy of the border used for containment tests, created on first use
+	 */
+	private PreparedRing prepared;
+	
 
 	/**
 	 * Construct a Ring with a list of ways
@@ -75,25 +80,20 @@ public class Ring implements Comparable<Ring> {
 	
 	/**
 	 * count the intersections when going from lat, lon to outside the ring
+	 * (first and last nodes are also connected, ring might not be closed, but we want this!)
 	 */
 	private int countIntersections(double latitude, double longitude) {
-		int intersections = 0;
-		
-		List<Node> polyNodes = getBorder();
-		if (polyNodes.size() == 0) return 0;
-		for (int i = 0; i < polyNodes.size() - 1; i++) {
-			if (OsmMapUtils.ray_intersect_lon(polyNodes.get(i),
-					polyNodes.get(i + 1), latitude, longitude) != -360.0d) {
-				intersections++;
-			}
-		}
-		// special handling, also count first and last, might not be closed, but
-		// we want this!
-		if (OsmMapUtils.ray_intersect_lon(polyNodes.get(0),
-				polyNodes.get(polyNodes.size() - 1), latitude, longitude) != -360.0d) {
-			intersections++;
+		return getPreparedRing().countIntersections(latitude, longitude);
+	}
+	
+	/**
+	 * @return prepared geometry of the border, border should not be changed after that
+	 */
+	public PreparedRing getPreparedRing() {
+		if (prepared == null) {
+			prepared = new PreparedRing(getBorder());
 		}
-		return intersections;
+		return prepared;
 	}
 	
 	
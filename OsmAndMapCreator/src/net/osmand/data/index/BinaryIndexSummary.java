@@ -0,0 +1,198 @@
+package net.osmand.data.index;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import net.osmand.binary.OsmandOdb;
+
+import com.google.protobuf.WireFormat;
+
+/**
+ * Top level structure of the binary index collected from the bytes of the file as they are read
+ * (zip entry or file stream), so the index doesn't need to be extracted to be described. <p />
+ *
+ * Only fields of OsmAndStructure are parsed, content of the sections is skipped.
+ */
+class BinaryIndexSummary {
+
+	private static final int TAG = 0;
+	private static final int VARINT = 1;
+	private static final int LENGTH = 2;
+	private static final int FIXED32_LENGTH = 3;
+	private static final int SKIP = 4;
+
+	private int state = TAG;
+	private long value;
+	private int shift;
+	private int field;
+	private long toSkip;
+	private int fixedRead;
+
+	private int version = -1;
+	private long dateCreated;
+	private int versionConfirm = -1;
+	private boolean mapData;
+	private boolean routeData;
+	private boolean poiData;
+	private boolean addressData;
+	private boolean transportData;
+
+	public void update(byte[] b, int off, int len) {
+		int end = off + len;
+		int i = off;
+		while (i < end) {
+			if (state == SKIP) {
+				int s = (int) Math.min(toSkip, end - i);
+				i += s;
+				toSkip -= s;
+				if (toSkip == 0) {
+					state = TAG;
+				}
+				continue;
+			}
+			int c = b[i++] & 0xff;
+			if (state == FIXED32_LENGTH) {
+				value = (value << 8) | c;
+				if (++fixedRead == 4) {
+					startSkip(value);
+				}
+				continue;
+			}
+			value |= ((long) (c & 0x7f)) << shift;
+			shift += 7;
+			if ((c & 0x80) != 0) {
+				continue;
+			}
+			long v = value;
+			value = 0;
+			shift = 0;
+			if (state == TAG) {
+				readTag((int) v);
+			} else if (state == VARINT) {
+				readValue(v);
+				state = TAG;
+			} else if (state == LENGTH) {
+				startSkip(v);
+			}
+		}
+	}
+
+	/**
+	 * Reads the structure from the stream, content of the sections is skipped by the stream
+	 * (without reading it for file streams)
+	 */
+	public void scan(InputStream in) throws IOException {
+		byte[] b = new byte[1];
+		while (true) {
+			if (state == SKIP) {
+				long s = in.skip(toSkip);
+				if (s <= 0) {
+					// skip could return 0 before the end of the stream
+					if (in.read() == -1) {
+						return;
+					}
+					s = 1;
+				}
+				toSkip -= s;
+				if (toSkip == 0) {
+					state = TAG;
+				}
+				continue;
+			}
+			int c = in.read();
+			if (c == -1) {
+				return;
+			}
+			b[0] = (byte) c;
+			update(b, 0, 1);
+		}
+	}
+
+	private void readTag(int tag) {
+		field = tag >>> 3;
+		int wireType = tag & 7;
+		if (wireType == WireFormat.WIRETYPE_VARINT) {
+			state = VARINT;
+		} else if (wireType == WireFormat.WIRETYPE_FIXED64) {
+			startSkip(8);
+		} else if (wireType == WireFormat.WIRETYPE_FIXED32) {
+			startSkip(4);
+		} else if (wireType == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+			state = LENGTH;
+		} else if (wireType == WireFormat.WIRETYPE_FIXED32_LENGTH_DELIMITED) {
+			state = FIXED32_LENGTH;
+			fixedRead = 0;
+		} else {
+			throw new IllegalStateException("Unsupported wire type " + wireType + " of field " + field);
+		}
+		if (field == OsmandOdb.OsmAndStructure.MAPINDEX_FIELD_NUMBER) {
+			mapData = true;
+		} else if (field == OsmandOdb.OsmAndStructure.ROUTINGINDEX_FIELD_NUMBER) {
+			routeData = true;
+		} else if (field == OsmandOdb.OsmAndStructure.POIINDEX_FIELD_NUMBER) {
+			poiData = true;
+		} else if (field == OsmandOdb.OsmAndStructure.ADDRESSINDEX_FIELD_NUMBER) {
+			addressData = true;
+		} else if (field == OsmandOdb.OsmAndStructure.TRANSPORTINDEX_FIELD_NUMBER) {
+			transportData = true;
+		}
+	}
+
+	private void readValue(long v) {
+		if (field == OsmandOdb.OsmAndStructure.VERSION_FIELD_NUMBER) {
+			version = (int) v;
+		} else if (field == OsmandOdb.OsmAndStructure.DATECREATED_FIELD_NUMBER) {
+			dateCreated = v;
+		} else if (field == OsmandOdb.OsmAndStructure.VERSIONCONFIRM_FIELD_NUMBER) {
+			versionConfirm = (int) v;
+		}
+	}
+
+	private void startSkip(long length) {
+		value = 0;
+		toSkip = length;
+		state = length == 0 ? TAG : SKIP;
+	}
+
+	/**
+	 * @return true if version and date are read (first bytes of the file)
+	 */
+	public boolean isHeaderRead() {
+		return version != -1 && dateCreated != 0;
+	}
+
+	/**
+	 * @return true if the whole structure was read and confirmed by the version at the end
+	 */
+	public boolean isComplete() {
+		return state == TAG && shift == 0 && versionConfirm != -1 && versionConfirm == version;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	public long getDateCreated() {
+		return dateCreated;
+	}
+
+	public boolean containsMapData() {
+		return mapData;
+	}
+
+	public boolean containsRouteData() {
+		return routeData;
+	}
+
+	public boolean containsPoiData() {
+		return poiData;
+	}
+
+	public boolean containsAddressData() {
+		return addressData;
+	}
+
+	public boolean hasTransportData() {
+		return transportData;
+	}
+}
@@ -10,20 +10,32 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.FileHandler;
+import java.util.logging.Filter;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
 import java.util.logging.SimpleFormatter;
 
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -54,6 +66,9 @@ import rtree.RTree;
 public class IndexBatchCreator {
 	
 	private static final int INMEM_LIMIT = 600;
+	// heap needed to generate region relative to the size of its input file
+	private static final int DEFAULT_MEMORY_PER_INPUT_SIZE = 8;
+	private static final int MIN_REGION_MEMORY_MB = 256;
 
 	protected static final Log log = PlatformUtil.getLog(IndexBatchCreator.class);
 	
@@ -72,12 +87,129 @@ public class IndexBatchCreator {
 		public String downloadName;
 	}
 	
+	private static class RegionTask {
+		File file;
+		String regionName;
+		RegionSpecificData regionSpecificData;
+		// set for regions to download
+		String url;
+		String fileName;
+		
+		public RegionTask(File file, String regionName, RegionSpecificData regionSpecificData) {
+			this.file = file;
+			this.regionName = regionName;
+			this.regionSpecificData = regionSpecificData;
+		}
+	}
+	
+	// region generated by the thread : helper threads started while region is generated inherit it,
+	// so their log messages go to the log of the region
+	private static final InheritableThreadLocal<String> GENERATED_REGION = new InheritableThreadLocal<String>();
+	
+	private static final Comparator<RegionTask> LARGEST_FIRST = new Comparator<RegionTask>() {
+		@Override
+		public int compare(RegionTask o1, RegionTask o2) {
+			long l1 = o1.file.length();
+			long l2 = o2.file.length();
+			return l1 == l2 ? o1.file.getName().compareTo(o2.file.getName()) : (l1 > l2 ? -1 : 1);
+		}
+	};
+	
+	/**
+	 * Downloads of the interrupted batch : url of every started download, validator of the downloaded content
+	 * (ETag or Last-Modified) and whether it was finished. Finished files are reused and partial files (.part)
+	 * are continued by the next batch with the same urls only if the content on the server is not changed.
+	 */
+	static class DownloadManifest {
+		public static final String FILE_NAME = "download.manifest";
+		private final File file;
+		private final Properties props = new Properties();
+		
+		public DownloadManifest(File dir) throws IOException {
+			file = new File(dir, FILE_NAME);
+			if (file.exists()) {
+				FileInputStream fis = new FileInputStream(file);
+				try {
+					props.load(fis);
+				} finally {
+					fis.close();
+				}
+			}
+		}
+		
+		public synchronized boolean isFinished(String fileName, String url) {
+			return url.equals(props.getProperty(fileName + ".url")) && Boolean.parseBoolean(props.getProperty(fileName + ".done"));
+		}
+		
+		public synchronized boolean canResume(String fileName, String url) {
+			return url.equals(props.getProperty(fileName + ".url")) && !Boolean.parseBoolean(props.getProperty(fileName + ".done"));
+		}
+		
+		/**
+		 * @return validator of the started download or null if it is not known
+		 */
+		public synchronized String getValidator(String fileName) {
+			return props.getProperty(fileName + ".validator");
+		}
+		
+		public synchronized void started(String fileName, String url, String validator) throws IOException {
+			props.setProperty(fileName + ".url", url);
+			props.remove(fileName + ".done");
+			if (validator == null) {
+				props.remove(fileName + ".validator");
+			} else {
+				props.setProperty(fileName + ".validator", validator);
+			}
+			save();
+		}
+		
+		public synchronized void finished(String fileName) throws IOException {
+			props.setProperty(fileName + ".done", "true");
+			save();
+		}
+		
+		private void save() throws IOException {
+			FileOutputStream fous = new FileOutputStream(file);
+			try {
+				props.store(fous, "Downloads of the batch");
+			} finally {
+				fous.close();
+			}
+		}
+		
+		/**
+		 * Forgets finished downloads, so the next batch downloads fresh files and continues only partial ones
+		 * (manifest is deleted if no partial download is left).
+		 */
+		public synchronized void removeFinished() throws IOException {
+			for (String key : props.stringPropertyNames()) {
+				if (key.endsWith(".done") && Boolean.parseBoolean(props.getProperty(key))) {
+					String fileName = key.substring(0, key.length() - ".done".length());
+					props.remove(fileName + ".url");
+					props.remove(fileName + ".validator");
+					props.remove(key);
+				}
+			}
+			if (props.isEmpty()) {
+				file.delete();
+			} else {
+				save();
+			}
+		}
+	}
+	
 	
 	// process atributtes
 	File skipExistingIndexes;
 	MapZooms mapZooms = null;
 	Integer zoomWaySmoothness = null; 
 	MapRenderingTypesEncoder types = MapRenderingTypesEncoder.getDefault();
+	String renderingTypesFile = null;
+	// number of regions generated at the same time
+	int threads = 1;
+	int memoryPerInputSize = DEFAULT_MEMORY_PER_INPUT_SIZE;
+	// keep intermediate results and regenerate only sections which inputs changed
+	boolean incremental = false;
 	
 	File osmDirFiles;
 	File indexDirFiles;
@@ -90,6 +222,11 @@ public class IndexBatchCreator {
 	boolean indexRouting = false;
 	
 	private String wget;
+	// number of threads downloading while regions are generated (0 - download and generate one by one)
+	int downloadThreads = 0;
+	// limit of downloaded input waiting for generation (MB, 0 - no limit)
+	long downloadedLimit = 0;
+	DownloadManifest downloadManifest;
 
 	private DBDialect osmDbDialect;
 	private DBDialect mapDBDialect;
@@ -153,6 +290,14 @@ public class IndexBatchCreator {
 			skipExistingIndexes = new File(file);
 		}
 		wget = process.getAttribute("wget");
+		String sdownloadThreads = process.getAttribute("downloadThreads");
+		if (sdownloadThreads != null && !sdownloadThreads.isEmpty()) {
+			downloadThreads = Integer.parseInt(sdownloadThreads);
+		}
+		String sdownloadedLimit = process.getAttribute("downloadedLimitMb");
+		if (sdownloadedLimit != null && !sdownloadedLimit.isEmpty()) {
+			downloadedLimit = Long.parseLong(sdownloadedLimit);
+		}
 		
 		indexPOI = Boolean.parseBoolean(process.getAttribute("indexPOI"));
 		indexMap = Boolean.parseBoolean(process.getAttribute("indexMap"));
@@ -243,11 +388,26 @@ public class IndexBatchCreator {
 		}
 		String f = process.getAttribute("renderingTypesFile");
 		if(f == null || f.length() == 0){
+			renderingTypesFile = null;
 			types = MapRenderingTypesEncoder.getDefault();
 		} else {
+			renderingTypesFile = f;
 			types = new MapRenderingTypesEncoder(f);
 		}
 		
+		String sthreads = process.getAttribute("threads");
+		if (sthreads != null && !sthreads.isEmpty()) {
+			threads = Math.max(1, Integer.parseInt(sthreads));
+		}
+		String smemory = process.getAttribute("memoryPerInputSize");
+		if (smemory != null && !smemory.isEmpty()) {
+			memoryPerInputSize = Integer.parseInt(smemory);
+		}
+		String sincremental = process.getAttribute("incremental");
+		if (sincremental != null && !sincremental.isEmpty()) {
+			incremental = Boolean.parseBoolean(sincremental);
+		}
+		
 		String osmDbDialect = process.getAttribute("osmDbDialect");
 		if(osmDbDialect != null && osmDbDialect.length() > 0){
 			try {
@@ -266,7 +426,8 @@ public class IndexBatchCreator {
 	}
 	
 	public void runBatch(List<RegionCountries> countriesToDownload ){
-		Set<String> alreadyGeneratedFiles = new LinkedHashSet<String>();
+		// regions could be generated concurrently
+		Set<String> alreadyGeneratedFiles = Collections.synchronizedSet(new LinkedHashSet<String>());
 		if(!countriesToDownload.isEmpty()){
 			downloadFilesAndGenerateIndex(countriesToDownload, alreadyGeneratedFiles);
 		}
@@ -282,6 +443,7 @@ public class IndexBatchCreator {
 //			f.delete();
 //		}
 		
+		List<RegionTask> tasks = new ArrayList<RegionTask>();
 		for(RegionCountries regionCountries : countriesToDownload){
 			String prefix = regionCountries.namePrefix;
 			String site = regionCountries.siteToDownload;
@@ -301,11 +463,173 @@ public class IndexBatchCreator {
 						continue;
 					}
 				}
+				if (downloadThreads > 0) {
+					RegionTask task = new RegionTask(null, regionName, regionSpecificData);
+					task.url = url;
+					task.fileName = fileName;
+					tasks.add(task);
+					continue;
+				}
 				File toSave = downloadFile(url,  fileName);
 				if (toSave != null) {
-					generateIndex(toSave, regionName, regionSpecificData, alreadyGeneratedFiles);
+					if (threads > 1) {
+						tasks.add(new RegionTask(toSave, regionName, regionSpecificData));
+					} else {
+						generateIndex(toSave, regionName, regionSpecificData, alreadyGeneratedFiles);
+					}
+				}
+			}
+		}
+		if (downloadThreads > 0) {
+			downloadAndGenerateIndexes(tasks, alreadyGeneratedFiles);
+		} else {
+			generateIndexesConcurrently(tasks, alreadyGeneratedFiles);
+		}
+	}
+	
+	/**
+	 * Bytes of downloaded input waiting for generation and of downloads in progress (reserved by size of the content
+	 * before download starts). Download waits while reserved bytes would exceed the limit, single file larger than
+	 * the limit is downloaded when nothing else is reserved.
+	 */
+	static class DownloadLimit {
+		private final long limit;
+		private long reserved;
+		
+		public DownloadLimit(long limit) {
+			this.limit = limit;
+		}
+		
+		public synchronized void reserve(long bytes) throws InterruptedException {
+			// size of some downloads is not known, they wait only while the limit is reached
+			while (limit > 0 && reserved > 0 && (bytes > 0 ? reserved + bytes > limit : reserved >= limit)) {
+				wait();
+			}
+			reserved += bytes;
+		}
+		
+		/**
+		 * Corrects reservation when real size of the file is known
+		 */
+		public synchronized void update(long reservedBytes, long realBytes) {
+			reserved += realBytes - reservedBytes;
+			notifyAll();
+		}
+		
+		public synchronized void release(long bytes) {
+			reserved -= bytes;
+			notifyAll();
+		}
+		
+		public synchronized long getReserved() {
+			return reserved;
+		}
+	}
+	
+	/**
+	 * Pipelined batch : downloads go in parallel with generation, every downloaded region is queued for generation
+	 * (the largest of downloaded regions is generated first). Downloads wait while too much input is downloaded
+	 * or being downloaded.
+	 */
+	protected void downloadAndGenerateIndexes(List<RegionTask> tasks, final Set<String> alreadyGeneratedFiles) {
+		if (tasks.isEmpty()) {
+			return;
+		}
+		try {
+			downloadManifest = new DownloadManifest(osmDirFiles);
+		} catch (IOException e) {
+			log.error("Download manifest can't be read, all files will be downloaded", e);
+			new File(osmDirFiles, DownloadManifest.FILE_NAME).delete();
+			downloadManifest = null;
+		}
+		final PriorityBlockingQueue<RegionTask> downloaded = new PriorityBlockingQueue<RegionTask>(tasks.size(), LARGEST_FIRST);
+		// regions not yet downloaded and generated (or failed)
+		final AtomicInteger remaining = new AtomicInteger(tasks.size());
+		final DownloadLimit limit = new DownloadLimit(downloadedLimit << 20);
+		ExecutorService downloaders = Executors.newFixedThreadPool(downloadThreads);
+		for (final RegionTask t : tasks) {
+			downloaders.submit(new Runnable() {
+				@Override
+				public void run() {
+					boolean queued = false;
+					long reserved = 0;
+					try {
+						long size = downloadedLimit > 0 ? getContentLength(t.url) : 0;
+						limit.reserve(size);
+						reserved = size;
+						t.file = downloadFile(t.url, t.fileName);
+						if (t.file != null) {
+							limit.update(reserved, t.file.length());
+							reserved = 0;
+							downloaded.add(t);
+							queued = true;
+						}
+					} catch (InterruptedException e) {
+						log.error("Download of " + t.fileName + " is interrupted", e);
+					} catch (RuntimeException e) {
+						log.error("Exception downloading " + t.fileName, e);
+					} finally {
+						if (!queued) {
+							limit.release(reserved);
+							remaining.decrementAndGet();
+						}
+					}
+				}
+			});
+		}
+		downloaders.shutdown();
+		
+		final int totalMemory = (int) (Runtime.getRuntime().maxMemory() >> 20);
+		final Semaphore memory = new Semaphore(totalMemory, true);
+		if (threads > 1) {
+			RTree.clearCache();
+		}
+		ExecutorService generators = Executors.newFixedThreadPool(threads);
+		for (int i = 0; i < threads; i++) {
+			generators.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (remaining.get() > 0) {
+							RegionTask t = downloaded.poll(1, TimeUnit.SECONDS);
+							if (t == null) {
+								continue;
+							}
+							long size = t.file.length();
+							try {
+								generateRegion(t, memory, totalMemory, alreadyGeneratedFiles);
+							} finally {
+								limit.release(size);
+								remaining.decrementAndGet();
+							}
+						}
+					} catch (InterruptedException e) {
+						log.error("Generation is interrupted", e);
+					}
 				}
+			});
+		}
+		generators.shutdown();
+		awaitTermination(downloaders);
+		awaitTermination(generators);
+		if (downloadManifest != null) {
+			// batch is completed, failed downloads keep their .part files to be continued by the next batch
+			try {
+				downloadManifest.removeFinished();
+			} catch (IOException e) {
+				log.error("Download manifest can't be saved", e);
 			}
+			downloadManifest = null;
+		}
+	}
+	
+	private static void awaitTermination(ExecutorService service) {
+		try {
+			while (!service.awaitTermination(1, TimeUnit.MINUTES)) {
+			}
+		} catch (InterruptedException e) {
+			service.shutdownNow();
+			throw new IllegalStateException(e);
 		}
 	}
 	
@@ -318,26 +642,73 @@ public class IndexBatchCreator {
 		}
 		File toIndex = null;
 		File saveTo = new File(osmDirFiles, regionName + ext);
-		if (wget == null || wget.trim().length() == 0) {
-			toIndex = internalDownload(url, saveTo);
-		} else {
-			toIndex = wgetDownload(url, saveTo);
+		DownloadManifest manifest = downloadManifest;
+		if (manifest == null) {
+			if (wget == null || wget.trim().length() == 0) {
+				toIndex = internalDownload(url, saveTo, false, null, null);
+			} else {
+				toIndex = wgetDownload(url, saveTo, false);
+			}
+			if(toIndex == null) {
+				saveTo.delete();
+			}
+			return toIndex;
+		}
+		// resumable download : file is downloaded to .part and renamed when it is complete
+		String name = saveTo.getName();
+		if (manifest.isFinished(name, url) && saveTo.exists()) {
+			log.info("Use already downloaded " + name);
+			return saveTo;
 		}
-		if(toIndex == null) {
-			saveTo.delete();
+		File part = new File(osmDirFiles, name + ".part");
+		boolean useWget = wget != null && wget.trim().length() > 0;
+		// content under the same url could change (-latest files), so part is continued only if it is the same
+		String validator = manifest.getValidator(name);
+		boolean resume = manifest.canResume(name, url) && part.exists() && validator != null;
+		try {
+			if (useWget) {
+				// wget can't check the validator itself, so it is compared before download
+				String current = getValidator(url);
+				resume = resume && validator.equals(current);
+				validator = current;
+			}
+			if (!resume) {
+				part.delete();
+				manifest.started(name, url, useWget ? validator : null);
+			}
+			if (!useWget) {
+				toIndex = internalDownload(url, part, resume, manifest, name);
+			} else {
+				toIndex = wgetDownload(url, part, resume);
+			}
+			if (toIndex != null) {
+				saveTo.delete();
+				if (!part.renameTo(saveTo)) {
+					throw new IOException("Can't rename " + part.getName());
+				}
+				manifest.finished(name);
+				return saveTo;
+			}
+		} catch (IOException e) {
+			log.error("Input/output exception " + name + " downloading from " + url, e); //$NON-NLS-1$
 		}
-		return toIndex;
+		// keep .part to continue download later
+		return null;
 	}
 
-	private File wgetDownload(String url,  File toSave) 
+	private File wgetDownload(String url,  File toSave, boolean resume) 
 	{
 		BufferedReader wgetOutput = null;
 		OutputStream wgetInput = null;
 		Process wgetProc = null;
 		try {
 			log.info("Executing " + wget + " " + url + " -O "+ toSave.getCanonicalPath()); //$NON-NLS-1$//$NON-NLS-2$ $NON-NLS-3$
-			ProcessBuilder exec = new ProcessBuilder(wget, "--read-timeout=5", "--progress=dot:binary", url, "-O", //$NON-NLS-1$//$NON-NLS-2$ $NON-NLS-3$
-					toSave.getCanonicalPath());
+			List<String> args = new ArrayList<String>(Arrays.asList(wget, "--read-timeout=5", "--progress=dot:binary", url, "-O", //$NON-NLS-1$//$NON-NLS-2$ $NON-NLS-3$
+					toSave.getCanonicalPath()));
+			if (resume) {
+				args.add(1, "--continue"); //$NON-NLS-1$
+			}
+			ProcessBuilder exec = new ProcessBuilder(args);
 			exec.redirectErrorStream(true);
 			wgetProc = exec.start();
 			wgetOutput = new BufferedReader(new InputStreamReader(wgetProc.getInputStream()));
@@ -368,7 +739,14 @@ public class IndexBatchCreator {
 	
 	private final static int DOWNLOAD_DEBUG = 1 << 20;
 	private final static int BUFFER_SIZE = 1 << 15;
-	private File internalDownload(String url, File toSave) {
+	// HttpURLConnection doesn't have constant for it
+	private final static int HTTP_RANGE_NOT_SATISFIABLE = 416;
+	
+	/**
+	 * @param manifest if not null, validator of the downloaded content is saved to it (download of the part is started
+	 * from scratch when the server returns the whole file or the part doesn't match the content)
+	 */
+	private File internalDownload(String url, File toSave, boolean resume, DownloadManifest manifest, String name) {
 		int count = 0;
 		int downloaded = 0;
 		int mbDownloaded = 0;
@@ -376,9 +754,44 @@ public class IndexBatchCreator {
 		OutputStream ostream = null;
 		InputStream stream = null;
 		try {
-			ostream = new FileOutputStream(toSave);
-			stream = new URL(url).openStream();
-			log.info("Downloading country " + toSave.getName() + " from " + url);  //$NON-NLS-1$//$NON-NLS-2$
+			URLConnection connection = new URL(url).openConnection();
+			long existing = resume ? toSave.length() : 0;
+			String validator = manifest != null ? manifest.getValidator(name) : null;
+			if (existing > 0 && validator != null) {
+				connection.setRequestProperty("Range", "bytes=" + existing + "-"); //$NON-NLS-1$ //$NON-NLS-2$
+				// server sends the whole file if content is changed
+				connection.setRequestProperty("If-Range", validator); //$NON-NLS-1$
+			} else {
+				existing = 0;
+			}
+			boolean append = false;
+			if (connection instanceof HttpURLConnection) {
+				HttpURLConnection http = (HttpURLConnection) connection;
+				int code = http.getResponseCode();
+				if (code == HTTP_RANGE_NOT_SATISFIABLE && existing > 0) {
+					// part is not less than the content : it is complete if it has the same length
+					long total = getContentRangeTotal(http.getHeaderField("Content-Range")); //$NON-NLS-1$
+					http.disconnect();
+					if (total == existing) {
+						log.info("Already downloaded " + toSave.getName());  //$NON-NLS-1$
+						return toSave;
+					}
+					log.info("Downloaded part doesn't match " + url + ", download again");  //$NON-NLS-1$
+					return internalDownload(url, toSave, false, manifest, name);
+				}
+				// server could ignore range (or content was changed) and send the whole file
+				append = existing > 0 && code == HttpURLConnection.HTTP_PARTIAL;
+			}
+			stream = connection.getInputStream();
+			if (!append && manifest != null) {
+				manifest.started(name, url, getValidator(connection));
+			}
+			ostream = new FileOutputStream(toSave, append);
+			if (append) {
+				log.info("Continue downloading country " + toSave.getName() + " from " + url + " at " + existing);  //$NON-NLS-1$//$NON-NLS-2$
+			} else {
+				log.info("Downloading country " + toSave.getName() + " from " + url);  //$NON-NLS-1$//$NON-NLS-2$
+			}
 			while ((count = stream.read(buffer)) != -1) {
 				ostream.write(buffer, 0, count);
 				downloaded += count;
@@ -397,6 +810,79 @@ public class IndexBatchCreator {
 		}
 		return null;
 	}
+	
+	/**
+	 * @return strong ETag or Last-Modified of the response (could be sent as If-Range), null if there is none
+	 */
+	private static String getValidator(URLConnection connection) {
+		String etag = connection.getHeaderField("ETag"); //$NON-NLS-1$
+		if (etag != null && !etag.startsWith("W/")) { //$NON-NLS-1$
+			return etag;
+		}
+		return connection.getHeaderField("Last-Modified"); //$NON-NLS-1$
+	}
+	
+	/**
+	 * @return validator of the current content of the url (HEAD request), null if it is not known
+	 */
+	private static String getValidator(String url) {
+		try {
+			URLConnection connection = new URL(url).openConnection();
+			if (!(connection instanceof HttpURLConnection)) {
+				return null;
+			}
+			HttpURLConnection http = (HttpURLConnection) connection;
+			http.setRequestMethod("HEAD"); //$NON-NLS-1$
+			try {
+				return http.getResponseCode() == HttpURLConnection.HTTP_OK ? getValidator(http) : null;
+			} finally {
+				http.disconnect();
+			}
+		} catch (IOException e) {
+			log.warn("Can't check " + url, e); //$NON-NLS-1$
+			return null;
+		}
+	}
+	
+	/**
+	 * @return length of the content (HEAD request), 0 if it is not known
+	 */
+	private static long getContentLength(String url) {
+		try {
+			URLConnection connection = new URL(url).openConnection();
+			if (!(connection instanceof HttpURLConnection)) {
+				return 0;
+			}
+			HttpURLConnection http = (HttpURLConnection) connection;
+			http.setRequestMethod("HEAD"); //$NON-NLS-1$
+			try {
+				String length = http.getHeaderField("Content-Length"); //$NON-NLS-1$
+				return http.getResponseCode() == HttpURLConnection.HTTP_OK && length != null ? Long.parseLong(length.trim()) : 0;
+			} finally {
+				http.disconnect();
+			}
+		} catch (IOException e) {
+			log.warn("Can't check " + url, e); //$NON-NLS-1$
+			return 0;
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+	
+	/**
+	 * @return total length from "bytes &#42;/total" (or "bytes from-to/total"), -1 if it is not known
+	 */
+	static long getContentRangeTotal(String contentRange) {
+		if (contentRange == null) {
+			return -1;
+		}
+		int i = contentRange.lastIndexOf('/');
+		try {
+			return i == -1 ? -1 : Long.parseLong(contentRange.substring(i + 1).trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
 
 	private static void safeClose(Closeable ostream, String message) {
 		if (ostream != null) {
@@ -409,6 +895,7 @@ public class IndexBatchCreator {
 	}
 	
 	protected void generatedIndexes(Set<String> alreadyGeneratedFiles) {
+		List<RegionTask> tasks = new ArrayList<RegionTask>();
 		for (File f : getSortedFiles(osmDirFiles)) {
 			if (alreadyGeneratedFiles.contains(f.getName())) {
 				continue;
@@ -424,18 +911,71 @@ public class IndexBatchCreator {
 						continue;
 					}
 				}
-				generateIndex(f, null, null, alreadyGeneratedFiles);
+				if (threads > 1) {
+					tasks.add(new RegionTask(f, null, null));
+				} else {
+					generateIndex(f, null, null, alreadyGeneratedFiles);
+				}
 			}
 		}
+		generateIndexesConcurrently(tasks, alreadyGeneratedFiles);
 		log.info("GENERATING INDEXES FINISHED ");
 	}
 	
+	/**
+	 * Generates regions by several threads : the largest regions are started first (they define total time)
+	 * and every region takes heap budget proportional to its input file, so small regions fill the rest of the heap.
+	 */
+	protected void generateIndexesConcurrently(List<RegionTask> tasks, final Set<String> alreadyGeneratedFiles) {
+		if (tasks.isEmpty()) {
+			return;
+		}
+		Collections.sort(tasks, LARGEST_FIRST);
+		// trees of regions use different files so they could share the cache but it can't be cleared while generating
+		RTree.clearCache();
+		final int totalMemory = (int) (Runtime.getRuntime().maxMemory() >> 20);
+		// fair semaphore keeps the order of regions : a small region doesn't overtake waiting large region
+		final Semaphore memory = new Semaphore(totalMemory, true);
+		ExecutorService service = Executors.newFixedThreadPool(threads);
+		for (final RegionTask t : tasks) {
+			service.submit(new Runnable() {
+				@Override
+				public void run() {
+					generateRegion(t, memory, totalMemory, alreadyGeneratedFiles);
+				}
+			});
+		}
+		service.shutdown();
+		awaitTermination(service);
+	}
+	
+	private void generateRegion(RegionTask t, Semaphore memory, int totalMemory, Set<String> alreadyGeneratedFiles) {
+		int budget = getRegionMemoryBudget(t.file, totalMemory);
+		memory.acquireUninterruptibly(budget);
+		try {
+			log.info("Generate " + t.file.getName() + " with heap budget " + budget + " MB");
+			generateIndex(t.file, t.regionName, t.regionSpecificData, alreadyGeneratedFiles);
+		} catch (RuntimeException e) {
+			log.error("Exception generating indexes for " + t.file.getName(), e); //$NON-NLS-1$
+		} finally {
+			memory.release(budget);
+		}
+	}
+	
+	private int getRegionMemoryBudget(File f, int totalMemory) {
+		long budget = (f.length() >> 20) * memoryPerInputSize;
+		return (int) Math.min(totalMemory, Math.max(MIN_REGION_MEMORY_MB, budget));
+	}
+	
 	
 	
 	protected void generateIndex(File f, String rName, RegionSpecificData regionSpecificData, Set<String> alreadyGeneratedFiles) {
+		boolean concurrent = threads > 1;
 		try {
-			// be independent of previous results
-			RTree.clearCache();
+			if (!concurrent) {
+				// be independent of previous results
+				RTree.clearCache();
+			}
 			
 			String regionName = f.getName();
 			log.warn("-------------------------------------------");
@@ -454,7 +994,14 @@ public class IndexBatchCreator {
 				log.warn("Switching SQLITE in memory dialect to SQLITE");
 				osmDb = DBDialect.SQLITE;
 			}
-			IndexCreator indexCreator = new IndexCreator(workDir);
+			String mapFileName = regionName + "_" + IndexConstants.BINARY_MAP_VERSION + IndexConstants.BINARY_MAP_INDEX_EXT;
+			// concurrent regions don't share temporary files
+			File regionWorkDir = workDir;
+			if (concurrent) {
+				regionWorkDir = new File(workDir, mapFileName + ".work");
+				regionWorkDir.mkdirs();
+			}
+			IndexCreator indexCreator = new IndexCreator(regionWorkDir);
 			indexCreator.setDialects(osmDb, osmDb);
 			indexCreator.setIndexAddress(indexAddress);
 			indexCreator.setIndexPOI(indexPOI);
@@ -464,6 +1011,8 @@ public class IndexBatchCreator {
 			indexCreator.setLastModifiedDate(f.lastModified());
 			indexCreator.setNormalizeStreets(true);
 			indexCreator.setRegionName(rName);
+			indexCreator.setIncremental(incremental);
+			indexCreator.setRenderingTypesFile(renderingTypesFile);
 			if (regionSpecificData != null && regionSpecificData.cityAdminLevel != null) {
 				indexCreator.setCityAdminLevel(regionSpecificData.cityAdminLevel);
 			}
@@ -471,12 +1020,11 @@ public class IndexBatchCreator {
 				indexCreator.setZoomWaySmothness(zoomWaySmoothness);
 			}
 
-			String mapFileName = regionName + "_" + IndexConstants.BINARY_MAP_VERSION + IndexConstants.BINARY_MAP_INDEX_EXT;
 			indexCreator.setMapFileName(mapFileName);
 			try {
 				alreadyGeneratedFiles.add(f.getName());
 				Log warningsAboutMapData = null;
-				File logFileName = new File(workDir, mapFileName + GEN_LOG_EXT);
+				File logFileName = new File(regionWorkDir, mapFileName + GEN_LOG_EXT);
 				FileHandler fh = null;
 				// configure log path
 				try {
@@ -488,7 +1036,17 @@ public class IndexBatchCreator {
 					fh = new FileHandler(logFileName.getAbsolutePath(), 10*1000*1000, 1, true);
 					fh.setFormatter(new SimpleFormatter());
 					fh.setLevel(Level.ALL);
-					Jdk14Logger jdk14Logger = new Jdk14Logger("tempLogger");
+					if (concurrent) {
+						// only messages of this region go to its log (including messages of its helper threads)
+						final String region = mapFileName;
+						fh.setFilter(new Filter() {
+							@Override
+							public boolean isLoggable(LogRecord record) {
+								return region.equals(GENERATED_REGION.get());
+							}
+						});
+					}
+					Jdk14Logger jdk14Logger = new Jdk14Logger("tempLogger." + mapFileName);
 					jdk14Logger.getLogger().setLevel(Level.ALL);
 					jdk14Logger.getLogger().setUseParentHandlers(false);
 					jdk14Logger.getLogger().addHandler(fh);
@@ -501,15 +1059,19 @@ public class IndexBatchCreator {
 				if (fh != null) {
 					LogManager.getLogManager().getLogger("").addHandler(fh);
 				}
+				// rendering types register new rules while encoding, so concurrent regions use own instances
+				MapRenderingTypesEncoder regionTypes = concurrent ? new MapRenderingTypesEncoder(renderingTypesFile) : types;
+				GENERATED_REGION.set(mapFileName);
 				try {
-					indexCreator.generateIndexes(f, new ConsoleProgressImplementation(1), null, mapZooms, types, warningsAboutMapData);
+					indexCreator.generateIndexes(f, new ConsoleProgressImplementation(1), null, mapZooms, regionTypes, warningsAboutMapData);
 				} finally {
+					GENERATED_REGION.remove();
 					if (fh != null) {
-						fh.close();
 						LogManager.getLogManager().getLogger("").removeHandler(fh);
+						fh.close();
 					}
 				}
-				File generated = new File(workDir, mapFileName);
+				File generated = new File(regionWorkDir, mapFileName);
 				File dest = new File(indexDirFiles, generated.getName());
 				if(!generated.renameTo(dest)) {
 					FileOutputStream fout = new FileOutputStream(dest);
@@ -525,7 +1087,12 @@ public class IndexBatchCreator {
 				fin.close();
 				fout.close();
 				//	logFileName.renameTo(new File(indexDirFiles, logFileName.getName()));
-				
+				if (concurrent) {
+					// directory is removed only if generation left nothing else in it
+					logFileName.delete();
+					regionWorkDir.delete();
+				}
+
 			} catch (Exception e) {
 				log.error("Exception generating indexes for " + f.getName(), e); //$NON-NLS-1$ 
 			}
@@ -534,7 +1101,9 @@ public class IndexBatchCreator {
 			log.error("OutOfMemory", e);
 
 		}
-		System.gc();
+		if (!concurrent) {
+			System.gc();
+		}
 	}
 	
 	protected File[] getSortedFiles(File dir){
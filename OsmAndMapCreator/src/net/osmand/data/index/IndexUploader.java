@@ -1,14 +1,15 @@
 package net.osmand.data.index;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.RandomAccessFile;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -16,18 +17,22 @@ import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
 import net.osmand.IndexConstants;
 import net.osmand.PlatformUtil;
-import net.osmand.binary.BinaryMapIndexReader;
 import net.osmand.data.index.ExtractGooglecodeAuthorization.GooglecodeUploadTokens;
 import net.osmand.util.Algorithms;
 
@@ -43,11 +48,12 @@ import com.jcraft.jsch.Session;
  * This helper will find obf and zip files, create description for them, and zip them, or update the description. 
  * This helper also can upload files through ssh,ftp or to googlecode.
  * 
- * IndexUploader dir targetDir [--ff=file] [--fp=ptns] [--ep=ptns] [--dp=ptns] [-ssh|-ftp|-google] [--password=|--user=|--url=|--path=|--gpassword=|--privKey=|--knownHosts=]
+ * IndexUploader dir targetDir [--ff=file] [--fp=ptns] [--ep=ptns] [--dp=ptns] [--threads=n] [-ssh|-ftp|-google] [--password=|--user=|--url=|--path=|--gpassword=|--privKey=|--knownHosts=]
  *    --ff     file with names of files to be uploaded from the dir, supporting regexp
  *    --fp     comma separated names of files to be uploaded from the dir, supporting regexp  
  *    --ep     comma separated names of files to be excluded from upload, supporting regexp
  *    --dp     comma separated names of files to be delete on remote system, supporting regexp
+ *    --threads  number of files zipped at the same time (and threads compressing large files by chunks)
  *    One of:
  *    -ssh    to upload to ssh site
  *    -fpt    to upload to ftp site
@@ -110,6 +116,9 @@ public class IndexUploader {
 	private FileFilter deleteFileFilter = null;
 	private boolean roadProcess;
 	private boolean srtmProcess;
+	private int threads = 1;
+	// parts of the archives split while zipping
+	private Map<File, List<File>> splitParts = new HashMap<File, List<File>>();
 
 	public IndexUploader(String path, String targetPath) throws IndexUploadException {
 		directory = new File(path);
@@ -183,8 +192,11 @@ public class IndexUploader {
 			} else if (args[start].startsWith("--srtm")) {
 				srtmProcess = true;
 				start++;
+			} else if (args[start].startsWith("--threads=")) {
+				threads = Math.max(1, Integer.parseInt(args[start].substring("--threads=".length())));
+				start++;
 			}
-		} while(p != start);
+		} while(p != start && start < args.length);
 		if(fileFilter != null) {
 			this.fileFilter = fileFilter;
 		}
@@ -286,55 +298,40 @@ public class IndexUploader {
 	
 	public void run() throws IndexUploadException {
 		// take files before whole upload process
+		ExecutorService packagingExecutor = Executors.newFixedThreadPool(threads);
+		final ExecutorService compressionExecutor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
 		try {
 			uploadCredentials.connect();
 			File[] listFiles = directory.listFiles();
-			for (File f : listFiles) {
-				try {
-					if (!fileFilter.fileCanBeUploaded(f)) {
-						continue;
-					}
-					long timestampCreated = f.lastModified();
-					if(!uploadCredentials.checkIfUploadNeededByTimestamp(f.getName(), timestampCreated)) {
-						log.info("File skipped because timestamp was not changed " + f.getName() );
-						continue;
-					}
-					log.info("Process file " + f.getName());
-					File unzipped = unzip(f);
-					boolean skip = false;
-					File logFile = new File(f.getParentFile(), unzipped.getName() + IndexBatchCreator.GEN_LOG_EXT);
-					try {
-						String description = checkfileAndGetDescription(unzipped);
-						timestampCreated = unzipped.lastModified();
-						if(description == null) {
-							log.info("Skip file " + f.getName());
-							skip = true;
-						} else {
-							List<File> files = new ArrayList<File>();
-							files.add(unzipped);
-							if (logFile.exists()) {
-								files.add(logFile);
-							}
-							File zFile = new File(f.getParentFile(), unzipped.getName() + ".zip");
-							zip(files, zFile, description, timestampCreated);
-							uploadIndex(f, zFile, description, uploadCredentials);
-						}
-					} finally {
-						if (!skip) {
-							if (!f.getName().equals(unzipped.getName()) || (targetDirectory != null && !targetDirectory.equals(directory))) {
-								unzipped.delete(); // delete the unzipped file
-							}
-							if (logFile.exists()) {
-								logFile.delete();
-							}
+			// files are packaged ahead while previous are uploaded
+			LinkedList<Future<PackagedFile>> packaging = new LinkedList<Future<PackagedFile>>();
+			for (final File f : listFiles) {
+				if (!fileFilter.fileCanBeUploaded(f)) {
+					continue;
+				}
+				if (!uploadCredentials.checkIfUploadNeededByTimestamp(f.getName(), f.lastModified())) {
+					log.info("File skipped because timestamp was not changed " + f.getName());
+					continue;
+				}
+				final boolean split = uploadCredentials.isSplitRequired();
+				packaging.add(packagingExecutor.submit(new Callable<PackagedFile>() {
+					@Override
+					public PackagedFile call() {
+						try {
+							return packageFile(f, split, compressionExecutor);
+						} catch (OneFileException e) {
+							log.error(f.getName() + ": " + e.getMessage(), e);
 						}
+						return null;
 					}
-				} catch (OneFileException e) {
-					log.error(f.getName() + ": " + e.getMessage(), e);
-				} catch (RuntimeException e) {
-					log.error(f.getName() + ": " + e.getMessage(), e);
+				}));
+				while (packaging.size() > threads) {
+					uploadPackagedFile(packaging.removeFirst());
 				}
 			}
+			while (!packaging.isEmpty()) {
+				uploadPackagedFile(packaging.removeFirst());
+			}
 			if(deleteFileFilter != null) {
 				if(uploadCredentials instanceof UploadToGoogleCodeCredentials) {
 					log.info("About to delete files from googlecode");
@@ -355,10 +352,290 @@ public class IndexUploader {
 			}
 			
 		} finally {
+			packagingExecutor.shutdownNow();
+			if (compressionExecutor != null) {
+				compressionExecutor.shutdownNow();
+			}
 			uploadCredentials.disconnect();
 		}
 	}
 
+	private void uploadPackagedFile(Future<PackagedFile> future) throws IndexUploadException {
+		PackagedFile p;
+		try {
+			p = future.get();
+		} catch (InterruptedException e) {
+			throw new IndexUploadException("Packaging was interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IndexUploadException("Packaging failed", e.getCause());
+		}
+		if (p == null) {
+			// processing of one file failed, but other files could continue
+			return;
+		}
+		if (p.zipFile == null) {
+			log.info("Skip file " + p.srcFile.getName());
+			return;
+		}
+		try {
+			if (p.parts != null) {
+				splitParts.put(p.zipFile, p.parts);
+			}
+			uploadIndex(p.srcFile, p.zipFile, p.description, uploadCredentials);
+		} catch (RuntimeException e) {
+			log.error(p.srcFile.getName() + ": " + e.getMessage(), e);
+		} finally {
+			splitParts.remove(p.zipFile);
+			if (!p.zipped && targetDirectory != null && !targetDirectory.equals(directory)) {
+				p.srcFile.delete();
+			}
+			if (p.logFile.exists()) {
+				p.logFile.delete();
+			}
+		}
+	}
+
+	private static class PackagedFile {
+		File srcFile;
+		boolean zipped;
+		File logFile;
+		File zipFile;
+		String description;
+		List<File> parts;
+	}
+
+	/**
+	 * Zips the index with its generation log (taken from the source zip or from the directory),
+	 * the description is collected from the top level structure of the index before it is compressed
+	 * (sections are skipped), so files of another kind are not compressed. Index of the source zip is extracted once
+	 * to a temporary file, so it is not inflated again to be compressed.
+	 * @return packaged file with zipFile == null if the file shouldn't be uploaded
+	 */
+	private PackagedFile packageFile(File f, boolean split, ExecutorService compressionExecutor) throws OneFileException {
+		log.info("Process file " + f.getName());
+		PackagedFile p = new PackagedFile();
+		p.srcFile = f;
+		ZipFile zipFile = null;
+		InputStream indexStream = null;
+		InputStream scanStream = null;
+		InputStream logStream = null;
+		File tmp = null;
+		File unzipped = null;
+		try {
+			String fileName;
+			p.zipped = Algorithms.isZipFile(f);
+			ZipEntry sourceEntry = null;
+			if (p.zipped) {
+				zipFile = new ZipFile(f);
+				ZipEntry logEntry = null;
+				Enumeration<? extends ZipEntry> entries = zipFile.entries();
+				while (entries.hasMoreElements()) {
+					ZipEntry entry = entries.nextElement();
+					if (entry.getName().endsWith(IndexConstants.GEN_LOG_EXT)) {
+						logEntry = entry;
+					} else {
+						sourceEntry = entry;
+					}
+				}
+				if (sourceEntry == null) {
+					throw new OneFileException("No index in the zip");
+				}
+				fileName = sourceEntry.getName();
+				if (logEntry != null) {
+					logStream = zipFile.getInputStream(logEntry);
+				}
+			} else {
+				fileName = f.getName();
+			}
+			p.logFile = new File(f.getParentFile(), fileName + IndexBatchCreator.GEN_LOG_EXT);
+			if (logStream == null && p.logFile.exists()) {
+				logStream = new FileInputStream(p.logFile);
+			}
+			if (!fileName.endsWith(IndexConstants.BINARY_MAP_INDEX_EXT)) {
+				throw new OneFileException("Not supported file format " + fileName);
+			}
+			if (fileName.contains(".srtm") != this.srtmProcess) {
+				return p;
+			}
+			File indexFile = f;
+			if (p.zipped) {
+				unzipped = new File(f.getParentFile(), fileName + ".tmp");
+				InputStream zin = zipFile.getInputStream(sourceEntry);
+				OutputStream uout = new FileOutputStream(unzipped);
+				try {
+					Algorithms.streamCopy(zin, uout);
+				} finally {
+					Algorithms.closeStream(uout);
+					Algorithms.closeStream(zin);
+				}
+				indexFile = unzipped;
+			}
+			// sections are skipped without reading them
+			scanStream = new FileInputStream(indexFile);
+			BinaryIndexSummary summary = new BinaryIndexSummary();
+			summary.scan(scanStream);
+			Algorithms.closeStream(scanStream);
+			scanStream = null;
+			if (summary.getVersion() != -1 && summary.getVersion() != IndexConstants.BINARY_MAP_VERSION) {
+				throw new OneFileException("Uploader version is not compatible " + summary.getVersion() + " to current "
+						+ IndexConstants.BINARY_MAP_VERSION);
+			}
+			if (!summary.isHeaderRead()) {
+				throw new OneFileException("Reader could not read the index header");
+			}
+			if (!summary.isComplete()) {
+				throw new OneFileException("Reader could not read the index: file is not complete");
+			}
+			boolean roadFile = summary.containsRouteData() && !summary.containsMapData();
+			if (roadFile != this.roadProcess) {
+				return p;
+			}
+
+			indexStream = new FileInputStream(indexFile);
+			File zFile = new File(f.getParentFile(), fileName + ".zip");
+			tmp = new File(f.getParentFile(), zFile.getName() + ".tmp");
+			OutputStream fout = new FileOutputStream(tmp);
+			if (split) {
+				fout = new SplitOutputStream(fout, zFile, (long) (MAX_SIZE_TO_NOT_SPLIT * MB));
+			}
+			ParallelZipOutputStream zout = new ParallelZipOutputStream(new BufferedOutputStream(fout, BUFFER_SIZE),
+					compressionExecutor, threads);
+			try {
+				long timestampCreated = summary.getDateCreated();
+				String description = getDescription(summary, fileName);
+				log.info("Zipping to file: " + zFile.getName() + " file:" + fileName);
+				ZipEntry indexEntry = new ZipEntry(fileName);
+				indexEntry.setTime(timestampCreated);
+				indexEntry.setComment(description);
+				zout.putNextEntry(indexEntry);
+				Algorithms.streamCopy(indexStream, zout);
+				if (logStream != null) {
+					ZipEntry logEntry = new ZipEntry(p.logFile.getName());
+					logEntry.setTime(timestampCreated);
+					logEntry.setComment(description);
+					zout.putNextEntry(logEntry);
+					Algorithms.streamCopy(logStream, zout);
+				}
+				zout.close();
+				zout = null;
+
+				Algorithms.closeStream(indexStream);
+				Algorithms.closeStream(logStream);
+				if (zipFile != null) {
+					zipFile.close();
+					zipFile = null;
+				}
+				// source zip could be replaced
+				zFile.delete();
+				if (!tmp.renameTo(zFile)) {
+					throw new OneFileException("cannot rename zip file " + tmp.getName());
+				}
+				zFile.setLastModified(timestampCreated);
+				p.zipFile = zFile;
+				p.description = description;
+				if (split) {
+					p.parts = ((SplitOutputStream) fout).getParts();
+				}
+				log.info("Zipped " + zFile.getName() + " with desc:" + description);
+				return p;
+			} finally {
+				if (zout != null) {
+					Algorithms.closeStream(zout);
+					if (split) {
+						((SplitOutputStream) fout).deleteParts();
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new OneFileException("cannot zip file:" + e.getMessage());
+		} catch (RuntimeException e) {
+			throw new OneFileException("cannot zip file:" + e.getMessage());
+		} finally {
+			Algorithms.closeStream(indexStream);
+			Algorithms.closeStream(scanStream);
+			Algorithms.closeStream(logStream);
+			if (zipFile != null) {
+				try {
+					zipFile.close();
+				} catch (IOException e) {
+				}
+			}
+			if (tmp != null && tmp.exists()) {
+				tmp.delete();
+			}
+			if (unzipped != null) {
+				unzipped.delete();
+			}
+		}
+	}
+
+	/**
+	 * Writes the archive and at the same time splits it to the parts (file-1, file-2 ...)
+	 * of limited size as google code requires, so the archive isn't read again to be split.
+	 */
+	static class SplitOutputStream extends FilterOutputStream {
+		private final File file;
+		private final long partSize;
+		private List<File> parts = new ArrayList<File>();
+		private OutputStream part;
+		private long partWritten;
+		private long written;
+
+		public SplitOutputStream(OutputStream out, File file, long partSize) {
+			super(out);
+			this.file = file;
+			this.partSize = partSize;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			written += len;
+			while (len > 0) {
+				if (part == null || partWritten == partSize) {
+					Algorithms.closeStream(part);
+					File fout = new File(file.getParentFile(), file.getName() + "-" + (parts.size() + 1));
+					parts.add(fout);
+					part = new BufferedOutputStream(new FileOutputStream(fout), BUFFER_SIZE);
+					partWritten = 0;
+				}
+				int l = (int) Math.min(len, partSize - partWritten);
+				part.write(b, off, l);
+				partWritten += l;
+				off += l;
+				len -= l;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			super.close();
+			if (part != null) {
+				part.close();
+			}
+		}
+
+		public List<File> getParts() {
+			if (written < partSize) {
+				deleteParts();
+				return Collections.singletonList(file);
+			}
+			return parts;
+		}
+
+		public void deleteParts() {
+			Algorithms.closeStream(part);
+			for (File f : parts) {
+				f.delete();
+			}
+		}
+	}
+
 	public static File zip(List<File> fs, File zFile, String description, long lastModifiedTime) throws OneFileException {
 		try {
 			ZipOutputStream zout = new ZipOutputStream(new FileOutputStream(zFile));
@@ -383,43 +660,7 @@ public class IndexUploader {
 		return zFile;
 	}
 
-	private String checkfileAndGetDescription(File f) throws OneFileException {
-		String fileName = f.getName();
-		boolean srtmFile = f.getName().contains(".srtm");
-		if(srtmFile != this.srtmProcess) {
-			return null;
-		}
-		if (fileName.endsWith(IndexConstants.BINARY_MAP_INDEX_EXT) || fileName.endsWith(IndexConstants.BINARY_MAP_INDEX_EXT_ZIP)) {
-			RandomAccessFile raf = null;
-			try {
-				raf = new RandomAccessFile(f, "r");
-				BinaryMapIndexReader reader = new BinaryMapIndexReader(raf);
-				if(reader.getVersion() != IndexConstants.BINARY_MAP_VERSION) {
-					throw new OneFileException("Uploader version is not compatible " + reader.getVersion() + " to current " + IndexConstants.BINARY_MAP_VERSION);
-				}
-				boolean roadFile = reader.containsRouteData() && !reader.containsMapData();
-				if(roadFile != this.roadProcess) {
-					return null;
-				}
-				String summary = getDescription(reader, fileName);
-				reader.close();
-				f.setLastModified(reader.getDateCreated());
-				return summary;
-			} catch (IOException e) {
-				if (raf != null) {
-					try {
-						raf.close();
-					} catch (IOException e1) {
-					}
-				}
-				throw new OneFileException("Reader could not read the index: " + e.getMessage());
-			}
-		} else {
-			throw new OneFileException("Not supported file format " + fileName);
-		}
-	}
-
-	private String getDescription(BinaryMapIndexReader reader, String fileName) {
+	private String getDescription(BinaryIndexSummary reader, String fileName) {
 		String summary;
 		summary = " data for ";
 		boolean fir = true;
@@ -457,44 +698,11 @@ public class IndexUploader {
 		return summary;
 	}
 
-	private File unzip(File f) throws OneFileException {
-		try {
-			if (!Algorithms.isZipFile(f)) {
-				return f;
-			}
-			log.info("Unzipping file: " + f.getName());
-			ZipFile zipFile;
-			zipFile = new ZipFile(f);
-			Enumeration<? extends ZipEntry> entries = zipFile.entries();
-			File mainFile = null;
-			long slastModified = f.lastModified();
-			while (entries.hasMoreElements()) {
-				ZipEntry entry = entries.nextElement();
-				long lastModified = slastModified;
-				if(entry.getTime() < lastModified) {
-					lastModified = entry.getTime();
-				}
-				File tempFile = new File(f.getParentFile(), entry.getName());
-				InputStream zin = zipFile.getInputStream(entry);
-				FileOutputStream out = new FileOutputStream(tempFile);
-				Algorithms.streamCopy(zin, out);
-				Algorithms.closeStream(zin);
-				Algorithms.closeStream(out);
-				if (!tempFile.getName().endsWith(IndexConstants.GEN_LOG_EXT)) {
-					mainFile = tempFile;
-				}
-				tempFile.setLastModified(lastModified);
-			}
-			return mainFile;
-		} catch (ZipException e) {
-			throw new OneFileException("cannot unzip:" + e.getMessage());
-		} catch (IOException e) {
-			throw new OneFileException("cannot unzip:" + e.getMessage());
-		}
-	}
-
-
 	private List<File> splitFiles(File f) throws IOException {
+		if (splitParts.containsKey(f)) {
+			// already split while zipping
+			return splitParts.get(f);
+		}
 		double mbLengh = (double) f.length() / MB;
 		if (mbLengh < MAX_SIZE_TO_NOT_SPLIT) {
 			return Collections.singletonList(f);
@@ -594,6 +802,10 @@ public class IndexUploader {
 			return true;
 		}
 
+		public boolean isSplitRequired() {
+			return false;
+		}
+
 		public void disconnect() {
 			//if the uploading needs to close a session
 		}
@@ -694,6 +906,12 @@ public class IndexUploader {
 			}
 			return true;
 		}
+
+		@Override
+		public boolean isSplitRequired() {
+			// google code doesn't accept files larger than 200 mb
+			return true;
+		}
 		
 		@Override
 		public void upload(IndexUploader uploader, File toUpload,
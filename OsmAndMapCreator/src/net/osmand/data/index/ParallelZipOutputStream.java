@@ -0,0 +1,309 @@
+package net.osmand.data.index;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Zip output stream which deflates entries by chunks in parallel (as pigz does). <p />
+ *
+ * Every chunk is compressed by its own deflater primed with the last 32 kb of the previous chunk and
+ * is ended by sync flush, so the compressed chunks are joined into one usual deflate stream
+ * readable by any unzip. Chunks are written in order, CRC is calculated by the writing thread.
+ * Without executor chunks are compressed by the writing thread. <p />
+ *
+ * Entries and archive are limited by 4 Gb (no zip64 support).
+ */
+public class ParallelZipOutputStream extends OutputStream {
+
+	private static final int CHUNK_SIZE = 1 << 20;
+	private static final int DICTIONARY_SIZE = 1 << 15;
+	private static final long MAX_SIZE = 0xffffffffl;
+
+	private static final int LOCAL_HEADER_SIG = 0x04034b50;
+	private static final int DATA_DESCRIPTOR_SIG = 0x08074b50;
+	private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+	private static final int END_SIG = 0x06054b50;
+	// data descriptor follows data, names and comments are in utf-8
+	private static final int FLAGS = 1 << 3 | 1 << 11;
+	private static final int VERSION = 20;
+
+	private static class EntryInfo {
+		ZipEntry entry;
+		byte[] name;
+		int dosTime;
+		long offset;
+		long crc;
+		long size;
+		long compressedSize;
+	}
+
+	private final OutputStream out;
+	private final ExecutorService executor;
+	private final int maxPendingChunks;
+	private int level = Deflater.BEST_COMPRESSION;
+
+	private long written;
+	private List<EntryInfo> entries = new ArrayList<EntryInfo>();
+	private EntryInfo current;
+	private CRC32 crc = new CRC32();
+	private byte[] chunk = new byte[CHUNK_SIZE];
+	private int chunkLength;
+	private byte[] dictionary;
+	private LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+	private boolean finished;
+
+	public ParallelZipOutputStream(OutputStream out, ExecutorService executor, int threads) {
+		this.out = out;
+		this.executor = executor;
+		this.maxPendingChunks = Math.max(1, threads) * 2;
+	}
+
+	public void setLevel(int level) {
+		this.level = level;
+	}
+
+	public void putNextEntry(ZipEntry entry) throws IOException {
+		if (current != null) {
+			closeEntry();
+		}
+		current = new EntryInfo();
+		current.entry = entry;
+		current.name = getBytes(entry.getName());
+		current.dosTime = toDosTime(entry.getTime() == -1 ? System.currentTimeMillis() : entry.getTime());
+		current.offset = written;
+		crc.reset();
+		dictionary = null;
+		chunkLength = 0;
+
+		writeInt(LOCAL_HEADER_SIG);
+		writeShort(VERSION);
+		writeShort(FLAGS);
+		writeShort(ZipEntry.DEFLATED);
+		writeInt(current.dosTime);
+		// crc and sizes are in the data descriptor
+		writeInt(0);
+		writeInt(0);
+		writeInt(0);
+		writeShort(current.name.length);
+		writeShort(0);
+		writeBytes(current.name);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (current == null) {
+			throw new ZipException("no current zip entry");
+		}
+		crc.update(b, off, len);
+		current.size += len;
+		while (len > 0) {
+			int l = Math.min(len, CHUNK_SIZE - chunkLength);
+			System.arraycopy(b, off, chunk, chunkLength, l);
+			chunkLength += l;
+			off += l;
+			len -= l;
+			if (chunkLength == CHUNK_SIZE) {
+				submitChunk(false);
+			}
+		}
+	}
+
+	private void submitChunk(boolean last) throws IOException {
+		final byte[] data = chunk;
+		final int length = chunkLength;
+		final byte[] dict = dictionary;
+		final boolean finish = last;
+		final int lvl = level;
+		if (length >= DICTIONARY_SIZE) {
+			dictionary = new byte[DICTIONARY_SIZE];
+			System.arraycopy(data, length - DICTIONARY_SIZE, dictionary, 0, DICTIONARY_SIZE);
+		}
+		chunk = new byte[CHUNK_SIZE];
+		chunkLength = 0;
+		if (executor == null) {
+			writeCompressed(deflate(data, length, dict, lvl, finish));
+			return;
+		}
+		pending.add(executor.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() {
+				return deflate(data, length, dict, lvl, finish);
+			}
+		}));
+		while (pending.size() >= maxPendingChunks || (last && !pending.isEmpty())) {
+			writeCompressed(waitFor(pending.removeFirst()));
+		}
+	}
+
+	private static byte[] deflate(byte[] data, int length, byte[] dictionary, int level, boolean last) {
+		Deflater deflater = new Deflater(level, true);
+		try {
+			if (dictionary != null) {
+				deflater.setDictionary(dictionary);
+			}
+			ByteArrayOutputStream bous = new ByteArrayOutputStream(length / 2 + 64);
+			byte[] buf = new byte[1 << 16];
+			deflater.setInput(data, 0, length);
+			if (last) {
+				deflater.finish();
+				while (!deflater.finished()) {
+					int l = deflater.deflate(buf);
+					bous.write(buf, 0, l);
+				}
+			} else {
+				int l;
+				do {
+					l = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+					bous.write(buf, 0, l);
+				} while (l == buf.length || !deflater.needsInput());
+			}
+			return bous.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private byte[] waitFor(Future<byte[]> f) throws IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			throw new IOException("Compression was interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Compression failed", e.getCause());
+		}
+	}
+
+	private void writeCompressed(byte[] b) throws IOException {
+		current.compressedSize += b.length;
+		writeBytes(b);
+	}
+
+	public void closeEntry() throws IOException {
+		if (current == null) {
+			return;
+		}
+		submitChunk(true);
+		current.crc = crc.getValue();
+		if (current.size > MAX_SIZE || current.compressedSize > MAX_SIZE || written > MAX_SIZE) {
+			throw new ZipException("Entry " + current.entry.getName() + " is too large for zip");
+		}
+		current.entry.setCrc(current.crc);
+		current.entry.setSize(current.size);
+		current.entry.setCompressedSize(current.compressedSize);
+		writeInt(DATA_DESCRIPTOR_SIG);
+		writeInt((int) current.crc);
+		writeInt((int) current.compressedSize);
+		writeInt((int) current.size);
+		entries.add(current);
+		current = null;
+	}
+
+	public void finish() throws IOException {
+		if (finished) {
+			return;
+		}
+		closeEntry();
+		long start = written;
+		for (EntryInfo e : entries) {
+			byte[] comment = e.entry.getComment() == null ? new byte[0] : getBytes(e.entry.getComment());
+			writeInt(CENTRAL_HEADER_SIG);
+			writeShort(VERSION);
+			writeShort(VERSION);
+			writeShort(FLAGS);
+			writeShort(ZipEntry.DEFLATED);
+			writeInt(e.dosTime);
+			writeInt((int) e.crc);
+			writeInt((int) e.compressedSize);
+			writeInt((int) e.size);
+			writeShort(e.name.length);
+			writeShort(0);
+			writeShort(comment.length);
+			writeShort(0);
+			writeShort(0);
+			writeInt(0);
+			writeInt((int) e.offset);
+			writeBytes(e.name);
+			writeBytes(comment);
+		}
+		long centralSize = written - start;
+		if (written > MAX_SIZE) {
+			throw new ZipException("Archive is too large for zip");
+		}
+		writeInt(END_SIG);
+		writeShort(0);
+		writeShort(0);
+		writeShort(entries.size());
+		writeShort(entries.size());
+		writeInt((int) centralSize);
+		writeInt((int) start);
+		writeShort(0);
+		out.flush();
+		finished = true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+		} finally {
+			for (Future<byte[]> f : pending) {
+				f.cancel(false);
+			}
+			out.close();
+		}
+	}
+
+	private static byte[] getBytes(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static int toDosTime(long time) {
+		Calendar c = Calendar.getInstance();
+		c.setTimeInMillis(time);
+		int year = c.get(Calendar.YEAR);
+		if (year < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+		return (year - 1980) << 25 | (c.get(Calendar.MONTH) + 1) << 21 | c.get(Calendar.DAY_OF_MONTH) << 16
+				| c.get(Calendar.HOUR_OF_DAY) << 11 | c.get(Calendar.MINUTE) << 5 | c.get(Calendar.SECOND) >> 1;
+	}
+
+	private void writeBytes(byte[] b) throws IOException {
+		out.write(b);
+		written += b.length;
+	}
+
+	private void writeShort(int v) throws IOException {
+		out.write(v & 0xff);
+		out.write((v >>> 8) & 0xff);
+		written += 2;
+	}
+
+	private void writeInt(long v) throws IOException {
+		writeShort((int) (v & 0xffff));
+		writeShort((int) ((v >>> 16) & 0xffff));
+	}
+}
@@ -0,0 +1,37 @@
+package net.osmand.data.index;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coordinates of wikipedia articles (coord_&lt;locale&gt;wiki tables of the toolserver dumps).
+ * Articles are looked up by batches, so store could be remote database or embedded one.
+ */
+public interface WikiCoordinatesStore {
+
+	public static class WikiCoordinates {
+		public final float lat;
+		public final float lon;
+		// lower case, not null
+		public final String type;
+
+		public WikiCoordinates(float lat, float lon, String type) {
+			this.lat = lat;
+			this.lon = lon;
+			this.type = type == null ? "" : type.toLowerCase();
+		}
+	}
+
+	/**
+	 * @return coordinates by page id of the locale wiki (articles without coordinates are not in the map)
+	 */
+	public Map<Long, WikiCoordinates> findByPageIds(String locale, List<Long> pageIds) throws SQLException;
+
+	/**
+	 * @return coordinates by title of english article (articles without coordinates are not in the map)
+	 */
+	public Map<String, WikiCoordinates> findByEnglishNames(List<String> names) throws SQLException;
+
+	public void close() throws SQLException;
+}
@@ -13,6 +13,16 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -24,18 +34,26 @@ import javax.xml.stream.XMLStreamWriter;
 import net.osmand.IndexConstants;
 import net.osmand.MapCreatorVersion;
 import net.osmand.PlatformUtil;
+import net.osmand.data.index.WikiCoordinatesStore.WikiCoordinates;
+import net.osmand.data.preparation.DBDialect;
 import net.osmand.data.preparation.IndexCreator;
 import net.osmand.impl.ConsoleProgressImplementation;
+import net.osmand.osm.io.ParallelBZip2InputStream;
 import net.osmand.util.Algorithms;
 
 import org.apache.commons.logging.Log;
-import org.apache.tools.bzip2.CBZip2InputStream;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
 // http://toolserver.org/~dispenser/dumps/coord_commonswiki.sql.gz
 // select * from coord_commonswiki limit 10;
+/**
+ * Converts wikipedia dumps to osm files with articles having coordinates and indexes them as poi.
+ * Dump is parsed by one thread which splits it into batches of pages, coordinates of the batch are looked up
+ * by one query and texts are analyzed by the pool of threads (--threads=), results are written in the order of the dump.
+ * Coordinates are taken from mysql or from the embedded sqlite db with the same coord_*wiki tables (--coordinates-db=).
+ */
 public class WikiIndexer {
 	private static final Log log = PlatformUtil.getLog(WikiIndexer.class);
 	private final File srcPath;
@@ -45,6 +63,10 @@ public class WikiIndexer {
 	private static final String password = "jenkins";
 	private static final String url = "jdbc:mysql://localhost/wiki";
 	private final File srcDone;
+	private final int threads;
+	private final File coordinatesDb;
+	
+	private static final int PAGES_BATCH = 256;
 	
 	public static class WikiIndexerException extends Exception {
 		private static final long serialVersionUID = 1L;
@@ -60,10 +82,16 @@ public class WikiIndexer {
 	}
 
 	public WikiIndexer(File srcPath, File targetPath, File workPath, File srcDone) {
+		this(srcPath, targetPath, workPath, srcDone, 1, null);
+	}
+
+	public WikiIndexer(File srcPath, File targetPath, File workPath, File srcDone, int threads, File coordinatesDb) {
 		this.srcPath = srcPath;
 		this.targetPath = targetPath;
 		this.workPath = workPath;
 		this.srcDone = srcDone;
+		this.threads = Math.max(1, threads);
+		this.coordinatesDb = coordinatesDb;
 	}
 
 	public static void main(String[] args) {
@@ -72,14 +100,20 @@ public class WikiIndexer {
 			File targetPath = extractDirectory(args, 1);
 			File workPath = extractDirectory(args, 2);
 			File srcDone = srcPath;
+			int threads = Runtime.getRuntime().availableProcessors();
+			File coordinatesDb = null;
 			for (int i = 3; i < args.length; i++) {
 				if(args[i].startsWith("--source-done=")){
 					srcDone = new File(srcPath, args[i].substring("--source-done=".length()));
+				} else if(args[i].startsWith("--threads=")){
+					threads = Integer.parseInt(args[i].substring("--threads=".length()));
+				} else if(args[i].startsWith("--coordinates-db=")){
+					coordinatesDb = new File(args[i].substring("--coordinates-db=".length()));
 //				} else if(args[i].startsWith("--description=")){
 				}
 			}
 
-			WikiIndexer wikiIndexer = new WikiIndexer(srcPath, targetPath, workPath, srcDone);
+			WikiIndexer wikiIndexer = new WikiIndexer(srcPath, targetPath, workPath, srcDone, threads, coordinatesDb);
 			wikiIndexer.run();
 
 		} catch (WikiIndexerException e) {
@@ -90,7 +124,7 @@ public class WikiIndexer {
 	private static File extractDirectory(String[] args, int ind) throws WikiIndexerException {
 		if (args.length <= ind) {
 			throw new WikiIndexerException(
-					"Usage: WikiIndexer src_directory target_directory work_directory [--description={full|normal|minimum}]" + " missing "
+					"Usage: WikiIndexer src_directory target_directory work_directory [--source-done=dir] [--threads=n] [--coordinates-db=sqlite_file]" + " missing "
 							+ (ind + 1));
 		} else {
 			File fs = new File(args[ind]);
@@ -106,8 +140,12 @@ public class WikiIndexer {
 		log.info("Obtain database connection");
 		Connection conn;
 		try {
-			Class.forName("com.mysql.jdbc.Driver").newInstance();
-			conn = DriverManager.getConnection(url, userName, password);
+			if (coordinatesDb != null) {
+				conn = (Connection) DBDialect.SQLITE.getDatabaseConnection(coordinatesDb.getAbsolutePath(), log);
+			} else {
+				Class.forName("com.mysql.jdbc.Driver").newInstance();
+				conn = DriverManager.getConnection(url, userName, password);
+			}
 			log.info("Database connection established");
 		} catch (InstantiationException e1) {
 			throw new WikiIndexerException("Could not establish connection to " + url + " with " + userName, e1);
@@ -118,12 +156,13 @@ public class WikiIndexer {
 		} catch (SQLException e1) {
 			throw new WikiIndexerException("Could not establish connection to " + url + " with " + userName, e1);
 		}
+		WikiCoordinatesStore store = new SqlCoordinatesStore(conn);
 		File[] listFiles = srcPath.listFiles();
 		for (File f : listFiles) {
 			try {
 				if (f.isFile() && (f.getName().endsWith(".xml") || f.getName().endsWith(".xml.bz2"))) {
 					log.info("About to process " + f.getName());
-					File outFile = process(f, conn);
+					File outFile = process(f, store);
 					if (outFile != null) {
 						f.renameTo(new File(srcDone, f.getName()));
 
@@ -157,11 +196,17 @@ public class WikiIndexer {
 				log.error("Error processing " + f.getName(), e);
 			}
 		}
+		try {
+			store.close();
+		} catch (SQLException e) {
+			log.error("Error closing coordinates db", e);
+		}
 	}
 
-	protected File process(File f, Connection dbConnection) throws WikiIndexerException {
+	protected File process(File f, WikiCoordinatesStore store) throws WikiIndexerException {
 		InputStream fi = null;
 		BufferedWriter out = null;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
 		try {
 			int in = f.getName().indexOf('.');
 			int in2 = f.getName().indexOf('.', in + 1);
@@ -172,14 +217,6 @@ public class WikiIndexer {
 			String wikiLocale = f.getName().substring(in + 1, in2);
 			log.info("Locale for file " + wikiLocale);
 			
-			PreparedStatement locSearch = dbConnection.prepareStatement("SELECT gc_lat, gc_lon, gc_type FROM coord_"+wikiLocale+"wiki WHERE gc_from=?");
-			PreparedStatement enSearch = null;
-			try {
-				enSearch = dbConnection.prepareStatement("SELECT gc_lat, gc_lon, gc_type FROM coord_enwiki WHERE gc_name=?");
-			} catch (SQLException e) {
-				log.warn("EN coord not initialized " , e);
-			}
-			
 			File osmOut = new File(workPath, f.getName().substring(0, in) + ".osm");
 			fi = new BufferedInputStream(new FileInputStream(f));
 			InputStream progressStream = fi;
@@ -187,17 +224,15 @@ public class WikiIndexer {
 				if (fi.read() != 'B' || fi.read() != 'Z') {
 					throw new RuntimeException("The source stream must start with the characters BZ if it is to be read as a BZip2 stream."); //$NON-NLS-1$
 				} else {
-					fi = new CBZip2InputStream(fi);
+					fi = ParallelBZip2InputStream.create(fi);
 				}
 			}
 			ConsoleProgressImplementation progress = new ConsoleProgressImplementation();
 			out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(osmOut), "UTF-8"));
 			SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
-			WikiOsmHandler wikiOsmHandler = new WikiOsmHandler(saxParser, out, progress, progressStream, locSearch, enSearch, wikiLocale);
+			WikiOsmHandler wikiOsmHandler = new WikiOsmHandler(saxParser, out, progress, progressStream, store, wikiLocale, executor);
 			saxParser.parse(fi, wikiOsmHandler);
 
-			locSearch.close();
-			enSearch.close();
 			if (wikiOsmHandler.getCount() < 1) {
 				return null;
 			}
@@ -210,48 +245,133 @@ public class WikiIndexer {
 			throw new WikiIndexerException("Parse exception", e);
 		} catch (XMLStreamException e) {
 			throw new WikiIndexerException("Parse exception", e);
-		} catch (SQLException e) {
-			throw new WikiIndexerException("Database exception or locale configuration problem", e);
 		} finally {
+			executor.shutdownNow();
 			Algorithms.closeStream(out);
 			Algorithms.closeStream(fi);
 		}
 	}
 
+	/**
+	 * Looks up coordinates in the coord_&lt;locale&gt;wiki tables by one query per batch.
+	 * Queries are serialized (connection is shared by the workers).
+	 */
+	public static class SqlCoordinatesStore implements WikiCoordinatesStore {
+		private final Connection conn;
+		private boolean enAvailable = true;
+
+		public SqlCoordinatesStore(Connection conn) {
+			this.conn = conn;
+		}
+
+		@Override
+		public synchronized Map<Long, WikiCoordinates> findByPageIds(String locale, List<Long> pageIds) throws SQLException {
+			Map<Long, WikiCoordinates> res = new HashMap<Long, WikiCoordinates>();
+			if (pageIds.isEmpty()) {
+				return res;
+			}
+			PreparedStatement ps = conn.prepareStatement("SELECT gc_from, gc_lat, gc_lon, gc_type FROM coord_" + locale + "wiki WHERE gc_from IN "
+					+ parameters(pageIds.size()));
+			try {
+				for (int i = 0; i < pageIds.size(); i++) {
+					ps.setLong(i + 1, pageIds.get(i));
+				}
+				ResultSet rs = ps.executeQuery();
+				while (rs.next()) {
+					long id = rs.getLong(1);
+					// first found as before
+					if (!res.containsKey(id)) {
+						res.put(id, new WikiCoordinates(rs.getFloat(2), rs.getFloat(3), rs.getString(4)));
+					}
+				}
+				rs.close();
+			} finally {
+				ps.close();
+			}
+			return res;
+		}
+
+		@Override
+		public synchronized Map<String, WikiCoordinates> findByEnglishNames(List<String> names) throws SQLException {
+			Map<String, WikiCoordinates> res = new HashMap<String, WikiCoordinates>();
+			if (names.isEmpty() || !enAvailable) {
+				return res;
+			}
+			PreparedStatement ps;
+			try {
+				ps = conn.prepareStatement("SELECT gc_name, gc_lat, gc_lon, gc_type FROM coord_enwiki WHERE gc_name IN " + parameters(names.size()));
+			} catch (SQLException e) {
+				log.warn("EN coord not initialized " , e);
+				enAvailable = false;
+				return res;
+			}
+			try {
+				for (int i = 0; i < names.size(); i++) {
+					ps.setString(i + 1, names.get(i));
+				}
+				ResultSet rs = ps.executeQuery();
+				while (rs.next()) {
+					String name = rs.getString(1);
+					if (!res.containsKey(name)) {
+						res.put(name, new WikiCoordinates(rs.getFloat(2), rs.getFloat(3), rs.getString(4)));
+					}
+				}
+				rs.close();
+			} finally {
+				ps.close();
+			}
+			return res;
+		}
+
+		private static String parameters(int count) {
+			StringBuilder b = new StringBuilder("(");
+			for (int i = 0; i < count; i++) {
+				b.append(i == 0 ? "?" : ",?");
+			}
+			return b.append(")").toString();
+		}
+
+		@Override
+		public void close() throws SQLException {
+			conn.close();
+		}
+	}
+
+	/**
+	 * Splits the dump into batches of pages for the workers and writes accepted pages in the order of the dump.
+	 */
 	public class WikiOsmHandler extends DefaultHandler {
-		private final static boolean RECOGNIZE_ENGLISH = true;
 		long id = 1;
 		private final SAXParser saxParser;
 		private boolean page = false;
 		private boolean revision = false;
+		private boolean textRead = false;
 		private StringBuilder ctext = null;
 
 		private StringBuilder title = new StringBuilder();
 		private StringBuilder text = new StringBuilder();
 		private StringBuilder pageId = new StringBuilder();
-		private float clat = 0;
-		private float clon = 0;
 		private long cid;
-		private String subcategory = null;
-		private boolean parseText = false;
 
 		private final ConsoleProgressImplementation progress;
 		private final InputStream progIS;
 		private XMLStreamWriter streamWriter;
-		private final PreparedStatement locSearch;
-		private final PreparedStatement enSearch;
+		private final WikiCoordinatesStore store;
 		private final String locale;
+		private final ExecutorService executor;
+		private List<WikiPage> batch = new ArrayList<WikiPage>(PAGES_BATCH);
+		private final LinkedList<Future<List<WikiPage>>> pending = new LinkedList<Future<List<WikiPage>>>();
 		
 
 		WikiOsmHandler(SAXParser saxParser, BufferedWriter outOsm, ConsoleProgressImplementation progress, InputStream progIS, 
-				PreparedStatement dbStat, PreparedStatement enSearch, String wikiLocale)
+				WikiCoordinatesStore store, String wikiLocale, ExecutorService executor)
 				throws IOException, XMLStreamException {
 			this.saxParser = saxParser;
 			this.progress = progress;
 			this.progIS = progIS;
-			this.locSearch = dbStat;
-			this.enSearch = enSearch;
+			this.store = store;
 			this.locale = wikiLocale;
+			this.executor = executor;
 			XMLOutputFactory xof = XMLOutputFactory.newInstance();
 			streamWriter = xof.createXMLStreamWriter(outOsm);
 			streamWriter.writeStartDocument();
@@ -272,15 +392,14 @@ public class WikiIndexer {
 			String name = saxParser.isNamespaceAware() ? localName : qName;
 			if (!page) {
 				page = name.equals("page");
+				textRead = false;
 			} else {
 				if (name.equals("title")) {
 					title.setLength(0);
 					ctext = title;
 				} else if (name.equals("text")) {
-					if(parseText || RECOGNIZE_ENGLISH) {
-						text.setLength(0);
-						ctext = text;
-					}
+					text.setLength(0);
+					ctext = text;
 				} else if (name.equals("revision")) {
 					revision  = true;
 				} else if (name.equals("id") && !revision) {
@@ -306,7 +425,12 @@ public class WikiIndexer {
 				if (page) {
 					if (name.equals("page")) {
 						page = false;
-						parseText = false;
+						if (textRead) {
+							batch.add(new WikiPage(cid, title.toString(), text.toString()));
+							if (batch.size() >= PAGES_BATCH) {
+								submitBatch();
+							}
+						}
 						progress.remaining(progIS.available());
 					} else if (name.equals("title")) {
 						ctext = null;
@@ -315,29 +439,8 @@ public class WikiIndexer {
 					} else if (name.equals("id") && !revision) {
 						ctext = null;
 						cid = Long.parseLong(pageId.toString());
-						locSearch.setLong(1, cid);
-						ResultSet rs = locSearch.executeQuery();
-						parseText = false;
-						if(rs.next()) {
-							parseText = true;
-							clat = rs.getFloat(1);
-							clon = rs.getFloat(2);
-							subcategory = rs.getString(3);
-							if(subcategory == null){
-								subcategory = "";
-							}
-							subcategory = subcategory.toLowerCase();
-						}
 					} else if (name.equals("text")) {
-						if(!parseText && RECOGNIZE_ENGLISH) {
-							tryToMatchEnglish();
-						}
-						if (parseText) {
-							if(id % 500 == 0) {
-								log.debug("Article accepted " + cid + " " + title.toString());
-							}
-							analyzeTextForGeoInfoNew();
-						}
+						textRead = true;
 						ctext = null;
 					}
 				}
@@ -345,83 +448,156 @@ public class WikiIndexer {
 				throw new SAXException(e);
 			} catch (XMLStreamException e) {
 				throw new SAXException(e);
-			} catch (SQLException e) {
-				throw new SAXException(e);
 			}
 		}
-		
-		public void tryToMatchEnglish() throws SQLException {
-			int i = text.lastIndexOf("[[en:");
-			if(i != -1){
-				int ei = text.indexOf("]]",i);
-				if(ei != -1) {
-					String englishName = text.substring("[[en:".length() + i, ei).trim();
-					enSearch.setString(1, englishName);
-					ResultSet rs = enSearch.executeQuery();
-					if (rs.next()) {
-						clat = rs.getFloat(1);
-						clon = rs.getFloat(2);
-						subcategory = rs.getString(3);
-						parseText = true;
-						if (subcategory == null) {
-							subcategory = "";
-						}
-						subcategory = subcategory.toLowerCase();
-					}
+
+		private void submitBatch() throws XMLStreamException, SAXException {
+			final List<WikiPage> pages = batch;
+			batch = new ArrayList<WikiPage>(PAGES_BATCH);
+			pending.add(executor.submit(new Callable<List<WikiPage>>() {
+				@Override
+				public List<WikiPage> call() throws SQLException {
+					return processPages(pages);
 				}
+			}));
+			// bounded number of batches in memory, finished are written as soon as possible
+			while (pending.size() > 2 * threads || (!pending.isEmpty() && pending.getFirst().isDone())) {
+				writePages(pending.removeFirst());
 			}
 		}
 
-		private String readProperty(String prop, int s, int e) {
-			int res = -1;
-			for (int i = s; i < e - prop.length(); i++) {
-				if (prop.charAt(0) == text.charAt(i)) {
-					boolean neq = false;
-					for (int j = 0; j < prop.length(); j++) {
-						if (prop.charAt(j) != text.charAt(i + j)) {
-							neq = true;
-							break;
-						}
-					}
-					if (!neq) {
-						res = i + prop.length();
-						break;
+		private List<WikiPage> processPages(List<WikiPage> pages) throws SQLException {
+			List<Long> ids = new ArrayList<Long>(pages.size());
+			for (WikiPage p : pages) {
+				ids.add(p.cid);
+			}
+			Map<Long, WikiCoordinates> coordinates = store.findByPageIds(locale, ids);
+			List<String> englishNames = new ArrayList<String>();
+			for (WikiPage p : pages) {
+				p.coordinates = coordinates.get(p.cid);
+				if (p.coordinates == null && WikiPage.RECOGNIZE_ENGLISH) {
+					p.englishName = p.findEnglishName();
+					if (p.englishName != null) {
+						englishNames.add(p.englishName);
 					}
 				}
 			}
-			if (res == -1) {
-				return null;
+			Map<String, WikiCoordinates> enCoordinates = store.findByEnglishNames(englishNames);
+			List<WikiPage> accepted = new ArrayList<WikiPage>();
+			for (WikiPage p : pages) {
+				if (p.coordinates == null && p.englishName != null) {
+					p.coordinates = enCoordinates.get(p.englishName);
+				}
+				if (p.coordinates != null && p.analyzeTextForGeoInfoNew()) {
+					accepted.add(p);
+				}
 			}
-			int sr = -1;
-			int se = e;
-			for (int i = res; i < e; i++) {
-				if (text.charAt(i) == '|') {
-					se = i;
-					break;
+			return accepted;
+		}
+
+		private void writePages(Future<List<WikiPage>> f) throws XMLStreamException, SAXException {
+			List<WikiPage> pages;
+			try {
+				pages = f.get();
+			} catch (InterruptedException e) {
+				throw new SAXException(e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof Exception) {
+					throw new SAXException((Exception) e.getCause());
 				}
-				if (text.charAt(i) == '=') {
-					sr = i + 1;
+				throw new SAXException(e);
+			}
+			for (WikiPage p : pages) {
+				if(id % 500 == 0) {
+					log.debug("Article accepted " + p.cid + " " + p.title);
 				}
+				writeNode(p);
 			}
-			if (sr != -1) {
-				String result = text.substring(sr, se);
-				int commSt = result.indexOf("<!--");
-				if (commSt != -1) {
-					int commEnd = result.indexOf("-->");
-					if (commEnd == -1) {
-						commEnd = result.length();
-					} else {
-						commEnd += "-->".length();
-					}
-					return (result.substring(0, commSt) + result.substring(commEnd)).trim();
+		}
+
+		private void writeNode(WikiPage p) throws XMLStreamException {
+			streamWriter.writeCharacters("\n");
+			streamWriter.writeStartElement("node");
+			id++;
+			streamWriter.writeAttribute("id", "-" + p.cid);
+			streamWriter.writeAttribute("lat", String.valueOf((double) p.coordinates.lat));
+			streamWriter.writeAttribute("lon", String.valueOf((double) p.coordinates.lon));
+
+			streamWriter.writeCharacters("\n  ");
+			streamWriter.writeStartElement("tag");
+			streamWriter.writeAttribute("k", "name");
+			streamWriter.writeAttribute("v", p.title);
+			streamWriter.writeEndElement();
+			
+			streamWriter.writeCharacters("\n  ");
+			streamWriter.writeStartElement("tag");
+			streamWriter.writeAttribute("k", "wikipedia");
+			streamWriter.writeAttribute("v", locale + ":"+p.title);
+			streamWriter.writeEndElement();
+			
+
+			streamWriter.writeCharacters("\n  ");
+			streamWriter.writeStartElement("tag");
+			streamWriter.writeAttribute("k", "osmwiki");
+			streamWriter.writeAttribute("v", p.coordinates.type);
+			streamWriter.writeEndElement();
+
+			streamWriter.writeCharacters("\n  ");
+			streamWriter.writeStartElement("tag");
+			streamWriter.writeAttribute("k", "description");
+			streamWriter.writeAttribute("v", p.description);
+			streamWriter.writeEndElement();
+
+			streamWriter.writeEndElement();
+			streamWriter.writeCharacters("\n");
+		}
+
+		@Override
+		public void endDocument() throws SAXException {
+			try {
+				if (!batch.isEmpty()) {
+					submitBatch();
+				}
+				while (!pending.isEmpty()) {
+					writePages(pending.removeFirst());
 				}
-				return result.trim();
+				streamWriter.writeEndElement();
+				streamWriter.writeCharacters("\n");
+				streamWriter.writeEndDocument();
+			} catch (XMLStreamException e) {
+				throw new SAXException(e);
 			}
-			return null;
 		}
-		
-		private float zeroParseFloat(String s) {
-			return s == null || s.length() == 0 ? 0 : Float.parseFloat(s);
+
+	}
+
+	/**
+	 * Page of the dump : text is analyzed by the worker if page has coordinates
+	 */
+	static class WikiPage {
+		private final static boolean RECOGNIZE_ENGLISH = true;
+		final long cid;
+		final String title;
+		private String text;
+		String englishName;
+		WikiCoordinates coordinates;
+		String description;
+
+		WikiPage(long cid, String title, String text) {
+			this.cid = cid;
+			this.title = title;
+			this.text = text;
+		}
+
+		String findEnglishName() {
+			int i = text.lastIndexOf("[[en:");
+			if(i != -1){
+				int ei = text.indexOf("]]",i);
+				if(ei != -1) {
+					return text.substring("[[en:".length() + i, ei).trim();
+				}
+			}
+			return null;
 		}
 
 		private int findOpenBrackets(int i) {
@@ -465,76 +641,10 @@ public class WikiIndexer {
 			return -1;
 		}
 
-		@Deprecated
-		private void analyzeTextForGeoInfo() throws XMLStreamException {
-			// fast precheck
-			if (title.toString().endsWith("/doc") || title.toString().startsWith("Шаблон:") || title.toString().startsWith("Template:")) {
-				// Looks as template article no information in it
-				return;
-			}
-			int ls = text.indexOf("lat_dir");
-			if (ls != -1 && text.charAt(ls + 1 + "lat_dir".length()) != '|') {
-				float lat;
-				float lon;
-				String subcategory = "";
-				StringBuilder description = new StringBuilder();
-
-				int h = findOpenBrackets(0);
-				int e = findClosedBrackets(h);
-				// 1. Find main header section {{ ... lat, lon }}
-				while (h != -1 && e != -1) {
-					String lat_dir = readProperty("lat_dir", h, e);
-					// continue if nothing was found
-					if (lat_dir != null) {
-						break;
-					}
-					h = findOpenBrackets(e);
-					e = findClosedBrackets(h);
-				}
-				if (h == -1 || e == -1) {
-					return;
-				}
-
-				// 2. Parse lat lon
-				try {
-					String lat_dir = readProperty("lat_dir", h, e);
-					String lon_dir = readProperty("lon_dir", h, e);
-					String lat_dg = readProperty("lat_deg", h, e);
-					String lon_dg = readProperty("lon_deg", h, e);
-					if (lon_dg == null || lat_dg == null || lat_dg.length() == 0 || lon_dg.length() == 0) {
-						return;
-					}
-					float lat_deg = Float.parseFloat(lat_dg);
-					float lon_deg = Float.parseFloat(lon_dg);
-					float lat_min = zeroParseFloat(readProperty("lat_min", h, e));
-					float lon_min = zeroParseFloat(readProperty("lon_min", h, e));
-					float lat_sec = zeroParseFloat(readProperty("lat_sec", h, e));
-					float lon_sec = zeroParseFloat(readProperty("lon_sec", h, e));
-					lat = (("S".equals(lat_dir)) ? -1 : 1) * (lat_deg + (lat_min + lat_sec / 60) / 60);
-					lon = (("W".equals(lon_dir)) ? -1 : 1) * (lon_deg + (lon_min + lon_sec / 60) / 60);
-				} catch (RuntimeException es) {
-					log.error("Article " + title, es);
-					return;
-				}
-				// 3. Parse main subcategory name
-				for (int j = h + 2; j < e; j++) {
-					if (Character.isWhitespace(text.charAt(j)) || text.charAt(j) == '|') {
-						subcategory = text.substring(h + 2, j).trim();
-						break;
-					}
-				}
-				// Special case
-
-				// 4. Parse main subcategory name
-				processDescription(description, e + 3);
-
-				if (description.length() > 0) {
-					writeNode(lat, lon, subcategory, description);
-				}
-			}
-		}
-		
-		private void analyzeTextForGeoInfoNew() throws XMLStreamException {
+		/**
+		 * @return true if description was found (text is released after the analysis)
+		 */
+		boolean analyzeTextForGeoInfoNew() {
 			StringBuilder description = new StringBuilder();
 			try {
 				
@@ -545,7 +655,8 @@ public class WikiIndexer {
 				while (h != -1 && text.substring(beg, h).trim().length() == 0 ) {
 					beg = findClosedBrackets(h);
 					if(beg == -1){
-						return;
+						text = null;
+						return false;
 					}
 					beg += 2;
 					h = findOpenBrackets(beg);
@@ -569,9 +680,12 @@ public class WikiIndexer {
 				description.setLength(0);
 				log.error(e.getMessage(), e);
 			}
+			text = null;
 			if (description.length() > 0) {
-				writeNode(clat, clon, subcategory, description);
+				this.description = description.toString().trim();
+				return true;
 			}
+			return false;
 		}
 
 		private int checkAndParse(int i, String start, String end, StringBuilder d, boolean add) {
@@ -649,54 +763,6 @@ public class WikiIndexer {
 			}
 		}
 
-		private void writeNode(double lat, double lon, String subcategory, StringBuilder description) throws XMLStreamException {
-			streamWriter.writeCharacters("\n");
-			streamWriter.writeStartElement("node");
-			id++;
-			streamWriter.writeAttribute("id", "-" + cid);
-			streamWriter.writeAttribute("lat", String.valueOf(lat));
-			streamWriter.writeAttribute("lon", String.valueOf(lon));
-
-			streamWriter.writeCharacters("\n  ");
-			streamWriter.writeStartElement("tag");
-			streamWriter.writeAttribute("k", "name");
-			streamWriter.writeAttribute("v", title.toString());
-			streamWriter.writeEndElement();
-			
-			streamWriter.writeCharacters("\n  ");
-			streamWriter.writeStartElement("tag");
-			streamWriter.writeAttribute("k", "wikipedia");
-			streamWriter.writeAttribute("v", locale + ":"+title.toString());
-			streamWriter.writeEndElement();
-			
-
-			streamWriter.writeCharacters("\n  ");
-			streamWriter.writeStartElement("tag");
-			streamWriter.writeAttribute("k", "osmwiki");
-			streamWriter.writeAttribute("v", subcategory);
-			streamWriter.writeEndElement();
-
-			streamWriter.writeCharacters("\n  ");
-			streamWriter.writeStartElement("tag");
-			streamWriter.writeAttribute("k", "description");
-			streamWriter.writeAttribute("v", description.toString().trim());
-			streamWriter.writeEndElement();
-
-			streamWriter.writeEndElement();
-			streamWriter.writeCharacters("\n");
-		}
-
-		@Override
-		public void endDocument() throws SAXException {
-			try {
-				streamWriter.writeEndElement();
-				streamWriter.writeCharacters("\n");
-				streamWriter.writeEndDocument();
-			} catch (XMLStreamException e) {
-				throw new SAXException(e);
-			}
-		}
-
 	}
 
 }
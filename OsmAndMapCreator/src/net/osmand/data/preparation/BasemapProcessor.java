@@ -2,7 +2,7 @@ package net.osmand.data.preparation;
 
 
 import gnu.trove.list.array.TIntArrayList;
-import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
 import net.osmand.PlatformUtil;
 import net.osmand.binary.OsmandOdb.MapData;
 import net.osmand.binary.OsmandOdb.MapDataBlock;
@@ -11,13 +11,12 @@ import net.osmand.data.preparation.MapZooms.MapZoomPair;
 import net.osmand.impl.ConsoleProgressImplementation;
 import net.osmand.osm.MapRenderingTypes.MapRulType;
 import net.osmand.osm.MapRenderingTypesEncoder;
-import net.osmand.osm.WayChain;
+import net.osmand.osm.MapRenderingTypesEncoder.EntityTypes;
 import net.osmand.osm.edit.*;
 import net.osmand.util.Algorithms;
 import net.osmand.util.MapAlgorithms;
 import net.osmand.util.MapUtils;
 import org.apache.commons.logging.Log;
-import org.apache.tools.bzip2.CBZip2InputStream;
 import org.xml.sax.SAXException;
 
 import javax.xml.stream.XMLStreamException;
@@ -27,23 +26,15 @@ import java.util.*;
 import java.util.Map.Entry;
 
 public class BasemapProcessor {
-    TLongObjectHashMap<WayChain> coastlinesEndPoint = new TLongObjectHashMap<WayChain>();
-    TLongObjectHashMap<WayChain> coastlinesStartPoint = new TLongObjectHashMap<WayChain>();
-
-    private static final byte SEA = 0x2;
-    private static final byte LAND = 0x1;
     private static final Log log = PlatformUtil.getLog(BasemapProcessor.class);
 
     /**
      * The zoom level for which the tile info is valid.
      */
-    public static final byte TILE_ZOOMLEVEL = 12;
-    private static final byte BITMASK = 0x3;
-    private static final int BITS_COUNT = (1 << TILE_ZOOMLEVEL) * (1 << TILE_ZOOMLEVEL);
-    private BitSet seaTileInfo = new BitSet(BITS_COUNT);
-    private BitSet landTileInfo = new BitSet(BITS_COUNT);
+    public static final byte TILE_ZOOMLEVEL = OceanTilesMap.TILE_ZOOMLEVEL;
+    private OceanTilesMap oceanTiles;
     private TIntArrayList typeUse = new TIntArrayList();
-    List<MapRulType> tempNameUse = new ArrayList<MapRulType>();
+    EntityTypes entityTypes = new EntityTypes();
     TIntArrayList addtypeUse = new TIntArrayList(8);
     Map<MapRulType, String> namesUse = new LinkedHashMap<MapRulType, String>();
 
@@ -52,6 +43,12 @@ public class BasemapProcessor {
     private final MapZooms mapZooms;
     private final Log logMapDataWarn;
     private SimplisticQuadTree[] quadTrees;
+    // objects of quad trees are kept in the store and read back tile by tile while writing
+    private final File tempDir;
+    private BasemapTileStore store;
+    // shard ids are relative (0, -1, -2 ...) and are rebased when shard is merged
+    private final boolean shard;
+    private long shardId = 0;
 
     protected static class SimplisticQuadTree {
         int zoom;
@@ -66,7 +63,7 @@ public class BasemapProcessor {
         }
 
         SimplisticQuadTree[] children = null;
-        Map<MapZoomPair, List<SimplisticBinaryData>> dataObjects = null;
+        Map<MapZoomPair, BasemapTileStore.TileData> dataObjects = null;
 
 
         public SimplisticQuadTree[] getAllChildren() {
@@ -78,22 +75,23 @@ public class BasemapProcessor {
             return children != null;
         }
 
-        public void addQuadData(MapZoomPair p, SimplisticBinaryData w) {
-
+        public BasemapTileStore.TileData getOrCreateData(MapZoomPair p, BasemapTileStore store) {
             if (dataObjects == null) {
-                dataObjects = new LinkedHashMap<MapZooms.MapZoomPair, List<SimplisticBinaryData>>();
+                dataObjects = new LinkedHashMap<MapZooms.MapZoomPair, BasemapTileStore.TileData>(2);
             }
-            if (!dataObjects.containsKey(p)) {
-                dataObjects.put(p, new ArrayList<SimplisticBinaryData>());
+            BasemapTileStore.TileData data = dataObjects.get(p);
+            if (data == null) {
+                data = store.createTile();
+                dataObjects.put(p, data);
             }
-            dataObjects.get(p).add(w);
+            return data;
         }
 
         public boolean dataIsDefined(MapZoomPair p) {
             return dataObjects != null && dataObjects.get(p) != null;
         }
 
-        public List<SimplisticBinaryData> getData(MapZoomPair p) {
+        public BasemapTileStore.TileData getData(MapZoomPair p) {
             return dataObjects.get(p);
         }
 
@@ -139,13 +137,41 @@ public class BasemapProcessor {
         zoomWaySmothness = 0;
         renderingTypes = null;
         mapZooms = null;
+        tempDir = null;
+        shard = false;
+    }
+
+    private BasemapProcessor(BasemapProcessor parent) {
+        this.logMapDataWarn = parent.logMapDataWarn;
+        this.mapZooms = parent.mapZooms;
+        this.renderingTypes = parent.renderingTypes.newInstance();
+        this.zoomWaySmothness = parent.zoomWaySmothness;
+        this.tempDir = parent.tempDir;
+        this.store = new BasemapTileStore(tempDir);
+        this.oceanTiles = parent.oceanTiles;
+        this.shard = true;
+        quadTrees = new SimplisticQuadTree[mapZooms.getLevels().size()];
+        for (int i = 0; i < quadTrees.length; i++) {
+            quadTrees[i] = new SimplisticQuadTree(0, 0, 0);
+        }
     }
 
     public BasemapProcessor(Log logMapDataWarn, MapZooms mapZooms, MapRenderingTypesEncoder renderingTypes, int zoomWaySmothness) {
+        this(logMapDataWarn, mapZooms, renderingTypes, zoomWaySmothness, null);
+    }
+
+    /**
+     * @param tempDir directory for temporary file with tile objects (null - default temporary directory)
+     */
+    public BasemapProcessor(Log logMapDataWarn, MapZooms mapZooms, MapRenderingTypesEncoder renderingTypes, int zoomWaySmothness,
+                            File tempDir) {
         this.logMapDataWarn = logMapDataWarn;
         this.mapZooms = mapZooms;
         this.renderingTypes = renderingTypes;
         this.zoomWaySmothness = zoomWaySmothness;
+        this.tempDir = tempDir;
+        this.store = new BasemapTileStore(tempDir);
+        this.shard = false;
         constructBitSetInfo();
         quadTrees = new SimplisticQuadTree[mapZooms.getLevels().size()];
         for (int i = 0; i < mapZooms.getLevels().size(); i++) {
@@ -155,125 +181,190 @@ public class BasemapProcessor {
     }
 
     protected void constructBitSetInfo() {
-        try {
+        oceanTiles = OceanTilesMap.getDefault();
+    }
 
-            InputStream stream = BasemapProcessor.class.getResourceAsStream("oceantiles_12.dat.bz2");
-            if (stream.read() != 'B' || stream.read() != 'Z') {
-                throw new RuntimeException("The source stream must start with the characters BZ if it is to be read as a BZip2 stream."); //$NON-NLS-1$
-            }
-            InputStream dis = new CBZip2InputStream(stream);
-            int currentByte;
-            for (int i = 0; i < BITS_COUNT / 4; i++) {
-                currentByte = dis.read();
-                if (((currentByte >> 6) & BITMASK) == SEA) {
-                    seaTileInfo.set(i * 4);
-                } else if (((currentByte >> 6) & BITMASK) == LAND) {
-                    landTileInfo.set(i * 4);
-                }
-                if (((currentByte >> 4) & BITMASK) == SEA) {
-                    seaTileInfo.set(i * 4 + 1);
-                } else if (((currentByte >> 4) & BITMASK) == LAND) {
-                    landTileInfo.set(i * 4 + 1);
-                }
-                if (((currentByte >> 2) & BITMASK) == SEA) {
-                    seaTileInfo.set(i * 4 + 2);
-                } else if (((currentByte >> 2) & BITMASK) == LAND) {
-                    landTileInfo.set(i * 4 + 2);
-                }
-                if ((currentByte & BITMASK) == SEA) {
-                    seaTileInfo.set(i * 4 + 3);
-                } else if ((currentByte & BITMASK) == LAND) {
-                    landTileInfo.set(i * 4 + 3);
-                }
-            }
-        } catch (IOException e) {
-            throw new RuntimeException("File with coastline tiles was not found ");
-        }
+    /**
+     * Shard collects objects of one input file in its own quad trees, so several files could be processed in parallel
+     * (each shard by one thread). Shard encodes objects with its own rendering types (rule ids are local to the shard),
+     * sea tiles info is shared, shard trees are created lazily.
+     */
+    public BasemapProcessor createShard() {
+        return new BasemapProcessor(this);
     }
 
-    public int getTileZoomLevel() {
-        return TILE_ZOOMLEVEL;
+    /**
+     * Appends objects of the shard to this processor. Rule types of the shard are registered and object ids 
+     * are assigned in the order of merge, so shards merged in the order of input files give the same result 
+     * as sequential processing of the files.
+     */
+    public void mergeShard(BasemapProcessor shard) throws IOException {
+        if (!shard.shard) {
+            throw new IllegalArgumentException("Only shard created by createShard() could be merged");
+        }
+        TIntObjectHashMap<MapRulType> ruleTypes = renderingTypes.mergeRuleTypes(shard.renderingTypes);
+        for (int i = 0; i < quadTrees.length; i++) {
+            mergeQuadTree(quadTrees[i], shard, shard.quadTrees[i], ruleTypes);
+        }
+        ID += shard.shardId;
+        shard.quadTrees = null;
+        shard.close();
     }
 
-    public boolean isWaterTile(int x, int y, int zoom) {
-        if (zoom >= TILE_ZOOMLEVEL) {
-            int x1 = x >> (zoom - TILE_ZOOMLEVEL);
-            int y1 = y >> (zoom - TILE_ZOOMLEVEL);
-            if (!seaTileInfo.get(y1 * 4096 + x1)) {
-                return false;
-            }
-            return true;
-        } else {
-            int x1 = x << (TILE_ZOOMLEVEL - zoom);
-            int y1 = y << (TILE_ZOOMLEVEL - zoom);
-            int max = 1 << TILE_ZOOMLEVEL - zoom;
-            for (int i = 0; i < max; i++) {
-                for (int j = 0; j < max; j++) {
-                    if (!seaTileInfo.get((y1 + j) * 4096 + (x1 + i))) {
-                        return false;
+    private void mergeQuadTree(SimplisticQuadTree target, BasemapProcessor shard, SimplisticQuadTree shardTree,
+                               TIntObjectHashMap<MapRulType> ruleTypes) throws IOException {
+        if (shardTree.dataObjects != null) {
+            SimplisticQuadTree quad = target.getOrCreateSubTree(shardTree.x, shardTree.y, shardTree.zoom);
+            for (MapZoomPair p : shardTree.dataObjects.keySet()) {
+                for (SimplisticBinaryData data : shard.readQuadData(shardTree, p)) {
+                    data.id += ID;
+                    data.types = mergeTypes(data.types, ruleTypes);
+                    data.addTypes = mergeTypes(data.addTypes, ruleTypes);
+                    if (data.names != null) {
+                        Map<MapRulType, String> names = new LinkedHashMap<MapRulType, String>();
+                        for (Entry<MapRulType, String> e : data.names.entrySet()) {
+                            names.put(ruleTypes.get(e.getKey().getInternalId()), e.getValue());
+                        }
+                        data.names = names;
                     }
+                    addQuadData(quad, p, data);
                 }
             }
-            return true;
+        }
+        if (shardTree.areChildrenDefined()) {
+            for (SimplisticQuadTree ch : shardTree.getAllChildren()) {
+                mergeQuadTree(target, shard, ch, ruleTypes);
+            }
         }
     }
 
-    // get isLand returns > 0 for land and < 0 for water
-    public float getSeaTile(int x, int y, int zoom) {
-        if (zoom >= TILE_ZOOMLEVEL) {
-            int x1 = x >> (zoom - TILE_ZOOMLEVEL);
-            int y1 = y >> (zoom - TILE_ZOOMLEVEL);
-//            if (landTileInfo.get(y1 * 4096 + x1)) {
-//                return 1;
-//            }
-            if (seaTileInfo.get(y1 * 4096 + x1)) {
-                return 1;
-            }
-            return 0;
+    private static int[] mergeTypes(int[] types, TIntObjectHashMap<MapRulType> ruleTypes) {
+        if (types == null) {
+            return null;
+        }
+        int[] res = new int[types.length];
+        for (int i = 0; i < types.length; i++) {
+            res[i] = ruleTypes.get(types[i]).getInternalId();
+        }
+        // types are sorted by ids as in EntityTypes.fillTypes
+        Arrays.sort(res);
+        return res;
+    }
+
+    private void addQuadData(SimplisticQuadTree quad, MapZoomPair p, SimplisticBinaryData data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(data.id);
+        writeBytes(out, data.coordinates);
+        writeBytes(out, data.innerCoordinates);
+        writeInts(out, data.types);
+        writeInts(out, data.addTypes);
+        if (data.names == null) {
+            out.writeInt(-1);
         } else {
-            int x1 = x << (TILE_ZOOMLEVEL - zoom);
-            int y1 = y << (TILE_ZOOMLEVEL - zoom);
-            int max = 1 << (TILE_ZOOMLEVEL - zoom);
-            int c = 0;
-            for (int i = 0; i < max; i++) {
-                for (int j = 0; j < max; j++) {
-//                    if (landTileInfo.get((y1 + i) * 4096 + (x1 + j))) {
-//                        c++;
-//                    }
-                    if (seaTileInfo.get((y1 + i) * 4096 + (x1 + j))) {
-                        c++;
-                    }
+            out.writeInt(data.names.size());
+            for (Entry<MapRulType, String> e : data.names.entrySet()) {
+                out.writeInt(e.getKey().getInternalId());
+                out.writeInt(store.getStringId(e.getValue()));
+            }
+        }
+        out.flush();
+        store.append(quad.getOrCreateData(p, store), bytes.toByteArray());
+    }
 
+    private List<SimplisticBinaryData> readQuadData(SimplisticQuadTree quad, MapZoomPair p) throws IOException {
+        List<byte[]> records = store.readRecords(quad.getData(p));
+        List<SimplisticBinaryData> result = new ArrayList<SimplisticBinaryData>(records.size());
+        for (byte[] r : records) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(r));
+            SimplisticBinaryData data = new SimplisticBinaryData();
+            data.id = in.readLong();
+            data.coordinates = readBytes(in);
+            data.innerCoordinates = readBytes(in);
+            data.types = readInts(in);
+            data.addTypes = readInts(in);
+            int names = in.readInt();
+            if (names >= 0) {
+                data.names = new LinkedHashMap<MapRulType, String>();
+                for (int i = 0; i < names; i++) {
+                    MapRulType rt = renderingTypes.getTypeByInternalId(in.readInt());
+                    data.names.put(rt, store.getString(in.readInt()));
                 }
             }
+            result.add(data);
+        }
+        return result;
+    }
 
-            return ((float)c) / ((float) max * (float) max);
+    private static void writeBytes(DataOutputStream out, byte[] b) throws IOException {
+        if (b == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(b.length);
+            out.write(b);
         }
     }
 
-    public boolean isLandTile(int x, int y, int zoom) {
-        if (zoom >= TILE_ZOOMLEVEL) {
-            int x1 = x >> (zoom - TILE_ZOOMLEVEL);
-            int y1 = y >> (zoom - TILE_ZOOMLEVEL);
-            if (!landTileInfo.get(y1 * 4096 + x1)) {
-                return false;
-            }
-            return true;
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0) {
+            return null;
+        }
+        byte[] b = new byte[len];
+        in.readFully(b);
+        return b;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] ar) throws IOException {
+        if (ar == null) {
+            out.writeInt(-1);
         } else {
-            int x1 = x << (TILE_ZOOMLEVEL - zoom);
-            int y1 = y << (TILE_ZOOMLEVEL - zoom);
-            int max = 1 << (TILE_ZOOMLEVEL - zoom);
-            for (int i = 0; i < max; i++) {
-                for (int j = 0; j < max; j++) {
-                    if (!landTileInfo.get((y1 + i) * 4096 + (x1 + j))) {
-                        return false;
-                    }
-                }
+            out.writeInt(ar.length);
+            for (int v : ar) {
+                out.writeInt(v);
             }
-            return true;
         }
     }
 
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0) {
+            return null;
+        }
+        int[] ar = new int[len];
+        for (int i = 0; i < len; i++) {
+            ar[i] = in.readInt();
+        }
+        return ar;
+    }
+
+    /**
+     * Removes temporary file with tile objects
+     */
+    public void close() throws IOException {
+        if (store != null) {
+            store.close();
+            store = null;
+        }
+    }
+
+    public int getTileZoomLevel() {
+        return TILE_ZOOMLEVEL;
+    }
+
+    public boolean isWaterTile(int x, int y, int zoom) {
+        return oceanTiles.isWaterTile(x, y, zoom);
+    }
+
+    // get isLand returns > 0 for land and < 0 for water
+    public float getSeaTile(int x, int y, int zoom) {
+        return oceanTiles.getSeaTile(x, y, zoom);
+    }
+
+    public boolean isLandTile(int x, int y, int zoom) {
+        return oceanTiles.isLandTile(x, y, zoom);
+    }
+
     public SimplisticQuadTree constructTilesQuadTree(int maxZoom) {
         SimplisticQuadTree rootTree = new SimplisticQuadTree(0, 0, 0);
 
@@ -344,12 +435,14 @@ public class BasemapProcessor {
             MapDataBlock.Builder dataBlock = MapDataBlock.newBuilder();
             SimplisticQuadTree quad = e.getKey();
             Map<String, Integer> stringTable = new LinkedHashMap<String, Integer>();
+            // objects of one tile are read back from the store at once
+            List<SimplisticBinaryData> quadData = readQuadData(quad, level);
             long baseId = 0;
-            for (SimplisticBinaryData w : quad.getData(level)) {
+            for (SimplisticBinaryData w : quadData) {
             	baseId = Math.min(w.id, baseId);
             }
             dataBlock.setBaseId(baseId);
-            for (SimplisticBinaryData w : quad.getData(level)) {
+            for (SimplisticBinaryData w : quadData) {
                 int[] wts = null;
                 int[] wats = null;
                 if (w.types != null) {
@@ -407,6 +500,7 @@ public class BasemapProcessor {
 		long refId = -Math.abs(e.getId());
 		// save space with ids
 		
+		renderingTypes.encodeEntityTypes(e, entityTypes);
 		for (int level = 0; level < mapZooms.getLevels().size(); level++) {
 			boolean mostDetailed = level == 0;
 			MapZoomPair zoomPair = mapZooms.getLevel(level);
@@ -414,7 +508,7 @@ public class BasemapProcessor {
 			if (mostDetailed && zoomPair.getMaxZoom() < 10) {
 				throw new IllegalStateException("Zoom pair is not detailed " + zoomPair);
 			}
-			renderingTypes.encodeEntityWithType(e, zoomToEncode, typeUse, addtypeUse, namesUse, tempNameUse);
+			entityTypes.fillTypes(zoomToEncode, typeUse, addtypeUse, namesUse);
 			if (typeUse.isEmpty()) {
 				continue;
 			}
@@ -624,7 +718,7 @@ public class BasemapProcessor {
         }
         SimplisticBinaryData data = new SimplisticBinaryData();
         // not needed
-        data.id = ID--; // don't use ref id
+        data.id = shard ? shardId-- : ID--; // don't use ref id
         data.coordinates = bcoordinates.toByteArray();
         data.types = types;
         data.addTypes = addTypes;
@@ -649,7 +743,11 @@ public class BasemapProcessor {
 			    }
 		    }
 	    }
-        quad.addQuadData(zoomPair, data);
+        try {
+            addQuadData(quad, zoomPair, data);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
     private int getViewZoom(int minZoom, int maxZoom) {
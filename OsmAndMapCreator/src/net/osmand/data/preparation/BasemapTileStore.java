@@ -0,0 +1,161 @@
+package net.osmand.data.preparation;
+
+import gnu.trove.list.array.TLongArrayList;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only storage of basemap tile objects. <p />
+ *
+ * Records of every tile are appended to a small in-memory buffer, when all buffers together exceed the limit
+ * they are spilled to the end of the temporary file (so a tile consists of several file segments and the buffer tail).
+ * Strings (object names) are kept once in a string table and referenced by id.
+ * Store is not thread safe : one store is used by one thread at a time.
+ */
+class BasemapTileStore {
+
+	private static final int DEFAULT_BUFFER_LIMIT = 32 * 1024 * 1024;
+
+	static class TileData {
+		private int count;
+		// offset, length pairs in the file
+		private TLongArrayList segments;
+		private ByteArrayOutputStream buffer;
+
+		public int getCount() {
+			return count;
+		}
+	}
+
+	private final File tempDir;
+	private final int bufferLimit;
+	private File file;
+	private RandomAccessFile raf;
+	private long fileLength;
+	private long buffered;
+	private List<TileData> dirtyTiles = new ArrayList<TileData>();
+
+	private Map<String, Integer> stringIds = new HashMap<String, Integer>();
+	private List<String> strings = new ArrayList<String>();
+
+	public BasemapTileStore(File tempDir) {
+		this(tempDir, DEFAULT_BUFFER_LIMIT);
+	}
+
+	public BasemapTileStore(File tempDir, int bufferLimit) {
+		this.tempDir = tempDir;
+		this.bufferLimit = bufferLimit;
+	}
+
+	public TileData createTile() {
+		return new TileData();
+	}
+
+	public void append(TileData tile, byte[] record) throws IOException {
+		if (tile.buffer == null) {
+			tile.buffer = new ByteArrayOutputStream(Math.max(256, record.length + 4));
+			dirtyTiles.add(tile);
+		}
+		writeInt(tile.buffer, record.length);
+		tile.buffer.write(record);
+		tile.count++;
+		buffered += record.length + 4;
+		if (buffered > bufferLimit) {
+			spill();
+		}
+	}
+
+	private void spill() throws IOException {
+		if (raf == null) {
+			file = File.createTempFile("basemap", ".tiles.tmp", tempDir);
+			file.deleteOnExit();
+			raf = new RandomAccessFile(file, "rw");
+		}
+		raf.seek(fileLength);
+		for (TileData tile : dirtyTiles) {
+			byte[] bytes = tile.buffer.toByteArray();
+			raf.write(bytes);
+			if (tile.segments == null) {
+				tile.segments = new TLongArrayList(2);
+			}
+			tile.segments.add(fileLength);
+			tile.segments.add(bytes.length);
+			fileLength += bytes.length;
+			tile.buffer = null;
+		}
+		dirtyTiles.clear();
+		buffered = 0;
+	}
+
+	/**
+	 * @return records of the tile in the order they were appended
+	 */
+	public List<byte[]> readRecords(TileData tile) throws IOException {
+		List<byte[]> records = new ArrayList<byte[]>(tile.count);
+		if (tile.segments != null) {
+			for (int i = 0; i < tile.segments.size(); i += 2) {
+				byte[] bytes = new byte[(int) tile.segments.get(i + 1)];
+				raf.seek(tile.segments.get(i));
+				raf.readFully(bytes);
+				splitRecords(bytes, records);
+			}
+		}
+		if (tile.buffer != null) {
+			splitRecords(tile.buffer.toByteArray(), records);
+		}
+		return records;
+	}
+
+	private static void splitRecords(byte[] bytes, List<byte[]> records) {
+		int pos = 0;
+		while (pos < bytes.length) {
+			int len = ((bytes[pos] & 0xff) << 24) | ((bytes[pos + 1] & 0xff) << 16) | ((bytes[pos + 2] & 0xff) << 8)
+					| (bytes[pos + 3] & 0xff);
+			pos += 4;
+			byte[] r = new byte[len];
+			System.arraycopy(bytes, pos, r, 0, len);
+			records.add(r);
+			pos += len;
+		}
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, int v) {
+		out.write((v >>> 24) & 0xff);
+		out.write((v >>> 16) & 0xff);
+		out.write((v >>> 8) & 0xff);
+		out.write(v & 0xff);
+	}
+
+	public int getStringId(String s) {
+		Integer id = stringIds.get(s);
+		if (id == null) {
+			id = strings.size();
+			strings.add(s);
+			stringIds.put(s, id);
+		}
+		return id.intValue();
+	}
+
+	public String getString(int id) {
+		return strings.get(id);
+	}
+
+	public void close() throws IOException {
+		dirtyTiles.clear();
+		if (raf != null) {
+			raf.close();
+			raf = null;
+		}
+		if (file != null) {
+			file.delete();
+			file = null;
+		}
+	}
+}
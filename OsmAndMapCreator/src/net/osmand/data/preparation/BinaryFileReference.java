@@ -6,7 +6,8 @@ import java.io.RandomAccessFile;
 
 /**
  * Utility to keep references between binary blocks
- * while generating binary file 
+ * while generating binary file. File pointers are 64 bit, only relative shifts and sizes are written 
+ * to the file (as fixed32), so file could be larger than 2 GB while every single shift fits into 32 bits.
  */
 public class BinaryFileReference {
 	
@@ -27,12 +28,22 @@ public class BinaryFileReference {
 		this.pointerToCalculateShiftTo = pointerToCalculateShifTo;
 		long currentPosition = raf.getFilePointer();
 		raf.seek(pointerToWrite);
-		int val = (int) (pointerToCalculateShiftTo - pointerToCalculateShiftFrom);
+		int val = toInt32(pointerToCalculateShiftTo - pointerToCalculateShiftFrom);
 		raf.writeInt(val);
 		raf.seek(currentPosition);
 		return val;
 	}
 	
+	/**
+	 * Checks that shift between two file pointers could be written to the 32 bit field.
+	 */
+	public static int toInt32(long shift) {
+		if (shift > Integer.MAX_VALUE || shift < Integer.MIN_VALUE) {
+			throw new IllegalArgumentException("Shift " + shift + " doesn't fit into 32 bits (section > 2 GB).");
+		}
+		return (int) shift;
+	}
+	
 	public static BinaryFileReference createSizeReference(long pointerToWrite){
 		return new BinaryFileReference(pointerToWrite, pointerToWrite + 4);
 	}
@@ -5,6 +5,7 @@ import gnu.trove.list.array.TByteArrayList;
 import gnu.trove.list.array.TIntArrayList;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
@@ -117,6 +118,8 @@ public class BinaryMapIndexWriter {
 	// internal constants to track state of index writing
 	private Stack<Integer> state = new Stack<Integer>();
 	private Stack<BinaryFileReference> stackSizes = new Stack<BinaryFileReference>();
+	// address objects keep offsets relative to it
+	private long addressIndexStart;
 
 	private final static int OSMAND_STRUCTURE_INIT = 1;
 	private final static int MAP_INDEX_INIT = 2;
@@ -775,6 +778,7 @@ public class BinaryMapIndexWriter {
 		pushState(ADDRESS_INDEX_INIT, OSMAND_STRUCTURE_INIT);
 		codedOutStream.writeTag(OsmandOdb.OsmAndStructure.ADDRESSINDEX_FIELD_NUMBER, WireFormat.WIRETYPE_FIXED32_LENGTH_DELIMITED);
 		preserveInt32Size();
+		addressIndexStart = getFilePointer();
 
 		codedOutStream.writeString(OsmandOdb.OsmAndAddressIndex.NAME_FIELD_NUMBER, name);
 		codedOutStream.writeString(OsmandOdb.OsmAndAddressIndex.NAME_EN_FIELD_NUMBER, Junidecode.unidecode(name));
@@ -789,6 +793,14 @@ public class BinaryMapIndexWriter {
 	}
 	
 	
+	/**
+	 * Offsets of address objects are kept relative to the address index (they are used only for shifts inside it),
+	 * so address index could be written after 2 GB of other sections.
+	 */
+	public int getAddressIndexOffset(long filePointer) {
+		return BinaryFileReference.toInt32(filePointer - addressIndexStart);
+	}
+
 	public void writeAddressNameIndex(Map<String, List<MapObject>> namesIndex) throws IOException {
 		checkPeekState(ADDRESS_INDEX_INIT);
 		codedOutStream.writeTag(OsmAndAddressIndex.NAMEINDEX_FIELD_NUMBER, WireFormat.WIRETYPE_FIXED32_LENGTH_DELIMITED);
@@ -827,9 +839,10 @@ public class BinaryMapIndexWriter {
 					type = 4;
 				}
 				atom.setType(type); 
-				atom.addShiftToIndex((int) (pointer - o.getFileOffset()));
+				long addressPointer = pointer - addressIndexStart;
+				atom.addShiftToIndex(BinaryFileReference.toInt32(addressPointer - o.getFileOffset()));
 				if(o instanceof Street){
-					atom.addShiftToCityIndex((int) (pointer - ((Street) o).getCity().getFileOffset()));
+					atom.addShiftToCityIndex(BinaryFileReference.toInt32(addressPointer - ((Street) o).getCity().getFileOffset()));
 				}
 				builder.addAtom(atom.build());
 			}
@@ -885,7 +898,7 @@ public class BinaryMapIndexWriter {
 		codedOutStream.flush();
 		ref.writeReference(raf, startMessage);
 		CityBlockIndex.Builder cityInd = OsmandOdb.CityBlockIndex.newBuilder();
-		cityInd.setShiftToCityIndex((int) (startMessage - startCityBlock));
+		cityInd.setShiftToCityIndex(BinaryFileReference.toInt32(startMessage - startCityBlock));
 		long currentPointer = startMessage + 4 + CodedOutputStream.computeTagSize(CityBlockIndex.SHIFTTOCITYINDEX_FIELD_NUMBER);
 		
 		int cx = MapUtils.get31TileNumberX(cityOrPostcode.getLocation().getLongitude());
@@ -905,10 +918,7 @@ public class BinaryMapIndexWriter {
 		for (Street s : streets) {
 			StreetIndex streetInd = createStreetAndBuildings(s, cx, cy, postcodeFilter, mapNodeToStreet, wayNodes);
 			currentPointer += CodedOutputStream.computeTagSize(CityBlockIndex.STREETS_FIELD_NUMBER);
-			if(currentPointer > Integer.MAX_VALUE) {
-				throw new IllegalArgumentException("File offset > 2 GB.");
-			}
-			s.setFileOffset((int) currentPointer);
+			s.setFileOffset(getAddressIndexOffset(currentPointer));
 			currentPointer += CodedOutputStream.computeMessageSizeNoTag(streetInd);
 			cityInd.addStreets(streetInd);
 			
@@ -1157,7 +1167,7 @@ public class BinaryMapIndexWriter {
 		ts.setDy(y24 - bounds.topY);
 		ts.setId(id - stackBaseIds.peek());
 		for (Long i : routes) {
-			ts.addRoutes((int) (fp - i));
+			ts.addRoutes(BinaryFileReference.toInt32(fp - i));
 		}
 
 		codedOutStream.writeMessageNoTag(ts.build());
@@ -1497,6 +1507,18 @@ public class BinaryMapIndexWriter {
 		codedOutStream.flush();
 	}
 
+	/**
+	 * Copies index (top level section of the file) as it was written by other writer.
+	 */
+	public void writeRawIndex(InputStream is) throws IOException {
+		checkPeekState(OSMAND_STRUCTURE_INIT);
+		byte[] buf = new byte[1 << 16];
+		int read;
+		while ((read = is.read(buf)) != -1) {
+			codedOutStream.writeRawBytes(buf, 0, read);
+		}
+	}
+
 	public void close() throws IOException {
 		checkPeekState(OSMAND_STRUCTURE_INIT);
 		codedOutStream.writeInt32(OsmandOdb.OsmAndStructure.VERSIONCONFIRM_FIELD_NUMBER, IndexConstants.BINARY_MAP_VERSION);
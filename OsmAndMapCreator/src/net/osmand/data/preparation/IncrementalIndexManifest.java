@@ -0,0 +1,198 @@
+package net.osmand.data.preparation;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import net.osmand.osm.MapRenderingTypes;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Fingerprints of the stages of the previous generation of the region. <p />
+ *
+ * Stage (nodes db or section of the binary file) is reused when the fingerprint of its inputs
+ * (content of the osm file and the settings the stage depends on) is the same as recorded.
+ * Sections are kept as raw bytes of the binary file : all offsets inside of a section are relative,
+ * so section is copied into the new file as is.
+ */
+class IncrementalIndexManifest {
+
+	public static final String NODES = "nodes";
+	public static final String MAP = "map";
+	public static final String ROUTING = "routing";
+	public static final String ADDRESS = "address";
+	public static final String POI = "poi";
+	public static final String TRANSPORT = "transport";
+
+	private static final String EXT = ".manifest";
+	private static final String SECTION_EXT = ".section";
+
+	private final File dir;
+	private final String prefix;
+	private final File file;
+	private final Properties props = new Properties();
+
+	public IncrementalIndexManifest(File dir, String prefix) throws IOException {
+		this.dir = dir;
+		this.prefix = prefix;
+		this.file = new File(dir, prefix + EXT);
+		if (file.exists()) {
+			FileInputStream fis = new FileInputStream(file);
+			try {
+				props.load(fis);
+			} finally {
+				fis.close();
+			}
+		}
+	}
+
+	public File getSectionFile(String section) {
+		return new File(dir, prefix + "." + section + SECTION_EXT);
+	}
+
+	public boolean isUpToDate(String stage, String fingerprint) {
+		if (!fingerprint.equals(props.getProperty(stage))) {
+			return false;
+		}
+		return NODES.equals(stage) || getSectionFile(stage).exists();
+	}
+
+	public void update(String stage, String fingerprint) throws IOException {
+		props.setProperty(stage, fingerprint);
+		save();
+	}
+
+	public void invalidate(String stage) throws IOException {
+		if (props.remove(stage) != null) {
+			save();
+		}
+	}
+
+	private void save() throws IOException {
+		FileOutputStream fous = new FileOutputStream(file);
+		try {
+			props.store(fous, "Fingerprints of generated stages");
+		} finally {
+			fous.close();
+		}
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] digest) {
+		StringBuilder b = new StringBuilder();
+		for (byte d : digest) {
+			b.append(Integer.toHexString((d & 0xff) | 0x100).substring(1));
+		}
+		return b.toString();
+	}
+
+	public static String hash(Object... parts) {
+		MessageDigest md = createDigest();
+		for (Object p : parts) {
+			try {
+				md.update(String.valueOf(p).getBytes("UTF-8"));
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			md.update((byte) 0);
+		}
+		return toHex(md.digest());
+	}
+
+	public static String hashFile(File f) throws IOException {
+		MessageDigest md = createDigest();
+		InputStream is = new BufferedInputStream(new FileInputStream(f), 1 << 16);
+		try {
+			byte[] buf = new byte[1 << 16];
+			int r;
+			while ((r = is.read(buf)) != -1) {
+				md.update(buf, 0, r);
+			}
+		} finally {
+			is.close();
+		}
+		return toHex(md.digest());
+	}
+
+	/**
+	 * Poi rules are described by poi_* attributes of the same rendering types file, so they are hashed
+	 * separately from the rest of the rules (used by map and routing sections).
+	 * @return hashes of map rules and of poi rules
+	 */
+	public static String[] hashRenderingTypes(String fileName) throws IOException {
+		InputStream is;
+		if (fileName == null) {
+			is = MapRenderingTypes.class.getResourceAsStream("rendering_types.xml"); //$NON-NLS-1$
+			if (is == null) {
+				// default rules are defined by the version of generator
+				return new String[] { "default", "default" };
+			}
+		} else {
+			is = new FileInputStream(fileName);
+		}
+		final MessageDigest map = createDigest();
+		final MessageDigest poi = createDigest();
+		try {
+			SAXParserFactory.newInstance().newSAXParser().parse(is, new DefaultHandler() {
+				@Override
+				public void startElement(String uri, String localName, String name, Attributes attributes) {
+					StringBuilder mapRule = new StringBuilder(name);
+					StringBuilder poiRule = new StringBuilder(name);
+					boolean poiAttributes = false;
+					for (int i = 0; i < attributes.getLength(); i++) {
+						String attr = attributes.getQName(i);
+						String rule = "|" + attr + "=" + attributes.getValue(i);
+						if (attr.startsWith("poi")) {
+							poiRule.append(rule);
+							poiAttributes = true;
+						} else {
+							mapRule.append(rule);
+							if (attr.equals("tag") || attr.equals("value") || attr.equals("name")) {
+								poiRule.append(rule);
+							}
+						}
+					}
+					update(map, mapRule.toString());
+					if (poiAttributes) {
+						update(poi, poiRule.toString());
+					}
+				}
+
+				private void update(MessageDigest md, String s) {
+					try {
+						md.update(s.getBytes("UTF-8"));
+					} catch (IOException e) {
+						throw new IllegalStateException(e);
+					}
+					md.update((byte) '\n');
+				}
+			});
+		} catch (SAXException e) {
+			throw new IOException(e);
+		} catch (ParserConfigurationException e) {
+			throw new IOException(e);
+		} finally {
+			is.close();
+		}
+		return new String[] { toHex(map.digest()), toHex(poi.digest()) };
+	}
+}
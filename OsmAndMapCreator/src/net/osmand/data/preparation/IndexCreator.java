@@ -4,6 +4,7 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
@@ -11,9 +12,26 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import net.osmand.IProgress;
 import net.osmand.IndexConstants;
+import net.osmand.MapCreatorVersion;
+import net.osmand.data.preparation.MapZooms.MapZoomPair;
 import net.osmand.data.preparation.OsmDbAccessor.OsmDbVisitor;
 import net.osmand.data.preparation.address.IndexAddressCreator;
 import net.osmand.impl.ConsoleProgressImplementation;
@@ -21,10 +39,13 @@ import net.osmand.osm.MapRenderingTypesEncoder;
 import net.osmand.osm.edit.Entity;
 import net.osmand.osm.edit.Entity.EntityId;
 import net.osmand.osm.edit.Entity.EntityType;
+import net.osmand.osm.edit.Node;
+import net.osmand.osm.edit.OSMSettings.OSMTagKey;
 import net.osmand.osm.edit.Relation;
 import net.osmand.osm.io.IOsmStorageFilter;
 import net.osmand.osm.io.OsmBaseStorage;
 import net.osmand.osm.io.OsmBaseStoragePbf;
+import net.osmand.osm.io.ParallelBZip2InputStream;
 import net.osmand.swing.DataExtractionSettings;
 import net.osmand.swing.Messages;
 import net.osmand.swing.ProgressDialog;
@@ -32,7 +53,6 @@ import net.osmand.util.Algorithms;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.tools.bzip2.CBZip2InputStream;
 import org.xml.sax.SAXException;
 
 import rtree.RTreeException;
@@ -71,6 +91,10 @@ public class IndexCreator {
 
 	private boolean normalizeStreets = true; // true by default
 	private int zoomWaySmothness = 2;
+	private int basemapThreads = Runtime.getRuntime().availableProcessors();
+	// reuse nodes db and sections of the previous generation of the region if their inputs didn't change
+	private boolean incremental = false;
+	private String renderingTypesFile = null;
 
 	private String regionName;
 	private String mapFileName = null;
@@ -131,6 +155,29 @@ public class IndexCreator {
 		this.zoomWaySmothness = zoomWaySmothness;
 	}
 
+	/**
+	 * Number of basemap input files processed in parallel (1 - files are processed one by one)
+	 */
+	public void setBasemapThreads(int basemapThreads) {
+		this.basemapThreads = basemapThreads;
+	}
+	
+	/**
+	 * Keep nodes db and written sections in working directory and reuse them when the region is generated again
+	 * from the same file with the same settings of the section
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+	
+	/**
+	 * File of the rendering types used for generation (null - default rendering types), 
+	 * it is needed only to check what sections should be regenerated  
+	 */
+	public void setRenderingTypesFile(String renderingTypesFile) {
+		this.renderingTypesFile = renderingTypesFile;
+	}
+
 	public String getRegionName() {
 		if (regionName == null) {
 			return "Region"; //$NON-NLS-1$
@@ -240,8 +287,11 @@ public class IndexCreator {
 		}
 	}
 
-	private OsmDbCreator extractOsmToNodesDB(File readFile, IProgress progress, IOsmStorageFilter addFilter) throws FileNotFoundException,
-			IOException, SQLException, SAXException {
+	/**
+	 * @param registerCities false if file is loaded by a helper thread (cities are registered later by the main thread)
+	 */
+	private OsmDbCreator extractOsmToNodesDB(File readFile, IProgress progress, IOsmStorageFilter addFilter, Object dbConn,
+			final boolean registerCities) throws FileNotFoundException, IOException, SQLException, SAXException {
 		boolean pbfFile = false;
 		InputStream stream = new BufferedInputStream(new FileInputStream(readFile), 8192 * 4);
 		InputStream streamFile = stream;
@@ -250,7 +300,7 @@ public class IndexCreator {
 			if (stream.read() != 'B' || stream.read() != 'Z') {
 //				throw new RuntimeException("The source stream must start with the characters BZ if it is to be read as a BZip2 stream."); //$NON-NLS-1$
 			} else {
-				stream = new CBZip2InputStream(stream);
+				stream = ParallelBZip2InputStream.create(stream);
 			}
 		} else if (readFile.getName().endsWith(".pbf")) { //$NON-NLS-1$
 			pbfFile = true;
@@ -266,7 +316,7 @@ public class IndexCreator {
 			
 			@Override
 			public boolean acceptEntityToLoad(OsmBaseStorage storage, EntityId entityId, Entity entity) {
-				if(indexAddressCreator != null) {
+				if(registerCities && indexAddressCreator != null) {
 					indexAddressCreator.registerCityIfNeeded(entity);
 				}
 				// accept to allow db creator parse it
@@ -318,7 +368,7 @@ public class IndexCreator {
 		int allWays = 1000000;
 		int allNodes = 10000000;
 		if (!loadFromExistingFile) {
-			OsmDbCreator dbCreator = extractOsmToNodesDB(readFile, progress, addFilter);
+			OsmDbCreator dbCreator = extractOsmToNodesDB(readFile, progress, addFilter, dbConn, true);
 			if (dbCreator != null) {
 				allNodes = dbCreator.getAllNodes();
 				allWays = dbCreator.getAllWays();
@@ -384,45 +434,20 @@ public class IndexCreator {
 		}
 
 		// clear previous results and setting variables
+		BasemapProcessor processor = null;
 		try {
 			
-			final BasemapProcessor processor = new BasemapProcessor(logMapDataWarn, mapZooms, renderingTypes, zoomWaySmothness);
-			
-			for (File readFile : readFiles) {
-				this.accessor = new OsmDbAccessor();
-				createPlainOsmDb(progress, readFile, addFilter, true);
-				// 2. Create index connections and index structure
-
-				setGeneralProgress(progress,"[50 / 100]");
-				progress.startTask(Messages.getString("IndexCreator.PROCESS_OSM_NODES"), accessor.getAllNodes());
-				accessor.iterateOverEntities(progress, EntityType.NODE, new OsmDbVisitor() {
-					@Override
-					public void iterateEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException {
-						processor.processEntity(e);
-					}
-				});
-				setGeneralProgress(progress,"[70 / 100]");
-				progress.startTask(Messages.getString("IndexCreator.PROCESS_OSM_WAYS"), accessor.getAllWays());
-				accessor.iterateOverEntities(progress, EntityType.WAY, new OsmDbVisitor() {
-					@Override
-					public void iterateEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException {
-						processor.processEntity(e);
-					}
-				});
-				setGeneralProgress(progress,"[90 / 100]");
-
-				progress.startTask(Messages.getString("IndexCreator.PROCESS_OSM_REL"), accessor.getAllRelations());
-				accessor.iterateOverEntities(progress, EntityType.RELATION, new OsmDbVisitor() {
-					@Override
-					public void iterateEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException {
-						ctx.loadEntityRelation((Relation) e);
-						processor.processEntity(e);
-					}
-				});
-				accessor.closeReadingConnection();
+			processor = new BasemapProcessor(logMapDataWarn, mapZooms, renderingTypes, zoomWaySmothness, workingDir);
+			if (basemapThreads <= 1 || readFiles.length <= 1) {
+				for (File readFile : readFiles) {
+					this.accessor = new OsmDbAccessor();
+					createPlainOsmDb(progress, readFile, addFilter, true);
+					processBasemapDb(progress, accessor, processor, null);
+				}
+			} else {
+				processBasemapFilesInParallel(progress, addFilter, processor, readFiles);
 			}
-			
-			
+
 			mapFile = new File(workingDir, getMapFileName());
 			// to save space
 			mapFile.getParentFile().mkdirs();
@@ -451,9 +476,161 @@ public class IndexCreator {
 		} catch (SAXException e) {
 			log.error("Log exception", e); //$NON-NLS-1$
 			throw e;
+		} finally {
+			if (processor != null) {
+				processor.close();
+			}
 		}
 	}
 	
+	private static class BasemapShard {
+		BasemapProcessor processor;
+		// place nodes of the file, cities are registered in the order of files
+		List<Node> places;
+	}
+
+	/**
+	 * Each file is loaded to its own nodes db and processed into a shard of the processor by a worker thread.
+	 * Shards encode rules with their own rule ids and are merged by the calling thread in the order of files,
+	 * so rules and objects are registered in the same order and result is the same as with sequential processing.
+	 */
+	private void processBasemapFilesInParallel(IProgress progress, IOsmStorageFilter addFilter, BasemapProcessor processor,
+			File... readFiles) throws IOException, SAXException, SQLException, InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(basemapThreads, readFiles.length));
+		List<Future<BasemapShard>> shards = new ArrayList<Future<BasemapShard>>();
+		int merged = 0;
+		try {
+			for (int i = 0; i < readFiles.length; i++) {
+				shards.add(submitBasemapShard(executor, readFiles[i], i, addFilter, processor));
+			}
+			progress.startTask("Processing basemap files...", readFiles.length);
+			for (int i = 0; i < readFiles.length; i++) {
+				BasemapShard shard = getBasemapShard(shards.get(i));
+				merged++;
+				if (shard.places != null) {
+					for (Node n : shard.places) {
+						indexAddressCreator.registerCityIfNeeded(n);
+					}
+				}
+				processor.mergeShard(shard.processor);
+				log.info("Basemap file processed : " + readFiles[i].getName()); //$NON-NLS-1$
+				progress.progress(1);
+			}
+			progress.finishTask();
+		} finally {
+			for (Runnable notStarted : executor.shutdownNow()) {
+				((Future<?>) notStarted).cancel(false);
+			}
+			if (executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				// remove temporary files of shards that were processed but not merged
+				for (int i = merged; i < shards.size(); i++) {
+					try {
+						shards.get(i).get().processor.close();
+					} catch (ExecutionException e) {
+						// shard is closed by the worker thread
+					} catch (CancellationException e) {
+						// not started
+					}
+				}
+			}
+		}
+	}
+
+	private Future<BasemapShard> submitBasemapShard(ExecutorService executor, final File readFile, int ind,
+			final IOsmStorageFilter addFilter, final BasemapProcessor processor) {
+		final File nodesDb = new File(workingDir, ind + "." + TEMP_NODES_DB);
+		return executor.submit(new Callable<BasemapShard>() {
+			@Override
+			public BasemapShard call() throws Exception {
+				if (osmDBdialect.databaseFileExists(nodesDb)) {
+					osmDBdialect.removeDatabase(nodesDb);
+				}
+				BasemapShard shard = new BasemapShard();
+				shard.processor = processor.createShard();
+				shard.places = indexAddressCreator != null ? new ArrayList<Node>() : null;
+				Object conn = getDatabaseConnection(nodesDb.getAbsolutePath(), osmDBdialect);
+				boolean processed = false;
+				try {
+					OsmDbCreator dbCreator = extractOsmToNodesDB(readFile, IProgress.EMPTY_PROGRESS, addFilter, conn, false);
+					OsmDbAccessor dbAccessor = new OsmDbAccessor();
+					dbAccessor.initDatabase(conn, osmDBdialect, dbCreator.getAllNodes(), dbCreator.getAllWays(),
+							dbCreator.getAllRelations());
+					processBasemapDb(IProgress.EMPTY_PROGRESS, dbAccessor, shard.processor, shard.places);
+					processed = true;
+					return shard;
+				} finally {
+					osmDBdialect.closeDatabase(conn);
+					osmDBdialect.removeDatabase(nodesDb);
+					if (!processed) {
+						shard.processor.close();
+					}
+				}
+			}
+		});
+	}
+
+	private BasemapShard getBasemapShard(Future<BasemapShard> f) throws IOException, SAXException, SQLException,
+			InterruptedException {
+		try {
+			return f.get();
+		} catch (ExecutionException e) {
+			Throwable t = e.getCause();
+			if (t instanceof IOException) {
+				throw (IOException) t;
+			} else if (t instanceof SAXException) {
+				throw (SAXException) t;
+			} else if (t instanceof SQLException) {
+				throw (SQLException) t;
+			} else if (t instanceof InterruptedException) {
+				throw (InterruptedException) t;
+			} else if (t instanceof RuntimeException) {
+				throw (RuntimeException) t;
+			} else if (t instanceof Error) {
+				throw (Error) t;
+			}
+			throw new IllegalStateException(t);
+		}
+	}
+
+	/**
+	 * @param places collects place nodes to register cities later (null - cities were registered while file was loaded)
+	 */
+	private void processBasemapDb(IProgress progress, OsmDbAccessor dbAccessor, final BasemapProcessor processor,
+			final List<Node> places) throws SQLException, InterruptedException {
+		// 2. Create index connections and index structure
+
+		setGeneralProgress(progress, "[50 / 100]");
+		progress.startTask(Messages.getString("IndexCreator.PROCESS_OSM_NODES"), dbAccessor.getAllNodes());
+		dbAccessor.iterateOverEntities(progress, EntityType.NODE, new OsmDbVisitor() {
+			@Override
+			public void iterateEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException {
+				if (places != null && e.getTag(OSMTagKey.PLACE) != null) {
+					places.add((Node) e);
+				}
+				processor.processEntity(e);
+			}
+		});
+		setGeneralProgress(progress, "[70 / 100]");
+		progress.startTask(Messages.getString("IndexCreator.PROCESS_OSM_WAYS"), dbAccessor.getAllWays());
+		dbAccessor.iterateOverEntities(progress, EntityType.WAY, new OsmDbVisitor() {
+			@Override
+			public void iterateEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException {
+				processor.processEntity(e);
+			}
+		});
+		setGeneralProgress(progress, "[90 / 100]");
+
+		progress.startTask(Messages.getString("IndexCreator.PROCESS_OSM_REL"), dbAccessor.getAllRelations());
+		dbAccessor.iterateOverEntities(progress, EntityType.RELATION, new OsmDbVisitor() {
+			@Override
+			public void iterateEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException {
+				ctx.loadEntityRelation((Relation) e);
+				processor.processEntity(e);
+			}
+		});
+		dbAccessor.closeReadingConnection();
+	}
+
 	public void generateIndexes(File readFile, IProgress progress, IOsmStorageFilter addFilter, MapZooms mapZooms,
 			MapRenderingTypesEncoder renderingTypes, Log logMapDataWarn) throws IOException, SAXException, SQLException, InterruptedException {
 //		if(LevelDBAccess.load()){
@@ -494,14 +671,38 @@ public class IndexCreator {
 		}
 		indexAddressCreator.initSettings(normalizeStreets, normalizeDefaultSuffixes, normalizeSuffixes, cityAdminLevel);
 
+		// flags are changed to index only sections which can't be reused
+		boolean[] indexFlags = new boolean[] { indexMap, indexRouting, indexAddress, indexPOI, indexTransport };
+		boolean deleteOsmDBFlag = deleteOsmDB;
+		IncrementalIndexManifest manifest = null;
+		Map<String, String> sectionFingerprints = new LinkedHashMap<String, String>();
+		Set<String> reusedSections = new HashSet<String>();
+		String nodesFingerprint = null;
 		// Main generation method
 		try {
+			if (incremental && readFile != null && addFilter == null && !recreateOnlyBinaryFile) {
+				manifest = new IncrementalIndexManifest(workingDir, getMapFileName());
+				nodesFingerprint = prepareIncrementalGeneration(manifest, readFile, mapZooms, normalizeDefaultSuffixes,
+						normalizeSuffixes, sectionFingerprints, reusedSections);
+			}
+			boolean indexSections = indexMap || indexAddress || indexTransport || indexPOI || indexRouting;
 			// ////////////////////////////////////////////////////////////////////////
 			// 1. creating nodes db to fast access for all nodes and simply import all relations, ways, nodes to it
-			boolean loadFromExistingFile = createPlainOsmDb(progress, readFile, addFilter, false);
+			boolean loadFromExistingFile = false;
+			if (indexSections || manifest == null) {
+				loadFromExistingFile = createPlainOsmDb(progress, readFile, addFilter, false);
+				if (manifest != null) {
+					manifest.update(IncrementalIndexManifest.NODES, nodesFingerprint);
+				}
+			}
 			
 			// do not create temp map file and rtree files
 			if (recreateOnlyBinaryFile) {
+				if (indexTransport) {
+					// transport routes and stops are kept only in memory while osm file is indexed
+					log.warn("Transport section can't be recreated from the temporary database, it is not written"); //$NON-NLS-1$
+					indexTransport = false;
+				}
 				mapFile = new File(workingDir, getMapFileName());
 				File tempDBMapFile = new File(workingDir, getTempMapDBFileName());
 				mapConnection = (Connection) getDatabaseConnection(tempDBMapFile.getAbsolutePath(), mapIndexDBDialect);
@@ -520,7 +721,7 @@ public class IndexCreator {
 					log.error("Error flushing", e); //$NON-NLS-1$
 					throw new IOException(e);
 				}
-			} else {
+			} else if (indexSections || manifest == null) {
 
 				// 2. Create index connections and index structure
 				createDatabaseIndexesStructure();
@@ -544,7 +745,7 @@ public class IndexCreator {
 				}
 
 				// 3.2 index address relations
-				if (indexAddress || indexMap || indexRouting || indexPOI) {
+				if (indexAddress || indexMap || indexRouting || indexPOI || indexTransport) {
 					setGeneralProgress(progress,"[30 / 100]"); //$NON-NLS-1$
 					progress.startTask(Messages.getString("IndexCreator.PREINDEX_BOUNDARIES_RELATIONS"), accessor.getAllRelations()); //$NON-NLS-1$
 					accessor.iterateOverEntities(progress, EntityType.RELATION, new OsmDbVisitor() {
@@ -553,6 +754,8 @@ public class IndexCreator {
 							if (indexAddress) {
 								//indexAddressCreator.indexAddressRelation((Relation) e, ctx); streets needs loaded boundaries !!!
 								indexAddressCreator.indexBoundariesRelation(e, ctx);
+								// postcodes should be known before buildings are written
+								indexAddressCreator.indexPostcodeRelation((Relation) e, ctx);
 							}
 							if (indexMap) {
 								indexMapCreator.indexMapRelationsAndMultiPolygons(e, ctx);
@@ -636,13 +839,6 @@ public class IndexCreator {
 
 				}
 
-				// 3.5 update all postal codes from relations
-				if (indexAddress) {
-					setGeneralProgress(progress,"[90 / 100]");
-					progress.startTask(Messages.getString("IndexCreator.REGISTER_PCODES"), -1);
-					indexAddressCreator.processingPostcodes();
-				}
-
 				// 4. packing map rtree indexes
 				if (indexMap) {
 					setGeneralProgress(progress,"[90 / 100]"); //$NON-NLS-1$
@@ -661,7 +857,10 @@ public class IndexCreator {
 			}
 
 			// 5. Writing binary file
-			if (indexMap || indexAddress || indexTransport || indexPOI || indexRouting) {
+			if (indexMap || indexAddress || indexTransport || indexPOI || indexRouting || !reusedSections.isEmpty()) {
+				if (mapFile == null) {
+					mapFile = new File(workingDir, getMapFileName());
+				}
 				if (mapFile.exists()) {
 					mapFile.delete();
 				}
@@ -670,30 +869,50 @@ public class IndexCreator {
 				if (indexMap) {
 					setGeneralProgress(progress,"[95 of 100]");
 					progress.startTask("Writing map index to binary file...", -1);
+					long start = writer.getFilePointer();
 					indexMapCreator.writeBinaryMapIndex(writer, regionName);
+					saveIndexSection(manifest, writer, IncrementalIndexManifest.MAP, sectionFingerprints, start);
+				} else if (reusedSections.contains(IncrementalIndexManifest.MAP)) {
+					copyIndexSection(manifest, writer, IncrementalIndexManifest.MAP);
 				}
 				if (indexRouting) {
 					setGeneralProgress(progress,"[95 of 100]");
 					progress.startTask("Writing route index to binary file...", -1);
+					long start = writer.getFilePointer();
 					indexRouteCreator.writeBinaryRouteIndex(writer, regionName);
+					saveIndexSection(manifest, writer, IncrementalIndexManifest.ROUTING, sectionFingerprints, start);
+				} else if (reusedSections.contains(IncrementalIndexManifest.ROUTING)) {
+					copyIndexSection(manifest, writer, IncrementalIndexManifest.ROUTING);
 				}
 
 				if (indexAddress) {
 					setGeneralProgress(progress,"[95 of 100]");
 					progress.startTask("Writing address index to binary file...", -1);
+					long start = writer.getFilePointer();
 					indexAddressCreator.writeBinaryAddressIndex(writer, regionName, progress);
+					saveIndexSection(manifest, writer, IncrementalIndexManifest.ADDRESS, sectionFingerprints, start);
+				} else if (reusedSections.contains(IncrementalIndexManifest.ADDRESS)) {
+					copyIndexSection(manifest, writer, IncrementalIndexManifest.ADDRESS);
 				}
 				
 				if (indexPOI) {
 					setGeneralProgress(progress,"[95 of 100]");
 					progress.startTask("Writing poi index to binary file...", -1);
+					long start = writer.getFilePointer();
 					indexPoiCreator.writeBinaryPoiIndex(writer, regionName, progress);
+					saveIndexSection(manifest, writer, IncrementalIndexManifest.POI, sectionFingerprints, start);
+				} else if (reusedSections.contains(IncrementalIndexManifest.POI)) {
+					copyIndexSection(manifest, writer, IncrementalIndexManifest.POI);
 				}
 
 				if (indexTransport) {
 					setGeneralProgress(progress,"[95 of 100]");
 					progress.startTask("Writing transport index to binary file...", -1);
-					indexTransportCreator.writeBinaryTransportIndex(writer, regionName, mapConnection);
+					long start = writer.getFilePointer();
+					indexTransportCreator.writeBinaryTransportIndex(writer, regionName);
+					saveIndexSection(manifest, writer, IncrementalIndexManifest.TRANSPORT, sectionFingerprints, start);
+				} else if (reusedSections.contains(IncrementalIndexManifest.TRANSPORT)) {
+					copyIndexSection(manifest, writer, IncrementalIndexManifest.TRANSPORT);
 				}
 				progress.finishTask();
 				writer.close();
@@ -760,6 +979,106 @@ public class IndexCreator {
 			} catch (RuntimeException e) {
 				e.printStackTrace();
 			}
+			indexMap = indexFlags[0];
+			indexRouting = indexFlags[1];
+			indexAddress = indexFlags[2];
+			indexPOI = indexFlags[3];
+			indexTransport = indexFlags[4];
+			deleteOsmDB = deleteOsmDBFlag;
+		}
+	}
+	
+	private String prepareIncrementalGeneration(IncrementalIndexManifest manifest, File readFile, MapZooms mapZooms,
+			String[] normalizeDefaultSuffixes, String[] normalizeSuffixes, Map<String, String> sectionFingerprints,
+			Set<String> reusedSections) throws IOException, SQLException {
+		long time = System.currentTimeMillis();
+		String input = IncrementalIndexManifest.hashFile(readFile);
+		String[] rules = IncrementalIndexManifest.hashRenderingTypes(renderingTypesFile);
+		String common = IncrementalIndexManifest.hash(input, regionName, IndexConstants.BINARY_MAP_VERSION,
+				MapCreatorVersion.APP_MAP_CREATOR_FULL_NAME);
+		if (indexMap) {
+			StringBuilder zooms = new StringBuilder();
+			for (MapZoomPair p : mapZooms.getLevels()) {
+				zooms.append(p.getMinZoom()).append('-').append(p.getMaxZoom()).append(';');
+			}
+			sectionFingerprints.put(IncrementalIndexManifest.MAP, 
+					IncrementalIndexManifest.hash(common, zooms, zoomWaySmothness, rules[0]));
+		}
+		if (indexRouting) {
+			sectionFingerprints.put(IncrementalIndexManifest.ROUTING, IncrementalIndexManifest.hash(common, rules[0]));
+		}
+		if (indexAddress) {
+			sectionFingerprints.put(IncrementalIndexManifest.ADDRESS, IncrementalIndexManifest.hash(common, normalizeStreets,
+					Arrays.toString(normalizeDefaultSuffixes), Arrays.toString(normalizeSuffixes), cityAdminLevel));
+		}
+		if (indexPOI) {
+			sectionFingerprints.put(IncrementalIndexManifest.POI, IncrementalIndexManifest.hash(common, rules[1]));
+		}
+		if (indexTransport) {
+			sectionFingerprints.put(IncrementalIndexManifest.TRANSPORT, IncrementalIndexManifest.hash(common));
+		}
+		for (Entry<String, String> e : sectionFingerprints.entrySet()) {
+			if (manifest.isUpToDate(e.getKey(), e.getValue())) {
+				reusedSections.add(e.getKey());
+			}
+		}
+		indexMap = indexMap && !reusedSections.contains(IncrementalIndexManifest.MAP);
+		indexRouting = indexRouting && !reusedSections.contains(IncrementalIndexManifest.ROUTING);
+		indexAddress = indexAddress && !reusedSections.contains(IncrementalIndexManifest.ADDRESS);
+		indexPOI = indexPOI && !reusedSections.contains(IncrementalIndexManifest.POI);
+		indexTransport = indexTransport && !reusedSections.contains(IncrementalIndexManifest.TRANSPORT);
+		log.info("Sections " + reusedSections + " of previous generation are reused (checked in " + 
+				(System.currentTimeMillis() - time) + " ms)"); //$NON-NLS-1$
+
+		// nodes db is kept for the next generation of the region
+		deleteOsmDB = false;
+		dbFile = new File(workingDir, getMapFileName() + "." + TEMP_NODES_DB);
+		String nodesFingerprint = IncrementalIndexManifest.hash(input, osmDBdialect);
+		if (!manifest.isUpToDate(IncrementalIndexManifest.NODES, nodesFingerprint)) {
+			manifest.invalidate(IncrementalIndexManifest.NODES);
+			if (osmDBdialect.databaseFileExists(dbFile)) {
+				osmDBdialect.removeDatabase(dbFile);
+			}
+		}
+		return nodesFingerprint;
+	}
+	
+	private void saveIndexSection(IncrementalIndexManifest manifest, BinaryMapIndexWriter writer, String section,
+			Map<String, String> sectionFingerprints, long start) throws IOException {
+		if (manifest == null) {
+			return;
+		}
+		manifest.invalidate(section);
+		writer.flush();
+		long end = writer.getFilePointer();
+		RandomAccessFile raf = new RandomAccessFile(mapFile, "r");
+		FileOutputStream fous = new FileOutputStream(manifest.getSectionFile(section));
+		try {
+			raf.seek(start);
+			byte[] buf = new byte[1 << 16];
+			long left = end - start;
+			while (left > 0) {
+				int read = raf.read(buf, 0, (int) Math.min(buf.length, left));
+				if (read == -1) {
+					throw new IOException("Unexpected end of " + mapFile.getName());
+				}
+				fous.write(buf, 0, read);
+				left -= read;
+			}
+		} finally {
+			fous.close();
+			raf.close();
+		}
+		manifest.update(section, sectionFingerprints.get(section));
+	}
+	
+	private void copyIndexSection(IncrementalIndexManifest manifest, BinaryMapIndexWriter writer, String section) throws IOException {
+		log.info("Copy " + section + " index of previous generation"); //$NON-NLS-1$
+		InputStream is = new BufferedInputStream(new FileInputStream(manifest.getSectionFile(section)), 1 << 16);
+		try {
+			writer.writeRawIndex(is);
+		} finally {
+			is.close();
 		}
 	}
 
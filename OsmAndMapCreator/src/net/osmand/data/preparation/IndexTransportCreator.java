@@ -1,13 +1,14 @@
 package net.osmand.data.preparation;
 
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+
 import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -23,6 +24,7 @@ import java.util.regex.Pattern;
 
 import net.osmand.data.TransportRoute;
 import net.osmand.data.TransportStop;
+import net.osmand.osm.LongIntMap;
 import net.osmand.osm.edit.Entity;
 import net.osmand.osm.edit.EntityParser;
 import net.osmand.osm.edit.Node;
@@ -50,10 +52,16 @@ public class IndexTransportCreator extends AbstractIndexPartCreator {
 	
 	private static final Log log = LogFactory.getLog(IndexTransportCreator.class);
 
-	private Set<Long> visitedStops = new HashSet<Long>();
-	private PreparedStatement transRouteStat;
-	private PreparedStatement transRouteStopsStat;
-	private PreparedStatement transStopsStat;
+	// transport graph is kept in memory : stops are stored once (first occurrence), routes refer to stop indexes
+	private LongIntMap stopIndexes = new LongIntMap(1024);
+	private TLongArrayList stopIds = new TLongArrayList();
+	private double[] stopLatitudes = new double[256];
+	private double[] stopLongitudes = new double[256];
+	private List<String> stopNames = new ArrayList<String>();
+	private List<String> stopEnNames = new ArrayList<String>();
+	// stop -> routes (indexes) which visit it in the order of indexing
+	private List<TIntArrayList> stopRoutes = new ArrayList<TIntArrayList>();
+	private List<TransportRouteData> routes = new ArrayList<TransportRouteData>();
 	private RTree transportStopsTree;
 	private Map<Long, Relation> masterRoutes = new HashMap<Long, Relation>();
 	// Note: in future when we need more information from stop_area relation, it is better to memorize relations itself
@@ -75,6 +83,19 @@ public class IndexTransportCreator extends AbstractIndexPartCreator {
 		acceptedRoutes.add("ferry"); //$NON-NLS-1$
 	}
 
+	private static class TransportRouteData {
+		long id;
+		int dist;
+		String name;
+		String nameEn;
+		String ref;
+		String operator;
+		String type;
+		// stop indexes
+		int[] forwardStops;
+		int[] backwardStops;
+	}
+
 	public IndexTransportCreator(){
 	}
 	
@@ -84,40 +105,34 @@ public class IndexTransportCreator extends AbstractIndexPartCreator {
 	}
 	
 	public void writeBinaryTransportTree(rtree.Node parent, RTree r, BinaryMapIndexWriter writer, 
-			PreparedStatement selectTransportStop, PreparedStatement selectTransportRouteStop, 
-			Map<Long, Long> transportRoutes, Map<String, Integer> stringTable) throws IOException, RTreeException, SQLException {
+			Map<Long, Long> transportRoutes, Map<String, Integer> stringTable) throws IOException, RTreeException {
 		Element[] e = parent.getAllElements();
 		List<Long> routes = null;
 		for (int i = 0; i < parent.getTotalElements(); i++) {
 			Rect re = e[i].getRect();
 			if (e[i].getElementType() == rtree.Node.LEAF_NODE) {
 				long id = e[i].getPtr();
-				selectTransportStop.setLong(1, id);
-				selectTransportRouteStop.setLong(1, id);
-				ResultSet rs = selectTransportStop.executeQuery();
-				if (rs.next()) {
-					int x24 = (int) MapUtils.getTileNumberX(24, rs.getDouble(3));
-					int y24 = (int) MapUtils.getTileNumberY(24, rs.getDouble(2));
-					String name = rs.getString(4);
-					String nameEn = rs.getString(5);
-					if (nameEn != null && nameEn.equals(Junidecode.unidecode(name))) {
-						nameEn = null;
-					}
-					ResultSet rset = selectTransportRouteStop.executeQuery();
+				int stop = stopIndexes.get(id);
+				if (stop != LongIntMap.NO_VALUE) {
+					int x24 = (int) MapUtils.getTileNumberX(24, stopLongitudes[stop]);
+					int y24 = (int) MapUtils.getTileNumberY(24, stopLatitudes[stop]);
+					String name = stopNames.get(stop);
+					String nameEn = getStopEnName(stop);
 					if (routes == null) {
 						routes = new ArrayList<Long>();
 					} else {
 						routes.clear();
 					}
-					while (rset.next()) {
-						Long route = transportRoutes.get(rset.getLong(1));
+					TIntArrayList stopRouteList = stopRoutes.get(stop);
+					for (int k = 0; k < stopRouteList.size(); k++) {
+						long routeId = this.routes.get(stopRouteList.get(k)).id;
+						Long route = transportRoutes.get(routeId);
 						if (route == null) {
-							log.error("Something goes wrong with transport route id = " + rset.getLong(1)); //$NON-NLS-1$
+							log.error("Something goes wrong with transport route id = " + routeId); //$NON-NLS-1$
 						} else {
 							routes.add(route);
 						}
 					}
-					rset.close();
 					writer.writeTransportStop(id, x24, y24, name, nameEn, stringTable, routes);
 				} else {
 					log.error("Something goes wrong with transport id = " + id); //$NON-NLS-1$
@@ -127,12 +142,19 @@ public class IndexTransportCreator extends AbstractIndexPartCreator {
 				rtree.Node ns = r.getReadNode(ptr);
 
 				writer.startTransportTreeElement(re.getMinX(), re.getMaxX(), re.getMinY(), re.getMaxY());
-				writeBinaryTransportTree(ns, r, writer, selectTransportStop, selectTransportRouteStop, transportRoutes, stringTable);
+				writeBinaryTransportTree(ns, r, writer, transportRoutes, stringTable);
 				writer.endWriteTransportTreeElement();
 			}
 		}
 	}
 	
+	private String getStopEnName(int stop) {
+		String nameEn = stopEnNames.get(stop);
+		if (nameEn != null && nameEn.equals(Junidecode.unidecode(stopNames.get(stop)))) {
+			return null;
+		}
+		return nameEn;
+	}
 
 	public void packRTree(String rtreeTransportStopsFileName, String rtreeTransportStopsPackFileName) throws IOException {
 		transportStopsTree = packRtreeFile(transportStopsTree, rtreeTransportStopsFileName, rtreeTransportStopsPackFileName);
@@ -174,26 +196,8 @@ public class IndexTransportCreator extends AbstractIndexPartCreator {
 	}
 	
 	public void createDatabaseStructure(Connection conn, DBDialect dialect, String rtreeStopsFileName) throws SQLException, IOException{
-		Statement stat = conn.createStatement();
-		
-        stat.executeUpdate("create table transport_route (id bigint primary key, type varchar(1024), operator varchar(1024)," +
-        		"ref varchar(1024), name varchar(1024), name_en varchar(1024), dist int)");
-        stat.executeUpdate("create index transport_route_id on transport_route (id)");
-        
-        stat.executeUpdate("create table transport_route_stop (stop bigint, route bigint, ord int, direction smallint, primary key (route, ord, direction))");
-        stat.executeUpdate("create index transport_route_stop_stop on transport_route_stop (stop)");
-        stat.executeUpdate("create index transport_route_stop_route on transport_route_stop (route)");
-        
-        stat.executeUpdate("create table transport_stop (id bigint primary key, latitude double, longitude double, name varchar(1024), name_en varchar(1024))");
-        stat.executeUpdate("create index transport_stop_id on transport_stop (id)");
-        stat.executeUpdate("create index transport_stop_location on transport_stop (latitude, longitude)");
-        
-//        if(dialect == DBDialect.SQLITE){
-//        	stat.execute("PRAGMA user_version = " + IndexConstants.TRANSPORT_TABLE_VERSION); //$NON-NLS-1$
-//        }
-        stat.close();
-        
-        try {
+		// routes and stops are kept in memory, only rtree of stops is stored in the file
+		try {
 			File file = new File(rtreeStopsFileName);
 			if (file.exists()) {
 				file.delete();
@@ -202,49 +206,44 @@ public class IndexTransportCreator extends AbstractIndexPartCreator {
 		} catch (RTreeException e) {
 			throw new IOException(e);
 		}
-		transRouteStat = createStatementTransportRouteInsert(conn);
-		transRouteStopsStat = createStatementTransportRouteStopInsert(conn);
-		transStopsStat = createStatementTransportStopInsert(conn);
-		pStatements.put(transRouteStat, 0);
-		pStatements.put(transRouteStopsStat, 0);
-		pStatements.put(transStopsStat, 0);
 	}
 	
 	
-	private void insertTransportIntoIndex(TransportRoute route) throws SQLException {
-		transRouteStat.setLong(1, route.getId());
-		transRouteStat.setString(2, route.getType());
-		transRouteStat.setString(3, route.getOperator());
-		transRouteStat.setString(4, route.getRef());
-		transRouteStat.setString(5, route.getName());
-		transRouteStat.setString(6, route.getEnName());
-		transRouteStat.setInt(7, route.getAvgBothDistance());
-		addBatch(transRouteStat);
-		
-		writeRouteStops(route, route.getForwardStops(), true);
-		writeRouteStops(route, route.getBackwardStops(), false);
-		
+	private void insertTransportIntoIndex(TransportRoute route) {
+		TransportRouteData data = new TransportRouteData();
+		data.id = route.getId();
+		data.type = route.getType();
+		data.operator = route.getOperator();
+		data.ref = route.getRef();
+		data.name = route.getName();
+		data.nameEn = route.getEnName();
+		data.dist = route.getAvgBothDistance();
+		int routeIndex = routes.size();
+		routes.add(data);
+		data.forwardStops = registerRouteStops(routeIndex, route.getForwardStops());
+		data.backwardStops = registerRouteStops(routeIndex, route.getBackwardStops());
 	}
 	
-	private PreparedStatement createStatementTransportStopInsert(Connection conn) throws SQLException{
-        return conn.prepareStatement("insert into transport_stop(id, latitude, longitude, name, name_en) values(?, ?, ?, ?, ?)");
-	}
-	private PreparedStatement createStatementTransportRouteStopInsert(Connection conn) throws SQLException{
-        return conn.prepareStatement("insert into transport_route_stop(route, stop, direction, ord) values(?, ?, ?, ?)");
-	}
-	
-	private void writeRouteStops(TransportRoute r, List<TransportStop> stops, boolean direction) throws SQLException {
+	private int[] registerRouteStops(int routeIndex, List<TransportStop> stops) {
+		int[] res = new int[stops.size()];
 		int i = 0;
-		for(TransportStop s : stops){
-			if (!visitedStops.contains(s.getId())) {
-				transStopsStat.setLong(1, s.getId());
-				transStopsStat.setDouble(2, s.getLocation().getLatitude());
-				transStopsStat.setDouble(3, s.getLocation().getLongitude());
-				transStopsStat.setString(4, s.getName());
-				transStopsStat.setString(5, s.getEnName());
+		for (TransportStop s : stops) {
+			int stop = stopIndexes.get(s.getId());
+			if (stop == LongIntMap.NO_VALUE) {
+				stop = stopIds.size();
+				stopIndexes.put(s.getId(), stop);
+				stopIds.add(s.getId());
+				if (stop == stopLatitudes.length) {
+					stopLatitudes = Arrays.copyOf(stopLatitudes, stop * 2);
+					stopLongitudes = Arrays.copyOf(stopLongitudes, stop * 2);
+				}
+				stopLatitudes[stop] = s.getLocation().getLatitude();
+				stopLongitudes[stop] = s.getLocation().getLongitude();
+				stopNames.add(s.getName());
+				stopEnNames.add(s.getEnName());
+				stopRoutes.add(new TIntArrayList(2));
 				int x = (int) MapUtils.getTileNumberX(24, s.getLocation().getLongitude());
 				int y = (int) MapUtils.getTileNumberY(24, s.getLocation().getLatitude());
-				addBatch(transStopsStat);
 				try {
 					transportStopsTree.insert(new LeafElement(new Rect(x, y, x, y), s.getId()));
 				} catch (RTreeInsertException e) {
@@ -252,34 +251,20 @@ public class IndexTransportCreator extends AbstractIndexPartCreator {
 				} catch (IllegalValueException e) {
 					throw new IllegalArgumentException(e);
 				}
-				visitedStops.add(s.getId());
 			}
-			transRouteStopsStat.setLong(1, r.getId());
-			transRouteStopsStat.setLong(2, s.getId());
-			transRouteStopsStat.setInt(3, direction ? 1 : 0);
-			transRouteStopsStat.setInt(4, i++);
-			addBatch(transRouteStopsStat);
+			TIntArrayList sr = stopRoutes.get(stop);
+			// stops of one route are registered together, so it is enough to check the last route
+			if (sr.isEmpty() || sr.get(sr.size() - 1) != routeIndex) {
+				sr.add(routeIndex);
+			}
+			res[i++] = stop;
 		}
+		return res;
 	}
 	
-	private PreparedStatement createStatementTransportRouteInsert(Connection conn) throws SQLException{
-        return conn.prepareStatement("insert into transport_route(id, type, operator, ref, name, name_en, dist) values(?, ?, ?, ?, ?, ?, ?)");
-	}
-	
-	
-	public void writeBinaryTransportIndex(BinaryMapIndexWriter writer, String regionName,
-			Connection mapConnection) throws IOException, SQLException {
+	public void writeBinaryTransportIndex(BinaryMapIndexWriter writer, String regionName) throws IOException {
 		try {
-			closePreparedStatements(transRouteStat, transRouteStopsStat, transStopsStat);
-			mapConnection.commit();
 			transportStopsTree.flush();
-			
-			visitedStops = null; // allow gc to collect it
-			PreparedStatement selectTransportRouteData = mapConnection.prepareStatement(
-					"SELECT id, dist, name, name_en, ref, operator, type FROM transport_route"); //$NON-NLS-1$
-			PreparedStatement selectTransportData = mapConnection.prepareStatement("SELECT S.stop, S.direction," + //$NON-NLS-1$
-					"  A.latitude,  A.longitude, A.name, A.name_en " + //$NON-NLS-1$
-					"FROM transport_route_stop S INNER JOIN transport_stop A ON A.id = S.stop WHERE S.route = ? ORDER BY S.ord asc"); //$NON-NLS-1$
 
 			writer.startWriteTransportIndex(regionName);
 
@@ -289,70 +274,34 @@ public class IndexTransportCreator extends AbstractIndexPartCreator {
 			Map<String, Integer> stringTable = createStringTableForTransport();
 			Map<Long, Long> transportRoutes = new LinkedHashMap<Long, Long>();
 
-			ResultSet rs = selectTransportRouteData.executeQuery();
 			List<TransportStop> directStops = new ArrayList<TransportStop>();
 			List<TransportStop> reverseStops = new ArrayList<TransportStop>();
-			while (rs.next()) {
-
-				long idRoute = rs.getLong(1);
-				int dist = rs.getInt(2);
-				String routeName = rs.getString(3);
-				String routeEnName = rs.getString(4);
-				if (routeEnName != null && routeEnName.equals(Junidecode.unidecode(routeName))) {
+			for (TransportRouteData route : routes) {
+				String routeEnName = route.nameEn;
+				if (routeEnName != null && routeEnName.equals(Junidecode.unidecode(route.name))) {
 					routeEnName = null;
 				}
-				String ref = rs.getString(5);
-				String operator = rs.getString(6);
-				String type = rs.getString(7);
-
-				selectTransportData.setLong(1, idRoute);
-				ResultSet rset = selectTransportData.executeQuery();
 				reverseStops.clear();
 				directStops.clear();
-				while (rset.next()) {
-					boolean dir = rset.getInt(2) != 0;
-					long idStop = rset.getInt(1);
-					String stopName = rset.getString(5);
-					String stopEnName = rset.getString(6);
-					if (stopEnName != null && stopEnName.equals(Junidecode.unidecode(stopName))) {
-						stopEnName = null;
-					}
-					TransportStop st = new TransportStop();
-					st.setId(idStop);
-					st.setName(stopName);
-					st.setLocation(rset.getDouble(3), rset.getDouble(4));
-					if (stopEnName != null) {
-						st.setEnName(stopEnName);
-					}
-					if (dir) {
-						directStops.add(st);
-					} else {
-						reverseStops.add(st);
-					}
+				for (int stop : route.forwardStops) {
+					directStops.add(createTransportStop(stop));
 				}
-				writer.writeTransportRoute(idRoute, routeName, routeEnName, ref, operator, type, dist, directStops, reverseStops,
-						stringTable, transportRoutes);
+				for (int stop : route.backwardStops) {
+					reverseStops.add(createTransportStop(stop));
+				}
+				writer.writeTransportRoute(route.id, route.name, routeEnName, route.ref, route.operator, route.type, route.dist,
+						directStops, reverseStops, stringTable, transportRoutes);
 			}
-			rs.close();
-			selectTransportRouteData.close();
-			selectTransportData.close();
 			writer.endWriteTransportRoutes();
 
-			PreparedStatement selectTransportStop = mapConnection.prepareStatement(
-					"SELECT A.id,  A.latitude,  A.longitude, A.name, A.name_en FROM transport_stop A where A.id = ?"); //$NON-NLS-1$
-			PreparedStatement selectTransportRouteStop = mapConnection.prepareStatement(
-					"SELECT DISTINCT S.route FROM transport_route_stop S WHERE S.stop = ? "); //$NON-NLS-1$
 			long rootIndex = transportStopsTree.getFileHdr().getRootIndex();
 			rtree.Node root = transportStopsTree.getReadNode(rootIndex);
 			Rect rootBounds = calcBounds(root);
 			if (rootBounds != null) {
 				writer.startTransportTreeElement(rootBounds.getMinX(), rootBounds.getMaxX(), rootBounds.getMinY(), rootBounds.getMaxY());
-				writeBinaryTransportTree(root, transportStopsTree, writer, selectTransportStop, selectTransportRouteStop, 
-						transportRoutes, stringTable);
+				writeBinaryTransportTree(root, transportStopsTree, writer, transportRoutes, stringTable);
 				writer.endWriteTransportTreeElement();
 			}
-			selectTransportStop.close();
-			selectTransportRouteStop.close();
 
 			writer.writeTransportStringTable(stringTable);
 
@@ -362,6 +311,19 @@ public class IndexTransportCreator extends AbstractIndexPartCreator {
 			throw new IllegalStateException(e);
 		}
 	}	
+	
+	private TransportStop createTransportStop(int stop) {
+		TransportStop st = new TransportStop();
+		st.setId(stopIds.get(stop));
+		st.setName(stopNames.get(stop));
+		st.setLocation(stopLatitudes[stop], stopLongitudes[stop]);
+		String stopEnName = getStopEnName(stop);
+		if (stopEnName != null) {
+			st.setEnName(stopEnName);
+		}
+		return st;
+	}
+	
 	private Rect calcBounds(rtree.Node n) {
 		Rect r = null;
 		Element[] e = n.getAllElements();
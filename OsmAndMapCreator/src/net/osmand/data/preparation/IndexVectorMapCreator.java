@@ -33,6 +33,7 @@ import net.osmand.data.Ring;
 import net.osmand.data.preparation.MapZooms.MapZoomPair;
 import net.osmand.osm.MapRenderingTypes.MapRulType;
 import net.osmand.osm.MapRenderingTypesEncoder;
+import net.osmand.osm.MapRenderingTypesEncoder.EntityTypes;
 import net.osmand.osm.edit.Entity;
 import net.osmand.osm.edit.Entity.EntityId;
 import net.osmand.osm.edit.Node;
@@ -65,7 +66,7 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
 	
 	// local purpose to speed up processing cache allocation
 	TIntArrayList typeUse = new TIntArrayList(8);
-	List<MapRulType> tempNameUse = new ArrayList<MapRulType>();
+	EntityTypes entityTypes = new EntityTypes();
 	Map<MapRulType, String> namesUse = new LinkedHashMap<MapRulType, String>();
 	Map<EntityId, Map<String, String>> propogatedTags = new LinkedHashMap<Entity.EntityId, Map<String, String>>();
 	TIntArrayList addtypeUse = new TIntArrayList(8);
@@ -79,7 +80,8 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
 	private int zoomWaySmothness = 0;
 	private final Log logMapDataWarn;
 
-	private static long notUsedId = - 1 << 40; // million million  
+	// ids of created objects are unique only inside the region (regions could be generated concurrently)
+	private long notUsedId = - 1 << 40; // million million  
 
 	public IndexVectorMapCreator(Log logMapDataWarn, MapZooms mapZooms, MapRenderingTypesEncoder renderingTypes,
 	                             int zoomWaySmothness) {
@@ -131,7 +133,8 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
 				! "multipolygon".equals(e.getTag(OSMTagKey.TYPE)) || 
 				e.getTag(OSMTagKey.ADMIN_LEVEL) != null ) return;
 		MultipolygonBuilder original = createMultipolygonBuilder(e, ctx);
-		renderingTypes.encodeEntityWithType(e, mapZooms.getLevel(0).getMaxZoom(), typeUse, addtypeUse, namesUse, tempNameUse);
+		renderingTypes.encodeEntityTypes(e, entityTypes);
+		entityTypes.fillTypes(mapZooms.getLevel(0).getMaxZoom(), typeUse, addtypeUse, namesUse);
 
 		//Don't add multipolygons with an unknown type
 		if (typeUse.size() == 0) return;
@@ -167,8 +170,7 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
 			// don't use the relation ids. Create new onesgetInnerRings
 			long baseId = notUsedId --;
 			nextZoom: for (int level = 0; level < mapZooms.size(); level++) {
-				renderingTypes.encodeEntityWithType(e, mapZooms.getLevel(level).getMaxZoom(), typeUse, addtypeUse, namesUse,
-						tempNameUse);
+				entityTypes.fillTypes(mapZooms.getLevel(level).getMaxZoom(), typeUse, addtypeUse, namesUse);
 				if (typeUse.isEmpty()) {
 					continue;
 				}
@@ -463,10 +465,10 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
 	}
 
 	private void iterateMainEntityPost(Entity e) throws SQLException {
+		// tags are matched against rules once for all levels
+		renderingTypes.encodeEntityTypes(e instanceof Node, e.getTags(), entityTypes);
 		for (int level = 0; level < mapZooms.size(); level++) {
-			boolean area = renderingTypes.encodeEntityWithType(e instanceof Node, 
-					e.getTags(), mapZooms.getLevel(level).getMaxZoom(), typeUse, addtypeUse, namesUse,
-					tempNameUse);
+			boolean area = entityTypes.fillTypes(mapZooms.getLevel(level).getMaxZoom(), typeUse, addtypeUse, namesUse);
 			if (typeUse.isEmpty()) {
 				continue;
 			}
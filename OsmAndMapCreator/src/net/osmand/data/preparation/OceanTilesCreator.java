@@ -1,7 +1,6 @@
 package net.osmand.data.preparation;
 
 
-import gnu.trove.map.hash.TLongObjectHashMap;
 import gnu.trove.set.hash.TLongHashSet;
 import net.osmand.IProgress;
 import net.osmand.osm.edit.Entity;
@@ -16,16 +15,21 @@ import org.xml.sax.SAXException;
 import javax.xml.stream.XMLStreamException;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class OceanTilesCreator {
-    public static final byte TILE_ZOOMLEVEL = 12;
-    private static final byte BITMASK = 0x3;
-    private static final int BITS_COUNT = (1 << TILE_ZOOMLEVEL) * (1 << TILE_ZOOMLEVEL);
-    private static final byte SEA = 0x2;
-    private static final byte LAND = 0x1;
+    public static final byte TILE_ZOOMLEVEL = OceanTilesMap.TILE_ZOOMLEVEL;
+    private static final byte BITMASK = OceanTilesMap.BITMASK;
+    private static final int BITS_COUNT = OceanTilesMap.TILES_COUNT;
+    private static final byte SEA = OceanTilesMap.SEA;
+    private static final byte LAND = OceanTilesMap.LAND;
 
 
     public static void main(String[] args) throws IOException, XMLStreamException, SAXException {
@@ -41,13 +45,8 @@ public class OceanTilesCreator {
         createJOSMFile(bmp);
     }
 
-    static class OceanTileInfo {
-        int linesIntersectMedian = 0;
-        static int UNDEFINED = 0;
-        static int MIXED = 1;
-        int type = UNDEFINED;
-        boolean rightMedianSea ;
-    }
+    // rows of tiles computed by one task
+    private static final int ROWS_PER_TASK = 16;
 
     public static boolean ccw(double ax, double ay, double bx, double by, double cx, double cy) {
         return (cy - ay) * (bx - ax) > (by -ay) *(cx - ax);
@@ -79,87 +78,165 @@ public class OceanTilesCreator {
 
         int c = 0;
         int ns = 0;
-        TLongObjectHashMap<OceanTileInfo> map = new TLongObjectHashMap<OceanTileInfo>();
+        // tx, ty, px, py of every coastline segment
+        double[] segments = new double[1 << 16];
+        int count = 0;
         for(Entity e : bs.getRegisteredEntities().values()) {
             if(e instanceof Way) {
                 Way w = (Way) e;
                 List<Node> nodes = w.getNodes();
                 for(int i = 1; i < nodes.size(); i++) {
-                    double tx = MapUtils.getTileNumberX(TILE_ZOOMLEVEL, nodes.get(i).getLongitude());
-                    double ty = MapUtils.getTileNumberY(TILE_ZOOMLEVEL, nodes.get(i).getLatitude());
-                    double px = MapUtils.getTileNumberX(TILE_ZOOMLEVEL, nodes.get(i-1).getLongitude());
-                    double py = MapUtils.getTileNumberY(TILE_ZOOMLEVEL, nodes.get(i-1).getLatitude());
-                    for(int x = (int) Math.min(tx, px); x <= Math.max(tx, px); x++){
-                        for(int y = (int) Math.min(ty, py); y <= Math.max(ty, py); y++){
-                            // check if intersects (x-1,y+0.5) & (x,y+0.5)
-                            long key = ((long) x << TILE_ZOOMLEVEL) + (long)y;
-                            if(intersect2Segments(tx, ty, px, py, x, y+0.5d, x+1, y+0.5d)) {
-                                getOrCreate(map, key).linesIntersectMedian ++;
-                                getOrCreate(map, key).type = OceanTileInfo.MIXED;
-                            } else if(intersect2Segments(tx, ty, px, py, x, y, x+1, y)) {
-                                getOrCreate(map, key).type = OceanTileInfo.MIXED;
-                            } else if(intersect2Segments(tx, ty, px, py, x, y+1, x+1, y+1)) {
-                                getOrCreate(map, key).type = OceanTileInfo.MIXED;
-                            } else if(intersect2Segments(tx, ty, px, py, x, y, x, y+1)) {
-                                getOrCreate(map, key).type = OceanTileInfo.MIXED;
-                            } else if(intersect2Segments(tx, ty, px, py, x+1, y, x+1, y+1)) {
-                                getOrCreate(map, key).type = OceanTileInfo.MIXED;
-                            }
-                        }
+                    if (4 * count + 4 > segments.length) {
+                        segments = Arrays.copyOf(segments, segments.length * 2);
                     }
+                    segments[4 * count] = MapUtils.getTileNumberX(TILE_ZOOMLEVEL, nodes.get(i).getLongitude());
+                    segments[4 * count + 1] = MapUtils.getTileNumberY(TILE_ZOOMLEVEL, nodes.get(i).getLatitude());
+                    segments[4 * count + 2] = MapUtils.getTileNumberX(TILE_ZOOMLEVEL, nodes.get(i-1).getLongitude());
+                    segments[4 * count + 3] = MapUtils.getTileNumberY(TILE_ZOOMLEVEL, nodes.get(i-1).getLatitude());
+                    count++;
                 }
                 c++;
                 ns += w.getNodeIds().size();
             }
         }
-        writeResult(map);
+        byte[] tiles = computeTiles(segments, count, Runtime.getRuntime().availableProcessors());
+        writeResult(tiles);
 
-        System.out.println(c + " " + ns + " coastlines " + map.size());
+        System.out.println(c + " " + ns + " coastlines " + count + " segments " + (System.currentTimeMillis() - st) + " ms");
     }
 
-    private static void writeResult(TLongObjectHashMap<OceanTileInfo> map) throws IOException {
-        int currentByte = 0;
-        FileOutputStream rf = new FileOutputStream("../tools/OsmAndMapCreator/oceantiles_12.dat.u");
-        int[] cs = new int[4];
-        int[] vs = new int[4];
+    /**
+     * Computes tiles of TILE_ZOOMLEVEL packed by 2 bits. Every row is scanned from the west : tile crossed by
+     * coastline is mixed, odd number of crossings of its median line switches land and sea for the next tiles.
+     * Rows don't depend on each other, so bands of rows are computed in parallel from the segments
+     * bucketed by band (result doesn't depend on the number of threads).
+     */
+    public static byte[] computeTiles(final double[] segments, int count, int threads) throws IOException {
+        final int maxT = 1 << TILE_ZOOMLEVEL;
+        final int bands = maxT / ROWS_PER_TASK;
+        // 1. bucket segments by bands of rows they cross
+        final int[] bandStart = new int[bands + 1];
+        for (int s = 0; s < count; s++) {
+            int minBand = getBand(Math.min(segments[4 * s + 1], segments[4 * s + 3]), bands);
+            int maxBand = getBand(Math.max(segments[4 * s + 1], segments[4 * s + 3]), bands);
+            for (int b = minBand; b <= maxBand; b++) {
+                bandStart[b + 1]++;
+            }
+        }
+        for (int b = 0; b < bands; b++) {
+            bandStart[b + 1] += bandStart[b];
+        }
+        final int[] bandSegments = new int[bandStart[bands]];
+        int[] fill = new int[bands];
+        for (int s = 0; s < count; s++) {
+            int minBand = getBand(Math.min(segments[4 * s + 1], segments[4 * s + 3]), bands);
+            int maxBand = getBand(Math.max(segments[4 * s + 1], segments[4 * s + 3]), bands);
+            for (int b = minBand; b <= maxBand; b++) {
+                bandSegments[bandStart[b] + fill[b]++] = s;
+            }
+        }
+        // 2. scan bands, each band writes only its own rows
+        final byte[] tiles = new byte[BITS_COUNT / 4];
+        if (threads <= 1) {
+            for (int b = 0; b < bands; b++) {
+                computeBand(segments, bandSegments, bandStart[b], bandStart[b + 1], b * ROWS_PER_TASK, tiles);
+            }
+            return tiles;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> tasks = new ArrayList<Future<?>>();
+            for (int b = 0; b < bands; b++) {
+                final int band = b;
+                tasks.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        computeBand(segments, bandSegments, bandStart[band], bandStart[band + 1], band * ROWS_PER_TASK, tiles);
+                    }
+                }));
+            }
+            for (Future<?> f : tasks) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return tiles;
+    }
 
+    private static int getBand(double y, int bands) {
+        int b = ((int) y) / ROWS_PER_TASK;
+        return Math.max(0, Math.min(bands - 1, b));
+    }
+
+    private static void computeBand(double[] segments, int[] bandSegments, int from, int to, int firstRow, byte[] tiles) {
         int maxT = 1 << TILE_ZOOMLEVEL;
+        int lastRow = firstRow + ROWS_PER_TASK - 1;
+        int[] linesIntersectMedian = new int[ROWS_PER_TASK * maxT];
+        boolean[] mixed = new boolean[ROWS_PER_TASK * maxT];
+        for (int k = from; k < to; k++) {
+            int s = bandSegments[k];
+            double tx = segments[4 * s];
+            double ty = segments[4 * s + 1];
+            double px = segments[4 * s + 2];
+            double py = segments[4 * s + 3];
+            int y0 = Math.max((int) Math.min(ty, py), firstRow);
+            for (int x = Math.max((int) Math.min(tx, px), 0); x <= Math.max(tx, px) && x < maxT; x++) {
+                for (int y = y0; y <= Math.max(ty, py) && y <= lastRow; y++) {
+                    // check if intersects (x-1,y+0.5) & (x,y+0.5)
+                    int key = (y - firstRow) * maxT + x;
+                    if (intersect2Segments(tx, ty, px, py, x, y + 0.5d, x + 1, y + 0.5d)) {
+                        linesIntersectMedian[key]++;
+                        mixed[key] = true;
+                    } else if (intersect2Segments(tx, ty, px, py, x, y, x + 1, y)
+                            || intersect2Segments(tx, ty, px, py, x, y + 1, x + 1, y + 1)
+                            || intersect2Segments(tx, ty, px, py, x, y, x, y + 1)
+                            || intersect2Segments(tx, ty, px, py, x + 1, y, x + 1, y + 1)) {
+                        mixed[key] = true;
+                    }
+                }
+            }
+        }
         double antarcticaStart = MapUtils.getTileNumberY(TILE_ZOOMLEVEL, -84.35);
-        for(int y = 0; y < maxT; y++ ) {
+        for (int y = firstRow; y <= lastRow; y++) {
             boolean previousSea = true;
-            if( y  >= antarcticaStart) {
+            if (y >= antarcticaStart) {
                 // antarctica
                 previousSea = false;
             }
-            for(int x = 0; x < maxT; x++ ) {
-                long key = ((long) x << TILE_ZOOMLEVEL) + (long)y;
-                OceanTileInfo oc = map.get(key);
-                int vl = 0;
-                if(oc == null || oc.type == OceanTileInfo.UNDEFINED) {
+            int currentByte = 0;
+            for (int x = 0; x < maxT; x++) {
+                int key = (y - firstRow) * maxT + x;
+                int vl;
+                if (!mixed[key]) {
                     vl = previousSea ? SEA : LAND;
                 } else {
                     vl = 3;
-                    boolean odd = oc.linesIntersectMedian % 2 == 0;
-                    if(!odd) {
+                    boolean odd = linesIntersectMedian[key] % 2 == 0;
+                    if (!odd) {
                         previousSea = !previousSea;
                     }
                 }
                 currentByte = (currentByte << 2) | (vl & BITMASK);
-                if(x % 4 == 3) {
-                    rf.write(currentByte);
+                if (x % 4 == 3) {
+                    tiles[(y * maxT + x) >> 2] = (byte) currentByte;
                     currentByte = 0;
                 }
             }
         }
-
-
     }
 
-    private static OceanTileInfo getOrCreate(TLongObjectHashMap<OceanTileInfo> map, long key) {
-        if(!map.containsKey(key)) {
-            map.put(key, new OceanTileInfo());
-        }
-        return map.get(key );
+    private static void writeResult(byte[] tiles) throws IOException {
+        FileOutputStream rf = new FileOutputStream("../tools/OsmAndMapCreator/oceantiles_12.dat.u");
+        rf.write(tiles);
+        rf.close();
+        // uncompressed file with zoom pyramid which could be mapped with -Dosmand.oceantiles
+        OceanTilesMap.writeMap(tiles, new File("../tools/OsmAndMapCreator/oceantiles_12.map"));
     }
 
     private static void createJOSMFile(BasemapProcessor bmp ) throws XMLStreamException, IOException {
@@ -233,11 +310,11 @@ public class OceanTilesCreator {
 
 
     private static int getTileX(int i) {
-        return i % 4096;
+        return i % (1 << TILE_ZOOMLEVEL);
     }
 
     private static int getTileY(int i) {
-        return i / 4096;
+        return i / (1 << TILE_ZOOMLEVEL);
     }
 
     private static interface FixTileData {
@@ -0,0 +1,312 @@
+package net.osmand.data.preparation;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.zip.CRC32;
+
+import net.osmand.PlatformUtil;
+
+import org.apache.commons.logging.Log;
+import org.apache.tools.bzip2.CBZip2InputStream;
+
+/**
+ * Land/sea characteristics of the world tiles, memory mapped from an uncompressed file. <p />
+ *
+ * File contains tiles of {@link #TILE_ZOOMLEVEL} packed by 2 bits (4 tiles per byte, row by row) as
+ * oceantiles_12.dat does, followed by the pyramid of lower zooms : for every tile number of sea and of land
+ * tiles of {@link #TILE_ZOOMLEVEL} inside it. So any zoom is answered by 1-2 reads without counting children. <p />
+ *
+ * Default map is built once from oceantiles_12.dat.bz2 into the temporary directory
+ * (or to the file set by osmand.oceantiles system property) and is shared by all processors of the JVM.
+ * Header keeps length and crc of the source resource, so the cached map is rebuilt when the resource changes
+ * (file set by the property is used as is once it exists).
+ */
+public class OceanTilesMap {
+	private static final Log log = PlatformUtil.getLog(OceanTilesMap.class);
+
+	public static final byte TILE_ZOOMLEVEL = 12;
+	public static final byte SEA = 0x2;
+	public static final byte LAND = 0x1;
+	public static final byte BITMASK = 0x3;
+	public static final int TILES_COUNT = (1 << TILE_ZOOMLEVEL) * (1 << TILE_ZOOMLEVEL);
+
+	private static final int MAGIC = 0x4f544d32; // OTM2
+	// magic, zoom, source stamp
+	private static final int HEADER_SIZE = 16;
+	// map is not built from the resource
+	public static final long UNKNOWN_SOURCE = 0;
+
+	private static OceanTilesMap defaultMap;
+
+	private final MappedByteBuffer buffer;
+	// offsets of sea counts (land counts follow them) of lower zooms
+	private final int[] levelOffsets = new int[TILE_ZOOMLEVEL];
+
+	private OceanTilesMap(MappedByteBuffer buffer) {
+		this.buffer = buffer;
+		int offset = HEADER_SIZE + TILES_COUNT / 4;
+		for (int z = TILE_ZOOMLEVEL - 1; z >= 0; z--) {
+			levelOffsets[z] = offset;
+			offset += 2 * (1 << (2 * z)) * countWidth(z);
+		}
+	}
+
+	private static int countWidth(int zoom) {
+		long max = 1l << (2 * (TILE_ZOOMLEVEL - zoom));
+		if (max <= 0xff) {
+			return 1;
+		} else if (max <= 0xffff) {
+			return 2;
+		}
+		return 4;
+	}
+
+	private static long getFileSize() {
+		long size = HEADER_SIZE + TILES_COUNT / 4;
+		for (int z = 0; z < TILE_ZOOMLEVEL; z++) {
+			size += 2 * (1l << (2 * z)) * countWidth(z);
+		}
+		return size;
+	}
+
+	public static synchronized OceanTilesMap getDefault() {
+		if (defaultMap == null) {
+			String path = System.getProperty("osmand.oceantiles");
+			File file = path != null ? new File(path) : new File(System.getProperty("java.io.tmpdir"), "osmand_oceantiles_12.map");
+			try {
+				byte[] source = readResource();
+				long stamp = getSourceStamp(source);
+				if (path != null ? !isValidFile(file) : !isValidFile(file, stamp)) {
+					long time = System.currentTimeMillis();
+					if (source.length < 2 || source[0] != 'B' || source[1] != 'Z') {
+						throw new RuntimeException("The source stream must start with the characters BZ if it is to be read as a BZip2 stream."); //$NON-NLS-1$
+					}
+					byte[] tiles = readPackedTiles(new CBZip2InputStream(new ByteArrayInputStream(source, 2, source.length - 2)));
+					// other generators could map the file at the same time, so it is replaced at once
+					File tmp = new File(file.getAbsolutePath() + "." + System.nanoTime() + ".tmp");
+					writeMap(tiles, stamp, tmp);
+					// renameTo doesn't replace existing (outdated) file on all platforms
+					if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+						tmp.delete();
+						if (!isValidFile(file, stamp)) {
+							throw new IOException("Can't write ocean tiles to " + file.getAbsolutePath());
+						}
+					}
+					log.info("Ocean tiles map is created in " + (System.currentTimeMillis() - time) + " ms : " + file.getAbsolutePath());
+				}
+				defaultMap = map(file);
+			} catch (IOException e) {
+				throw new RuntimeException("File with coastline tiles was not found ", e);
+			}
+		}
+		return defaultMap;
+	}
+
+	private static byte[] readResource() throws IOException {
+		InputStream stream = BasemapProcessor.class.getResourceAsStream("oceantiles_12.dat.bz2");
+		if (stream == null) {
+			throw new IOException("oceantiles_12.dat.bz2 is not found");
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[1 << 16];
+			int r;
+			while ((r = stream.read(buf)) != -1) {
+				out.write(buf, 0, r);
+			}
+			return out.toByteArray();
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * @return length of the source in high bits and its crc in low bits
+	 */
+	static long getSourceStamp(byte[] source) {
+		CRC32 crc = new CRC32();
+		crc.update(source);
+		return ((long) source.length << 32) | crc.getValue();
+	}
+
+	private static boolean isValidFile(File file) throws IOException {
+		return readSourceStamp(file) != null;
+	}
+
+	private static boolean isValidFile(File file, long stamp) throws IOException {
+		Long s = readSourceStamp(file);
+		return s != null && s.longValue() == stamp;
+	}
+
+	/**
+	 * @return source stamp from the header or null if the file is not valid
+	 */
+	private static Long readSourceStamp(File file) throws IOException {
+		if (!file.exists() || file.length() != getFileSize()) {
+			return null;
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if (raf.readInt() != MAGIC || raf.readInt() != TILE_ZOOMLEVEL) {
+				return null;
+			}
+			return raf.readLong();
+		} finally {
+			raf.close();
+		}
+	}
+
+	public static OceanTilesMap map(File file) throws IOException {
+		if (!isValidFile(file)) {
+			throw new IOException("Not valid ocean tiles file " + file.getAbsolutePath());
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			// mapping stays valid after the channel is closed
+			return new OceanTilesMap(raf.getChannel().map(MapMode.READ_ONLY, 0, raf.length()));
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * @return tiles packed by 2 bits as in oceantiles_12.dat
+	 */
+	public static byte[] readPackedTiles(InputStream dis) throws IOException {
+		byte[] tiles = new byte[TILES_COUNT / 4];
+		for (int i = 0; i < tiles.length; i++) {
+			int currentByte = dis.read();
+			if (currentByte == -1) {
+				throw new IOException("Ocean tiles file is too short");
+			}
+			tiles[i] = (byte) currentByte;
+		}
+		return tiles;
+	}
+
+	/**
+	 * @return type of the tile (SEA, LAND or mixed) from the packed tiles
+	 */
+	public static int getPackedTile(byte[] tiles, int x, int y) {
+		int i = y * (1 << TILE_ZOOMLEVEL) + x;
+		return (tiles[i >> 2] >> (6 - 2 * (i & 3))) & BITMASK;
+	}
+
+	public static void writeMap(byte[] tiles, File file) throws IOException {
+		writeMap(tiles, UNKNOWN_SOURCE, file);
+	}
+
+	/**
+	 * @param sourceStamp stamp of the source the tiles are read from (see {@link #getDefault()})
+	 */
+	public static void writeMap(byte[] tiles, long sourceStamp, File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(TILE_ZOOMLEVEL);
+			out.writeLong(sourceStamp);
+			out.write(tiles);
+			int[] sea = null;
+			int[] land = null;
+			for (int z = TILE_ZOOMLEVEL - 1; z >= 0; z--) {
+				int zsize = 1 << z;
+				int[] zsea = new int[zsize * zsize];
+				int[] zland = new int[zsize * zsize];
+				for (int y = 0; y < zsize; y++) {
+					for (int x = 0; x < zsize; x++) {
+						for (int i = 0; i < 2; i++) {
+							for (int j = 0; j < 2; j++) {
+								int cx = 2 * x + i;
+								int cy = 2 * y + j;
+								if (sea == null) {
+									int v = getPackedTile(tiles, cx, cy);
+									zsea[y * zsize + x] += v == SEA ? 1 : 0;
+									zland[y * zsize + x] += v == LAND ? 1 : 0;
+								} else {
+									zsea[y * zsize + x] += sea[cy * (2 * zsize) + cx];
+									zland[y * zsize + x] += land[cy * (2 * zsize) + cx];
+								}
+							}
+						}
+					}
+				}
+				writeCounts(out, zsea, countWidth(z));
+				writeCounts(out, zland, countWidth(z));
+				sea = zsea;
+				land = zland;
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void writeCounts(DataOutputStream out, int[] counts, int width) throws IOException {
+		for (int c : counts) {
+			if (width == 1) {
+				out.writeByte(c);
+			} else if (width == 2) {
+				out.writeShort(c);
+			} else {
+				out.writeInt(c);
+			}
+		}
+	}
+
+	/**
+	 * @return type of the tile of {@link #TILE_ZOOMLEVEL} (SEA, LAND or mixed)
+	 */
+	public int getTileType(int x, int y) {
+		int i = y * (1 << TILE_ZOOMLEVEL) + x;
+		return (buffer.get(HEADER_SIZE + (i >> 2)) >> (6 - 2 * (i & 3))) & BITMASK;
+	}
+
+	private int getCount(int x, int y, int zoom, boolean land) {
+		int width = countWidth(zoom);
+		int tiles = 1 << (2 * zoom);
+		int pos = levelOffsets[zoom] + (land ? tiles * width : 0) + (y * (1 << zoom) + x) * width;
+		if (width == 1) {
+			return buffer.get(pos) & 0xff;
+		} else if (width == 2) {
+			return buffer.getShort(pos) & 0xffff;
+		}
+		return buffer.getInt(pos);
+	}
+
+	private static int getTilesInside(int zoom) {
+		return 1 << (2 * (TILE_ZOOMLEVEL - zoom));
+	}
+
+	public boolean isWaterTile(int x, int y, int zoom) {
+		if (zoom >= TILE_ZOOMLEVEL) {
+			return getTileType(x >> (zoom - TILE_ZOOMLEVEL), y >> (zoom - TILE_ZOOMLEVEL)) == SEA;
+		}
+		return getCount(x, y, zoom, false) == getTilesInside(zoom);
+	}
+
+	public boolean isLandTile(int x, int y, int zoom) {
+		if (zoom >= TILE_ZOOMLEVEL) {
+			return getTileType(x >> (zoom - TILE_ZOOMLEVEL), y >> (zoom - TILE_ZOOMLEVEL)) == LAND;
+		}
+		return getCount(x, y, zoom, true) == getTilesInside(zoom);
+	}
+
+	/**
+	 * @return part of sea tiles of {@link #TILE_ZOOMLEVEL} inside the tile
+	 */
+	public float getSeaTile(int x, int y, int zoom) {
+		if (zoom >= TILE_ZOOMLEVEL) {
+			return isWaterTile(x, y, zoom) ? 1 : 0;
+		}
+		int max = 1 << (TILE_ZOOMLEVEL - zoom);
+		return ((float) getCount(x, y, zoom, false)) / ((float) max * (float) max);
+	}
+}
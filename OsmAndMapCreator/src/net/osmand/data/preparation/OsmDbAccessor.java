@@ -40,6 +40,7 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 	private DBDialect dialect;
 	
 	private PreparedStatement iterateNodes;
+	private PreparedStatement iterateAllNodes;
 	private PreparedStatement iterateWays;
 	private PreparedStatement iterateRelations;
 	private PreparedStatement iterateWayBoundaries;
@@ -69,6 +70,7 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 					"from relations r where r.id = ? order by r.ord"); //$NON-NLS-1$
 		
 			iterateNodes = dbConn.prepareStatement("select n.id, n.latitude, n.longitude, n.tags from node n where length(n.tags) > 0"); //$NON-NLS-1$
+			iterateAllNodes = dbConn.prepareStatement("select n.id, n.latitude, n.longitude, n.tags from node n"); //$NON-NLS-1$
 			iterateWays  = dbConn.prepareStatement("select w.id, w.node, w.ord, w.tags, n.latitude, n.longitude, n.tags " + //$NON-NLS-1$
 					"from ways w left join node n on w.node = n.id order by w.id, w.ord"); //$NON-NLS-1$
 			iterateWayBoundaries  = dbConn.prepareStatement("select w.id, w.node, w.ord, w.tags, n.latitude, n.longitude, n.tags " + //$NON-NLS-1$
@@ -205,8 +207,6 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 			statement.close();
 		}
 		
-		BlockingQueue<Entity> toProcess = new ArrayBlockingQueue<Entity>(100000);
-		AbstractProducer entityProducer = null;
 		if (type == EntityType.NODE) {
 			// filter out all nodes without tags
 			select = iterateNodes;
@@ -221,7 +221,21 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 			select = iterateRelations;
 			count = allRelations;
 		}
-		entityProducer = new EntityProducer(toProcess, type, select);
+		iterate(progress, type, select, count, visitor);
+		return count;
+	}
+	
+	/**
+	 * Iterates over all nodes, including nodes without tags (nodes of ways), total count is not known.
+	 */
+	public void iterateOverAllNodes(IProgress progress, OsmDbVisitor visitor) throws SQLException, InterruptedException {
+		iterate(progress, EntityType.NODE, iterateAllNodes, -1, visitor);
+	}
+	
+	private void iterate(IProgress progress, EntityType type, PreparedStatement select, int count, OsmDbVisitor visitor)
+			throws SQLException, InterruptedException {
+		BlockingQueue<Entity> toProcess = new ArrayBlockingQueue<Entity>(100000);
+		AbstractProducer entityProducer = new EntityProducer(toProcess, type, select);
 		progress.startWork(count);
 		
 		//produce
@@ -240,7 +254,6 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 			}
 			visitor.iterateEntity(entityToProcess, this);
 		}
-		return count;
 	}
 
 	
@@ -271,6 +284,9 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 			if (iterateNodes != null) {
 				iterateNodes.close();
 			}
+			if (iterateAllNodes != null) {
+				iterateAllNodes.close();
+			}
 			if (iterateRelations != null) {
 				iterateRelations.close();
 			}
@@ -1,9 +1,14 @@
 package net.osmand.data.preparation.address;
 
+import gnu.trove.iterator.TLongIterator;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
 import gnu.trove.set.hash.TLongHashSet;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -13,28 +18,95 @@ import net.osmand.data.LatLon;
 import net.osmand.osm.edit.Entity;
 import net.osmand.osm.edit.Way;
 
+/**
+ * Keeps the whole street model of the main address pass in memory : street names and city parts are interned
+ * to int ids and looked up in per-city tables, building and street way ids are kept in primitive sets.
+ * Database is only written (never queried) : streets and way nodes are batched as before,
+ * buildings are buffered and spilled together with pending removals on {@link #commit()}.
+ */
 public class CachedDBStreetDAO extends DBStreetDAO
 {
-	private Map<String, SimpleStreet> addressStreetLocalMap = new HashMap<String, SimpleStreet>();
+	private static final int PENDING_BUILDINGS_LIMIT = 50000;
+	private static final int NO_KEY = -1;
+	private static final int NULL_KEY = -2;
+
+	private static class CityStreets {
+		// name id -> last registered street with that name
+		private final TIntObjectHashMap<SimpleStreet> byName = new TIntObjectHashMap<SimpleStreet>();
+		// name id << 32 | city part id -> street
+		private final TLongObjectHashMap<SimpleStreet> byNameAndPart = new TLongObjectHashMap<SimpleStreet>();
+	}
+
+	private static class PendingBuilding {
+		private final Set<Long> streetIds;
+		private final Building building;
+		private boolean removed;
+
+		public PendingBuilding(Set<Long> streetIds, Building building) {
+			this.streetIds = streetIds;
+			this.building = building;
+		}
+	}
+
+	private Map<String, Integer> internedKeys = new HashMap<String, Integer>();
+	private TLongObjectHashMap<CityStreets> cityStreets = new TLongObjectHashMap<CityStreets>();
 	private TLongHashSet addressBuildingLocalSet = new TLongHashSet();
 	private TLongHashSet addressStreetNodeLocalSet = new TLongHashSet();
 
+	private List<PendingBuilding> pendingBuildings = new ArrayList<PendingBuilding>();
+	private TLongObjectHashMap<List<PendingBuilding>> pendingBuildingsById = new TLongObjectHashMap<List<PendingBuilding>>();
+	// buildings that could be already spilled to db, deleted before next spill
+	private TLongHashSet removedBuildings = new TLongHashSet();
+
 	@Override
 	public SimpleStreet findStreet(String name, City city, String cityPart) {
-		return addressStreetLocalMap.get(createStreetUniqueName(name, city, cityPart)); //$NON-NLS-1$
+		CityStreets cs = cityStreets.get(city.getId());
+		int nameId = getKey(name);
+		int partId = cityPart == null ? NULL_KEY : getKey(cityPart);
+		if (cs == null || nameId == NO_KEY || partId == NO_KEY) {
+			return null;
+		}
+		return cs.byNameAndPart.get(combineKeys(nameId, partId));
 	}
 
 	@Override
 	public SimpleStreet findStreet(String name, City city) {
-		return addressStreetLocalMap.get(createStreetUniqueName(name, city)); //$NON-NLS-1$
+		CityStreets cs = cityStreets.get(city.getId());
+		int nameId = getKey(name);
+		if (cs == null || nameId == NO_KEY) {
+			return null;
+		}
+		return cs.byName.get(nameId);
 	}
 
-	private String createStreetUniqueName(String name, City city, String cityPart) {
-		return name + '_' + city.getId() + '_' + cityPart;
+	private int getKey(String s) {
+		Integer k = internedKeys.get(s);
+		return k == null ? NO_KEY : k.intValue();
 	}
 
-	private String createStreetUniqueName(String name, City city) {
-		return name + '_' + city.getId();
+	private int internKey(String s) {
+		Integer k = internedKeys.get(s);
+		if (k == null) {
+			k = internedKeys.size();
+			internedKeys.put(s, k);
+		}
+		return k.intValue();
+	}
+
+	private static long combineKeys(int nameId, int partId) {
+		return (((long) nameId) << 32) | (partId & 0xffffffffL);
+	}
+
+	private void registerStreet(SimpleStreet ss, City city, String cityPart) {
+		CityStreets cs = cityStreets.get(city.getId());
+		if (cs == null) {
+			cs = new CityStreets();
+			cityStreets.put(city.getId(), cs);
+		}
+		int nameId = internKey(ss.getName());
+		int partId = cityPart == null ? NULL_KEY : internKey(cityPart);
+		cs.byNameAndPart.put(combineKeys(nameId, partId), ss);
+		cs.byName.put(nameId, ss);
 	}
 
 	@Override
@@ -43,47 +115,98 @@ public class CachedDBStreetDAO extends DBStreetDAO
 		super.writeStreetWayNodes(streetId, way);
 		addressStreetNodeLocalSet.add(way.getId());
 	}
-	
+
 	@Override
 	protected void writeBuilding(Set<Long> streetId, Building building)
 			throws SQLException {
-		super.writeBuilding(streetId, building);
+		PendingBuilding pb = new PendingBuilding(streetId, building);
+		pendingBuildings.add(pb);
+		List<PendingBuilding> list = pendingBuildingsById.get(building.getId());
+		if (list == null) {
+			list = new ArrayList<PendingBuilding>(1);
+			pendingBuildingsById.put(building.getId(), list);
+		}
+		list.add(pb);
 		addressBuildingLocalSet.add(building.getId());
+		if (pendingBuildings.size() >= PENDING_BUILDINGS_LIMIT) {
+			spillBuildings();
+		}
 	}
-	
+
+	private void spillBuildings() throws SQLException {
+		if (!removedBuildings.isEmpty()) {
+			// removals should be applied after buildings of the previous spill (they could be still batched)
+			// and before buildings written after them
+			executePendingPreparedStatements();
+			TLongIterator it = removedBuildings.iterator();
+			while (it.hasNext()) {
+				addressRemoveBuildingStat.setLong(1, it.next());
+				addBatch(addressRemoveBuildingStat, false);
+			}
+			executePendingPreparedStatements();
+			removedBuildings.clear();
+		}
+		for (PendingBuilding pb : pendingBuildings) {
+			if (!pb.removed) {
+				super.writeBuilding(pb.streetIds, pb.building);
+			}
+		}
+		pendingBuildings.clear();
+		pendingBuildingsById.clear();
+	}
+
 	@Override
 	public long insertStreet(String name, String nameEn, LatLon location, City city, String cityPart) throws SQLException {
 		//batch the insert
 		long streetId = fillInsertStreetStatement(name, nameEn, location, city, cityPart);
 		addBatch(addressStreetStat);
-		SimpleStreet ss = new SimpleStreet(streetId,name,cityPart,location);
-		addressStreetLocalMap.put(createStreetUniqueName(name, city, cityPart), ss); 
-		addressStreetLocalMap.put(createStreetUniqueName(name, city), ss);
+		SimpleStreet ss = new SimpleStreet(streetId, name, cityPart, location);
+		registerStreet(ss, city, cityPart);
 		return streetId;
 	}
-	
+
 	@Override
 	public SimpleStreet updateStreetCityPart(SimpleStreet street, City city, String cityPart) throws SQLException {
 		commit(); //we are doing batch updates, so we must commit before this update
 		super.updateStreetCityPart(street, city, cityPart);
-		SimpleStreet updatedSS = new SimpleStreet(street.getId(),street.getName(),cityPart,street.getLocation());
-		addressStreetLocalMap.put(createStreetUniqueName(street.getName(), city), updatedSS);
-		addressStreetLocalMap.put(createStreetUniqueName(street.getName(), city, cityPart), updatedSS);
+		SimpleStreet updatedSS = new SimpleStreet(street.getId(), street.getName(), cityPart, street.getLocation());
+		registerStreet(updatedSS, city, cityPart);
 		return updatedSS;
 	}
-	
+
 	@Override
 	public boolean findBuilding(Entity e) {
 		return addressBuildingLocalSet.contains(e.getId());
 	}
-	
+
 	@Override
-	public boolean removeBuilding(Entity e) throws SQLException {
-		addressBuildingLocalSet.remove(e.getId());
-		return super.removeBuilding(e);
+	public boolean removeBuilding(Entity e) {
+		boolean res = addressBuildingLocalSet.remove(e.getId());
+		List<PendingBuilding> pending = pendingBuildingsById.remove(e.getId());
+		if (pending != null) {
+			for (PendingBuilding pb : pending) {
+				pb.removed = true;
+			}
+		}
+		removedBuildings.add(e.getId());
+		return res;
 	}
+
 	@Override
 	public boolean findStreetNode(Entity e) {
 		return addressStreetNodeLocalSet.contains(e.getId());
 	}
-}
\ No newline at end of file
+
+	@Override
+	public void commit() throws SQLException {
+		spillBuildings();
+		super.commit();
+	}
+
+	@Override
+	public void close() throws SQLException {
+		spillBuildings();
+		super.close();
+		closePreparedStatements(addressRemoveBuildingStat);
+	}
+}
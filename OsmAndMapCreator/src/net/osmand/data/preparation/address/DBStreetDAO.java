@@ -53,7 +53,7 @@ public class DBStreetDAO extends AbstractIndexPartCreator
 	private PreparedStatement addressBuildingStat;
 	private PreparedStatement addressSearchStreetStat;
 	private PreparedStatement addressSearchBuildingStat;
-	private PreparedStatement addressRemoveBuildingStat;
+	protected PreparedStatement addressRemoveBuildingStat;
 	private PreparedStatement addressSearchStreetNodeStat;
 	private PreparedStatement addressSearchStreetStatWithoutCityPart;
 
@@ -1,5 +1,6 @@
 package net.osmand.data.preparation.address;
 
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TLongObjectHashMap;
 import gnu.trove.set.hash.TLongHashSet;
 
@@ -15,16 +16,25 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import net.osmand.IProgress;
 import net.osmand.data.Boundary;
+import net.osmand.data.BoundaryIndex;
 import net.osmand.data.Building;
 import net.osmand.data.Building.BuildingInterpolation;
 import net.osmand.data.City;
@@ -71,10 +81,13 @@ public class IndexAddressCreator extends AbstractIndexPartCreator{
 	private Map<EntityId, City> cities = new LinkedHashMap<EntityId, City>();
 	private DataTileManager<City> cityVillageManager = new DataTileManager<City>(13);
 	private DataTileManager<City> cityManager = new DataTileManager<City>(10);
-	private List<Relation> postalCodeRelations = new ArrayList<Relation>();
+	// member id -> postcode of postal code relations, applied when buildings are written
+	private TLongObjectHashMap<String> postcodeRelationMembers = new TLongObjectHashMap<String>();
 	private Map<City, Boundary> cityBoundaries = new HashMap<City, Boundary>();
 	private Map<Boundary,List<City>> boundaryToContainingCities = new HashMap<Boundary,List<City>>();
 	private List<Boundary> notAssignedBoundaries = new ArrayList<Boundary>();
+	// lazily built spatial index over cityBoundaries values, reset when they change
+	private BoundaryIndex cityBoundariesIndex = null;
 	private TLongHashSet visitedBoundaryWays = new TLongHashSet();
 	
 	private boolean normalizeStreets; 
@@ -85,6 +98,9 @@ public class IndexAddressCreator extends AbstractIndexPartCreator{
 	private boolean DEBUG_FULL_NAMES = false; //true to see atached cityPart and boundaries to the street names
 	
 	private static final int ADDRESS_NAME_CHARACTERS_TO_INDEX = 4;
+	private static final int CITIES_TO_PRELOAD_PER_THREAD = 4;
+	
+	private int serializationThreads = Runtime.getRuntime().availableProcessors();
 	
 	Connection mapConnection;
 	DBStreetDAO streetDAO;
@@ -97,12 +113,20 @@ public class IndexAddressCreator extends AbstractIndexPartCreator{
 	}
 	
 	
+	/**
+	 * Number of threads preparing streets of cities while address index is written (1 - no extra threads) 
+	 */
+	public void setSerializationThreads(int serializationThreads) {
+		this.serializationThreads = serializationThreads;
+	}
+	
 	public void initSettings(boolean normalizeStreets, String[] normalizeDefaultSuffixes, String[] normalizeSuffixes,
 			String cityAdminLevel) {
 		cities.clear();
 		cityManager.clear();
-		postalCodeRelations.clear();
+		postcodeRelationMembers.clear();
 		cityBoundaries.clear();
+		cityBoundariesIndex = null;
 		notAssignedBoundaries.clear();
 		this.normalizeStreets = normalizeStreets;
 		this.normalizeDefaultSuffixes = normalizeDefaultSuffixes;
@@ -234,25 +258,33 @@ public class IndexAddressCreator extends AbstractIndexPartCreator{
 		// than suburb and after that findCityPart works incorrectly
 		//for cities without boundaries, try to find the right one
 		int smallestAdminLevel = 7; //start at level 8 for now...
+		BoundaryIndex notAssignedIndex = new BoundaryIndex(notAssignedBoundaries);
+		boolean[] assigned = new boolean[notAssignedIndex.size()];
 		for (City c : cities.values()) {
 			progress.progress(1);
 			Boundary cityB = cityBoundaries.get(c);
 			if (cityB == null && (c.getType() == CityType.CITY || c.getType() == CityType.TOWN)) {
 				LatLon location = c.getLocation();
 				Boundary smallestBoundary = null;
-				// try to found boundary
-				for (Boundary b : notAssignedBoundaries) {
-					if (b.getAdminLevel() >= smallestAdminLevel) {
+				int smallestBoundaryInd = -1;
+				// try to found boundary (candidates are in the notAssignedBoundaries order)
+				TIntArrayList candidates = notAssignedIndex.queryBoundingBoxes(location.getLatitude(), location.getLongitude());
+				for (int i = 0; i < candidates.size(); i++) {
+					int ind = candidates.get(i);
+					Boundary b = notAssignedIndex.get(ind);
+					if (!assigned[ind] && b.getAdminLevel() >= smallestAdminLevel) {
 						if (b.containsPoint(location.getLatitude(), location.getLongitude())) {
 							// the bigger the admin level, the smaller the boundary :-)
 							smallestAdminLevel = b.getAdminLevel();
 							smallestBoundary = b;
+							smallestBoundaryInd = ind;
 						}
 					}
 				}
 				if (smallestBoundary != null) {
 					putCityBoundary(smallestBoundary, c);
 					notAssignedBoundaries.remove(smallestBoundary);
+					assigned[smallestBoundaryInd] = true;
 				}
 			}
 		}
@@ -329,6 +361,7 @@ public class IndexAddressCreator extends AbstractIndexPartCreator{
 	
 	private Boundary putCityBoundary(Boundary boundary, City cityFound) {
 		final Boundary oldBoundary = cityBoundaries.get(cityFound);
+		cityBoundariesIndex = null;
 		if(oldBoundary == null) {
 			cityBoundaries.put(cityFound, boundary);
 			logBoundaryChanged(boundary, cityFound);
@@ -481,7 +514,7 @@ public class IndexAddressCreator extends AbstractIndexPartCreator{
 							}
 							building.setName(hname);
 							
-							streetDAO.writeBuilding(idsOfStreet, building);
+							writeBuilding(idsOfStreet, building);
 						}
 					}
 				}
@@ -572,24 +605,26 @@ public class IndexAddressCreator extends AbstractIndexPartCreator{
 		List<City> nearestObjects = new ArrayList<City>();
 		nearestObjects.addAll(cityManager.getClosestObjects(location.getLatitude(),location.getLongitude()));
 		nearestObjects.addAll(cityVillageManager.getClosestObjects(location.getLatitude(),location.getLongitude()));
+		// only boundaries which bbox contains the location need precise check
+		Set<Boundary> boundaryCandidates = new HashSet<Boundary>(getCityBoundariesIndex().getCandidates(
+				location.getLatitude(), location.getLongitude()));
 		//either we found a city boundary the street is in
 		for (City c : nearestObjects) {
 			Boundary boundary = cityBoundaries.get(c);
-			if (isInNames.contains(c.getName()) || (boundary != null && boundary.containsPoint(location))) {
+			if (isInNames.contains(c.getName()) || (boundary != null && boundaryCandidates.contains(boundary) 
+					&& boundary.containsPoint(location))) {
 				result.add(c);
 			}
 		}
 		// or we need to find closest city
-		Collections.sort(nearestObjects, new Comparator<City>() {
-			@Override
-			public int compare(City c1, City c2) {
-				double r1 = relativeDistance(location, c1);
-				double r2 = relativeDistance(location, c2);
-				return Double.compare(r1, r2);
-			}
-		});
-		for(City c : nearestObjects) {
-			if(relativeDistance(location, c) > 0.2) {
+		List<CityDistance> nearestDistances = new ArrayList<CityDistance>(nearestObjects.size());
+		for (City c : nearestObjects) {
+			nearestDistances.add(new CityDistance(c, relativeDistance(location, c)));
+		}
+		Collections.sort(nearestDistances);
+		for(CityDistance cd : nearestDistances) {
+			City c = cd.city;
+			if(cd.distance > 0.2) {
 				if(result.isEmpty()) {
 					result.add(c);
 				}
@@ -605,6 +640,28 @@ public class IndexAddressCreator extends AbstractIndexPartCreator{
 	}
 
 
+	private BoundaryIndex getCityBoundariesIndex() {
+		if (cityBoundariesIndex == null) {
+			cityBoundariesIndex = new BoundaryIndex(new ArrayList<Boundary>(new LinkedHashSet<Boundary>(cityBoundaries.values())));
+		}
+		return cityBoundariesIndex;
+	}
+
+	private static class CityDistance implements Comparable<CityDistance> {
+		private final City city;
+		private final double distance;
+
+		public CityDistance(City city, double distance) {
+			this.city = city;
+			this.distance = distance;
+		}
+
+		@Override
+		public int compareTo(CityDistance o) {
+			return Double.compare(distance, o.distance);
+		}
+	}
+
 	private Set<Long> registerStreetInCities(String name, String nameEn, LatLon location, Collection<City> result) throws SQLException {
 		if (result.isEmpty()) {
 			return Collections.emptySet();
@@ -737,7 +794,7 @@ public class IndexAddressCreator extends AbstractIndexPartCreator{
 							building.setName(first.getTag(OSMTagKey.ADDR_HOUSE_NUMBER));
 							building.setName2(second.getTag(OSMTagKey.ADDR_HOUSE_NUMBER));
 							building.setLatLon2(second.getLatLon());
-							streetDAO.writeBuilding(idsOfStreet, building);
+							writeBuilding(idsOfStreet, building);
 						}
 					}
 				}
@@ -790,14 +847,14 @@ public class IndexAddressCreator extends AbstractIndexPartCreator{
 							Set<Long> ids2OfStreet = getStreetInCity(e.getIsInNames(), street2, null, l);
 							ids2OfStreet.removeAll(idsOfStreet); //remove duplicated entries!
 							if(!ids2OfStreet.isEmpty()) {
-								streetDAO.writeBuilding(ids2OfStreet, building2);
+								writeBuilding(ids2OfStreet, building2);
 							} else {
 								building.setName2(building2.getName());
 							}
 						}
 					}
 					
-					streetDAO.writeBuilding(idsOfStreet, building);
+					writeBuilding(idsOfStreet, building);
 				}
 			}
 		} else if (e instanceof Way /* && OSMSettings.wayForCar(e.getTag(OSMTagKey.HIGHWAY)) */
@@ -819,14 +876,30 @@ public class IndexAddressCreator extends AbstractIndexPartCreator{
 				}
 			}
 		}
-		if (e instanceof Relation) {
-			if (e.getTag(OSMTagKey.POSTAL_CODE) != null) {
-				ctx.loadEntityRelation((Relation) e);
-				postalCodeRelations.add((Relation) e);
+	}
+	
+	/**
+	 * Should be called for all relations before buildings are indexed ({@link #indexAddressRelation(Relation, OsmDbAccessorContext)})
+	 */
+	public void indexPostcodeRelation(Relation r, OsmDbAccessorContext ctx) throws SQLException {
+		String tag = r.getTag(OSMTagKey.POSTAL_CODE);
+		if (tag != null) {
+			ctx.loadEntityRelation(r);
+			for (EntityId l : r.getMemberIds()) {
+				postcodeRelationMembers.put(l.getId(), tag);
 			}
 		}
 	}
 	
+	private void writeBuilding(Set<Long> idsOfStreet, Building building) throws SQLException {
+		// postal code relation overrides postcode of the building
+		String postcode = postcodeRelationMembers.get(building.getId());
+		if (postcode != null) {
+			building.setPostcode(postcode);
+		}
+		streetDAO.writeBuilding(idsOfStreet, building);
+	}
+	
 	private void writeCity(City city) throws SQLException {
 		addressCityStat.setLong(1, city.getId());
 		addressCityStat.setDouble(2, city.getLocation().getLatitude());
@@ -857,24 +930,7 @@ public class IndexAddressCreator extends AbstractIndexPartCreator{
 		}
 	}
 	
-	public void processingPostcodes() throws SQLException {
-		streetDAO.commit();
-		PreparedStatement pstat = mapConnection.prepareStatement("UPDATE building SET postcode = ? WHERE id = ?");
-		pStatements.put(pstat, 0);
-		for (Relation r : postalCodeRelations) {
-			String tag = r.getTag(OSMTagKey.POSTAL_CODE);
-			for (EntityId l : r.getMemberIds()) {
-				pstat.setString(1, tag);
-				pstat.setLong(2, l.getId());
-				addBatch(pstat);
-			}
-		}
-		if (pStatements.get(pstat) > 0) {
-			pstat.executeBatch();
-		}
-		pStatements.remove(pstat);
-	}
-	
+
 	
 
 	private static final int CITIES_TYPE = 1;
@@ -895,7 +951,8 @@ public class IndexAddressCreator extends AbstractIndexPartCreator{
 				"FROM street A left JOIN building B ON B.street = A.id JOIN city C ON A.city = C.id " + //$NON-NLS-1$
 				"WHERE A.city = ? ORDER BY MainTown DESC, A.name ASC"); //$NON-NLS-1$
 		PreparedStatement waynodesStat =
-			 mapConnection.prepareStatement("SELECT A.id, A.latitude, A.longitude FROM street_node A WHERE A.street = ? "); //$NON-NLS-1$
+			 mapConnection.prepareStatement("SELECT A.id, A.latitude, A.longitude, A.street FROM street_node A JOIN street S ON A.street = S.id " + //$NON-NLS-1$
+			 		"WHERE S.city = ? "); //$NON-NLS-1$
 
 		// collect suburbs with is in value
 		List<City> suburbs = new ArrayList<City>();
@@ -934,7 +991,7 @@ public class IndexAddressCreator extends AbstractIndexPartCreator{
 		for (int i = 0; i < posts.size(); i++) {
 			City postCode = posts.get(i);
 			BinaryFileReference ref = refs.get(i);
-			putNamedMapObject(namesIndex, postCode, ref.getStartPointer());
+			putNamedMapObject(namesIndex, postCode, writer.getAddressIndexOffset(ref.getStartPointer()));
 			writer.writeCityIndex(postCode, new ArrayList<Street>(postCode.getStreets()), null, ref);
 		}
 		writer.endCityBlockIndex();
@@ -953,13 +1010,13 @@ public class IndexAddressCreator extends AbstractIndexPartCreator{
 	}
 	
 	
-	private void putNamedMapObject(Map<String, List<MapObject>> namesIndex, MapObject o, long fileOffset){
+	/**
+	 * @param fileOffset offset of the object inside address index (see {@link BinaryMapIndexWriter#getAddressIndexOffset})
+	 */
+	private void putNamedMapObject(Map<String, List<MapObject>> namesIndex, MapObject o, int fileOffset){
 		String name = o.getName();
 		parsePrefix(name, o, namesIndex);
-		if (fileOffset > Integer.MAX_VALUE) {
-			throw new IllegalArgumentException("File offset > 2 GB.");
-		}
-		o.setFileOffset((int) fileOffset);
+		o.setFileOffset(fileOffset);
 	}
 	
 	private void parsePrefix(String name, MapObject data, Map<String, List<MapObject>> namesIndex) {
@@ -997,75 +1054,164 @@ public class IndexAddressCreator extends AbstractIndexPartCreator{
 		for (City c : cities) {
 			refs.add(writer.writeCityHeader(c, c.getType().ordinal()));
 		}
-		for (int i = 0; i < cities.size(); i++) {
-			City city = cities.get(i);
-			BinaryFileReference ref = refs.get(i);
-			putNamedMapObject(namesIndex, city, ref.getStartPointer());
-			if (type == CITIES_TYPE) {
-				progress.progress(1);
-			} else {
-				if ((cities.size() - i) % 100 == 0) {
-					progress.progress(1);
+		// 2. streets are loaded by one thread (db connection) and merged by the pool, 
+		// results are written in the order of cities
+		ExecutorService loader = null;
+		ExecutorService mergers = null;
+		if (serializationThreads > 1) {
+			loader = Executors.newSingleThreadExecutor();
+			mergers = Executors.newFixedThreadPool(serializationThreads);
+		}
+		LinkedList<Future<CityStreets>> pending = new LinkedList<Future<CityStreets>>();
+		int submitted = 0;
+		try {
+			for (int i = 0; i < cities.size(); i++) {
+				while (submitted < cities.size() && pending.size() < CITIES_TO_PRELOAD_PER_THREAD * Math.max(1, serializationThreads)) {
+					City c = cities.get(submitted++);
+					pending.add(submitCityStreets(loader, mergers, new CityStreets(c, findCitySuburbs(c, suburbs)), 
+							streetstat, waynodesStat));
 				}
-			}
-			Map<Street, List<Node>> streetNodes = new LinkedHashMap<Street, List<Node>>();
-			List<City> listSuburbs = null;
-			if (suburbs != null) {
-				for (City suburb : suburbs) {
-					if (suburb.getIsInValue().contains(city.getName().toLowerCase())) {
-						if (listSuburbs == null) {
-							listSuburbs = new ArrayList<City>();
-						}
-						listSuburbs.add(suburb);
+				CityStreets cityStreets = getCityStreets(pending.removeFirst());
+				City city = cityStreets.city;
+				BinaryFileReference ref = refs.get(i);
+				putNamedMapObject(namesIndex, city, writer.getAddressIndexOffset(ref.getStartPointer()));
+				if (type == CITIES_TYPE) {
+					progress.progress(1);
+				} else {
+					if ((cities.size() - i) % 100 == 0) {
+						progress.progress(1);
 					}
 				}
-			}
-			long time = System.currentTimeMillis();
-			List<Street> streets = readStreetsBuildings(streetstat, city, waynodesStat, streetNodes, listSuburbs);
-			long f = System.currentTimeMillis() - time;
-			writer.writeCityIndex(city, streets, streetNodes, ref);
-			int bCount = 0;
-			// register postcodes and name index
-			for (Street s : streets) {
-				putNamedMapObject(namesIndex, s, s.getFileOffset());
+				Map<Street, List<Node>> streetNodes = cityStreets.streetNodes;
+				List<Street> streets = cityStreets.streets;
+				long f = cityStreets.loadTime;
+				writer.writeCityIndex(city, streets, streetNodes, ref);
+				int bCount = 0;
+				// register postcodes and name index
+				for (Street s : streets) {
+					putNamedMapObject(namesIndex, s, s.getFileOffset());
 				
-				for (Building b : s.getBuildings()) {
-					bCount++;
-					if (city.getPostcode() != null && b.getPostcode() == null) {
-						b.setPostcode(city.getPostcode());
-					}
-					if (b.getPostcode() != null) {
-						if (!postcodes.containsKey(b.getPostcode())) {
-							City p = City.createPostcode(b.getPostcode());
-							p.setLocation(b.getLocation().getLatitude(), b.getLocation().getLongitude());
-							postcodes.put(b.getPostcode(), p);
+					for (Building b : s.getBuildings()) {
+						bCount++;
+						if (city.getPostcode() != null && b.getPostcode() == null) {
+							b.setPostcode(city.getPostcode());
 						}
-						City post = postcodes.get(b.getPostcode());
-						Street newS = post.getStreet(s.getName());
-						if(newS == null) {
-							newS = new Street(post);
-							newS.setName(s.getName());
-							newS.setEnName(s.getEnName());
-							newS.setLocation(s.getLocation().getLatitude(), s.getLocation().getLongitude());
-							//newS.getWayNodes().addAll(s.getWayNodes());
-							newS.setId(s.getId());
-							post.registerStreet(newS);
+						if (b.getPostcode() != null) {
+							if (!postcodes.containsKey(b.getPostcode())) {
+								City p = City.createPostcode(b.getPostcode());
+								p.setLocation(b.getLocation().getLatitude(), b.getLocation().getLongitude());
+								postcodes.put(b.getPostcode(), p);
+							}
+							City post = postcodes.get(b.getPostcode());
+							Street newS = post.getStreet(s.getName());
+							if(newS == null) {
+								newS = new Street(post);
+								newS.setName(s.getName());
+								newS.setEnName(s.getEnName());
+								newS.setLocation(s.getLocation().getLatitude(), s.getLocation().getLongitude());
+								//newS.getWayNodes().addAll(s.getWayNodes());
+								newS.setId(s.getId());
+								post.registerStreet(newS);
+							}
+							newS.addBuildingCheckById(b);
 						}
-						newS.addBuildingCheckById(b);
 					}
 				}
-			}
-			if (f > 500) {
-				if (logMapDataWarn != null) {
-					logMapDataWarn.info("! " + city.getName() + " ! " + f + " ms " + streets.size() + " streets " + bCount + " buildings");
-				} else {
-					log.info("! " + city.getName() + " ! " + f + " ms " + streets.size() + " streets " + bCount + " buildings");
+				if (f > 500) {
+					if (logMapDataWarn != null) {
+						logMapDataWarn.info("! " + city.getName() + " ! " + f + " ms " + streets.size() + " streets " + bCount + " buildings");
+					} else {
+						log.info("! " + city.getName() + " ! " + f + " ms " + streets.size() + " streets " + bCount + " buildings");
+					}
 				}
 			}
+		} finally {
+			if (loader != null) {
+				loader.shutdownNow();
+				mergers.shutdownNow();
+			}
 		}
 		writer.endCityBlockIndex();
 	}
 
+	private List<City> findCitySuburbs(City city, List<City> suburbs) {
+		List<City> listSuburbs = null;
+		if (suburbs != null) {
+			for (City suburb : suburbs) {
+				if (suburb.getIsInValue().contains(city.getName().toLowerCase())) {
+					if (listSuburbs == null) {
+						listSuburbs = new ArrayList<City>();
+					}
+					listSuburbs.add(suburb);
+				}
+			}
+		}
+		return listSuburbs;
+	}
+
+	private Future<CityStreets> submitCityStreets(ExecutorService loader, ExecutorService mergers, final CityStreets cs,
+			final PreparedStatement streetstat, final PreparedStatement waynodesStat) {
+		final Callable<CityStreets> load = new Callable<CityStreets>() {
+			@Override
+			public CityStreets call() throws SQLException {
+				long time = System.currentTimeMillis();
+				readStreetsBuildings(streetstat, waynodesStat, cs);
+				cs.loadTime = System.currentTimeMillis() - time;
+				return cs;
+			}
+		};
+		final Callable<CityStreets> merge = new Callable<CityStreets>() {
+			@Override
+			public CityStreets call() {
+				mergeStreetsWithSameNames(cs.streetNodes, cs.uniqueNames);
+				cs.streets = new ArrayList<Street>(cs.streetNodes.keySet());
+				return cs;
+			}
+		};
+		if (loader == null) {
+			FutureTask<CityStreets> task = new FutureTask<CityStreets>(new Callable<CityStreets>() {
+				@Override
+				public CityStreets call() throws Exception {
+					load.call();
+					return merge.call();
+				}
+			});
+			task.run();
+			return task;
+		}
+		final Future<CityStreets> loaded = loader.submit(load);
+		return mergers.submit(new Callable<CityStreets>() {
+			@Override
+			public CityStreets call() throws Exception {
+				// loader is a single thread executor so cities are loaded in the order of submission
+				loaded.get();
+				return merge.call();
+			}
+		});
+	}
+
+	private CityStreets getCityStreets(Future<CityStreets> f) throws SQLException, IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			Throwable t = e.getCause();
+			while (t instanceof ExecutionException && t.getCause() != null) {
+				t = t.getCause();
+			}
+			if (t instanceof SQLException) {
+				throw (SQLException) t;
+			} else if (t instanceof RuntimeException) {
+				throw (RuntimeException) t;
+			} else if (t instanceof Error) {
+				throw (Error) t;
+			}
+			throw new IOException(t);
+		}
+	}
+
 	public void commitToPutAllCities() throws SQLException {
 		// commit to put all cities
 		streetDAO.commit();
@@ -1093,21 +1239,35 @@ public class IndexAddressCreator extends AbstractIndexPartCreator{
         stat.close();
 	}
 	
-	private List<Street> readStreetsBuildings(PreparedStatement streetBuildingsStat, City city, PreparedStatement waynodesStat,
-			Map<Street, List<Node>> streetNodes, List<City> citySuburbs) throws SQLException {
+	/**
+	 * Streets with buildings and nodes of a city (with its suburbs) prepared to be written 
+	 */
+	private static class CityStreets {
+		private final City city;
+		private final List<City> suburbs;
+		private final Map<Street, List<Node>> streetNodes = new LinkedHashMap<Street, List<Node>>();
+		private final Map<String, List<Street>> uniqueNames = new LinkedHashMap<String, List<Street>>();
+		private List<Street> streets;
+		private long loadTime;
+
+		public CityStreets(City city, List<City> suburbs) {
+			this.city = city;
+			this.suburbs = suburbs;
+		}
+	}
+
+	private void readStreetsBuildings(PreparedStatement streetBuildingsStat, PreparedStatement waynodesStat, 
+			CityStreets cs) throws SQLException {
 		TLongObjectHashMap<Street> visitedStreets = new TLongObjectHashMap<Street>();
-		Map<String, List<Street>> uniqueNames = new LinkedHashMap<String, List<Street>>();
 
 		// read streets for city
-		readStreetsAndBuildingsForCity(streetBuildingsStat, city, waynodesStat, streetNodes, visitedStreets, uniqueNames);
+		readStreetsAndBuildingsForCity(streetBuildingsStat, cs.city, waynodesStat, cs.streetNodes, visitedStreets, cs.uniqueNames);
 		// read streets for suburbs of the city
-		if (citySuburbs != null) {
-			for (City suburb : citySuburbs) {
-				readStreetsAndBuildingsForCity(streetBuildingsStat, suburb, waynodesStat, streetNodes, visitedStreets, uniqueNames);
+		if (cs.suburbs != null) {
+			for (City suburb : cs.suburbs) {
+				readStreetsAndBuildingsForCity(streetBuildingsStat, suburb, waynodesStat, cs.streetNodes, visitedStreets, cs.uniqueNames);
 			}
 		}
-		mergeStreetsWithSameNames(streetNodes, uniqueNames);
-		return new ArrayList<Street>(streetNodes.keySet());
 	}
 	
 
@@ -1133,7 +1293,10 @@ public class IndexAddressCreator extends AbstractIndexPartCreator{
 					//	" combine 2 district streets '" + s.getName() + "' with '" + candidate.getName() + "'");
 					s.mergeWith(candidate);
 					if(!candidate.getName().equals(s.getName())) {
-						candidate.getCity().unregisterStreet(candidate.getName());
+						// suburbs are shared between cities merged in parallel
+						synchronized (candidate.getCity()) {
+							candidate.getCity().unregisterStreet(candidate.getName());
+						}
 					}
 					List<Node> old = streetNodes.remove(candidate);
 					streetNodes.get(s).addAll(old);
@@ -1172,6 +1335,7 @@ public class IndexAddressCreator extends AbstractIndexPartCreator{
 	private void readStreetsAndBuildingsForCity(PreparedStatement streetBuildingsStat, City city,
 			PreparedStatement waynodesStat, Map<Street, List<Node>> streetNodes, TLongObjectHashMap<Street> visitedStreets,
 			Map<String, List<Street>> uniqueNames) throws SQLException {
+		TLongObjectHashMap<List<Node>> cityStreetNodes = loadStreetNodes(city.getId(), waynodesStat);
 		streetBuildingsStat.setLong(1, city.getId());
 		ResultSet set = streetBuildingsStat.executeQuery();
 		while (set.next()) {
@@ -1182,7 +1346,10 @@ public class IndexAddressCreator extends AbstractIndexPartCreator{
 				double lat = set.getDouble(4);
 				double lon = set.getDouble(5);
 				// load the street nodes
-				List<Node> thisWayNodes = loadStreetNodes(streetId, waynodesStat);
+				List<Node> thisWayNodes = cityStreetNodes.remove(streetId);
+				if (thisWayNodes == null) {
+					thisWayNodes = new ArrayList<Node>();
+				}
 				if (!uniqueNames.containsKey(streetName)) {
 					uniqueNames.put(streetName, new ArrayList<Street>());
 				}
@@ -1230,15 +1397,21 @@ public class IndexAddressCreator extends AbstractIndexPartCreator{
 	}
 
 
-	private List<Node> loadStreetNodes(long streetId, PreparedStatement waynodesStat) throws SQLException {
-		List<Node> list = new ArrayList<Node>();
-		waynodesStat.setLong(1, streetId);
+	private TLongObjectHashMap<List<Node>> loadStreetNodes(long cityId, PreparedStatement waynodesStat) throws SQLException {
+		TLongObjectHashMap<List<Node>> map = new TLongObjectHashMap<List<Node>>();
+		waynodesStat.setLong(1, cityId);
 		ResultSet rs = waynodesStat.executeQuery();
 		while (rs.next()) {
+			long streetId = rs.getLong(4);
+			List<Node> list = map.get(streetId);
+			if (list == null) {
+				list = new ArrayList<Node>();
+				map.put(streetId, list);
+			}
 			list.add(new Node(rs.getDouble(2), rs.getDouble(3), rs.getLong(1)));
 		}
 		rs.close();
-		return list;
+		return map;
 	}
 
 
@@ -0,0 +1,172 @@
+package net.osmand.map;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tile -> regions lookup table of the regions registry (tiles are 1 degree tiles of the registry, x is longitude
+ * and y is latitude). Tiles are kept in sorted primitive arrays with regions of every tile in one shared array,
+ * table is written and read as is, so it is loaded without parsing and optimizing the registry.
+ */
+public class RegionTilesIndex {
+
+	private static final int VERSION = 1;
+
+	private final String[] regions;
+	// sorted tile keys
+	private final int[] tiles;
+	// regions of tiles[i] are regionIds[offsets[i]] ... regionIds[offsets[i + 1] - 1]
+	private final int[] offsets;
+	private final int[] regionIds;
+
+	private RegionTilesIndex(String[] regions, int[] tiles, int[] offsets, int[] regionIds) {
+		this.regions = regions;
+		this.tiles = tiles;
+		this.offsets = offsets;
+		this.regionIds = regionIds;
+	}
+
+	private static int tileKey(int x, int y) {
+		return (x << 16) | (y & 0xffff);
+	}
+
+	/**
+	 * Builds index of countries and their sub regions (sub region name is "country#region" as in the registry).
+	 */
+	public static RegionTilesIndex build(List<RegionCountry> countries) {
+		Builder b = new Builder();
+		for (RegionCountry rc : countries) {
+			b.addRegion(rc.name, rc.calcAllTiles());
+			for (RegionCountry r : rc.getSubRegions()) {
+				b.addRegion(rc.name + "#" + r.name, r.calcAllTiles());
+			}
+		}
+		return b.build();
+	}
+
+	public static class Builder {
+		private final List<String> names = new ArrayList<String>();
+		// tile key in high bits, region id in low bits
+		private final TLongArrayList entries = new TLongArrayList();
+
+		/**
+		 * @param tiles x, y pairs
+		 */
+		public Builder addRegion(String name, TIntArrayList tiles) {
+			int id = names.size();
+			names.add(name);
+			for (int i = 0; i < tiles.size(); i += 2) {
+				entries.add(((long) tileKey(tiles.get(i), tiles.get(i + 1)) << 32) | id);
+			}
+			return this;
+		}
+
+		public RegionTilesIndex build() {
+			long[] e = entries.toArray();
+			Arrays.sort(e);
+			TIntArrayList tiles = new TIntArrayList();
+			TIntArrayList offsets = new TIntArrayList();
+			TIntArrayList ids = new TIntArrayList();
+			for (int i = 0; i < e.length; i++) {
+				if (i > 0 && e[i] == e[i - 1]) {
+					continue;
+				}
+				int tile = (int) (e[i] >> 32);
+				if (tiles.isEmpty() || tiles.get(tiles.size() - 1) != tile) {
+					tiles.add(tile);
+					offsets.add(ids.size());
+				}
+				ids.add((int) e[i]);
+			}
+			offsets.add(ids.size());
+			return new RegionTilesIndex(names.toArray(new String[names.size()]), tiles.toArray(), offsets.toArray(), ids.toArray());
+		}
+	}
+
+	/**
+	 * @return names of regions containing the tile in the order they were added
+	 */
+	public List<String> getRegions(int x, int y) {
+		int i = Arrays.binarySearch(tiles, tileKey(x, y));
+		if (i < 0) {
+			return Collections.emptyList();
+		}
+		List<String> res = new ArrayList<String>(offsets[i + 1] - offsets[i]);
+		for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+			res.add(regions[regionIds[j]]);
+		}
+		return res;
+	}
+
+	public int getRegionsCount() {
+		return regions.length;
+	}
+
+	public int getTilesCount() {
+		return tiles.length;
+	}
+
+	public void writeTo(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(VERSION);
+			out.writeInt(regions.length);
+			for (String r : regions) {
+				out.writeUTF(r);
+			}
+			writeArray(out, tiles);
+			writeArray(out, offsets);
+			writeArray(out, regionIds);
+		} finally {
+			out.close();
+		}
+	}
+
+	public static RegionTilesIndex readFrom(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported version of region tiles index " + version);
+			}
+			String[] regions = new String[in.readInt()];
+			for (int i = 0; i < regions.length; i++) {
+				regions[i] = in.readUTF();
+			}
+			int[] tiles = readArray(in);
+			int[] offsets = readArray(in);
+			int[] regionIds = readArray(in);
+			return new RegionTilesIndex(regions, tiles, offsets, regionIds);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void writeArray(DataOutputStream out, int[] a) throws IOException {
+		out.writeInt(a.length);
+		for (int v : a) {
+			out.writeInt(v);
+		}
+	}
+
+	private static int[] readArray(DataInputStream in) throws IOException {
+		int[] a = new int[in.readInt()];
+		for (int i = 0; i < a.length; i++) {
+			a[i] = in.readInt();
+		}
+		return a;
+	}
+}
@@ -14,7 +14,6 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Stack;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -42,6 +41,7 @@ public class RegionsRegistryConverter {
     static String REPO_PATH = "../"; //"../../"  ;
 	static String COUNTRIES_FILE = "resources/countries-info/countries.xml";
 	static String COUNTRIES_OPT_FILE = "resources/countries-info/opt-countries.xml";
+	static String REGION_TILES_FILE = "resources/countries-info/region-tiles.bin";
 	
 	public static List<RegionCountry> parseRegions(boolean withNoValidated) throws IllegalStateException, FileNotFoundException {
 		final File f = new File(REPO_PATH + COUNTRIES_FILE);
@@ -64,6 +64,7 @@ public class RegionsRegistryConverter {
 	public static void main(String[] args) throws Exception {
 		validate(true);
 		optimizeBoxes();
+		writeRegionTiles();
 //		List<RegionCountry> countries = recreateReginfo();
 //		checkFileRead(countries);
 		
@@ -71,6 +72,13 @@ public class RegionsRegistryConverter {
 		
 	}
 	
+	public static RegionTilesIndex writeRegionTiles() throws IOException {
+		RegionTilesIndex index = RegionTilesIndex.build(parseRegions(false));
+		index.writeTo(new File(REPO_PATH + REGION_TILES_FILE));
+		System.out.println("Region tiles " + index.getTilesCount() + ", regions " + index.getRegionsCount());
+		return index;
+	}
+	
 	public static void validate(boolean overwrite) throws SAXException, IOException, ParserConfigurationException, TransformerException {
 		List<RegionCountry> regCountries = parseRegions(true);
 		InputStream is = new FileInputStream(REPO_PATH+COUNTRIES_FILE);
@@ -224,11 +232,7 @@ public class RegionsRegistryConverter {
 	}
 
 	private static void optimizeRegion(Map<String, Element> elements, RegionCountry r, String rgName) {
-		boolean optimized = new AreaOptimizer().tryToCutBigSquareArea(r, false);
-		boolean replace = optimized;
-		while (optimized) {
-			optimized = new AreaOptimizer().tryToCutBigSquareArea(r, false);
-		}
+		boolean replace = new AreaOptimizer().cutBigSquareAreas(r, false) > 0;
 		if (replace) {
 			Element tiles = null;
 			NodeList ch = elements.get(rgName).getChildNodes();
@@ -341,7 +345,12 @@ public class RegionsRegistryConverter {
 		}
 	}
 	
-	private static class AreaOptimizer {
+	/**
+	 * Replaces single tiles of the region with boxes : the biggest all-ones rectangle of the tiles matrix is cut
+	 * while it has at least 4 tiles. Matrix is built once and cut rectangles are cleared in it, 
+	 * so every cut costs one pass of the stack algorithm over the matrix.
+	 */
+	static class AreaOptimizer {
 		
 		private int findExtremumCoordinate(RegionCountry r, boolean min, boolean odd) {
 			int i = odd ? 1 : 0;
@@ -358,32 +367,31 @@ public class RegionsRegistryConverter {
 		}
 		
 		// Algorithm is taken http://e-maxx.ru/algo/maximum_zero_submatrix
+		// (d[j] is the last empty row of column j : histogram of the row, bounds of the bars are found by stack)
 		// answer is int[4]
-		private int findBiggestOneSubmatrix(int[][] a,int left, int right,  int top, int bottom, int[] answer) {
+		private int findBiggestOneSubmatrix(byte[][] a, int left, int right, int top, int bottom, int[] answer) {
 			int ans = 0;
 			int[] d = new int[right - left];
 			Arrays.fill(d, -1);
 			int[] d1 = new int[right - left], d2 = new int[right - left];
-			Stack<Integer> st = new Stack<Integer>();
+			int[] st = new int[right - left];
 			for (int i = top; i < bottom; ++i) {
 				for (int j = left; j < right; ++j)
 					if (a[i][j] == 0)
 						d[j] = i;
-				while (!st.empty())
-					st.pop();
+				int sp = 0;
 				for (int j = left; j < right; ++j) {
-					while (!st.empty() && d[st.peek()] <= d[j])
-						st.pop();
-					d1[j] = st.empty() ? -1 : st.peek();
-					st.push(j);
+					while (sp > 0 && d[st[sp - 1]] <= d[j])
+						sp--;
+					d1[j] = sp == 0 ? -1 : st[sp - 1];
+					st[sp++] = j;
 				}
-				while (!st.empty())
-					st.pop();
+				sp = 0;
 				for (int j = right - 1; j >= left; --j) {
-					while (!st.empty() && d[st.peek()] <= d[j])
-						st.pop();
-					d2[j] = st.empty() ? right : st.peek();
-					st.push(j);
+					while (sp > 0 && d[st[sp - 1]] <= d[j])
+						sp--;
+					d2[j] = sp == 0 ? right : st[sp - 1];
+					st[sp++] = j;
 				}
 				for (int j = left; j < right; ++j) {
 					int nans = Math.max(ans, (i - d[j]) * (d2[j] - d1[j] - 1));
@@ -399,16 +407,18 @@ public class RegionsRegistryConverter {
 			return ans;
 		}
 		
-		
-		public boolean tryToCutBigSquareArea(RegionCountry r, boolean verbose) {
+		/**
+		 * @return number of boxes cut
+		 */
+		public int cutBigSquareAreas(RegionCountry r, boolean verbose) {
 			if(r.getSingleTiles().size() == 0) {
-				return false;
+				return 0;
 			}
 			int minX = findExtremumCoordinate(r, true, false);
 			int maxX = findExtremumCoordinate(r, false, false);
 			int minY = findExtremumCoordinate(r, true, true);
 			int maxY = findExtremumCoordinate(r, false, true);
-			int[][] areaMatrix = new int[maxY- minY + 1][maxX - minX + 1];
+			byte[][] areaMatrix = new byte[maxY- minY + 1][maxX - minX + 1];
 			TIntArrayList ts = r.getSingleTiles();
 			for (int j = 0; j < ts.size(); j += 2) {
 				int x = ts.get(j);
@@ -416,31 +426,37 @@ public class RegionsRegistryConverter {
 				areaMatrix[maxY - y][x - minX] = 1;
 			}
 			int[] sub = new int[4];
-			int a = findBiggestOneSubmatrix(areaMatrix, 0, maxX - minX + 1, 0, maxY - minY + 1, sub);
-			if (a >= 4) {
+			int cut = 0;
+			int a;
+			// rows and columns are scanned in the same order as for the matrix of remaining tiles,
+			// so boxes are the same as if matrix was built for every cut
+			while ((a = findBiggestOneSubmatrix(areaMatrix, 0, maxX - minX + 1, 0, maxY - minY + 1, sub)) >= 4) {
 				int xleft = sub[1]  + minX;
 				int ytop = maxY - sub[0];
 				int xright = sub[3]  + minX;
 				int ybottom = maxY - sub[2] ;
+				if (verbose) {
+					System.out.println("-" + r.name);
+					for (int t = 0; t < areaMatrix.length; t++) {
+						 System.out.println(Arrays.toString(areaMatrix[t]));
+					}
+				}
 				for (int x = xleft; x <= xright; x++) {
 					for (int y = ytop; y >= ybottom; y--) {
 						r.removeSingle(x, y);
+						areaMatrix[maxY - y][x - minX] = 0;
 					}
 				}
 				r.add(xleft, ytop, xright, ybottom);
+				cut++;
 				if (verbose) {
-					System.out.println("-" + r.name);
-					for (int t = 0; t < areaMatrix.length; t++) {
-						 System.out.println(Arrays.toString(areaMatrix[t]));
-					}
 					System.out.println(xleft + " " + ytop + " x " + xright + " " + ybottom + " --- " + a);
 
 					float c = (float) r.calcAllTiles().size() / (r.getBoxTiles().size() + r.getSingleTiles().size());
 					System.out.println("Compression " + c);
 				}
-				return true;
 			}
-			return false;
+			return cut;
 		}
 		
 		
@@ -0,0 +1,197 @@
+package net.osmand.osm;
+
+import java.util.Arrays;
+
+/**
+ * Merges line segments (coastline ways) into chains by their end points. <p />
+ *
+ * Segments are identified by the order they were added (0, 1, 2 ...) and described only by the keys
+ * of their first and last points, so caller keeps the geometry. Chains are linked lists of segments stored
+ * in primitive arrays, open chains are found by their start/end key through open addressing hash tables,
+ * so memory is a few dozens bytes per segment even for the planet coastline. <p />
+ *
+ * Merging rules are the same as coastline fix always had : if a new chain touches start of another chain with
+ * its start (or end with its end), the new chain is reversed; chain is closed to a ring when its start and end meet.
+ */
+public class LineChainMerger {
+
+	public static final int NO_RING = -1;
+
+	private static final int NO_VALUE = -1;
+
+	// segments
+	private int segments;
+	private int[] next;
+	private boolean[] reversed;
+
+	// chains (chain id is id of the segment which created it)
+	private int[] head;
+	private int[] tail;
+	private int[] size;
+	private long[] start;
+	private long[] end;
+	private long[] registered;
+	private long registrations;
+
+	private final LongIntMap startChains;
+	private final LongIntMap endChains;
+	private int reversals;
+
+	public LineChainMerger() {
+		this(1024);
+	}
+
+	public LineChainMerger(int expectedSegments) {
+		int c = Math.max(16, expectedSegments);
+		next = new int[c];
+		reversed = new boolean[c];
+		head = new int[c];
+		tail = new int[c];
+		size = new int[c];
+		start = new long[c];
+		end = new long[c];
+		registered = new long[c];
+		startChains = new LongIntMap(c);
+		endChains = new LongIntMap(c);
+	}
+
+	private void ensureCapacity() {
+		if (segments < next.length) {
+			return;
+		}
+		int c = next.length * 2;
+		next = Arrays.copyOf(next, c);
+		reversed = Arrays.copyOf(reversed, c);
+		head = Arrays.copyOf(head, c);
+		tail = Arrays.copyOf(tail, c);
+		size = Arrays.copyOf(size, c);
+		start = Arrays.copyOf(start, c);
+		end = Arrays.copyOf(end, c);
+		registered = Arrays.copyOf(registered, c);
+	}
+
+	/**
+	 * Adds next segment (its id is the number of segments added before).
+	 * @return id of the chain closed to a ring by this segment or {@link #NO_RING}
+	 */
+	public int addSegment(long startKey, long endKey) {
+		ensureCapacity();
+		int chain = segments++;
+		next[chain] = NO_VALUE;
+		reversed[chain] = false;
+		head[chain] = chain;
+		tail[chain] = chain;
+		size[chain] = 1;
+		start[chain] = startKey;
+		end[chain] = endKey;
+		if (startKey == endKey) {
+			return chain;
+		}
+		while (touchesOpenChain(start[chain], end[chain])) {
+			if (startChains.containsKey(start[chain]) || endChains.containsKey(end[chain])) {
+				reversals++;
+				reverse(chain);
+			}
+			int before = endChains.get(start[chain]);
+			if (before != NO_VALUE) {
+				endChains.remove(start[chain]);
+				startChains.remove(start[before]);
+				chain = concat(before, chain);
+			} else {
+				int after = startChains.get(end[chain]);
+				if (after != NO_VALUE) {
+					startChains.remove(end[chain]);
+					endChains.remove(end[after]);
+					chain = concat(chain, after);
+				}
+			}
+			if (start[chain] == end[chain]) {
+				return chain;
+			}
+		}
+		startChains.put(start[chain], chain);
+		endChains.put(end[chain], chain);
+		registered[chain] = registrations++;
+		return NO_RING;
+	}
+
+	private boolean touchesOpenChain(long s, long e) {
+		return startChains.containsKey(s) || endChains.containsKey(e) || startChains.containsKey(e) || endChains.containsKey(s);
+	}
+
+	private int concat(int first, int second) {
+		next[tail[first]] = head[second];
+		tail[first] = tail[second];
+		size[first] += size[second];
+		end[first] = end[second];
+		return first;
+	}
+
+	private void reverse(int chain) {
+		int prev = NO_VALUE;
+		int s = head[chain];
+		while (s != NO_VALUE) {
+			int n = next[s];
+			next[s] = prev;
+			reversed[s] = !reversed[s];
+			prev = s;
+			s = n;
+		}
+		tail[chain] = head[chain];
+		head[chain] = prev;
+		long t = start[chain];
+		start[chain] = end[chain];
+		end[chain] = t;
+	}
+
+	/**
+	 * @return segments of the chain in the chain order
+	 */
+	public int[] getChainSegments(int chain) {
+		int[] res = new int[size[chain]];
+		int s = head[chain];
+		for (int i = 0; i < res.length; i++) {
+			res[i] = s;
+			s = next[s];
+		}
+		return res;
+	}
+
+	/**
+	 * @return true if segment goes in its chain from end to start
+	 */
+	public boolean isReversed(int segment) {
+		return reversed[segment];
+	}
+
+	public int getSegmentsCount() {
+		return segments;
+	}
+
+	/**
+	 * @return number of times a chain had to be reversed to be merged
+	 */
+	public int getReversals() {
+		return reversals;
+	}
+
+	/**
+	 * @return chains that were not closed in the order they were last merged
+	 */
+	public int[] getOpenChains() {
+		long[] order = new long[endChains.size()];
+		int k = 0;
+		for (int i = 0; i < endChains.values.length; i++) {
+			if (endChains.values[i] != LongIntMap.NO_VALUE) {
+				int chain = endChains.values[i];
+				order[k++] = (registered[chain] << 32) | chain;
+			}
+		}
+		Arrays.sort(order);
+		int[] res = new int[order.length];
+		for (int i = 0; i < order.length; i++) {
+			res[i] = (int) order[i];
+		}
+		return res;
+	}
+}
@@ -0,0 +1,113 @@
+package net.osmand.osm;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing (linear probing) long -> non negative int map, keys and values are kept in primitive arrays,
+ * {@link #NO_VALUE} is returned for absent keys.
+ */
+public class LongIntMap {
+
+	public static final int NO_VALUE = -1;
+
+	private long[] keys;
+	// package visible for iteration by LineChainMerger
+	int[] values;
+	private int size;
+	private int mask;
+
+	public LongIntMap(int expected) {
+		int c = 16;
+		while (c < expected * 2) {
+			c <<= 1;
+		}
+		allocate(c);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(values, NO_VALUE);
+		mask = capacity - 1;
+	}
+
+	private int slot(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean containsKey(long key) {
+		return get(key) != NO_VALUE;
+	}
+
+	public int get(long key) {
+		int i = slot(key);
+		while (values[i] != NO_VALUE) {
+			if (keys[i] == key) {
+				return values[i];
+			}
+			i = (i + 1) & mask;
+		}
+		return NO_VALUE;
+	}
+
+	public void put(long key, int value) {
+		if ((size + 1) * 2 > keys.length) {
+			long[] oldKeys = keys;
+			int[] oldValues = values;
+			allocate(keys.length * 2);
+			size = 0;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldValues[i] != NO_VALUE) {
+					put(oldKeys[i], oldValues[i]);
+				}
+			}
+		}
+		int i = slot(key);
+		while (values[i] != NO_VALUE) {
+			if (keys[i] == key) {
+				values[i] = value;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		size++;
+	}
+
+	public void remove(long key) {
+		int i = slot(key);
+		while (values[i] != NO_VALUE) {
+			if (keys[i] == key) {
+				break;
+			}
+			i = (i + 1) & mask;
+		}
+		if (values[i] == NO_VALUE) {
+			return;
+		}
+		values[i] = NO_VALUE;
+		size--;
+		// shift following entries of the cluster back
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (values[j] == NO_VALUE) {
+				return;
+			}
+			int home = slot(keys[j]);
+			boolean move = i <= j ? (home <= i || home > j) : (home <= i && home > j);
+			if (move) {
+				keys[i] = keys[j];
+				values[i] = values[j];
+				values[j] = NO_VALUE;
+				i = j;
+			}
+		}
+	}
+}
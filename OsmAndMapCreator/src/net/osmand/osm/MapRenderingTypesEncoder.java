@@ -1,9 +1,12 @@
 package net.osmand.osm;
 
+import gnu.trove.list.array.TByteArrayList;
 import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
 
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.osmand.osm.edit.Entity;
 import net.osmand.osm.edit.Node;
@@ -18,9 +21,53 @@ public class MapRenderingTypesEncoder extends MapRenderingTypes {
 	// stored information to convert from osm tags to int type
 	private List<MapRouteTag> routeTags = new ArrayList<MapRouteTag>();
 	private MapRulType coastlineRuleType;
+	// tags having any encoding rule : other tags are skipped without building rule keys
+	private final Set<String> ruleTags = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final String fileName;
 	
 	public MapRenderingTypesEncoder(String fileName) {
 		super(fileName);
+		this.fileName = fileName;
+	}
+	
+	/**
+	 * Creates encoder loading rule types from the same file. Rule types registered by this encoder 
+	 * while encoding are not copied, so internal ids of them could be different (see {@link #mergeRuleTypes}).
+	 */
+	public MapRenderingTypesEncoder newInstance() {
+		return new MapRenderingTypesEncoder(fileName);
+	}
+	
+	/**
+	 * Finds rule types of this encoder with the same tag and value as rule types used by another encoder 
+	 * (created by {@link #newInstance()}) and adds frequencies of them. Rule types registered by another encoder 
+	 * while encoding are registered in the same order.
+	 * @return rule types of this encoder by internal ids of rule types of another encoder
+	 */
+	public TIntObjectHashMap<MapRulType> mergeRuleTypes(MapRenderingTypesEncoder other) {
+		Map<String, MapRulType> byTagValue = new HashMap<String, MapRulType>();
+		for (MapRulType rt : getEncodingRuleTypes().values()) {
+			byTagValue.put(rt.getTag() + "=" + rt.getValue(), rt);
+		}
+		TIntObjectHashMap<MapRulType> result = new TIntObjectHashMap<MapRulType>();
+		for (MapRulType rt : other.getEncodingRuleTypes().values()) {
+			if (rt.freq == 0) {
+				continue;
+			}
+			String key = rt.getTag() + "=" + rt.getValue();
+			MapRulType r = byTagValue.get(key);
+			if (r == null) {
+				r = getMapRuleType(rt.getTag(), rt.getValue());
+				if (r == null || !Algorithms.objectEquals(r.getTag(), rt.getTag())
+						|| !Algorithms.objectEquals(r.getValue(), rt.getValue())) {
+					throw new IllegalStateException("Rule type is not registered " + key);
+				}
+				byTagValue.put(key, r);
+			}
+			r.freq += rt.freq;
+			result.put(rt.getInternalId(), r);
+		}
+		return result;
 	}
 	
 	private static MapRenderingTypesEncoder DEFAULT_INSTANCE = null;
@@ -39,6 +86,7 @@ public class MapRenderingTypesEncoder extends MapRenderingTypes {
 		super.registerRuleType(rt);
 		String tag = rt.tagValuePattern.tag;
 		String val = rt.tagValuePattern.value;
+		ruleTags.add(tag);
 		if("natural".equals(tag) && "coastline".equals(val)) {
 			coastlineRuleType = rt;
 		}
@@ -84,9 +132,18 @@ public class MapRenderingTypesEncoder extends MapRenderingTypes {
 	}
 	
 	private MapRulType getMapRuleType(String tag, String val) {
+		if (!hasRuleForTag(tag)) {
+			return null;
+		}
 		return getRuleType(tag, val, false);
 	}
 	
+	private boolean hasRuleForTag(String tag) {
+		// rules are registered while the encoding rules are initialized
+		checkIfInitNeeded();
+		return ruleTags.contains(tag);
+	}
+	
 	public MapRulType getCoastlineRuleType() {
 		getEncodingRuleTypes();
 		return coastlineRuleType;
@@ -142,42 +199,53 @@ public class MapRenderingTypesEncoder extends MapRenderingTypes {
 
 	public boolean encodeEntityWithType(Entity e, int zoom, TIntArrayList outTypes, 
 			TIntArrayList outAddTypes, Map<MapRulType, String> namesToEncode, List<MapRulType> tempListNotUsed) {
+		EntityTypes types = new EntityTypes();
+		encodeEntityTypes(e, types);
+		return types.fillTypes(zoom, outTypes, outAddTypes, namesToEncode);
+	}
+	
+	public boolean encodeEntityWithType(boolean node, Map<String, String> tags, int zoom, TIntArrayList outTypes, 
+			TIntArrayList outAddTypes, Map<MapRulType, String> namesToEncode, List<MapRulType> tempListNotUsed) {
+		EntityTypes types = new EntityTypes();
+		encodeEntityTypes(node, tags, types);
+		return types.fillTypes(zoom, outTypes, outAddTypes, namesToEncode);
+	}
+	
+	/**
+	 * Finds rule types of the entity tags for all zooms at once, types of each zoom are taken then 
+	 * by {@link EntityTypes#fillTypes}.
+	 */
+	public void encodeEntityTypes(Entity e, EntityTypes out) {
 		if(splitIsNeeded(e.getTags())) {
 			if(splitTagsIntoDifferentObjects(e.getTags()).size() > 1) {
 				throw new UnsupportedOperationException("Split is needed for tag/values " + e.getTags() );
 			}
 		}
-		return encodeEntityWithType(e instanceof Node, 
-				e.getTags(), zoom, outTypes, outAddTypes, namesToEncode, tempListNotUsed);
+		encodeEntityTypes(e instanceof Node, e.getTags(), out);
 	}
 	
-	public boolean encodeEntityWithType(boolean node, Map<String, String> tags, int zoom, TIntArrayList outTypes, 
-			TIntArrayList outAddTypes, Map<MapRulType, String> namesToEncode, List<MapRulType> tempListNotUsed) {
-		outTypes.clear();
-		outAddTypes.clear();
-		namesToEncode.clear();
-		boolean area = "yes".equals(tags.get("area")) || "true".equals(tags.get("area"));
+	public void encodeEntityTypes(boolean node, Map<String, String> tags, EntityTypes out) {
+		out.clear();
+		out.area = "yes".equals(tags.get("area")) || "true".equals(tags.get("area"));
 
 		for (String tag : tags.keySet()) {
 			String val = tags.get(tag);
 			MapRulType rType = getMapRuleType(tag, val);
 			if (rType != null) {
-				if (rType.minzoom > zoom || rType.maxzoom < zoom) {
-					continue;
-				}
 				if (rType.onlyPoint && !node) {
 					continue;
 				}
 				if(rType == nameEnRuleType && Algorithms.objectEquals(val, tags.get(OSMTagKey.NAME.getValue()))) {
 					continue;
 				}
+				// zoom range is checked for the rule itself, not for its target
+				int minzoom = rType.minzoom;
+				int maxzoom = rType.maxzoom;
 				if(rType.targetTagValue != null) {
 					rType = rType.targetTagValue;
 				}
-				rType.updateFreq();
-				if (!rType.isAdditionalOrText()) {
-					outTypes.add(rType.id);
-				} else {
+				byte kind = EntityTypes.MAIN;
+				if (rType.isAdditionalOrText()) {
 					boolean applied = rType.applyToTagValue == null;
 					if(!applied) {
 						Iterator<TagValuePattern> it = rType.applyToTagValue.iterator();
@@ -186,20 +254,88 @@ public class MapRenderingTypesEncoder extends MapRenderingTypes {
 							applied = nv.isApplicable(tags);
 						}
 					}
-					if (applied) {
-						if (rType.isAdditional()) {
-							outAddTypes.add(rType.id);
-						} else if (rType.isText()) {
-							namesToEncode.put(rType, val);
-						}
+					if (!applied) {
+						kind = EntityTypes.NOT_APPLIED;
+					} else if (rType.isAdditional()) {
+						kind = EntityTypes.ADDITIONAL;
+					} else if (rType.isText()) {
+						kind = EntityTypes.TEXT;
+					} else {
+						kind = EntityTypes.NOT_APPLIED;
 					}
 				}
+				out.add(rType, val, minzoom, maxzoom, kind);
+			}
+		}
+	}
+	
+	/**
+	 * Rule types of the entity tags with zoom ranges of their rules. Entity written to several zoom levels
+	 * is matched against the rules once and types of every level are taken by the range.
+	 */
+	public static class EntityTypes {
+		private static final byte MAIN = 0;
+		private static final byte ADDITIONAL = 1;
+		private static final byte TEXT = 2;
+		// counted in rule frequency but not encoded
+		private static final byte NOT_APPLIED = 3;
+		
+		private final List<MapRulType> types = new ArrayList<MapRulType>();
+		private final List<String> values = new ArrayList<String>();
+		private final TIntArrayList minZooms = new TIntArrayList();
+		private final TIntArrayList maxZooms = new TIntArrayList();
+		private final TByteArrayList kinds = new TByteArrayList();
+		private boolean area;
+		
+		private void clear() {
+			types.clear();
+			values.clear();
+			minZooms.clear();
+			maxZooms.clear();
+			kinds.clear();
+			area = false;
+		}
+		
+		private void add(MapRulType type, String value, int minzoom, int maxzoom, byte kind) {
+			types.add(type);
+			values.add(value);
+			minZooms.add(minzoom);
+			maxZooms.add(maxzoom);
+			kinds.add(kind);
+		}
+		
+		public boolean isArea() {
+			return area;
+		}
+		
+		/**
+		 * Fills types of the zoom (as {@link MapRenderingTypesEncoder#encodeEntityWithType} does) and updates frequency of them.
+		 * @return true if entity is area
+		 */
+		public boolean fillTypes(int zoom, TIntArrayList outTypes, TIntArrayList outAddTypes, Map<MapRulType, String> namesToEncode) {
+			outTypes.clear();
+			outAddTypes.clear();
+			namesToEncode.clear();
+			for (int i = 0; i < types.size(); i++) {
+				if (minZooms.getQuick(i) > zoom || maxZooms.getQuick(i) < zoom) {
+					continue;
+				}
+				MapRulType rType = types.get(i);
+				rType.updateFreq();
+				byte kind = kinds.getQuick(i);
+				if (kind == MAIN) {
+					outTypes.add(rType.id);
+				} else if (kind == ADDITIONAL) {
+					outAddTypes.add(rType.id);
+				} else if (kind == TEXT) {
+					namesToEncode.put(rType, values.get(i));
+				}
 			}
+			// sort to get most important features as first type (important for rendering)
+			outTypes.sort();
+			outAddTypes.sort();
+			return area;
 		}
-        // sort to get most important features as first type (important for rendering)
-        outTypes.sort();
-        outAddTypes.sort();
-		return area;
 	}
 	
 	public void addOSMCSymbolsSpecialTags(Map<MapRulType,String> propogated, Entry<String,String> ev) {
@@ -4,13 +4,12 @@ import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TLongObjectHashMap;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
 
 import net.osmand.osm.MapRenderingTypesEncoder.MapRouteTag;
 import net.osmand.osm.edit.Entity;
@@ -20,53 +19,55 @@ import net.osmand.osm.edit.Way;
 
 public class MapRoutingTypes {
 
-	private static Set<String> TAGS_TO_SAVE = new HashSet<String>();
-	private static Set<String> TAGS_TO_ACCEPT = new HashSet<String>();
-	private static Map<String, String> TAGS_TO_REPLACE = new HashMap<String, String>();
-	private static Set<String> TAGS_RELATION_TO_ACCEPT = new HashSet<String>();
-	private static Set<String> TAGS_TEXT = new HashSet<String>();
-	private static Set<String> BASE_TAGS_TEXT = new HashSet<String>();
-	private static Set<String> BASE_TAGS_TO_SAVE = new HashSet<String>();
-	private static Map<String, String> BASE_TAGS_TO_REPLACE = new HashMap<String, String>();
 	private static char TAG_DELIMETER = '/'; //$NON-NLS-1$
+	private static final TagValueRules.PrefixMatcher BASE_ROAD_VALUES = new TagValueRules.PrefixMatcher(Arrays.asList(
+			"trunk", "motorway", "primary", "secondary", "tertiary", "ferry"));
+
+	// rules are compiled once, so tags are matched without string concatenation
+	private final TagValueRules<Boolean> tagsToAccept = new TagValueRules<Boolean>();
+	private final TagValueRules<Boolean> tagsRelationToAccept = new TagValueRules<Boolean>();
+	private final TagValueRules<String[]> tagsToReplace = new TagValueRules<String[]>();
+	private final TagValueRules<String[]> baseTagsToReplace = new TagValueRules<String[]>();
+	private final TagValueRules<Boolean> tagsText = new TagValueRules<Boolean>();
+	private final TagValueRules<Boolean> baseTagsText = new TagValueRules<Boolean>();
+	private final TagValueRules.PrefixMatcher tagsToSave;
+	private final TagValueRules.PrefixMatcher baseTagsToSave;
 	
-	private Map<String, MapRouteType> types = new LinkedHashMap<String, MapRoutingTypes.MapRouteType>();
+	private Map<String, Map<String, MapRouteType>> types = new HashMap<String, Map<String, MapRouteType>>();
 	private List<MapRouteType> listTypes = new ArrayList<MapRoutingTypes.MapRouteType>();
 	private MapRouteType refRuleType;
 	private MapRouteType nameRuleType; 
 	
 	public MapRoutingTypes(MapRenderingTypesEncoder baseTypes) {
+		List<String> toSave = new ArrayList<String>();
+		List<String> baseToSave = new ArrayList<String>();
 		for(MapRouteTag tg :  baseTypes.getRouteTags() ) {
-			String t = tg.tag;
-			if(tg.value != null) {
-				t += TAG_DELIMETER + tg.value;
-			}
 			if(tg.register) {
 				if(tg.relation) {
-					TAGS_RELATION_TO_ACCEPT.add(t);
+					tagsRelationToAccept.put(tg.tag, tg.value, Boolean.TRUE);
 				}
-				TAGS_TO_ACCEPT.add(t);
+				tagsToAccept.put(tg.tag, tg.value, Boolean.TRUE);
 			} else if (tg.replace) {
-				String t2 = tg.tag2;
-				if (tg.value2 != null) {
-					t2 += TAG_DELIMETER + tg.value2;
-				}
+				String[] t2 = new String[] { tg.tag2, tg.value2 };
 				if (tg.base) {
-					BASE_TAGS_TO_REPLACE.put(t, t2);
+					baseTagsToReplace.put(tg.tag, tg.value, t2);
 				}
-				TAGS_TO_REPLACE.put(t, t2);
+				tagsToReplace.put(tg.tag, tg.value, t2);
 			} else if(tg.text) {
 				if(tg.base) {
-					BASE_TAGS_TEXT.add(t);
+					baseTagsText.put(tg.tag, tg.value, Boolean.TRUE);
 				}
-				TAGS_TEXT.add(t);
+				tagsText.put(tg.tag, tg.value, Boolean.TRUE);
 			} else if(tg.amend) {
+				String t = tg.value == null ? tg.tag : tg.tag + TAG_DELIMETER + tg.value;
 				if(tg.base) {
-					BASE_TAGS_TO_SAVE.add(t);
+					baseToSave.add(t);
 				}
-				TAGS_TO_SAVE.add(t);
+				toSave.add(t);
 			}
 		}
+		tagsToSave = new TagValueRules.PrefixMatcher(toSave);
+		baseTagsToSave = new TagValueRules.PrefixMatcher(baseToSave);
 	}
 	
 	public static String constructRuleKey(String tag, String val) {
@@ -106,7 +107,7 @@ public class MapRoutingTypes {
 		for(Entry<String, String> es : e.getTags().entrySet()) {
 			String tag = es.getKey();
 			String value = converBooleanValue(es.getValue());
-			if(contains(TAGS_RELATION_TO_ACCEPT, tag, value)) {
+			if(tagsRelationToAccept.contains(tag, value)) {
 				propogated = new LinkedHashMap<String, String>();
 				break;
 			}
@@ -118,52 +119,24 @@ public class MapRoutingTypes {
 		for(Entry<String, String> es : e.getTags().entrySet()) {
 			String tag = es.getKey();
 			String value = converBooleanValue(es.getValue());
-			if(TAGS_TEXT.contains(tag)) {
+			if(tagsText.containsTag(tag)) {
 				propogated.put(tag, value);
 			}
-			if(contains(TAGS_TO_ACCEPT, tag, value) ||
-					startsWith(TAGS_TO_SAVE, tag, value)) {
+			if(tagsToAccept.contains(tag, value) ||
+					tagsToSave.matchesPrefixOf(tag)) {
 				propogated.put(tag, value);
 			}
 		}
 		return propogated;
 	}
 	
-	private boolean contains(Set<String> s, String tag, String value) {
-		if(s.contains(tag) || s.contains(tag + TAG_DELIMETER + value)){
-			return true;
-		}
-		return false;
-	}
-	
-	private String getMap(Map<String, String> s, String tag, String value) {
-		String r = s.get(tag);
-		if (r != null) {
-			return r;
-		}
-		r = s.get(tag + TAG_DELIMETER + value);
-		return r;
-	}
-	
-	
-	
-	private boolean startsWith(Set<String> s, String tag, String value) {
-		for(String st : s) {
-			if(tag.startsWith(st)) {
-				return true;
-			}
-		}
-		return false;
-	}
-	
-	
 	public boolean encodeEntity(Way et, TIntArrayList outTypes, Map<MapRouteType, String> names){
 		Way e = et;
 		boolean init = false;
 		for(Entry<String, String> es : e.getTags().entrySet()) {
 			String tag = es.getKey();
 			String value = es.getValue();
-			if (contains(TAGS_TO_ACCEPT, tag, value)) {
+			if (tagsToAccept.contains(tag, value)) {
 				init = true;
 				break;
 			}
@@ -176,15 +149,14 @@ public class MapRoutingTypes {
 		for(Entry<String, String> es : e.getTags().entrySet()) {
 			String tag = es.getKey();
 			String value = converBooleanValue(es.getValue());
-			String tvl = getMap(TAGS_TO_REPLACE, tag, value);
+			String[] tvl = tagsToReplace.get(tag, value);
 			if(tvl != null) {
-				int i = tvl.indexOf(TAG_DELIMETER);
-				tag = tvl.substring(0, i);
-				value = tvl.substring(i + 1);
+				tag = tvl[0];
+				value = tvl[1];
 			}
-            if(TAGS_TEXT.contains(tag)) {
+            if(tagsText.containsTag(tag)) {
                 names.put(registerRule(tag, null), value);
-            } else if(contains(TAGS_TO_ACCEPT, tag, value) || startsWith(TAGS_TO_SAVE, tag, value) || getMap(TAGS_TO_REPLACE, tag, value) != null) {
+            } else if(tagsToAccept.contains(tag, value) || tagsToSave.matchesPrefixOf(tag) || tagsToReplace.contains(tag, value)) {
 				outTypes.add(registerRule(tag, value).id);
 			}
 		}
@@ -197,15 +169,9 @@ public class MapRoutingTypes {
 		for(Entry<String, String> es : e.getTags().entrySet()) {
 			String tag = es.getKey();
 			String value = es.getValue();
-			if (contains(TAGS_TO_ACCEPT, tag, value)) {
-				if(value.startsWith("trunk") || value.startsWith("motorway")
-						|| value.startsWith("primary") || value.startsWith("secondary")
-						|| value.startsWith("tertiary")
-						|| value.startsWith("ferry")
-						) {
-					init = true;
-					break;
-				}
+			if (tagsToAccept.contains(tag, value) && BASE_ROAD_VALUES.matchesPrefixOf(value)) {
+				init = true;
+				break;
 			}
 		}
 		if(!init) {
@@ -216,17 +182,16 @@ public class MapRoutingTypes {
 		for(Entry<String, String> es : e.getTags().entrySet()) {
 			String tag = es.getKey();
 			String value = converBooleanValue(es.getValue());
-			String tvl = getMap(BASE_TAGS_TO_REPLACE, tag, value);
+			String[] tvl = baseTagsToReplace.get(tag, value);
 			if(tvl != null) {
-				int i = tvl.indexOf(TAG_DELIMETER);
-				tag = tvl.substring(0, i);
-				value = tvl.substring(i + 1);
+				tag = tvl[0];
+				value = tvl[1];
 			}
-			if(BASE_TAGS_TEXT.contains(tag)) {
+			if(baseTagsText.containsTag(tag)) {
 				names.put(registerRule(tag, null), value);
 			}
-			if(contains(TAGS_TO_ACCEPT, tag, value) ||
-					startsWith(BASE_TAGS_TO_SAVE, tag, value)) {
+			if(tagsToAccept.contains(tag, value) ||
+					baseTagsToSave.matchesPrefixOf(tag)) {
 				outTypes.add(registerRule(tag, value).id);
 			}
 		}
@@ -249,13 +214,12 @@ public class MapRoutingTypes {
 				for (Entry<String, String> es : nd.getTags().entrySet()) {
 					String tag = es.getKey();
 					String value = converBooleanValue(es.getValue());
-					String tvl = getMap(TAGS_TO_REPLACE, tag, value);
+					String[] tvl = tagsToReplace.get(tag, value);
 					if(tvl != null) {
-						int i = tvl.indexOf(TAG_DELIMETER);
-						tag = tvl.substring(0, i);
-						value = tvl.substring(i + 1);
+						tag = tvl[0];
+						value = tvl[1];
 					}
-					if (contains(TAGS_TO_ACCEPT, tag, value) || startsWith(TAGS_TO_SAVE, tag, value)) {
+					if (tagsToAccept.contains(tag, value) || tagsToSave.matchesPrefixOf(tag)) {
 						if (!pointTypes.containsKey(nd.getId())) {
 							pointTypes.put(nd.getId(), new TIntArrayList());
 						}
@@ -271,14 +235,21 @@ public class MapRoutingTypes {
 	}
 	
 	private MapRouteType registerRule(String tag, String val) {
-		String id = constructRuleKey(tag, val);
-		if(!types.containsKey(id)) {
+		// rule key is constructRuleKey(tag, val) : empty value is the same as no value
+		Map<String, MapRouteType> tagTypes = types.get(tag);
+		if (tagTypes == null) {
+			tagTypes = new HashMap<String, MapRouteType>();
+			types.put(tag, tagTypes);
+		}
+		String valueKey = val == null ? "" : val;
+		MapRouteType type = tagTypes.get(valueKey);
+		if(type == null) {
 			MapRouteType rt = new MapRouteType();
 			// first one is always 1
-			rt.id = types.size() + 1;
+			rt.id = listTypes.size() + 1;
 			rt.tag = tag;
 			rt.value = val;
-			types.put(id, rt);
+			tagTypes.put(valueKey, rt);
 			listTypes.add(rt);
 			if(tag.equals("ref")){
 				refRuleType = rt;
@@ -286,8 +257,8 @@ public class MapRoutingTypes {
 			if(tag.equals("name")){
 				nameRuleType = rt;
 			}
+			type = rt;
 		}
-		MapRouteType type = types.get(id);
 		type.freq ++;
 		return type;
 	}
@@ -0,0 +1,132 @@
+package net.osmand.osm;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Rules given as tag or tag/value compiled into two level hash (tag -> value -> result),
+ * so tags of the entities are matched without building "tag/value" keys.
+ * Rule without value matches any value of the tag and wins over the value rules.
+ */
+class TagValueRules<T> {
+
+	private final Map<String, T> tagRules = new HashMap<String, T>();
+	private final Map<String, Map<String, T>> valueRules = new HashMap<String, Map<String, T>>();
+
+	public void put(String tag, String value, T result) {
+		if (value == null) {
+			tagRules.put(tag, result);
+		} else {
+			Map<String, T> m = valueRules.get(tag);
+			if (m == null) {
+				m = new HashMap<String, T>();
+				valueRules.put(tag, m);
+			}
+			m.put(value, result);
+		}
+	}
+
+	public T get(String tag, String value) {
+		T r = tagRules.get(tag);
+		if (r != null) {
+			return r;
+		}
+		Map<String, T> m = valueRules.get(tag);
+		if (m == null) {
+			return null;
+		}
+		return m.get(value);
+	}
+
+	public boolean contains(String tag, String value) {
+		return get(tag, value) != null;
+	}
+
+	/**
+	 * @return true if there is a rule without value for the tag
+	 */
+	public boolean containsTag(String tag) {
+		return tagRules.containsKey(tag);
+	}
+
+	/**
+	 * Character trie over a set of prefixes : tells if string starts with any of them
+	 * walking the string once and without allocations.
+	 */
+	static class PrefixMatcher {
+		private final boolean terminal;
+		private final char[] chars;
+		private final PrefixMatcher[] children;
+
+		public PrefixMatcher(Collection<String> prefixes) {
+			this(build(prefixes));
+		}
+
+		private PrefixMatcher(Builder b) {
+			terminal = b.terminal;
+			chars = new char[b.children.size()];
+			children = new PrefixMatcher[chars.length];
+			int i = 0;
+			for (Map.Entry<Character, Builder> e : b.children.entrySet()) {
+				chars[i] = e.getKey();
+				children[i] = new PrefixMatcher(e.getValue());
+				i++;
+			}
+		}
+
+		private static Builder build(Collection<String> prefixes) {
+			Builder root = new Builder();
+			for (String p : prefixes) {
+				Builder b = root;
+				for (int i = 0; i < p.length(); i++) {
+					Builder c = b.children.get(p.charAt(i));
+					if (c == null) {
+						c = new Builder();
+						b.children.put(p.charAt(i), c);
+					}
+					b = c;
+				}
+				b.terminal = true;
+			}
+			return root;
+		}
+
+		public boolean matchesPrefixOf(String s) {
+			PrefixMatcher m = this;
+			int i = 0;
+			while (!m.terminal) {
+				if (i == s.length()) {
+					return false;
+				}
+				m = m.child(s.charAt(i++));
+				if (m == null) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private PrefixMatcher child(char c) {
+			int l = 0;
+			int h = chars.length - 1;
+			while (l <= h) {
+				int mid = (l + h) >>> 1;
+				if (chars[mid] < c) {
+					l = mid + 1;
+				} else if (chars[mid] > c) {
+					h = mid - 1;
+				} else {
+					return children[mid];
+				}
+			}
+			return null;
+		}
+
+		private static class Builder {
+			boolean terminal;
+			TreeMap<Character, Builder> children = new TreeMap<Character, Builder>();
+		}
+	}
+}
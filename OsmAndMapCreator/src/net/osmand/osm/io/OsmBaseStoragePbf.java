@@ -6,6 +6,7 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
+import java.util.TimeZone;
 
 import net.osmand.IProgress;
 import net.osmand.osm.edit.Entity;
@@ -56,6 +57,9 @@ public class OsmBaseStoragePbf extends OsmBaseStorage {
 			}
 
 			private DateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'"); //$NON-NLS-1$
+			{
+				format.setTimeZone(TimeZone.getTimeZone("UTC")); //$NON-NLS-1$
+			}
 
 			@Override
 			protected void parseDense(DenseNodes n) {
@@ -75,7 +79,7 @@ public class OsmBaseStoragePbf extends OsmBaseStorage {
 					lon += n.getLon(i);
 					Node node = new Node(parseLat(lat), parseLon(lon), id);
 
-					if (entityInfo && n.getDenseinfo() != null) {
+					if (entityInfo && n.hasDenseinfo()) {
 						info = new EntityInfo();
 						changeset += n.getDenseinfo().getChangeset(i);
 						timestamp += n.getDenseinfo().getTimestamp(i);
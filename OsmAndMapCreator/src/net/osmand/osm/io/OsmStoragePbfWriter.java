@@ -0,0 +1,398 @@
+package net.osmand.osm.io;
+
+import gnu.trove.list.array.TLongArrayList;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import net.osmand.osm.edit.Entity;
+import net.osmand.osm.edit.Entity.EntityId;
+import net.osmand.osm.edit.Entity.EntityType;
+import net.osmand.osm.edit.EntityInfo;
+import net.osmand.osm.edit.Node;
+import net.osmand.osm.edit.Relation;
+import net.osmand.osm.edit.Way;
+import crosby.binary.BinarySerializer;
+import crosby.binary.Osmformat;
+import crosby.binary.Osmformat.Relation.MemberType;
+import crosby.binary.StringTable;
+import crosby.binary.file.BlockOutputStream;
+import crosby.binary.file.FileBlock;
+
+/**
+ * Writes entities in osm pbf format (dense nodes, ways, relations and optionally entity info).
+ * Entities are written as they come, nodes/ways/relations are grouped into blocks of batch limit size
+ * and blocks are deflated in parallel when several processors are available. <p />
+ *
+ * Entities marked with delete action (josm) are not written, because pbf has no way to keep them.
+ */
+public class OsmStoragePbfWriter extends BinarySerializer {
+
+	private final ExecutorService executor;
+	private final DateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'"); //$NON-NLS-1$
+	private PrimGroup<? extends Entity> current;
+
+	public OsmStoragePbfWriter(OutputStream out, boolean entityInfo) throws IOException {
+		this(out, entityInfo, Runtime.getRuntime().availableProcessors());
+	}
+
+	public OsmStoragePbfWriter(OutputStream out, boolean entityInfo, int threads) throws IOException {
+		this(out, entityInfo, createExecutor(threads), threads);
+	}
+
+	private OsmStoragePbfWriter(OutputStream out, boolean entityInfo, ExecutorService executor, int threads) throws IOException {
+		super(executor == null ? new BlockOutputStream(out) : new BlockOutputStream(out, executor, threads * 2));
+		this.executor = executor;
+		format.setTimeZone(TimeZone.getTimeZone("UTC")); //$NON-NLS-1$
+		configOmit(!entityInfo);
+		writeHeader();
+	}
+
+	private static ExecutorService createExecutor(int threads) {
+		if (threads <= 1) {
+			return null;
+		}
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "pbf"); //$NON-NLS-1$
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	private void writeHeader() throws IOException {
+		Osmformat.HeaderBlock.Builder header = Osmformat.HeaderBlock.newBuilder();
+		header.addRequiredFeatures("OsmSchema-V0.6"); //$NON-NLS-1$
+		header.addRequiredFeatures("DenseNodes"); //$NON-NLS-1$
+		header.setWritingprogram("OsmAndMapCreator"); //$NON-NLS-1$
+		output.write(FileBlock.newInstance("OSMHeader", header.build().toByteString(), null)); //$NON-NLS-1$
+	}
+
+	/**
+	 * Writes all interested objects (all registered entities if null) and entities referenced by them
+	 * if includeLinks is set, then closes the writer.
+	 */
+	public void saveStorage(OsmBaseStorage storage, Collection<EntityId> interestedObjects, boolean includeLinks) throws IOException {
+		try {
+			Map<EntityId, EntityInfo> entityInfo = storage.getRegisteredEntityInfo();
+			Set<Node> nodes = new LinkedHashSet<Node>();
+			Set<Way> ways = new LinkedHashSet<Way>();
+			Set<Relation> relations = new LinkedHashSet<Relation>();
+			OsmStorageWriter.collectEntities(storage, interestedObjects, includeLinks, nodes, ways, relations);
+			for (Node n : nodes) {
+				writeEntity(n, entityInfo.get(EntityId.valueOf(n)));
+			}
+			for (Way w : ways) {
+				writeEntity(w, entityInfo.get(EntityId.valueOf(w)));
+			}
+			for (Relation r : relations) {
+				writeEntity(r, entityInfo.get(EntityId.valueOf(r)));
+			}
+		} finally {
+			close();
+		}
+	}
+
+	public void writeEntity(Entity e, EntityInfo info) {
+		if (info != null && "delete".equals(info.getAction())) { //$NON-NLS-1$
+			return;
+		}
+		if (e instanceof Node) {
+			if (!(current instanceof NodeGroup)) {
+				startGroup(new NodeGroup());
+			}
+			((NodeGroup) current).add((Node) e, info);
+		} else if (e instanceof Way) {
+			if (!(current instanceof WayGroup)) {
+				startGroup(new WayGroup());
+			}
+			((WayGroup) current).add((Way) e, info);
+		} else if (e instanceof Relation) {
+			if (!(current instanceof RelationGroup)) {
+				startGroup(new RelationGroup());
+			}
+			((RelationGroup) current).add((Relation) e, info);
+		} else {
+			return;
+		}
+		batch_size++;
+		total_entities++;
+		if (batch_size >= batch_limit) {
+			processBatch();
+		}
+	}
+
+	private void startGroup(PrimGroup<? extends Entity> group) {
+		current = group;
+		groups.add(group);
+	}
+
+	@Override
+	public void processBatch() {
+		super.processBatch();
+		current = null;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			super.close();
+		} finally {
+			if (executor != null) {
+				executor.shutdown();
+			}
+		}
+	}
+
+	private abstract class PrimGroup<T extends Entity> implements PrimGroupWriterInterface {
+		protected List<T> entities = new ArrayList<T>();
+		protected List<EntityInfo> infos = new ArrayList<EntityInfo>();
+
+		public void add(T e, EntityInfo info) {
+			entities.add(e);
+			infos.add(info);
+		}
+
+		protected boolean writeInfo() {
+			if (!omit_metadata) {
+				for (EntityInfo i : infos) {
+					if (i != null) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public void addStringsToStringtable() {
+			StringTable stringTable = getStringTable();
+			for (int i = 0; i < entities.size(); i++) {
+				for (Entry<String, String> tag : entities.get(i).getTags().entrySet()) {
+					stringTable.incr(tag.getKey());
+					stringTable.incr(tag.getValue());
+				}
+				EntityInfo info = infos.get(i);
+				if (!omit_metadata && info != null && info.getUser() != null) {
+					stringTable.incr(info.getUser());
+				}
+			}
+		}
+
+		protected int getUserIndex(EntityInfo info) {
+			if (info == null || info.getUser() == null) {
+				// empty string used as delimiter
+				return 0;
+			}
+			return getStringTable().getIndex(info.getUser());
+		}
+
+		protected long getTimestamp(EntityInfo info) {
+			if (info == null || info.getTimestamp() == null) {
+				return 0;
+			}
+			try {
+				return format.parse(info.getTimestamp()).getTime() / date_granularity;
+			} catch (ParseException e) {
+				return 0;
+			}
+		}
+
+		protected Osmformat.Info.Builder serializeInfo(EntityInfo info) {
+			Osmformat.Info.Builder b = Osmformat.Info.newBuilder();
+			if (info.getVersion() != null) {
+				b.setVersion((int) parseLong(info.getVersion()));
+			}
+			if (info.getTimestamp() != null) {
+				b.setTimestamp(getTimestamp(info));
+			}
+			if (info.getChangeset() != null) {
+				b.setChangeset(parseLong(info.getChangeset()));
+			}
+			if (info.getUid() != null) {
+				b.setUid((int) parseLong(info.getUid()));
+			}
+			if (info.getUser() != null) {
+				b.setUserSid(getUserIndex(info));
+			}
+			return b;
+		}
+	}
+
+	private static long parseLong(String s) {
+		if (s == null) {
+			return 0;
+		}
+		try {
+			return Long.parseLong(s);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private class NodeGroup extends PrimGroup<Node> {
+
+		@Override
+		public Osmformat.PrimitiveGroup serialize() {
+			StringTable stringTable = getStringTable();
+			Osmformat.DenseNodes.Builder dense = Osmformat.DenseNodes.newBuilder();
+			Osmformat.DenseInfo.Builder denseInfo = Osmformat.DenseInfo.newBuilder();
+			boolean tags = false;
+			for (Node n : entities) {
+				if (!n.getTags().isEmpty()) {
+					tags = true;
+					break;
+				}
+			}
+			boolean writeInfo = writeInfo();
+			long id = 0;
+			long lat = 0;
+			long lon = 0;
+			long timestamp = 0;
+			long changeset = 0;
+			long uid = 0;
+			int user = 0;
+			for (int i = 0; i < entities.size(); i++) {
+				Node n = entities.get(i);
+				dense.addId(n.getId() - id);
+				id = n.getId();
+				int nlat = mapDegrees(n.getLatitude());
+				int nlon = mapDegrees(n.getLongitude());
+				dense.addLat(nlat - lat);
+				dense.addLon(nlon - lon);
+				lat = nlat;
+				lon = nlon;
+				if (tags) {
+					for (Entry<String, String> tag : n.getTags().entrySet()) {
+						dense.addKeysVals(stringTable.getIndex(tag.getKey()));
+						dense.addKeysVals(stringTable.getIndex(tag.getValue()));
+					}
+					dense.addKeysVals(0);
+				}
+				if (writeInfo) {
+					EntityInfo info = infos.get(i);
+					long ntimestamp = getTimestamp(info);
+					long nchangeset = info == null ? 0 : parseLong(info.getChangeset());
+					long nuid = info == null ? 0 : parseLong(info.getUid());
+					int nuser = getUserIndex(info);
+					denseInfo.addVersion(info == null ? 0 : (int) parseLong(info.getVersion()));
+					denseInfo.addTimestamp(ntimestamp - timestamp);
+					denseInfo.addChangeset(nchangeset - changeset);
+					denseInfo.addUid((int) (nuid - uid));
+					denseInfo.addUserSid(nuser - user);
+					timestamp = ntimestamp;
+					changeset = nchangeset;
+					uid = nuid;
+					user = nuser;
+				}
+			}
+			if (writeInfo) {
+				dense.setDenseinfo(denseInfo);
+			}
+			return Osmformat.PrimitiveGroup.newBuilder().setDense(dense).build();
+		}
+	}
+
+	private class WayGroup extends PrimGroup<Way> {
+
+		@Override
+		public Osmformat.PrimitiveGroup serialize() {
+			StringTable stringTable = getStringTable();
+			boolean writeInfo = writeInfo();
+			Osmformat.PrimitiveGroup.Builder group = Osmformat.PrimitiveGroup.newBuilder();
+			for (int i = 0; i < entities.size(); i++) {
+				Way w = entities.get(i);
+				Osmformat.Way.Builder way = Osmformat.Way.newBuilder();
+				way.setId(w.getId());
+				TLongArrayList ids = w.getNodeIds();
+				long ref = 0;
+				for (int j = 0; j < ids.size(); j++) {
+					way.addRefs(ids.get(j) - ref);
+					ref = ids.get(j);
+				}
+				for (Entry<String, String> tag : w.getTags().entrySet()) {
+					way.addKeys(stringTable.getIndex(tag.getKey()));
+					way.addVals(stringTable.getIndex(tag.getValue()));
+				}
+				if (writeInfo && infos.get(i) != null) {
+					way.setInfo(serializeInfo(infos.get(i)));
+				}
+				group.addWays(way);
+			}
+			return group.build();
+		}
+	}
+
+	private class RelationGroup extends PrimGroup<Relation> {
+
+		@Override
+		public void addStringsToStringtable() {
+			super.addStringsToStringtable();
+			StringTable stringTable = getStringTable();
+			for (Relation r : entities) {
+				for (Entry<EntityId, String> e : r.getMembersMap().entrySet()) {
+					stringTable.incr(e.getValue() == null ? "" : e.getValue()); //$NON-NLS-1$
+				}
+			}
+		}
+
+		@Override
+		public Osmformat.PrimitiveGroup serialize() {
+			StringTable stringTable = getStringTable();
+			boolean writeInfo = writeInfo();
+			Osmformat.PrimitiveGroup.Builder group = Osmformat.PrimitiveGroup.newBuilder();
+			for (int i = 0; i < entities.size(); i++) {
+				Relation r = entities.get(i);
+				Osmformat.Relation.Builder rel = Osmformat.Relation.newBuilder();
+				rel.setId(r.getId());
+				long memid = 0;
+				for (Entry<EntityId, String> e : r.getMembersMap().entrySet()) {
+					MemberType type = getMemberType(e.getKey().getType());
+					if (type == null) {
+						continue;
+					}
+					rel.addMemids(e.getKey().getId() - memid);
+					memid = e.getKey().getId();
+					rel.addRolesSid(stringTable.getIndex(e.getValue() == null ? "" : e.getValue())); //$NON-NLS-1$
+					rel.addTypes(type);
+				}
+				for (Entry<String, String> tag : r.getTags().entrySet()) {
+					rel.addKeys(stringTable.getIndex(tag.getKey()));
+					rel.addVals(stringTable.getIndex(tag.getValue()));
+				}
+				if (writeInfo && infos.get(i) != null) {
+					rel.setInfo(serializeInfo(infos.get(i)));
+				}
+				group.addRelations(rel);
+			}
+			return group.build();
+		}
+	}
+
+	private static MemberType getMemberType(EntityType type) {
+		if (type == EntityType.NODE) {
+			return MemberType.NODE;
+		} else if (type == EntityType.WAY) {
+			return MemberType.WAY;
+		} else if (type == EntityType.RELATION) {
+			return MemberType.RELATION;
+		}
+		return null;
+	}
+}
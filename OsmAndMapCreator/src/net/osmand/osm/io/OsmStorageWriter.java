@@ -23,6 +23,7 @@ import static net.osmand.osm.io.OsmBaseStorage.ELEM_TAG;
 import static net.osmand.osm.io.OsmBaseStorage.ELEM_WAY;
 import gnu.trove.list.array.TLongArrayList;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
@@ -58,18 +59,37 @@ public class OsmStorageWriter {
 	}
 	
 	
-	public void saveStorage(OutputStream output, OsmBaseStorage storage, Collection<EntityId> interestedObjects, boolean includeLinks) throws XMLStreamException, IOException {
-		Map<EntityId, Entity> entities = storage.getRegisteredEntities();
+	/**
+	 * Saves the storage to the file : in pbf format if the name ends with .pbf, otherwise in xml (bzip2 compressed for .bz2).
+	 */
+	public void saveStorage(File file, OsmBaseStorage storage, Collection<EntityId> interestedObjects, boolean includeLinks) throws XMLStreamException, IOException {
 		Map<EntityId, EntityInfo> entityInfo = storage.getRegisteredEntityInfo();
-//		transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-//        String indent = "{http://xml.apache.org/xslt}indent-amount";
-//        transformer.setOutputProperty(indent, "4");
-                XMLOutputFactory xof = XMLOutputFactory.newInstance();
-                XMLStreamWriter streamWriter = xof.createXMLStreamWriter(new OutputStreamWriter(output));
- 
 		Set<Node> nodes = new LinkedHashSet<Node>();
 		Set<Way> ways = new LinkedHashSet<Way>();
 		Set<Relation> relations = new LinkedHashSet<Relation>();
+		collectEntities(storage, interestedObjects, includeLinks, nodes, ways, relations);
+		OsmStreamWriter writer = new OsmStreamWriter(file, true);
+		try {
+			for (Node n : nodes) {
+				writer.writeEntity(n, entityInfo.get(EntityId.valueOf(n)));
+			}
+			for (Way w : ways) {
+				writer.writeEntity(w, entityInfo.get(EntityId.valueOf(w)));
+			}
+			for (Relation r : relations) {
+				writer.writeEntity(r, entityInfo.get(EntityId.valueOf(r)));
+			}
+		} finally {
+			writer.close();
+		}
+	}
+	
+	/**
+	 * Collects interested objects (all registered entities if null) and entities referenced by them if includeLinks is set.
+	 */
+	static void collectEntities(OsmBaseStorage storage, Collection<EntityId> interestedObjects, boolean includeLinks,
+			Set<Node> nodes, Set<Way> ways, Set<Relation> relations) {
+		Map<EntityId, Entity> entities = storage.getRegisteredEntities();
 		if(interestedObjects == null){
 			interestedObjects = entities.keySet();
 		}
@@ -91,60 +111,93 @@ public class OsmStorageWriter {
 				}
 			}
 		}
+	}
+	
+	public void saveStorage(OutputStream output, OsmBaseStorage storage, Collection<EntityId> interestedObjects, boolean includeLinks) throws XMLStreamException, IOException {
+		Map<EntityId, EntityInfo> entityInfo = storage.getRegisteredEntityInfo();
+//		transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+//        String indent = "{http://xml.apache.org/xslt}indent-amount";
+//        transformer.setOutputProperty(indent, "4");
+                XMLOutputFactory xof = XMLOutputFactory.newInstance();
+                XMLStreamWriter streamWriter = xof.createXMLStreamWriter(new OutputStreamWriter(output));
+ 
+		Set<Node> nodes = new LinkedHashSet<Node>();
+		Set<Way> ways = new LinkedHashSet<Way>();
+		Set<Relation> relations = new LinkedHashSet<Relation>();
+		collectEntities(storage, interestedObjects, includeLinks, nodes, ways, relations);
 		
 		
-		streamWriter.writeStartDocument();
-		
-		writeStartElement(streamWriter, ELEM_OSM, "");
-		streamWriter.writeAttribute(ATTR_VERSION, "0.5");
+		writeStartDocument(streamWriter);
 		for(Node n : nodes){
-			writeStartElement(streamWriter, ELEM_NODE, INDENT);
-			streamWriter.writeAttribute(ATTR_LAT, String.valueOf(n.getLatitude()));
-			streamWriter.writeAttribute(ATTR_LON, String.valueOf(n.getLongitude()));
-			streamWriter.writeAttribute(ATTR_ID, String.valueOf(n.getId()));
-			writeEntityAttributes(streamWriter, n, entityInfo.get(EntityId.valueOf(n)));
-			writeTags(streamWriter, n);
-			writeEndElement(streamWriter, INDENT);
+			writeNode(streamWriter, n, entityInfo.get(EntityId.valueOf(n)));
 		}
 		
 		for(Way w : ways){
-			writeStartElement(streamWriter, ELEM_WAY, INDENT);
-			streamWriter.writeAttribute(ATTR_ID, String.valueOf(w.getId()));
-			writeEntityAttributes(streamWriter, w, entityInfo.get(EntityId.valueOf(w)));
-			TLongArrayList ids = w.getNodeIds();
-			for(int i=0; i< ids.size(); i++){
-				writeStartElement(streamWriter, ELEM_ND, INDENT2);
-				streamWriter.writeAttribute(ATTR_REF, String.valueOf(ids.get(i)));
-				writeEndElement(streamWriter, INDENT2);
-			}
-			writeTags(streamWriter, w);
-			writeEndElement(streamWriter, INDENT);
+			writeWay(streamWriter, w, entityInfo.get(EntityId.valueOf(w)));
 		}
 		
 		for(Relation r : relations){
-			writeStartElement(streamWriter, ELEM_RELATION, INDENT);
-			streamWriter.writeAttribute(ATTR_ID, String.valueOf(r.getId()));
-			writeEntityAttributes(streamWriter, r, entityInfo.get(EntityId.valueOf(r)));
-			for(Entry<EntityId, String> e : r.getMembersMap().entrySet()){
-				writeStartElement(streamWriter, ELEM_MEMBER, INDENT2);
-				streamWriter.writeAttribute(ATTR_REF, String.valueOf(e.getKey().getId()));
-				String s = e.getValue();
-				if(s == null){
-					s = ""; 
-				}
-				streamWriter.writeAttribute(ATTR_ROLE, s);
-				streamWriter.writeAttribute(ATTR_TYPE, e.getKey().getType().toString().toLowerCase());
-				writeEndElement(streamWriter, INDENT2);
-			}
-			writeTags(streamWriter, r);
-			writeEndElement(streamWriter, INDENT);
+			writeRelation(streamWriter, r, entityInfo.get(EntityId.valueOf(r)));
 		}
+		writeEndDocument(streamWriter);
+	}
+	
+	void writeStartDocument(XMLStreamWriter streamWriter) throws XMLStreamException {
+		streamWriter.writeStartDocument();
 		
+		writeStartElement(streamWriter, ELEM_OSM, "");
+		streamWriter.writeAttribute(ATTR_VERSION, "0.5");
+	}
+	
+	void writeEndDocument(XMLStreamWriter streamWriter) throws XMLStreamException {
 		writeEndElement(streamWriter, ""); // osm
 		streamWriter.writeEndDocument();
 		streamWriter.flush();
 	}
 	
+	void writeNode(XMLStreamWriter streamWriter, Node n, EntityInfo info) throws XMLStreamException {
+		writeStartElement(streamWriter, ELEM_NODE, INDENT);
+		streamWriter.writeAttribute(ATTR_LAT, String.valueOf(n.getLatitude()));
+		streamWriter.writeAttribute(ATTR_LON, String.valueOf(n.getLongitude()));
+		streamWriter.writeAttribute(ATTR_ID, String.valueOf(n.getId()));
+		writeEntityAttributes(streamWriter, n, info);
+		writeTags(streamWriter, n);
+		writeEndElement(streamWriter, INDENT);
+	}
+	
+	void writeWay(XMLStreamWriter streamWriter, Way w, EntityInfo info) throws XMLStreamException {
+		writeStartElement(streamWriter, ELEM_WAY, INDENT);
+		streamWriter.writeAttribute(ATTR_ID, String.valueOf(w.getId()));
+		writeEntityAttributes(streamWriter, w, info);
+		TLongArrayList ids = w.getNodeIds();
+		for(int i=0; i< ids.size(); i++){
+			writeStartElement(streamWriter, ELEM_ND, INDENT2);
+			streamWriter.writeAttribute(ATTR_REF, String.valueOf(ids.get(i)));
+			writeEndElement(streamWriter, INDENT2);
+		}
+		writeTags(streamWriter, w);
+		writeEndElement(streamWriter, INDENT);
+	}
+	
+	void writeRelation(XMLStreamWriter streamWriter, Relation r, EntityInfo info) throws XMLStreamException {
+		writeStartElement(streamWriter, ELEM_RELATION, INDENT);
+		streamWriter.writeAttribute(ATTR_ID, String.valueOf(r.getId()));
+		writeEntityAttributes(streamWriter, r, info);
+		for(Entry<EntityId, String> e : r.getMembersMap().entrySet()){
+			writeStartElement(streamWriter, ELEM_MEMBER, INDENT2);
+			streamWriter.writeAttribute(ATTR_REF, String.valueOf(e.getKey().getId()));
+			String s = e.getValue();
+			if(s == null){
+				s = ""; 
+			}
+			streamWriter.writeAttribute(ATTR_ROLE, s);
+			streamWriter.writeAttribute(ATTR_TYPE, e.getKey().getType().toString().toLowerCase());
+			writeEndElement(streamWriter, INDENT2);
+		}
+		writeTags(streamWriter, r);
+		writeEndElement(streamWriter, INDENT);
+	}
+	
 	private void writeEntityAttributes(XMLStreamWriter writer, Entity i, EntityInfo info) throws XMLStreamException{
 		if(i.getId() < 0 && (info == null || info.getAction() == null)){
 			writer.writeAttribute("action", "modify");
@@ -0,0 +1,86 @@
+package net.osmand.osm.io;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import net.osmand.osm.edit.Entity;
+import net.osmand.osm.edit.EntityInfo;
+import net.osmand.osm.edit.Node;
+import net.osmand.osm.edit.Relation;
+import net.osmand.osm.edit.Way;
+
+import org.apache.tools.bzip2.CBZip2OutputStream;
+
+/**
+ * Writes entities to the file as they come (nothing is kept in memory) : in pbf format if the name ends with .pbf,
+ * otherwise in xml (bzip2 compressed for .bz2). Nodes should be written before ways and ways before relations.
+ */
+public class OsmStreamWriter {
+
+	private final boolean entityInfo;
+	private OsmStoragePbfWriter pbfWriter;
+	private OsmStorageWriter xmlWriter;
+	private XMLStreamWriter streamWriter;
+	private OutputStream output;
+
+	public OsmStreamWriter(File file, boolean entityInfo) throws IOException, XMLStreamException {
+		this.entityInfo = entityInfo;
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+		boolean opened = false;
+		try {
+			if (file.getName().endsWith(".pbf")) { //$NON-NLS-1$
+				pbfWriter = new OsmStoragePbfWriter(out, entityInfo);
+			} else {
+				if (file.getName().endsWith(".bz2")) { //$NON-NLS-1$
+					out.write('B');
+					out.write('Z');
+					out = new CBZip2OutputStream(out);
+				}
+				output = out;
+				xmlWriter = new OsmStorageWriter();
+				streamWriter = XMLOutputFactory.newInstance().createXMLStreamWriter(new OutputStreamWriter(out, "UTF-8")); //$NON-NLS-1$
+				xmlWriter.writeStartDocument(streamWriter);
+			}
+			opened = true;
+		} finally {
+			if (!opened) {
+				out.close();
+			}
+		}
+	}
+
+	public void writeEntity(Entity e, EntityInfo info) throws IOException, XMLStreamException {
+		if (!entityInfo) {
+			info = null;
+		}
+		if (pbfWriter != null) {
+			pbfWriter.writeEntity(e, info);
+		} else if (e instanceof Node) {
+			xmlWriter.writeNode(streamWriter, (Node) e, info);
+		} else if (e instanceof Way) {
+			xmlWriter.writeWay(streamWriter, (Way) e, info);
+		} else if (e instanceof Relation) {
+			xmlWriter.writeRelation(streamWriter, (Relation) e, info);
+		}
+	}
+
+	public void close() throws IOException, XMLStreamException {
+		if (pbfWriter != null) {
+			pbfWriter.close();
+		} else {
+			try {
+				xmlWriter.writeEndDocument(streamWriter);
+			} finally {
+				output.close();
+			}
+		}
+	}
+}
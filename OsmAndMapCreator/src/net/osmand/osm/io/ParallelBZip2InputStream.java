@@ -0,0 +1,420 @@
+package net.osmand.osm.io;
+
+import gnu.trove.list.array.TLongArrayList;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.tools.bzip2.CBZip2InputStream;
+
+/**
+ * BZip2 input stream decompressing blocks in parallel (as pbzip2 does). <p />
+ *
+ * Compressed stream is scanned for the block magics (blocks are not byte aligned), every block is
+ * wrapped into a separate one block bzip2 stream and decompressed by a worker, blocks are returned in order.
+ * Magic could occur inside of the compressed data by chance, so CRC of every block is checked and
+ * the block failed to be decompressed is joined with the next one. End of stream magic could occur inside of the data
+ * as well, so every end of stream magic found in the block is only a candidate end of the block data.
+ * Concatenated streams are read till the end. <p />
+ *
+ * As {@link CBZip2InputStream} expects the stream after the 'BZ' characters.
+ */
+public class ParallelBZip2InputStream extends InputStream {
+
+	private static final long BLOCK_MAGIC = 0x314159265359l;
+	private static final long EOS_MAGIC = 0x177245385090l;
+	private static final int MAGIC_BITS = 48;
+	private static final long MAGIC_MASK = (1l << MAGIC_BITS) - 1;
+	private static final int MAX_JOINED_BLOCKS = 3;
+
+	private static final int[] CRC_TABLE = new int[256];
+	// fast filter of the window positions : bits 16-31 of the window are inside of the magic for any shift
+	private static final boolean[] MAGIC_FILTER = new boolean[1 << 16];
+	static {
+		for (int i = 0; i < 256; i++) {
+			int c = i << 24;
+			for (int j = 0; j < 8; j++) {
+				c = (c & 0x80000000) != 0 ? (c << 1) ^ 0x04c11db7 : c << 1;
+			}
+			CRC_TABLE[i] = c;
+		}
+		for (int s = 0; s < 8; s++) {
+			MAGIC_FILTER[(int) (((BLOCK_MAGIC << s) >>> 16) & 0xffff)] = true;
+			MAGIC_FILTER[(int) (((EOS_MAGIC << s) >>> 16) & 0xffff)] = true;
+		}
+	}
+
+	/**
+	 * @return parallel stream if more than one processor is available, otherwise {@link CBZip2InputStream}
+	 */
+	public static InputStream create(InputStream in) throws IOException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		if (threads > 1) {
+			return new ParallelBZip2InputStream(in, threads);
+		}
+		return new CBZip2InputStream(in);
+	}
+
+	/**
+	 * Bits of the compressed stream from the block magic till the next block magic
+	 * (block data ends before one of the end of stream magics if there are any).
+	 */
+	private static class Block {
+		byte[] data;
+		int length;
+		int startBit;
+		long endBit;
+		// positions of the end of stream magics in the order they were found
+		TLongArrayList dataEnds = new TLongArrayList(1);
+		Future<byte[]> decompressed;
+	}
+
+	private static class BitBuffer {
+		byte[] data;
+		long bits;
+
+		BitBuffer(int capacity) {
+			data = new byte[capacity];
+		}
+
+		void writeBits(long value, int n) {
+			for (int i = n - 1; i >= 0; i--) {
+				int b = (int) (bits >>> 3);
+				if (b == data.length) {
+					byte[] nd = new byte[data.length * 2 + 16];
+					System.arraycopy(data, 0, nd, 0, data.length);
+					data = nd;
+				}
+				if (((value >>> i) & 1) != 0) {
+					data[b] |= 0x80 >>> (bits & 7);
+				}
+				bits++;
+			}
+		}
+
+		void writeBits(byte[] src, long from, long to) {
+			ensureCapacity((int) ((bits + to - from) >>> 3) + 2);
+			long p = from;
+			if ((p & 7) == 0 && (bits & 7) == 0) {
+				int n = (int) ((to - p) >>> 3);
+				System.arraycopy(src, (int) (p >>> 3), data, (int) (bits >>> 3), n);
+				bits += 8l * n;
+				p += 8l * n;
+			}
+			while (to - p >= 8) {
+				int i = (int) (p >>> 3);
+				int s = (int) (p & 7);
+				int b = (src[i] & 0xff) << s;
+				if (s > 0) {
+					b |= (src[i + 1] & 0xff) >>> (8 - s);
+				}
+				int o = (int) (bits & 7);
+				int j = (int) (bits >>> 3);
+				data[j] |= (byte) ((b & 0xff) >>> o);
+				if (o > 0) {
+					data[j + 1] |= (byte) (b << (8 - o));
+				}
+				bits += 8;
+				p += 8;
+			}
+			while (p < to) {
+				writeBits((src[(int) (p >>> 3)] >>> (7 - (p & 7))) & 1, 1);
+				p++;
+			}
+		}
+
+		private void ensureCapacity(int size) {
+			if (size > data.length) {
+				byte[] nd = new byte[Math.max(size, data.length * 2)];
+				System.arraycopy(data, 0, nd, 0, data.length);
+				data = nd;
+			}
+		}
+
+		byte[] toByteArray() {
+			byte[] r = new byte[(int) ((bits + 7) >>> 3)];
+			System.arraycopy(data, 0, r, 0, r.length);
+			return r;
+		}
+	}
+
+	private final InputStream in;
+	private final ExecutorService executor;
+	private final int maxPendingBlocks;
+	private LinkedList<Block> pending = new LinkedList<Block>();
+
+	// scanner state
+	private byte[] readBuffer = new byte[1 << 16];
+	private byte[] scanned = new byte[1 << 20];
+	private int scannedLength;
+	// position of scanned[0] in the stream
+	private long scannedStart;
+	private long window;
+	private Block current;
+	private boolean eof;
+	// block size of the first stream
+	private int blockSize = '9';
+
+	private byte[] block;
+	private int blockPos;
+
+	public ParallelBZip2InputStream(InputStream in, int threads) {
+		this.in = in;
+		this.maxPendingBlocks = threads * 2;
+		this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "bzip2");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!nextBlock()) {
+			return -1;
+		}
+		return block[blockPos++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!nextBlock()) {
+			return -1;
+		}
+		int l = Math.min(len, block.length - blockPos);
+		System.arraycopy(block, blockPos, b, off, l);
+		blockPos += l;
+		return l;
+	}
+
+	@Override
+	public int available() {
+		return block == null ? 0 : block.length - blockPos;
+	}
+
+	@Override
+	public void close() throws IOException {
+		executor.shutdownNow();
+		in.close();
+	}
+
+	private boolean nextBlock() throws IOException {
+		while (block == null || blockPos == block.length) {
+			scan();
+			if (pending.isEmpty()) {
+				executor.shutdown();
+				return false;
+			}
+			Block b = pending.removeFirst();
+			byte[] res = getResult(b);
+			int joined = 1;
+			while (res == null) {
+				if (joined++ == MAX_JOINED_BLOCKS || (pending.isEmpty() && !scanNext())) {
+					throw new IOException("BZip2 block is corrupted");
+				}
+				Block next = pending.removeFirst();
+				next.decompressed.cancel(true);
+				b = join(b, next);
+				res = decompress(b, blockSize);
+			}
+			block = res;
+			blockPos = 0;
+		}
+		return true;
+	}
+
+	private byte[] getResult(Block b) throws IOException {
+		try {
+			return b.decompressed.get();
+		} catch (InterruptedException e) {
+			throw new IOException("BZip2 decompression was interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IOException("BZip2 decompression failed", e.getCause());
+		}
+	}
+
+	private static Block join(Block a, Block b) {
+		BitBuffer buf = new BitBuffer(a.length + b.length);
+		buf.writeBits(a.data, a.startBit, a.endBit);
+		long aBits = buf.bits;
+		buf.writeBits(b.data, b.startBit, b.endBit);
+		Block r = new Block();
+		r.data = buf.data;
+		r.length = buf.data.length;
+		r.startBit = 0;
+		r.endBit = buf.bits;
+		// end of stream magics of the first block are inside of the joined data, only the second block could end it
+		for (int i = 0; i < b.dataEnds.size(); i++) {
+			r.dataEnds.add(aBits + b.dataEnds.get(i) - b.startBit);
+		}
+		return r;
+	}
+
+	private static byte[] decompress(Block b, int blockSize) {
+		// end of stream magic found first could be inside of the data, so all of them are tried and then the block end
+		for (int i = 0; i <= b.dataEnds.size(); i++) {
+			long dataEnd = i < b.dataEnds.size() ? b.dataEnds.get(i) : b.endBit;
+			byte[] res = decompressBlock(b, dataEnd, blockSize);
+			if (res == null && blockSize != '9') {
+				// concatenated stream could have larger blocks
+				res = decompressBlock(b, dataEnd, '9');
+			}
+			if (res != null) {
+				return res;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return decompressed block or null if the block is not valid
+	 */
+	private static byte[] decompressBlock(Block b, long dataEnd, int blockSize) {
+		if (dataEnd - b.startBit < MAGIC_BITS + 32) {
+			return null;
+		}
+		BitBuffer buf = new BitBuffer(b.length + 16);
+		buf.writeBits('h', 8);
+		buf.writeBits(blockSize, 8);
+		buf.writeBits(b.data, b.startBit, dataEnd);
+		buf.writeBits(EOS_MAGIC, MAGIC_BITS);
+		// stream of one block : combined crc is crc of the block
+		int crc = (int) readBits(b.data, b.startBit + MAGIC_BITS, 32);
+		buf.writeBits(crc, 32);
+		try {
+			CBZip2InputStream bzip = new CBZip2InputStream(new ByteArrayInputStream(buf.toByteArray()));
+			ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+			byte[] tmp = new byte[1 << 16];
+			int c = -1;
+			int r;
+			while ((r = bzip.read(tmp, 0, tmp.length)) != -1) {
+				for (int i = 0; i < r; i++) {
+					c = (c << 8) ^ CRC_TABLE[((c >>> 24) ^ tmp[i]) & 0xff];
+				}
+				out.write(tmp, 0, r);
+			}
+			if (~c != crc) {
+				return null;
+			}
+			return out.toByteArray();
+		} catch (IOException e) {
+			return null;
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	private static long readBits(byte[] data, long from, int n) {
+		long v = 0;
+		for (long p = from; p < from + n; p++) {
+			v = (v << 1) | ((data[(int) (p >>> 3)] >>> (7 - (p & 7))) & 1);
+		}
+		return v;
+	}
+
+	private void scan() throws IOException {
+		while (pending.size() < maxPendingBlocks && scanNext()) {
+		}
+	}
+
+	/**
+	 * Reads the stream till the next block is found and submits it to decompress
+	 * @return false if the stream is read
+	 */
+	private boolean scanNext() throws IOException {
+		int size = pending.size();
+		while (pending.size() == size) {
+			if (eof) {
+				if (current == null) {
+					return false;
+				}
+				finishBlock(scannedStart * 8 + scannedLength * 8l);
+				current = null;
+				return true;
+			}
+			int r = in.read(readBuffer);
+			if (r == -1) {
+				eof = true;
+				continue;
+			}
+			for (int i = 0; i < r; i++) {
+				int b = readBuffer[i] & 0xff;
+				if (scannedLength == scanned.length) {
+					byte[] ns = new byte[scanned.length * 2];
+					System.arraycopy(scanned, 0, ns, 0, scannedLength);
+					scanned = ns;
+				}
+				scanned[scannedLength++] = (byte) b;
+				window = (window << 8) | b;
+				if (MAGIC_FILTER[(int) ((window >>> 16) & 0xffff)]) {
+					checkMagic();
+				}
+			}
+		}
+		return true;
+	}
+
+	private void checkMagic() {
+		for (int s = 0; s < 8; s++) {
+			long w = (window >>> s) & MAGIC_MASK;
+			if (w == BLOCK_MAGIC || w == EOS_MAGIC) {
+				long magicStart = (scannedStart + scannedLength) * 8 - s - MAGIC_BITS;
+				if (magicStart < scannedStart * 8) {
+					// magic is across the start of the stream
+					continue;
+				}
+				if (w == EOS_MAGIC) {
+					if (current != null) {
+						current.dataEnds.add(magicStart - scannedStart * 8);
+					}
+				} else {
+					if (current != null) {
+						finishBlock(magicStart);
+					} else if (scannedStart == 0 && scanned[0] == 'h' && scanned[1] >= '1' && scanned[1] <= '9') {
+						blockSize = scanned[1];
+					}
+					// bytes of the magic are kept as the start of the next block
+					int first = (int) (magicStart / 8 - scannedStart);
+					byte[] ns = new byte[Math.max(1 << 20, scanned.length)];
+					System.arraycopy(scanned, first, ns, 0, scannedLength - first);
+					scannedLength -= first;
+					scannedStart += first;
+					scanned = ns;
+					current = new Block();
+					current.startBit = (int) (magicStart - scannedStart * 8);
+				}
+				return;
+			}
+		}
+	}
+
+	private void finishBlock(long endBit) {
+		final Block b = current;
+		final int blockSize = this.blockSize;
+		b.data = scanned;
+		b.length = scannedLength;
+		b.endBit = endBit - scannedStart * 8;
+		b.decompressed = executor.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() {
+				return decompress(b, blockSize);
+			}
+		});
+		pending.add(b);
+	}
+}
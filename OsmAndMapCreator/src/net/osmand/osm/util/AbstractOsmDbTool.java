@@ -0,0 +1,177 @@
+package net.osmand.osm.util;
+
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.util.Collection;
+
+import javax.xml.stream.XMLStreamException;
+
+import net.osmand.IProgress;
+import net.osmand.PlatformUtil;
+import net.osmand.data.preparation.DBDialect;
+import net.osmand.data.preparation.OsmDbAccessor;
+import net.osmand.data.preparation.OsmDbAccessor.OsmDbVisitor;
+import net.osmand.data.preparation.OsmDbAccessorContext;
+import net.osmand.data.preparation.OsmDbCreator;
+import net.osmand.impl.ConsoleProgressImplementation;
+import net.osmand.osm.edit.Entity;
+import net.osmand.osm.edit.Entity.EntityType;
+import net.osmand.osm.edit.Node;
+import net.osmand.osm.edit.Relation;
+import net.osmand.osm.edit.Way;
+import net.osmand.osm.io.OsmBaseStorage;
+import net.osmand.osm.io.OsmBaseStoragePbf;
+import net.osmand.osm.io.OsmStreamWriter;
+import net.osmand.osm.io.ParallelBZip2InputStream;
+
+import org.apache.commons.logging.Log;
+import org.xml.sax.SAXException;
+
+/**
+ * Base of the osm fix tools working in bounded memory. Input file is loaded into the temporary osm db
+ * (as for index creation), first pass over the db collects working set of the tool
+ * and second pass writes the result : entities are streamed from the db to the output and are not kept in memory.
+ * Output format is chosen by the name of the file (see {@link OsmStreamWriter}).
+ * The db keeps only ids, coordinates, members and tags, so entity info (version, timestamp, changeset, user)
+ * of the input is not written to the output.
+ */
+public abstract class AbstractOsmDbTool {
+	private static final Log log = PlatformUtil.getLog(AbstractOsmDbTool.class);
+
+	protected final DBDialect dialect = DBDialect.SQLITE;
+	protected IProgress progress = new ConsoleProgressImplementation();
+	protected OsmDbAccessor accessor;
+
+	public void process(File read, File write) throws IOException, SAXException, SQLException, XMLStreamException, InterruptedException {
+		File dbFile = new File(write.getAbsoluteFile().getParentFile(), write.getName() + ".tmp.odb");
+		if (dialect.databaseFileExists(dbFile)) {
+			dialect.removeDatabase(dbFile);
+		}
+		Object dbConn = dialect.getDatabaseConnection(dbFile.getAbsolutePath(), log);
+		try {
+			OsmDbCreator dbCreator = loadToDb(read, dbConn);
+			accessor = new OsmDbAccessor();
+			accessor.initDatabase(dbConn, dialect, dbCreator.getAllNodes(), dbCreator.getAllWays(), dbCreator.getAllRelations());
+			collect();
+			// entity info is not kept in the db, entities are written without it
+			OsmStreamWriter writer = new OsmStreamWriter(write, false);
+			try {
+				write(writer);
+			} finally {
+				writer.close();
+			}
+			accessor.closeReadingConnection();
+		} finally {
+			dialect.closeDatabase(dbConn);
+			dialect.removeDatabase(dbFile);
+		}
+	}
+
+	private OsmDbCreator loadToDb(File read, Object dbConn) throws IOException, SQLException, SAXException {
+		InputStream stream = new BufferedInputStream(new FileInputStream(read), 8192 * 4);
+		InputStream streamFile = stream;
+		try {
+			boolean pbfFile = false;
+			if (read.getName().endsWith(".bz2")) { //$NON-NLS-1$
+				if (stream.read() == 'B' && stream.read() == 'Z') {
+					stream = ParallelBZip2InputStream.create(stream);
+				}
+			} else if (read.getName().endsWith(".pbf")) { //$NON-NLS-1$
+				pbfFile = true;
+			}
+			OsmBaseStorage storage = pbfFile ? new OsmBaseStoragePbf() : new OsmBaseStorage();
+			OsmDbCreator dbCreator = new OsmDbCreator();
+			dbCreator.initDatabase(dialect, dbConn);
+			// entities are only put to the db, storage doesn't keep them
+			storage.getFilters().add(dbCreator);
+			if (pbfFile) {
+				((OsmBaseStoragePbf) storage).parseOSMPbf(stream, progress, false);
+			} else {
+				storage.parseOSM(stream, progress, streamFile, false);
+			}
+			dbCreator.finishLoading();
+			dialect.commitDatabase(dbConn);
+			return dbCreator;
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * First pass : collects working set of the tool
+	 */
+	protected abstract void collect() throws SQLException, InterruptedException;
+
+	/**
+	 * Second pass : writes result, nodes should be written before ways and ways before relations
+	 */
+	protected abstract void write(OsmStreamWriter writer) throws SQLException, InterruptedException, IOException, XMLStreamException;
+
+	protected void iterateWays(OsmDbVisitor visitor) throws SQLException, InterruptedException {
+		accessor.iterateOverEntities(progress, EntityType.WAY, visitor);
+	}
+
+	/**
+	 * Copies entities of the db to the output without changes
+	 */
+	protected void copyAllNodes(OsmStreamWriter writer) throws SQLException, InterruptedException {
+		accessor.iterateOverAllNodes(progress, new StreamVisitor(writer));
+	}
+
+	protected void copyAllWays(OsmStreamWriter writer) throws SQLException, InterruptedException {
+		accessor.iterateOverEntities(progress, EntityType.WAY, new StreamVisitor(writer));
+	}
+
+	protected void copyAllRelations(OsmStreamWriter writer) throws SQLException, InterruptedException {
+		accessor.iterateOverEntities(progress, EntityType.RELATION, new StreamVisitor(writer) {
+			@Override
+			public void iterateEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException {
+				// members without member entities
+				accessor.loadEntityRelation((Relation) e, 0);
+				super.iterateEntity(e, ctx);
+			}
+		});
+	}
+
+	/**
+	 * Writes nodes of the ways (every node once) and then ways themselves
+	 */
+	protected void writeWaysWithNodes(OsmStreamWriter writer, Collection<Way> ways) throws IOException, XMLStreamException {
+		TLongHashSet writtenNodes = new TLongHashSet();
+		for (Way w : ways) {
+			for (Node n : w.getNodes()) {
+				if (n != null && writtenNodes.add(n.getId())) {
+					writer.writeEntity(n, null);
+				}
+			}
+		}
+		for (Way w : ways) {
+			writer.writeEntity(w, null);
+		}
+	}
+
+	private static class StreamVisitor implements OsmDbVisitor {
+		private final OsmStreamWriter writer;
+
+		public StreamVisitor(OsmStreamWriter writer) {
+			this.writer = writer;
+		}
+
+		@Override
+		public void iterateEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException {
+			try {
+				writer.writeEntity(e, null);
+			} catch (IOException ex) {
+				throw new IllegalStateException(ex);
+			} catch (XMLStreamException ex) {
+				throw new IllegalStateException(ex);
+			}
+		}
+	}
+}
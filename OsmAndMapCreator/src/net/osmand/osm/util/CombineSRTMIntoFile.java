@@ -7,12 +7,21 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -26,11 +35,38 @@ import net.osmand.util.Algorithms;
 
 import org.xml.sax.SAXException;
 
+/**
+ * Combines per degree SRTM files into the files of the countries. Countries are processed by several threads
+ * (args[2], 1 by default), each country extracts its tiles into its own work directory and holds part of the
+ * temporary disk budget (args[3] in MB) while they are there, so large countries don't fill the disk together.
+ */
 public class CombineSRTMIntoFile {
 
+	private static final int DEFAULT_DISK_BUDGET_MB = 64 * 1024;
+
+	private final File directoryWithSRTMFiles;
+	private final File directoryWithTargetFiles;
+	private final int threads;
+	private final int diskBudget;
+	// fair semaphore keeps the order of countries : a small country doesn't overtake waiting large country
+	private final Semaphore disk;
+	// extraction of tiles and combining of parts (tasks don't wait for other tasks)
+	private final ExecutorService partsExecutor;
+
+	public CombineSRTMIntoFile(File directoryWithSRTMFiles, File directoryWithTargetFiles, int threads, int diskBudget) {
+		this.directoryWithSRTMFiles = directoryWithSRTMFiles;
+		this.directoryWithTargetFiles = directoryWithTargetFiles;
+		this.threads = Math.max(1, threads);
+		this.diskBudget = Math.max(1, diskBudget);
+		this.disk = new Semaphore(this.diskBudget, true);
+		this.partsExecutor = Executors.newFixedThreadPool(this.threads);
+	}
+
 	public static void main(String[] args) throws IOException, SAXException, XMLStreamException {
 		File directoryWithSRTMFiles = new File(args[0]);
 		File directoryWithTargetFiles = new File(args[1]);
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+		int diskBudget = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_DISK_BUDGET_MB;
 //		File directoryWithSRTMFiles = null;
 //		File directoryWithTargetFiles = null;
 //		OsmandRegions or = new OsmandRegions();
@@ -38,6 +74,7 @@ public class CombineSRTMIntoFile {
 //		or.cacheAllCountries();
 
 		final List<RegionCountry> rcs = RegionsRegistryConverter.parseRegions(false);
+		List<RegionCountry[]> countries = new ArrayList<RegionCountry[]>();
 		for(RegionCountry rc : rcs) {
 //			final String stdname = rc.name.toLowerCase() + '_' + rc.continentName.toLowerCase();
 //			if(!or.containsCountry(stdname)){
@@ -45,15 +82,48 @@ public class CombineSRTMIntoFile {
 //			}
 			if (rc.getTileSize() > 35 && rc.getSubRegions().size() > 0) {
 				for(RegionCountry c : rc.getSubRegions()) {
-					process(c, rc, directoryWithSRTMFiles, directoryWithTargetFiles);
+					countries.add(new RegionCountry[] { c, rc });
 				}
 			} else {
-				process(rc, null, directoryWithSRTMFiles, directoryWithTargetFiles);
+				countries.add(new RegionCountry[] { rc, null });
+			}
+		}
+		new CombineSRTMIntoFile(directoryWithSRTMFiles, directoryWithTargetFiles, threads, diskBudget).processCountries(countries);
+	}
+
+	/**
+	 * @param countries pairs of country and its parent (null if country is not a sub region)
+	 */
+	public void processCountries(List<RegionCountry[]> countries) {
+		ExecutorService service = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (final RegionCountry[] c : countries) {
+				futures.add(service.submit(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							process(c[0], c[1]);
+						} catch (IOException e) {
+							System.err.println("!! Failed to process " + c[0].name + " : " + e.getMessage());
+							e.printStackTrace();
+						}
+					}
+				}));
 			}
+			for (Future<?> f : futures) {
+				getResult(f);
+			}
+		} catch (IOException e) {
+			// process() doesn't throw it out of the task
+			throw new IllegalStateException(e);
+		} finally {
+			service.shutdown();
+			partsExecutor.shutdown();
 		}
 	}
 
-	private static void process(RegionCountry country, RegionCountry parent, File directoryWithSRTMFiles, File directoryWithTargetFiles) throws IOException {
+	private void process(RegionCountry country, RegionCountry parent) throws IOException {
 		String continentName = country.continentName;
 		if(parent != null){
 			continentName = parent.continentName;
@@ -106,64 +176,145 @@ public class CombineSRTMIntoFile {
 				}
 			}
 		}
-		final File work = new File(directoryWithTargetFiles, "work");
+		// countries share tiles, so every country extracts them into its own directory
+		final File work = new File(new File(directoryWithTargetFiles, "work"), name);
 		System.out.println("Process "+ name);
-		Map<File, String> mp = new HashMap<File, String>();
+		// sizes are known from the zip directories, so disk is reserved before anything is extracted
+		Map<String, File> zips = new LinkedHashMap<String, File>();
 		long length = 0;
 		for(String file : srtmFileNames) {
 			final File fl = new File(directoryWithSRTMFiles, file + ".zip");
 			if(!fl.exists()) {
 				System.err.println("!! Missing " + name + " because " + file + " doesn't exist");
 			} else {
-				ZipFile zipFile = new ZipFile(fl);
-				Enumeration<? extends ZipEntry> entries = zipFile.entries();
-				if (entries.hasMoreElements()) {
-					ZipEntry entry = entries.nextElement();
-					File entryDestination = new File(work, file);
-					entryDestination.getParentFile().mkdirs();
-					InputStream in = zipFile.getInputStream(entry);
-					OutputStream out = new FileOutputStream(entryDestination);
-					Algorithms.streamCopy(in, out);
-					in.close();
-					out.close();
-					zipFile.close();
-					length += entryDestination.length();
-					mp.put(entryDestination, null);
-				} else {
+				long size = getEntrySize(fl);
+				if (size < 0) {
 					System.err.println("!! Can't process " + name + " because " + file + " nothing found");
 					return;
 				}
+				length += size;
+				zips.put(file, fl);
 			}
 		}
-		if(length > Integer.MAX_VALUE) {
-			splitAndCombineParts(getFile(directoryWithTargetFiles, continentSuffix, countryName, "-NE"), NESrtmFileNames, work);
-			splitAndCombineParts(getFile(directoryWithTargetFiles, continentSuffix, countryName, "-NW"), NWSrtmFileNames, work);
-			splitAndCombineParts(getFile(directoryWithTargetFiles, continentSuffix, countryName, "-SE"), SESrtmFileNames, work);
-			splitAndCombineParts(getFile(directoryWithTargetFiles, continentSuffix, countryName, "-SW"), SWSrtmFileNames, work);
-		} else {
-			BinaryInspector.combineParts(targetFile, mp);
+		// extracted tiles and the result are on the disk together
+		int budget = (int) Math.min(diskBudget, Math.max(1, (2 * length) >> 20));
+		disk.acquireUninterruptibly(budget);
+		try {
+			Map<File, String> mp = extractTiles(zips, work);
+			if(length > Integer.MAX_VALUE) {
+				List<Future<?>> parts = new ArrayList<Future<?>>();
+				parts.add(splitAndCombineParts(getFile(directoryWithTargetFiles, continentSuffix, countryName, "-NE"), NESrtmFileNames, work));
+				parts.add(splitAndCombineParts(getFile(directoryWithTargetFiles, continentSuffix, countryName, "-NW"), NWSrtmFileNames, work));
+				parts.add(splitAndCombineParts(getFile(directoryWithTargetFiles, continentSuffix, countryName, "-SE"), SESrtmFileNames, work));
+				parts.add(splitAndCombineParts(getFile(directoryWithTargetFiles, continentSuffix, countryName, "-SW"), SWSrtmFileNames, work));
+				for (Future<?> f : parts) {
+					getResult(f);
+				}
+			} else {
+				BinaryInspector.combineParts(targetFile, mp);
+			}
+		} finally {
+			for(String file : srtmFileNames) {
+				final File fl = new File(work, file);
+				fl.delete();
+			}
+			work.delete();
+			disk.release(budget);
 		}
-		for(String file : srtmFileNames) {
-			final File fl = new File(work, file);
-			fl.delete();
+
+	}
+
+	/**
+	 * @return uncompressed size of the first entry of the zip or -1 if zip is empty
+	 */
+	private static long getEntrySize(File zip) throws IOException {
+		ZipFile zipFile = new ZipFile(zip);
+		try {
+			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			if (!entries.hasMoreElements()) {
+				return -1;
+			}
+			ZipEntry entry = entries.nextElement();
+			// size could be unknown, compressed size is its lower estimate
+			return entry.getSize() >= 0 ? entry.getSize() : Math.max(0, entry.getCompressedSize());
+		} finally {
+			zipFile.close();
 		}
+	}
+
+	private Map<File, String> extractTiles(Map<String, File> zips, final File work) throws IOException {
+		work.mkdirs();
+		List<Future<File>> futures = new ArrayList<Future<File>>();
+		for (final Entry<String, File> e : zips.entrySet()) {
+			futures.add(partsExecutor.submit(new Callable<File>() {
+				@Override
+				public File call() throws IOException {
+					return extractTile(e.getValue(), new File(work, e.getKey()));
+				}
+			}));
+		}
+		Map<File, String> mp = new HashMap<File, String>();
+		for (Future<File> f : futures) {
+			mp.put(getResult(f), null);
+		}
+		return mp;
+	}
+
+	private static File extractTile(File zip, File entryDestination) throws IOException {
+		ZipFile zipFile = new ZipFile(zip);
+		try {
+			ZipEntry entry = zipFile.entries().nextElement();
+			InputStream in = zipFile.getInputStream(entry);
+			OutputStream out = new FileOutputStream(entryDestination);
+			try {
+				Algorithms.streamCopy(in, out);
+			} finally {
+				in.close();
+				out.close();
+			}
+		} finally {
+			zipFile.close();
+		}
+		return entryDestination;
+	}
 
+	private static <T> T getResult(Future<T> f) throws IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
 	}
 
 	private static File getFile(File directoryWithTargetFiles, String continentSuffix, String countryName, String middle) {
 			return new File(directoryWithTargetFiles, Algorithms.capitalizeFirstLetterAndLowercase(countryName) + middle + continentSuffix.toLowerCase());
 	}
 
-	private static void splitAndCombineParts(File targetFile, Set<String> srtmFileNames, File work) throws IOException {
-		if(targetFile.exists()) {
-			System.out.println("Already processed "+ targetFile.getName());
-			return;
-		}
-		Map<File, String> mp = new HashMap<File, String>();
+	private Future<?> splitAndCombineParts(final File targetFile, Set<String> srtmFileNames, File work) {
+		final Map<File, String> mp = new HashMap<File, String>();
 		for(String s : srtmFileNames) {
-			mp.put(new File(work, s), null);
+			File f = new File(work, s);
+			// missing tiles were not extracted
+			if (f.exists()) {
+				mp.put(f, null);
+			}
 		}
-		BinaryInspector.combineParts(targetFile, mp);
+		return partsExecutor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				if(targetFile.exists()) {
+					System.out.println("Already processed "+ targetFile.getName());
+					return null;
+				}
+				BinaryInspector.combineParts(targetFile, mp);
+				return null;
+			}
+		});
 	}
 
 	private static String getFileName(int lon, int lat) {
@@ -1,11 +1,9 @@
 package net.osmand.osm.util;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -13,22 +11,20 @@ import java.util.Map;
 import javax.xml.stream.XMLStreamException;
 
 import net.osmand.data.LatLon;
-import net.osmand.impl.ConsoleProgressImplementation;
+import net.osmand.data.preparation.OsmDbAccessor.OsmDbVisitor;
+import net.osmand.data.preparation.OsmDbAccessorContext;
 import net.osmand.osm.edit.Entity;
-import net.osmand.osm.edit.Entity.EntityId;
-import net.osmand.osm.edit.Entity.EntityType;
 import net.osmand.osm.edit.Node;
 import net.osmand.osm.edit.OSMSettings.OSMTagKey;
 import net.osmand.osm.edit.OsmMapUtils;
 import net.osmand.osm.edit.Way;
-import net.osmand.osm.io.OsmBaseStorage;
-import net.osmand.osm.io.OsmStorageWriter;
+import net.osmand.osm.io.OsmStreamWriter;
 
 import org.xml.sax.SAXException;
 
-public class FixAdminLevel0 {
+public class FixAdminLevel0 extends AbstractOsmDbTool {
 	
-	public static void main(String[] args) throws IOException, SAXException, XMLStreamException {
+	public static void main(String[] args) throws IOException, SAXException, XMLStreamException, SQLException, InterruptedException {
 		String fileToRead = args != null && args.length > 0 ? args[0] : null; 
 		if(fileToRead == null) {
 			fileToRead = "/home/victor/projects/OsmAnd/download/basemap/10m_admin_level.osm";
@@ -48,24 +44,39 @@ public class FixAdminLevel0 {
 		
 		write.createNewFile();
 		
-		process(read, write);
+		new FixAdminLevel0().process(read, write);
 	}
 	
-	private static void process(File read, File write) throws  IOException, SAXException, XMLStreamException {
-		OsmBaseStorage storage = new OsmBaseStorage();
-		storage.parseOSM(new FileInputStream(read), new ConsoleProgressImplementation());
-		
-		Map<EntityId, Entity> entities = new HashMap<EntityId, Entity>( storage.getRegisteredEntities());
-		long id = -1;
-		for(EntityId e : entities.keySet()){
-			Entity es = storage.getRegisteredEntities().get(e);
-			if(e.getId() < id){
-				id = e.getId() - 1;
+	private Map<String, List<Way>> countryNames = new LinkedHashMap<String, List<Way>>();
+	private long id = -1;
+	
+	@Override
+	protected void collect() throws SQLException, InterruptedException {
+		iterateWays(new OsmDbVisitor() {
+			@Override
+			public void iterateEntity(Entity e, OsmDbAccessorContext ctx) {
+				processWay((Way) e);
 			}
-			if(e.getType() == EntityType.WAY){
-				processWay((Way) es);
+		});
+	}
+	
+	@Override
+	protected void write(final OsmStreamWriter writer) throws SQLException, InterruptedException, IOException, XMLStreamException {
+		accessor.iterateOverAllNodes(progress, new OsmDbVisitor() {
+			@Override
+			public void iterateEntity(Entity e, OsmDbAccessorContext ctx) {
+				if (e.getId() < id) {
+					id = e.getId() - 1;
+				}
+				try {
+					writer.writeEntity(e, null);
+				} catch (IOException ex) {
+					throw new IllegalStateException(ex);
+				} catch (XMLStreamException ex) {
+					throw new IllegalStateException(ex);
+				}
 			}
-		}
+		});
 		for(String country : countryNames.keySet()){
 			List<Way> list = countryNames.get(country);
 			for(Way w : list){
@@ -74,18 +85,16 @@ public class FixAdminLevel0 {
 				Node node = new Node(latLon.getLatitude(), latLon.getLongitude(), id--);
 				node.putTag("name", country);
 				node.putTag("place", "country");
-				storage.getRegisteredEntities().put(EntityId.valueOf(node), node);
+				writer.writeEntity(node, null);
 			}
 		}
-		OsmStorageWriter writer = new OsmStorageWriter();
-		writer.saveStorage(new FileOutputStream(write), storage, null, true);
+		copyAllWays(writer);
+		copyAllRelations(writer);
 	}
 
 	
 	
-	private static Map<String, List<Way>> countryNames = new LinkedHashMap<String, List<Way>>();
-	
-	private static void processWay(Way way) {
+	private void processWay(Way way) {
 		if("0".equals(way.getTag("admin_level")) && way.getTag(OSMTagKey.NAME) != null){
 			String name = way.getTag(OSMTagKey.NAME);
 			if(way.getNodes().size() < 20){
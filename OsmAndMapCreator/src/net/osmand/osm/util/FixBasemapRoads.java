@@ -3,28 +3,26 @@ package net.osmand.osm.util;
 import gnu.trove.list.array.TLongArrayList;
 import gnu.trove.map.hash.TLongObjectHashMap;
 import net.osmand.data.LatLon;
-import net.osmand.impl.ConsoleProgressImplementation;
+import net.osmand.data.preparation.OsmDbAccessor.OsmDbVisitor;
+import net.osmand.data.preparation.OsmDbAccessorContext;
 import net.osmand.osm.edit.Entity;
-import net.osmand.osm.edit.Entity.EntityId;
-import net.osmand.osm.edit.Entity.EntityType;
 import net.osmand.osm.edit.Node;
 import net.osmand.osm.edit.OsmMapUtils;
 import net.osmand.osm.edit.Way;
-import net.osmand.osm.io.OsmBaseStorage;
-import net.osmand.osm.io.OsmStorageWriter;
+import net.osmand.osm.io.OsmStreamWriter;
 import net.osmand.util.MapUtils;
-import org.apache.tools.bzip2.CBZip2InputStream;
 import org.xml.sax.SAXException;
 
 import javax.xml.stream.XMLStreamException;
 import java.io.*;
+import java.sql.SQLException;
 import java.util.*;
 
-public class FixBasemapRoads {
+public class FixBasemapRoads extends AbstractOsmDbTool {
     private static float MINIMAL_DISTANCE= 500;
     private static float MAXIMAL_DISTANCE_CUT = 3000;
 	
-	public static void main(String[] args) throws IOException, SAXException, XMLStreamException {
+	public static void main(String[] args) throws IOException, SAXException, XMLStreamException, SQLException, InterruptedException {
 		String fileToRead = args != null && args.length > 0 ? args[0] : null; 
 		if(fileToRead == null) {
 			fileToRead = "/home/victor/projects/osmand/temp/line_railway_blr.osm";
@@ -47,31 +45,22 @@ public class FixBasemapRoads {
         new FixBasemapRoads().process(read, write);
 	}
 	
-	private void process(File read, File write) throws  IOException, SAXException, XMLStreamException {
-		OsmBaseStorage storage = new OsmBaseStorage();
-        InputStream stream = new BufferedInputStream(new FileInputStream(read), 8192 * 4);
-        InputStream streamFile = stream;
-        long st = System.currentTimeMillis();
-        if (read.getName().endsWith(".bz2")) { //$NON-NLS-1$
-            if (stream.read() != 'B' || stream.read() != 'Z') {
-//				throw new RuntimeException("The source stream must start with the characters BZ if it is to be read as a BZip2 stream."); //$NON-NLS-1$
-            } else {
-                stream = new CBZip2InputStream(stream);
-            }
-        }
-		storage.parseOSM(stream, new ConsoleProgressImplementation(), streamFile, true);
-		
-		Map<EntityId, Entity> entities = new HashMap<EntityId, Entity>( storage.getRegisteredEntities());
-		for(EntityId e : entities.keySet()){
-			Entity es = storage.getRegisteredEntities().get(e);
-			if(e.getType() == EntityType.WAY){
-				processWay((Way) es);
+	private List<Way> toWrite = new ArrayList<Way>();
+
+	@Override
+	protected void collect() throws SQLException, InterruptedException {
+		iterateWays(new OsmDbVisitor() {
+			@Override
+			public void iterateEntity(Entity e, OsmDbAccessorContext ctx) {
+				processWay((Way) e);
 			}
-		}
-        List<EntityId> toWrite = new ArrayList<EntityId>();
+		});
 		processRegion(toWrite);
-		OsmStorageWriter writer = new OsmStorageWriter();
-		writer.saveStorage(new FileOutputStream(write), storage, toWrite, true);
+	}
+
+	@Override
+	protected void write(OsmStreamWriter writer) throws IOException, XMLStreamException {
+		writeWaysWithNodes(writer, toWrite);
 	}
 
     public static long convertLatLon(LatLon l) {
@@ -116,10 +105,6 @@ public class FixBasemapRoads {
             updateData( );
         }
 
-        EntityId getFirstWayId() {
-            return EntityId.valueOf(combinedWays.get(0));
-        }
-
         Way getFirstWay(){
             return combinedWays.get(0);
         }
@@ -291,7 +276,7 @@ public class FixBasemapRoads {
 
 
     // TODO try reverse?
-    private void processRegion(List<EntityId> toWrite) {
+    private void processRegion(List<Way> toWrite) {
         for(String ref : roadInfoMap.keySet()){
             RoadInfo ri = roadInfoMap.get(ref);
             // combine unique roads
@@ -309,7 +294,7 @@ public class FixBasemapRoads {
             for(RoadLine ls :  ri.roadLines) {
                 if(ls.distance > MINIMAL_DISTANCE ){
                     ls.combineWaysIntoOneWay();
-                    toWrite.add(ls.getFirstWayId());
+                    toWrite.add(ls.getFirstWay());
                 }
             }
         }
@@ -1,31 +1,29 @@
 package net.osmand.osm.util;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.sql.SQLException;
 import java.util.*;
 
 import javax.xml.stream.XMLStreamException;
 
 import net.osmand.data.LatLon;
-import net.osmand.impl.ConsoleProgressImplementation;
+import net.osmand.data.preparation.OsmDbAccessor.OsmDbVisitor;
+import net.osmand.data.preparation.OsmDbAccessorContext;
+import net.osmand.osm.LineChainMerger;
 import net.osmand.osm.edit.Entity;
-import net.osmand.osm.edit.Entity.EntityId;
-import net.osmand.osm.edit.Entity.EntityType;
 import net.osmand.osm.edit.Node;
 import net.osmand.osm.edit.OSMSettings.OSMTagKey;
 import net.osmand.osm.edit.OsmMapUtils;
 import net.osmand.osm.edit.Way;
-import net.osmand.osm.io.OsmBaseStorage;
-import net.osmand.osm.io.OsmStorageWriter;
+import net.osmand.osm.io.OsmStreamWriter;
 import net.osmand.util.MapUtils;
 
 import org.xml.sax.SAXException;
 
-public class FixLinkedCoastline {
+public class FixLinkedCoastline extends AbstractOsmDbTool {
 	
-	public static void main(String[] args) throws IOException, SAXException, XMLStreamException {
+	public static void main(String[] args) throws IOException, SAXException, XMLStreamException, SQLException, InterruptedException {
 		String fileToRead = args != null && args.length > 0 ? args[0] : null; 
 		if(fileToRead == null) {
 			fileToRead = "/home/victor/projects/osmand/data/basemap/ready/10m_coastline.osm";
@@ -45,53 +43,49 @@ public class FixLinkedCoastline {
 		
 		write.createNewFile();
 		
-		process(read, write);
+		new FixLinkedCoastline().process(read, write);
 	}
 	
-	private static void process(File read, File write) throws  IOException, SAXException, XMLStreamException {
-		OsmBaseStorage storage = new OsmBaseStorage();
-		storage.parseOSM(new FileInputStream(read), new ConsoleProgressImplementation());
-		
-		Map<EntityId, Entity> entities = new HashMap<EntityId, Entity>( storage.getRegisteredEntities());
-		List<EntityId> toWrite = new ArrayList<EntityId>(); 
-		
-		for(EntityId e : entities.keySet()){
-			if(e.getType() == EntityType.WAY){
-				Entity oldWay = storage.getRegisteredEntities().remove(e);
-				List<Way> result = processWay((Way) oldWay);
-				alignAndAddtoStorage(storage, toWrite, result);
+	// way id -> last version of the way to write
+	private Map<Long, Way> toWrite = new LinkedHashMap<Long, Way>();
+	
+	@Override
+	protected void collect() throws SQLException, InterruptedException {
+		iterateWays(new OsmDbVisitor() {
+			@Override
+			public void iterateEntity(Entity e, OsmDbAccessorContext ctx) {
+				List<Way> result = processWay((Way) e);
+				alignAndAdd(result);
 			}
-		}
+		});
 		
 		System.out.println("ERROR Ways : ");
 		int errors = 0;
-		for(List<Way> w : endWays.values()){
+		for (int chain : chains.getOpenChains()) {
+			List<Way> w = getChainWays(chain);
 			Way way = w.get(0);
 			Way lway = w.get(w.size() - 1);
 			LatLon first = way.getNodes().get(0).getLatLon();
 			LatLon last = lway.getNodes().get(lway.getNodes().size() - 1).getLatLon();
 			double dist = MapUtils.getDistance(first, last);
 			if(dist < 500000){
-				alignAndAddtoStorage(storage, toWrite, w);
+				alignAndAdd(w);
 			} else {
 				errors++;
 				String val = "First " +  first+ "Last " +  last + " id " + way.getId() + " dist " + MapUtils.getDistance(first, last) + " m";
 				System.out.println("Ways in chain - " + w.size() + " - " + val);
 			}
 		}
-		System.out.println("Fixed errors : " + ERRORS +", errors not fixed : " + errors );
-		OsmStorageWriter writer = new OsmStorageWriter();
-        /*Set<Long> ls = new HashSet<Long>();
-        for(EntityId e : toWrite) {
-            if(!ls.add(e.getId())) {
-                System.out.println("!!" + e.getId());
-            }
-        }*/
-		writer.saveStorage(new FileOutputStream(write), storage, toWrite, true);
+		System.out.println("Fixed errors : " + (ERRORS + chains.getReversals()) +", errors not fixed : " + errors );
+	}
+	
+	@Override
+	protected void write(OsmStreamWriter writer) throws IOException, XMLStreamException {
+		writeWaysWithNodes(writer, toWrite.values());
 	}
 
-	private static void alignAndAddtoStorage(OsmBaseStorage storage, List<EntityId> toWrite, List<Way> result) {
-		// align start/end node and add to strage
+	private void alignAndAdd(List<Way> result) {
+		// align start/end node and add to result
 		for (int i = 0; i < result.size(); i++) {
 			Node nextStart;
 			if (i < result.size() - 1) {
@@ -107,10 +101,7 @@ public class FixLinkedCoastline {
 			if("land_coastline".equals(w.getTag(OSMTagKey.NATURAL))) {
 				w.putTag(OSMTagKey.NATURAL.getValue(), "coastline");
 			}
-
-			EntityId eId = EntityId.valueOf(w);
-			storage.getRegisteredEntities().put(eId, w);
-			toWrite.add(eId);
+			toWrite.put(w.getId(), w);
 		}
 	}
 	
@@ -127,10 +118,11 @@ public class FixLinkedCoastline {
 		return ((long)MapUtils.getTileNumberY(21, l.getLatitude()) << 32L) + ((long)MapUtils.getTileNumberX(21, lon));
 	}
 	
-	private static Map<Long, List<Way>> startWays = new LinkedHashMap<Long, List<Way>>();
-	private static Map<Long, List<Way>> endWays = new LinkedHashMap<Long, List<Way>>();
-	private static Map<Way, LatLon> duplicatedSimpleIslands = new LinkedHashMap<Way, LatLon>();
-	private static int ERRORS = 0;
+	private LineChainMerger chains = new LineChainMerger();
+	// segment id in chains -> way
+	private List<Way> segmentWays = new ArrayList<Way>();
+	private Map<Way, LatLon> duplicatedSimpleIslands = new LinkedHashMap<Way, LatLon>();
+	private int ERRORS = 0;
 	
 	private static Way revertWay(Way way){
 		ArrayList<net.osmand.osm.edit.Node> revNodes = new ArrayList<net.osmand.osm.edit.Node>(way.getNodes());
@@ -145,26 +137,25 @@ public class FixLinkedCoastline {
 		return ws;
 	}
 	
-	private static boolean pointContains(long start, long end){
-		return startWays.containsKey(start) || endWays.containsKey(end) || startWays.containsKey(end) || endWays.containsKey(start);
-	}
-	
 	private static long lastPoint(Way w){
 		return calcCoordinate(w.getNodes().get(w.getNodes().size() - 1));
 	}
-	private static long lastPoint(List<Way> w){
-		return lastPoint(w.get(w.size() - 1));
-	}
-	
-	private static long firstPoint(List<Way> w){
-		return firstPoint(w.get(0));
-	}
 	
 	private static long firstPoint(Way way) {
 		return calcCoordinate(way.getNodes().get(0));
 	}
 
-	private static List<Way> processWay(Way way) {
+	private List<Way> getChainWays(int chain) {
+		int[] segments = chains.getChainSegments(chain);
+		List<Way> ways = new ArrayList<Way>(segments.length);
+		for (int s : segments) {
+			Way w = segmentWays.get(s);
+			ways.add(chains.isReversed(s) ? revertWay(w) : w);
+		}
+		return ways;
+	}
+
+	private List<Way> processWay(Way way) {
 		// F Lat 8.27039215702537 Lon 73.0661727222713L Lat 8.27039215702537 Lon 73.0661727222713 id -1211228
 		long start = firstPoint(way);
 		long end = lastPoint(way);
@@ -184,43 +175,11 @@ public class FixLinkedCoastline {
 			}
 			duplicatedSimpleIslands.put(way, c);
 		} else {
-			List<Way> list = new ArrayList<Way>();
-			list.add(way);
-			
 //			System.out.println(val);
-			
-			while (pointContains(start, end)) {
-				if (startWays.containsKey(start) || endWays.containsKey(end)) {
-					ERRORS++;
-					Collections.reverse(list);
-					for (int i = 0; i < list.size(); i++) {
-						list.set(i, revertWay(list.get(i)));
-					}
-					long t = start;
-					start = end;
-					end = t;
-				}
-				if (endWays.containsKey(start)) {
-					List<Way> tlist = endWays.remove(start);
-					startWays.remove(firstPoint(tlist));
-					tlist.addAll(list);
-					list = tlist;
-					
-				} else if (startWays.containsKey(end)) {
-					List<Way> tlist = startWays.remove(end);
-					endWays.remove(lastPoint(tlist));
-					list.addAll(tlist);
-				}
-				start = firstPoint(list);
-				end = lastPoint(list);
-				if (start == end) {
-					cycle = list;
-					break;
-				} 
-			}
-			if (cycle == null) {
-				startWays.put(start, list);
-				endWays.put(end, list);
+			segmentWays.add(way);
+			int ring = chains.addSegment(start, end);
+			if (ring != LineChainMerger.NO_RING) {
+				cycle = getChainWays(ring);
 			}
 		}
 		
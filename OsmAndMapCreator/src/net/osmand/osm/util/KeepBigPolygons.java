@@ -16,12 +16,12 @@ import net.osmand.osm.edit.Entity.EntityType;
 import net.osmand.osm.io.IOsmStorageFilter;
 import net.osmand.osm.io.OsmBaseStorage;
 import net.osmand.osm.io.OsmBaseStoragePbf;
+import net.osmand.osm.io.ParallelBZip2InputStream;
 import net.osmand.osm.io.OsmStorageWriter;
 import net.osmand.swing.DataExtractionSettings;
 import net.osmand.swing.Messages;
 import net.osmand.util.MapUtils;
 import org.apache.commons.logging.Log;
-import org.apache.tools.bzip2.CBZip2InputStream;
 import org.xml.sax.SAXException;
 
 import javax.xml.stream.XMLStreamException;
@@ -66,7 +66,7 @@ public class KeepBigPolygons {
             if (stream.read() != 'B' || stream.read() != 'Z') {
 //				throw new RuntimeException("The source stream must start with the characters BZ if it is to be read as a BZip2 stream."); //$NON-NLS-1$
             } else {
-                stream = new CBZip2InputStream(stream);
+                stream = ParallelBZip2InputStream.create(stream);
             }
         } else if (readFile.getName().endsWith(".pbf")) { //$NON-NLS-1$
             pbfFile = true;
@@ -171,12 +171,13 @@ public class KeepBigPolygons {
 	}
 
 	private void writeStorage(String write, int ind, OsmBaseStorage storage) throws IOException, XMLStreamException {
-		if(write.endsWith(".osm")) {
+		String ext = write.endsWith(".pbf") ? ".pbf" : ".osm";
+		if(write.endsWith(ext)) {
 			write = write.substring(0, write.length() - 4);
 		}
-		write =  write + "_" + ind + ".osm";
+		write =  write + "_" + ind + ext;
 		OsmStorageWriter writer = new OsmStorageWriter();
-		writer.saveStorage(new FileOutputStream(write), storage, null, true);
+		writer.saveStorage(new File(write), storage, null, true);
 		storage.getRegisteredEntities().clear();
 	}
 }
@@ -8,7 +8,6 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
@@ -100,7 +99,7 @@ public class MinskTransReader {
 		
 		OsmBaseStorage storage = filterBusStops(stopsMap, routes);
 		OsmStorageWriter writer = new OsmStorageWriter();
-		writer.saveStorage(new FileOutputStream(pathToSave), storage, null, true);
+		writer.saveStorage(new File(pathToSave), storage, null, true);
 
 	}
 
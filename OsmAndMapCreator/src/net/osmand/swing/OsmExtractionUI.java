@@ -8,9 +8,7 @@ import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.sql.SQLException;
@@ -52,7 +50,6 @@ import net.osmand.swing.MapPanel.MapSelectionArea;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.tools.bzip2.CBZip2OutputStream;
 import org.xml.sax.SAXException;
 import org.xmlpull.v1.XmlPullParserException;
 
@@ -571,17 +568,7 @@ public class OsmExtractionUI implements IMapLocationListener {
 				@Override
 				public void run() {
 					try {
-						OutputStream output = new FileOutputStream(f);
-						try {
-							if (f.getName().endsWith(".bz2")) { //$NON-NLS-1$
-								output.write('B');
-								output.write('Z');
-								output = new CBZip2OutputStream(output);
-							}
-							writer.saveStorage(output, storage, null, false);
-						} finally {
-							output.close();
-						}
+						writer.saveStorage(f, storage, null, false);
 					} catch (IOException e) {
 						throw new IllegalArgumentException(e);
 					} catch (XMLStreamException e) {